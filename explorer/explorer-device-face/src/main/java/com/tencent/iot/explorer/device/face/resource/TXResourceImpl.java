@@ -6,6 +6,7 @@ import com.tencent.iot.explorer.device.face.data_template.TXFaceKitTemplate;
 import com.tencent.iot.hub.device.java.core.common.Status;
 import com.tencent.iot.hub.device.java.core.device.CA;
 import com.tencent.iot.hub.device.java.core.mqtt.TXMqttConstants;
+import com.tencent.iot.hub.device.java.core.mqtt.TXProgressReporter;
 
 import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
@@ -362,6 +363,17 @@ public class TXResourceImpl {
         return status;
     }
 
+    /**
+     * 下载进度在连接的 {@link TXProgressReporter} 中按资源合并
+     *
+     * @param resourceName 资源名
+     * @param version 版本号
+     * @return 进度上报的任务标识
+     */
+    private String progressKey(String resourceName, String version) {
+        return RESOURCE_UP_TOPIC + "#" + resourceName + "#" + version;
+    }
+
     /**
      * 上报下载进度消息到后台服务器。
      *
@@ -492,6 +504,7 @@ public class TXResourceImpl {
             return;
         }
         mDownloadThreadRunning = true;
+        final TXProgressReporter.Sender progressSender = (percent, ver) -> reportProgressMessage(RESOURCE_UP_TOPIC, resourceName, percent, ver);
         mDownloadThread = new Thread(new Runnable() {
             @Override
             public void run() {
@@ -543,9 +556,11 @@ public class TXResourceImpl {
                                     mCallback.onDownloadProgress(resourceName, percent, version);
                                 }
                                 LOG.debug("download " + downloadBytes + " bytes. percent:" + percent);
-                                reportProgressMessage(RESOURCE_UP_TOPIC, resourceName, percent, version);
+                                mConnection.getProgressReporter().report(progressKey(resourceName, version), percent, version, progressSender);
                             }
                         }
+                        // 上报最终状态前丢弃未发送的进度
+                        mConnection.getProgressReporter().cancel(progressKey(resourceName, version));
 
                         if (fos != null) {
                             fos.close();
@@ -581,6 +596,7 @@ public class TXResourceImpl {
                     } catch (Exception e) {
                         e.printStackTrace();
                     } finally {
+                        mConnection.getProgressReporter().cancel(progressKey(resourceName, version));
                         if (fos != null) {
                             try {
                                 fos.close();
@@ -644,6 +660,7 @@ public class TXResourceImpl {
             }
 
             int finalI = i;
+            TXProgressReporter.Sender progressSender = (percent, ver) -> reportProgressMessage(RESOURCE_UP_TOPIC, staffId, percent, ver);
             Runnable runnable = () -> {
                 RandomAccessFile fos = null;
                 InputStream stream = null;
@@ -717,9 +734,11 @@ public class TXResourceImpl {
                                 mCallback.onDownloadProgress(staffId + "." + formatStr, percent, version);
                             }
                             LOG.debug("download " + downloadBytes + " bytes. percent:" + percent);
-                            reportProgressMessage(RESOURCE_UP_TOPIC, staffId, percent, version);
+                            mConnection.getProgressReporter().report(progressKey(staffId, version), percent, version, progressSender);
                         }
                     }
+                    // 上报最终状态前丢弃未发送的进度
+                    mConnection.getProgressReporter().cancel(progressKey(staffId, version));
 
                     deleteFile(csvOutputFile);
 
@@ -765,6 +784,7 @@ public class TXResourceImpl {
                         mCallback.onDownloadFailure(staffId + "." + formatStr, -5, version); // 下载资源失败
                     }
                 } finally {
+                    mConnection.getProgressReporter().cancel(progressKey(staffId, version));
                     if (fos != null) {
                         try {
                             fos.close();
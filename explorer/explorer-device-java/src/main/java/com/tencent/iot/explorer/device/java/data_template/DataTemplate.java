@@ -3,8 +3,13 @@ package com.tencent.iot.explorer.device.java.data_template;
 import com.tencent.iot.explorer.device.java.mqtt.TXMqttRequest;
 import com.tencent.iot.explorer.device.java.utils.ILog;
 import com.tencent.iot.hub.device.java.core.common.Status;
+import com.tencent.iot.hub.device.java.core.json.TXJsonCodecs;
+import com.tencent.iot.hub.device.java.core.json.TXJsonWriter;
+import com.tencent.iot.hub.device.java.core.json.TXStreamingJsonCodec;
 import com.tencent.iot.hub.device.java.core.mqtt.TXMqttConnection;
 import com.tencent.iot.hub.device.java.core.mqtt.TXMqttConstants;
+import com.tencent.iot.hub.device.java.core.mqtt.TXTopicHandler;
+import com.tencent.iot.hub.device.java.core.mqtt.TXTopicRouter;
 
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.json.JSONArray;
@@ -74,6 +79,7 @@ public class DataTemplate {
         this.mActionUptreamTopic = TOPIC_ACTION_UP_PREFIX + productId + "/" + deviceName;
         this.mServiceDownStreamTopic = TOPIC_SERVICE_DOWN_PREFIX + productId + "/"  + deviceName;
         this.mDataTemplateJson = dataTemplateJson;
+        this.mDataTemplateJson.compileDataTemplate();
         this.mDownStreamCallBack = downStreamCallBack;
         this.mDeviceName = deviceName;
         this.mProductId = productId;
@@ -239,25 +245,32 @@ public class DataTemplate {
                 return Status.PARAMETER_INVALID;
             }
         }
-        //构造发布信息
-        JSONObject object = new JSONObject();
+        //构造发布信息，直接输出 UTF-8 字节
         String clientToken = mProductId + mDeviceName + UUID.randomUUID().toString();
+        byte[] payload;
+        TXJsonWriter writer = TXStreamingJsonCodec.obtainWriter();
         try {
-            object.put("method", METHOD_PROPERTY_REPORT);
-            object.put("clientToken", clientToken);
-            object.put("timestamp", System.currentTimeMillis());
-            object.put("params", property);
+            writer.beginObject()
+                    .name("method").value(METHOD_PROPERTY_REPORT)
+                    .name("clientToken").value(clientToken)
+                    .name("timestamp").value(System.currentTimeMillis());
+            if (null != property) {
+                writer.name("params").value(property);
+            }
             if (null != metadata) {
-                object.put("metadata", metadata);
+                writer.name("metadata").value(metadata);
             }
+            payload = writer.endObject().toByteArray();
         } catch (Exception e) {
             log.error(TAG, "propertyReport: failed!");
             return Status.ERR_JSON_CONSTRUCT;
+        } finally {
+            TXStreamingJsonCodec.recycleWriter(writer);
         }
 
         MqttMessage message = new MqttMessage();
         message.setQos(0);
-        message.setPayload(object.toString().getBytes());
+        message.setPayload(payload);
 
         return publishTemplateMessage(clientToken, PROPERTY_UP_STREAM_TOPIC, message);
     }
@@ -292,7 +305,7 @@ public class DataTemplate {
 
         MqttMessage message = new MqttMessage();
         message.setQos(0);
-        message.setPayload(object.toString().getBytes());
+        message.setPayload(TXJsonCodecs.getDefault().encode(object));
 
         return publishTemplateMessage(clientToken, PROPERTY_UP_STREAM_TOPIC, message);
     }
@@ -317,7 +330,7 @@ public class DataTemplate {
 
         MqttMessage message = new MqttMessage();
         message.setQos(0);
-        message.setPayload(object.toString().getBytes());
+        message.setPayload(TXJsonCodecs.getDefault().encode(object));
 
         return publishTemplateMessage(clientToken, PROPERTY_UP_STREAM_TOPIC, message);
     }
@@ -340,7 +353,7 @@ public class DataTemplate {
 
         MqttMessage message = new MqttMessage();
         message.setQos(0);
-        message.setPayload(object.toString().getBytes());
+        message.setPayload(TXJsonCodecs.getDefault().encode(object));
 
         return publishTemplateMessage(clientToken, PROPERTY_UP_STREAM_TOPIC, message);
     }
@@ -377,7 +390,7 @@ public class DataTemplate {
 
         MqttMessage message = new MqttMessage();
         message.setQos(0);
-        message.setPayload(object.toString().getBytes());
+        message.setPayload(TXJsonCodecs.getDefault().encode(object));
 
         return publishTemplateMessage(clientToken, EVENT_UP_STREAM_TOPIC, message);
     }
@@ -408,7 +421,7 @@ public class DataTemplate {
 
         MqttMessage message = new MqttMessage();
         message.setQos(0);
-        message.setPayload(object.toString().getBytes());
+        message.setPayload(TXJsonCodecs.getDefault().encode(object));
 
         return publishTemplateMessage(clientToken, EVENT_UP_STREAM_TOPIC, message);
     }
@@ -435,7 +448,7 @@ public class DataTemplate {
 
         MqttMessage message = new MqttMessage();
         message.setQos(1); //qos 1
-        message.setPayload(object.toString().getBytes());
+        message.setPayload(TXJsonCodecs.getDefault().encode(object));
 
         return publishTemplateMessage(null, PROPERTY_UP_STREAM_TOPIC, message);
     }
@@ -463,7 +476,7 @@ public class DataTemplate {
 
         MqttMessage message = new MqttMessage();
         message.setQos(1); //qos 1
-        message.setPayload(object.toString().getBytes());
+        message.setPayload(TXJsonCodecs.getDefault().encode(object));
 
         return publishTemplateMessage(null, ACTION_UP_STREAM_TOPIC, message);
     }
@@ -496,10 +509,11 @@ public class DataTemplate {
      * 处理Reply回复
      *
      * @param message 回复消息
+     * @param jsonObj 已解析的回复消息
+     * @param isGetStatus 是否为获取状态的回复
      */
-    private void handleReply(MqttMessage message, boolean isGetStatus) {
+    private void handleReply(MqttMessage message, JSONObject jsonObj, boolean isGetStatus) {
         try {
-            JSONObject jsonObj = new JSONObject(new String(message.getPayload()));
             String clientToken = jsonObj.getString("clientToken");
             Long timestamp = mReplyWaitList.get(clientToken);
             if (null == timestamp) {
@@ -517,7 +531,7 @@ public class DataTemplate {
                 }
             }
             if (null != mDownStreamCallBack && !isGetStatus) {
-                mDownStreamCallBack.onReplyCallBack(new String(message.getPayload()));
+                mDownStreamCallBack.onReplyCallBack(new String(message.getPayload(), TXJsonCodecs.UTF_8));
             }
             mReplyWaitList.remove(clientToken);
         } catch (JSONException e) {
@@ -534,7 +548,7 @@ public class DataTemplate {
         log.debug(TAG, "property down stream message received " + message);
         //根据method进行相应处理
         try {
-            JSONObject jsonObj = new JSONObject(new String(message.getPayload()));
+            JSONObject jsonObj = TXJsonCodecs.getDefault().decode(message.getPayload());
             String method = jsonObj.getString("method");
             if (method == null || (!method.equals(METHOD_PROPERTY_REPORT_REPLY) &&
                     !method.equals(METHOD_PROPERTY_CONTROL) &&
@@ -555,11 +569,11 @@ public class DataTemplate {
             } else if (method.equals(METHOD_PROPERTY_GET_STATUS_REPLY)) {
                 JSONObject data = jsonObj.getJSONObject("data");
                 if (null != mDownStreamCallBack) {
-                    handleReply(message, true);
+                    handleReply(message, jsonObj, true);
                     mDownStreamCallBack.onGetStatusReplyCallBack(data);
                 }
             } else {
-                handleReply(message, false);
+                handleReply(message, jsonObj, false);
             }
         } catch (Exception e) {
             log.error(TAG, "onPropertyMessageArrivedCallBack: invalid message: " + message);
@@ -575,13 +589,13 @@ public class DataTemplate {
         log.debug(TAG, "event down stream message received : " + message);
         // 查询列表中的event，并处理
         try {
-            JSONObject jsonObj = new JSONObject(new String(message.getPayload()));
+            JSONObject jsonObj = TXJsonCodecs.getDefault().decode(message.getPayload());
             String method = jsonObj.getString("method");
             if (method == null || (!method.equals(METHOD_EVENT_REPLY) && !method.equals(METHOD_EVENTS_REPLY))) {
                 log.error(TAG, "onEventMessageArrivedCallBack: invalid method:" + method);
                 return;
             }
-            handleReply(message, false);
+            handleReply(message, jsonObj, false);
         } catch (Exception e) {
             log.error(TAG, "onEventMessageArrivedCallBack: invalid message:" + message);
         }
@@ -596,7 +610,7 @@ public class DataTemplate {
         log.debug(TAG, "action down stream message received : " + message);
         // 查询列表中的action，然后调用相应的回调函数
         try {
-            JSONObject jsonObj = new JSONObject(new String(message.getPayload()));
+            JSONObject jsonObj = TXJsonCodecs.getDefault().decode(message.getPayload());
             String method = jsonObj.getString("method");
             if (method == null || !method.equals(METHOD_ACTION)) {
                 log.error(TAG, "onActionMessageArrivedCallBack: invalid method:" + method);
@@ -634,16 +648,16 @@ public class DataTemplate {
     private void onServiceMessageArrivedCallBack(MqttMessage message){
         log.debug(TAG, "service down stream message received : " + message);
         try {
-            JSONObject jsonObj = new JSONObject(new String(message.getPayload()));
+            JSONObject jsonObj = TXJsonCodecs.getDefault().decode(message.getPayload());
             String method = jsonObj.getString("method");
             //下发用户删除设备消息处理
             if (method != null && method.equals(METHOD_UNBIND_DEVICE)) {
                 if(null != mDownStreamCallBack) {
-                    mDownStreamCallBack.onUnbindDeviceCallBack(new String(message.getPayload()));
+                    mDownStreamCallBack.onUnbindDeviceCallBack(new String(message.getPayload(), TXJsonCodecs.UTF_8));
                 }
             } else if (method != null && method.equals(METHOD_BIND_DEVICE)) {
                 if(null != mDownStreamCallBack) {
-                    mDownStreamCallBack.onBindDeviceCallBack(new String(message.getPayload()));
+                    mDownStreamCallBack.onBindDeviceCallBack(new String(message.getPayload(), TXJsonCodecs.UTF_8));
                 }
             }
 
@@ -652,6 +666,42 @@ public class DataTemplate {
         }
     }
 
+    /**
+     * 把数据模板的下行主题注册到主题路由，消息到达时直接分发到对应的处理函数
+     *
+     * @param router 主题路由
+     */
+    public void registerTopicHandlers(TXTopicRouter router) {
+        router.addHandler(mPropertyDownStreamTopic, new TXTopicHandler() {
+            @Override
+            public boolean onMessageArrived(String topic, MqttMessage message) {
+                onPropertyMessageArrivedCallBack(message);
+                return false;
+            }
+        });
+        router.addHandler(mEventDownStreamTopic, new TXTopicHandler() {
+            @Override
+            public boolean onMessageArrived(String topic, MqttMessage message) {
+                onEventMessageArrivedCallBack(message);
+                return false;
+            }
+        });
+        router.addHandler(mActionDownStreamTopic, new TXTopicHandler() {
+            @Override
+            public boolean onMessageArrived(String topic, MqttMessage message) {
+                onActionMessageArrivedCallBack(message);
+                return false;
+            }
+        });
+        router.addHandler(mServiceDownStreamTopic, new TXTopicHandler() {
+            @Override
+            public boolean onMessageArrived(String topic, MqttMessage message) {
+                onServiceMessageArrivedCallBack(message);
+                return false;
+            }
+        });
+    }
+
     /**
      * 消息到达回调函数
      *
@@ -11,7 +11,6 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.Iterator;
 
 import static com.tencent.iot.hub.device.java.core.mqtt.TXMqttConstants.MQTT_SDK_VER;
 
@@ -31,6 +30,7 @@ public class DataTemplateJson {
     public static final String TYPE_STRUCT = "struct";
     public static final String TYPE_ARRAY = "array";
     private final ILog log;
+    private volatile DataTemplateValidator mValidator = null;
 
     protected DataTemplateJson(ILog log) {
         this.log = log;
@@ -63,153 +63,19 @@ public class DataTemplateJson {
     }
 
     /**
-     * 检查value是否符合定义
-     *
-     * @param valueDescribeJson 注册的模板中关于参数的描述
-     * @param value             实际的值
-     * @return 检查结果
+     * 把数据模板编译为校验器，模板加载完成后调用一次；未调用时在第一次校验时编译
      */
-    private Status checkParamsValue(JSONObject valueDescribeJson, Object value) {
-        try {
-            String type = valueDescribeJson.getString("type");
-            if (type.equals(TYPE_BOOL)) { //BOOL类型取值0或者1
-                if (value instanceof Integer &&
-                        (((Integer) value).intValue() == 0 || ((Integer) value).intValue() == 1)) {
-                    return Status.OK;
-                }
-            } else if (type.equals(TYPE_INT)) { //INT类型取值符合范围
-                if (value instanceof Integer &&
-                        ((Integer) value).intValue() >= Integer.parseInt(valueDescribeJson.getString("min")) &&
-                        ((Integer) value).intValue() <= Integer.parseInt(valueDescribeJson.getString("max"))) {
-                    return Status.OK;
-                }
-            } else if (type.equals(TYPE_FLOAT)) { //FLOAT类型取值符合范围
-                if (value instanceof Float &&
-                        ((Float) value).floatValue() >= Float.parseFloat(valueDescribeJson.getString("min")) &&
-                        ((Float) value).floatValue() <= Float.parseFloat(valueDescribeJson.getString("max"))) {
-                    return Status.OK;
-                } else if (value instanceof Double &&
-                        ((Double) value).doubleValue() >= Double.parseDouble(valueDescribeJson.getString("min")) &&
-                        ((Double) value).doubleValue() <= Double.parseDouble(valueDescribeJson.getString("max"))) {
-                    return Status.OK;
-                }
-            } else if (type.equals(TYPE_STRING)) { //字符串类型长度不能超过最大长度
-                if (value instanceof String &&
-                        ((String) value).length() <= Integer.parseInt(valueDescribeJson.getString("max"))) {
-                    return Status.OK;
-                }
-            } else if (type.equals(TYPE_ENUM)) { //枚举类型取值在范围内
-                if (value instanceof Integer) {
-                    JSONObject mapping = valueDescribeJson.getJSONObject("mapping");
-                    Iterator<String> it = mapping.keys();
-                    while (it.hasNext()) {
-                        if (((Integer) value).intValue() == Integer.parseInt(it.next())) {
-                            return Status.OK;
-                        }
-                    }
-                }
-            } else if (type.equals(TYPE_TIMESTAMP)) { //时间类型为无符号整数 也有可能是长整数
-                if (value instanceof Integer || value instanceof Long) {
-                    return Status.OK;
-                }
-            } else if (type.equals(TYPE_STRUCT)) {
-                JSONArray valuesType = valueDescribeJson.getJSONArray("specs");
-                return StrcutCheckUtils.checkStructValues(valuesType, value);
-            } else if (type.equals(TYPE_ARRAY)) {
-                JSONObject arrayInfoJson = valueDescribeJson.getJSONObject("arrayInfo");
-                return ArrayCheckUtils.checkArrayValues(arrayInfoJson, value);
-            } else {
-                log.error(TAG, "Invalid Data Template Json, please check and replace it!");
-            }
-            log.error(TAG, "Invalid Value, excepted " + valueDescribeJson);
-        } catch (JSONException e) {
-            log.error(TAG, "Invalid Data Template Json, please check and replace it!");
-        }
-        return Status.PARAMETER_INVALID;
+    void compileDataTemplate() {
+        mValidator = new DataTemplateValidator(mPropertyJson, mEventJson, mActionJson, log);
     }
 
-    /**
-     * 检查params是否符合定义
-     *
-     * @param paramsDescribeJson 注册的模板
-     * @param paramsJson         用户构造的参数Json
-     * @return 检查结果
-     */
-    private Status checkParamsJson(JSONArray paramsDescribeJson, JSONObject paramsJson) {
-        if (null == paramsJson || null == paramsDescribeJson) {
-            log.error(TAG, "checkParamsJson: json is null!");
-            return Status.PARAMETER_INVALID;
+    private DataTemplateValidator getValidator() {
+        DataTemplateValidator validator = mValidator;
+        if (validator == null) {
+            validator = new DataTemplateValidator(mPropertyJson, mEventJson, mActionJson, log);
+            mValidator = validator;
         }
-        int i;
-
-        //found property in json array
-        try {
-            Iterator<String> it = paramsJson.keys();
-            while (it.hasNext()) {
-                String key = it.next();
-                for (i = 0; i < paramsDescribeJson.length(); i++) {
-                    JSONObject jsonNode = paramsDescribeJson.getJSONObject(i);
-                    if (jsonNode.get("id").equals(key)) {
-                        if (Status.OK != checkParamsValue(jsonNode.getJSONObject("define"), paramsJson.get(key))) {
-                            log.error(TAG, "checkParamsJson: paramete [" + key + "] with invalid value (may be string): " + paramsJson.get(key));
-                            return Status.PARAMETER_INVALID;
-                        }
-                        break;
-                    }
-                }
-                if (i == paramsDescribeJson.length()) { //property not found
-                    log.error(TAG, "checkParamsJson: no such param:" + key);
-                    return Status.PARAMETER_INVALID;
-                }
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        return Status.OK;
-    }
-
-    /**
-     * 检查Action的参数是否符合定义
-     *
-     * @param paramsDescribeJson 参数模板
-     * @param paramsJson         参数描述json
-     * @return 检查结果
-     */
-    private Status checkActionParamsJson(JSONArray paramsDescribeJson, JSONObject paramsJson) {
-        System.out.append("paramsDescribeJson " + paramsDescribeJson.toString());
-        System.out.append("paramsJson " + paramsJson.toString());
-        if (null == paramsJson || null == paramsDescribeJson) {
-            log.error(TAG, "checkParamsJson: json is null!");
-            return Status.PARAMETER_INVALID;
-        }
-        int i;
-        boolean isActionExit = false;
-        // found all params in params json and check value
-        try {
-            for (i = 0; i < paramsDescribeJson.length(); i++) {
-                JSONObject jsonNode = paramsDescribeJson.getJSONObject(i);
-                Iterator<String> it = paramsJson.keys();
-                while (it.hasNext()) {
-                    String key = it.next();
-                    if (jsonNode.get("id").equals(key)) {
-                        if (Status.OK != checkParamsValue(jsonNode.getJSONObject("define"), paramsJson.get(key))) {
-                            log.error(TAG, "checkParamsJson: parameter [" + key + "] with invalid value (may be string): " + paramsJson.get(key));
-                            return Status.PARAMETER_INVALID;
-                        }
-                        isActionExit = true;
-                        break;
-                    }
-                }
-                if (!isActionExit) {
-                    log.error(TAG, "checkActionParamsJson: params [" + jsonNode.get("id") + "] not found, check the data template json on cloud console!");
-                    return Status.ERROR;
-                }
-                isActionExit = false;
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        return Status.OK;
+        return validator;
     }
 
     /**
@@ -219,7 +85,7 @@ public class DataTemplateJson {
      * @return 检查结果
      */
     public Status checkPropertyJson(JSONObject property) {
-        return checkParamsJson(mPropertyJson, property);
+        return getValidator().checkProperties(property);
     }
 
     /**
@@ -235,28 +101,7 @@ public class DataTemplateJson {
             log.error(TAG, "checkEventJson: parameter is null!");
             return Status.PARAMETER_INVALID;
         }
-        int i;
-        //found property in json array
-        try {
-            for (i = 0; i < mEventJson.length(); i++) {
-                JSONObject jsonNode = mEventJson.getJSONObject(i);
-                if (jsonNode.get("id").equals(eventId)) {
-                    if (jsonNode.get("type").equals(type)) {
-                        return checkParamsJson(jsonNode.getJSONArray("params"), params);
-                    } else {
-                        log.error(TAG, "checkEventJson: type [" + type + "] is not matched, excepted[" + jsonNode.get("type") + "]!");
-                        return Status.PARAMETER_INVALID;
-                    }
-                }
-            }
-            if (i == mEventJson.length()) { //property not found
-                log.error(TAG, "checkEventJson: no such event:" + eventId);
-                return Status.PARAMETER_INVALID;
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        return Status.OK;
+        return getValidator().checkEvent(eventId, type, params);
     }
 
     /**
@@ -303,29 +148,7 @@ public class DataTemplateJson {
             log.error(TAG, "checkActionJson: parameter is null!");
             return Status.PARAMETER_INVALID;
         }
-
-        //check aciton in actions json array
-        int i;
-        try {
-            for (i = 0; i < mActionJson.length(); i++) {
-                JSONObject jsonNode = mActionJson.getJSONObject(i);
-                if (jsonNode.get("id").equals(actionId)) {
-                    if (Status.OK != checkActionParamsJson(jsonNode.getJSONArray("input"), params)) {
-                        log.error(TAG, "checkActionJson: action [" + actionId + "] with invalid parameter, check the data template json on cloud console!");
-                        return Status.PARAMETER_INVALID;
-                    }
-                    break;
-                }
-            }
-            if (i == mActionJson.length()) { //action not found
-                log.error(TAG, "checkActionJson: no such action id [" + actionId + "], check the data template json on cloud console!");
-                return Status.PARAMETER_INVALID;
-            }
-        } catch (JSONException e) {
-            log.error(TAG, "checkActionJson: action message invalid!");
-            e.printStackTrace();
-        }
-        return Status.OK;
+        return getValidator().checkActionInput(actionId, params);
     }
 
     /**
@@ -340,28 +163,6 @@ public class DataTemplateJson {
             log.error(TAG, "checkActionJson: parameter is null!");
             return Status.PARAMETER_INVALID;
         }
-
-        //check aciton in actions json array
-        int i;
-        try {
-            for (i = 0; i < mActionJson.length(); i++) {
-                JSONObject jsonNode = mActionJson.getJSONObject(i);
-                if (jsonNode.get("id").equals(actionId)) {
-                    if (Status.OK != checkActionParamsJson(jsonNode.getJSONArray("output"), response)) {
-                        log.error(TAG, "checkActionReplyJson: action [" + actionId + "] with invalid parameter:" + response);
-                        return Status.PARAMETER_INVALID;
-                    }
-                    break;
-                }
-            }
-            if (i == mActionJson.length()) { //action not found
-                log.error(TAG, "checkActionReplyJson: no such action id :" + actionId);
-                return Status.PARAMETER_INVALID;
-            }
-        } catch (JSONException e) {
-            log.error(TAG, "checkActionReplyJson: events invalid!");
-            e.printStackTrace();
-        }
-        return Status.OK;
+        return getValidator().checkActionOutput(actionId, response);
     }
 }
@@ -0,0 +1,599 @@
+package com.tencent.iot.explorer.device.java.data_template;
+
+import com.tencent.iot.explorer.device.java.utils.ILog;
+import com.tencent.iot.hub.device.java.core.common.Status;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static com.tencent.iot.hub.device.java.core.mqtt.TXMqttConstants.MQTT_SDK_VER;
+
+/**
+ * 由数据模板 json 编译得到的校验器，创建后不再修改，可以在多个线程中共用
+ *
+ * 属性、事件、动作按 id 保存在哈希表中；数值范围、枚举取值在编译时解析好，
+ * 结构体、数组按成员类型生成对应的子校验规则，校验时不再读取模板 json。
+ */
+final class DataTemplateValidator {
+    private static final String TAG = "TX_TEMPLATE_JSON_" + MQTT_SDK_VER;
+
+    private final ILog log;
+    private final Params mProperties;
+    private final Map<String, Event> mEvents;
+    private final Map<String, Action> mActions;
+
+    /**
+     * 编译数据模板
+     *
+     * @param propertyJson 模板中的 properties，为 null 时所有属性都校验失败
+     * @param eventJson    模板中的 events
+     * @param actionJson   模板中的 actions
+     * @param log          日志
+     */
+    DataTemplateValidator(JSONArray propertyJson, JSONArray eventJson, JSONArray actionJson, ILog log) {
+        this.log = log;
+        this.mProperties = propertyJson == null ? null : compileParams(propertyJson);
+        this.mEvents = compileEvents(eventJson);
+        this.mActions = compileActions(actionJson);
+    }
+
+    /**
+     * 检查属性是否都在模板中定义且取值符合定义
+     *
+     * @param property 用户构造的property json
+     * @return 检查结果
+     */
+    Status checkProperties(JSONObject property) {
+        return checkParams(mProperties, property);
+    }
+
+    /**
+     * 检查单个event是否符合定义
+     *
+     * @param eventId 事件ID
+     * @param type    事件类型
+     * @param params  事件参数
+     * @return 检查结果
+     */
+    Status checkEvent(String eventId, String type, JSONObject params) {
+        Event event = mEvents.get(eventId);
+        if (event == null) {
+            log.error(TAG, "checkEventJson: no such event:" + eventId);
+            return Status.PARAMETER_INVALID;
+        }
+        if (!event.type.equals(type)) {
+            log.error(TAG, "checkEventJson: type [" + type + "] is not matched, excepted[" + event.type + "]!");
+            return Status.PARAMETER_INVALID;
+        }
+        return checkParams(event.params, params);
+    }
+
+    /**
+     * 检查action的输入参数
+     *
+     * @param actionId 动作ID
+     * @param params   输入参数
+     * @return 检查结果
+     */
+    Status checkActionInput(String actionId, JSONObject params) {
+        Action action = mActions.get(actionId);
+        if (action == null) {
+            log.error(TAG, "checkActionJson: no such action id [" + actionId + "], check the data template json on cloud console!");
+            return Status.PARAMETER_INVALID;
+        }
+        if (Status.OK != checkActionParams(action.input, params)) {
+            log.error(TAG, "checkActionJson: action [" + actionId + "] with invalid parameter, check the data template json on cloud console!");
+            return Status.PARAMETER_INVALID;
+        }
+        return Status.OK;
+    }
+
+    /**
+     * 检查action reply的输出参数
+     *
+     * @param actionId 动作ID
+     * @param response 回复参数
+     * @return 检查结果
+     */
+    Status checkActionOutput(String actionId, JSONObject response) {
+        Action action = mActions.get(actionId);
+        if (action == null) {
+            log.error(TAG, "checkActionReplyJson: no such action id :" + actionId);
+            return Status.PARAMETER_INVALID;
+        }
+        if (Status.OK != checkActionParams(action.output, response)) {
+            log.error(TAG, "checkActionReplyJson: action [" + actionId + "] with invalid parameter:" + response);
+            return Status.PARAMETER_INVALID;
+        }
+        return Status.OK;
+    }
+
+    /**
+     * 传入的每个参数都必须在模板中定义
+     */
+    private Status checkParams(Params params, JSONObject paramsJson) {
+        if (null == paramsJson || null == params) {
+            log.error(TAG, "checkParamsJson: json is null!");
+            return Status.PARAMETER_INVALID;
+        }
+        Iterator<String> it = paramsJson.keys();
+        while (it.hasNext()) {
+            String key = it.next();
+            Param param = params.byId.get(key);
+            if (param == null) {
+                log.error(TAG, "checkParamsJson: no such param:" + key);
+                return Status.PARAMETER_INVALID;
+            }
+            Object value = paramsJson.opt(key);
+            if (!param.check(value, log)) {
+                log.error(TAG, "checkParamsJson: paramete [" + key + "] with invalid value (may be string): " + value);
+                return Status.PARAMETER_INVALID;
+            }
+        }
+        return Status.OK;
+    }
+
+    /**
+     * 模板中定义的每个参数都必须传入，未定义的参数不检查
+     */
+    private Status checkActionParams(Params params, JSONObject paramsJson) {
+        if (null == paramsJson) {
+            log.error(TAG, "checkParamsJson: json is null!");
+            return Status.PARAMETER_INVALID;
+        }
+        for (Param param : params.ordered) {
+            Object value = paramsJson.opt(param.id);
+            if (value == null) {
+                log.error(TAG, "checkActionParamsJson: params [" + param.id + "] not found, check the data template json on cloud console!");
+                return Status.ERROR;
+            }
+            if (!param.check(value, log)) {
+                log.error(TAG, "checkParamsJson: parameter [" + param.id + "] with invalid value (may be string): " + value);
+                return Status.PARAMETER_INVALID;
+            }
+        }
+        return Status.OK;
+    }
+
+    private Params compileParams(JSONArray paramsJson) {
+        Map<String, Param> byId = new HashMap<String, Param>();
+        Param[] ordered = new Param[paramsJson.length()];
+        int count = 0;
+        for (int i = 0; i < paramsJson.length(); i++) {
+            JSONObject node = paramsJson.optJSONObject(i);
+            String id = node == null ? null : node.optString("id", null);
+            if (id == null) {
+                log.error(TAG, "Invalid Data Template Json, param without id: " + node);
+                continue;
+            }
+            // 与按顺序查找一致，重复定义时以第一个为准
+            if (byId.containsKey(id)) {
+                continue;
+            }
+            JSONObject define = node.optJSONObject("define");
+            Rule rule = define == null ? Rule.REJECT : compileValue(define);
+            Param param = new Param(id, define, rule);
+            byId.put(id, param);
+            ordered[count++] = param;
+        }
+        Param[] params = new Param[count];
+        System.arraycopy(ordered, 0, params, 0, count);
+        return new Params(byId, params);
+    }
+
+    private Map<String, Event> compileEvents(JSONArray eventJson) {
+        if (eventJson == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Event> events = new HashMap<String, Event>();
+        for (int i = 0; i < eventJson.length(); i++) {
+            JSONObject node = eventJson.optJSONObject(i);
+            String id = node == null ? null : node.optString("id", null);
+            if (id == null || events.containsKey(id)) {
+                continue;
+            }
+            JSONArray params = node.optJSONArray("params");
+            events.put(id, new Event(node.optString("type"), compileParams(params == null ? new JSONArray() : params)));
+        }
+        return Collections.unmodifiableMap(events);
+    }
+
+    private Map<String, Action> compileActions(JSONArray actionJson) {
+        if (actionJson == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Action> actions = new HashMap<String, Action>();
+        for (int i = 0; i < actionJson.length(); i++) {
+            JSONObject node = actionJson.optJSONObject(i);
+            String id = node == null ? null : node.optString("id", null);
+            if (id == null || actions.containsKey(id)) {
+                continue;
+            }
+            JSONArray input = node.optJSONArray("input");
+            JSONArray output = node.optJSONArray("output");
+            actions.put(id, new Action(compileParams(input == null ? new JSONArray() : input),
+                    compileParams(output == null ? new JSONArray() : output)));
+        }
+        return Collections.unmodifiableMap(actions);
+    }
+
+    /**
+     * 编译属性、参数的 define
+     */
+    private Rule compileValue(JSONObject define) {
+        String type = define.optString("type");
+        try {
+            if (type.equals(DataTemplateJson.TYPE_BOOL)) {
+                return Rule.BOOL;
+            } else if (type.equals(DataTemplateJson.TYPE_INT)) {
+                return new IntRule(Integer.parseInt(define.getString("min")),
+                        Integer.parseInt(define.getString("max")), false);
+            } else if (type.equals(DataTemplateJson.TYPE_FLOAT)) {
+                String min = define.getString("min");
+                String max = define.getString("max");
+                return new DecimalRule(Float.parseFloat(min), Float.parseFloat(max),
+                        Double.parseDouble(min), Double.parseDouble(max), true, false);
+            } else if (type.equals(DataTemplateJson.TYPE_STRING)) {
+                return new StringRule(0, Integer.parseInt(define.getString("max")));
+            } else if (type.equals(DataTemplateJson.TYPE_ENUM)) {
+                return new EnumRule(parseMapping(define.getJSONObject("mapping")));
+            } else if (type.equals(DataTemplateJson.TYPE_TIMESTAMP)) {
+                return Rule.TIMESTAMP;
+            } else if (type.equals(DataTemplateJson.TYPE_STRUCT)) {
+                return new StructRule(compileStruct(define.getJSONArray("specs")), false);
+            } else if (type.equals(DataTemplateJson.TYPE_ARRAY)) {
+                return compileArray(define.getJSONObject("arrayInfo"));
+            }
+        } catch (JSONException e) {
+            log.error(TAG, "Invalid Data Template Json, please check and replace it! " + define);
+            return Rule.REJECT;
+        } catch (NumberFormatException e) {
+            log.error(TAG, "Invalid Data Template Json, please check and replace it! " + define);
+            return Rule.REJECT;
+        }
+        log.error(TAG, "Invalid Data Template Json, please check and replace it! " + define);
+        return Rule.REJECT;
+    }
+
+    /**
+     * 编译结构体成员，遇到格式错误的成员时停止，之后的成员都视为未定义
+     */
+    private Map<String, Rule> compileStruct(JSONArray specs) {
+        Map<String, Rule> members = new HashMap<String, Rule>();
+        for (int i = 0; i < specs.length(); i++) {
+            JSONObject spec = specs.optJSONObject(i);
+            if (spec == null) {
+                continue;
+            }
+            String id = spec.optString("id", null);
+            JSONObject dataType = spec.optJSONObject("dataType");
+            if (id == null || dataType == null || dataType.optString("type", null) == null) {
+                log.error(TAG, "Invalid Data Template Json, struct spec: " + spec);
+                break;
+            }
+            if (!members.containsKey(id)) {
+                members.put(id, compileStructMember(dataType));
+            }
+        }
+        return Collections.unmodifiableMap(members);
+    }
+
+    private Rule compileStructMember(JSONObject dataType) {
+        String type = dataType.optString("type");
+        try {
+            if (type.equals(DataTemplateJson.TYPE_STRING)) {
+                return new StringRule(dataType.getInt("min"), dataType.getInt("max"));
+            } else if (type.equals(DataTemplateJson.TYPE_FLOAT)) {
+                double min = dataType.getDouble("min");
+                double max = dataType.getDouble("max");
+                return new DecimalRule((float) min, (float) max, min, max, false, false);
+            } else if (type.equals(DataTemplateJson.TYPE_BOOL)) {
+                return Rule.BOOL;
+            } else if (type.equals(DataTemplateJson.TYPE_ENUM)) {
+                return new EnumRule(parseMapping(dataType.getJSONObject("mapping")));
+            } else if (type.equals(DataTemplateJson.TYPE_TIMESTAMP)) {
+                return Rule.TIMESTAMP;
+            } else if (type.equals(DataTemplateJson.TYPE_INT)) {
+                return new IntRule(dataType.getInt("min"), dataType.getInt("max"), true);
+            }
+        } catch (JSONException e) {
+            log.error(TAG, "Invalid Data Template Json, struct member: " + dataType);
+        } catch (NumberFormatException e) {
+            log.error(TAG, "Invalid Data Template Json, struct member: " + dataType);
+        }
+        return Rule.REJECT;
+    }
+
+    private Rule compileArray(JSONObject arrayInfo) {
+        String type = arrayInfo.optString("type");
+        Rule element;
+        try {
+            if (type.equals(DataTemplateJson.TYPE_INT)) {
+                element = new IntRule(arrayInfo.getInt("min"), arrayInfo.getInt("max"), false);
+            } else if (type.equals(DataTemplateJson.TYPE_STRING)) {
+                element = new StringRule(arrayInfo.getInt("min"), arrayInfo.getInt("max"));
+            } else if (type.equals(DataTemplateJson.TYPE_FLOAT)) {
+                float min = Float.parseFloat(arrayInfo.getString("min"));
+                float max = Float.parseFloat(arrayInfo.getString("max"));
+                element = new DecimalRule(min, max, min, max, false, true);
+            } else if (type.equals(DataTemplateJson.TYPE_STRUCT)) {
+                element = new StructRule(compileStruct(arrayInfo.getJSONArray("specs")), true);
+            } else {
+                // 不支持的成员类型，任何数组都校验失败
+                log.error(TAG, "Invalid Data Template Json, array type: " + arrayInfo);
+                return new ArrayRule(null);
+            }
+        } catch (JSONException e) {
+            // 与原先一致，空数组不检查成员定义
+            log.error(TAG, "Invalid Data Template Json, array info: " + arrayInfo);
+            element = Rule.REJECT;
+        } catch (NumberFormatException e) {
+            log.error(TAG, "Invalid Data Template Json, array info: " + arrayInfo);
+            element = Rule.REJECT;
+        }
+        return new ArrayRule(element);
+    }
+
+    private Set<Integer> parseMapping(JSONObject mapping) {
+        Set<Integer> values = new HashSet<Integer>();
+        Iterator<String> it = mapping.keys();
+        while (it.hasNext()) {
+            String key = it.next();
+            try {
+                values.add(Integer.parseInt(key));
+            } catch (NumberFormatException e) {
+                log.error(TAG, "Invalid Data Template Json, enum value: " + key);
+            }
+        }
+        return Collections.unmodifiableSet(values);
+    }
+
+    private static final class Params {
+        final Map<String, Param> byId;
+        final Param[] ordered;
+
+        Params(Map<String, Param> byId, Param[] ordered) {
+            this.byId = Collections.unmodifiableMap(byId);
+            this.ordered = ordered;
+        }
+    }
+
+    private static final class Param {
+        final String id;
+        final JSONObject define;
+        final Rule rule;
+
+        Param(String id, JSONObject define, Rule rule) {
+            this.id = id;
+            this.define = define;
+            this.rule = rule;
+        }
+
+        boolean check(Object value, ILog log) {
+            if (rule.check(value)) {
+                return true;
+            }
+            log.error(TAG, "Invalid Value, excepted " + define);
+            return false;
+        }
+    }
+
+    private static final class Event {
+        final String type;
+        final Params params;
+
+        Event(String type, Params params) {
+            this.type = type;
+            this.params = params;
+        }
+    }
+
+    private static final class Action {
+        final Params input;
+        final Params output;
+
+        Action(Params input, Params output) {
+            this.input = input;
+            this.output = output;
+        }
+    }
+
+    /**
+     * 单个值的校验规则
+     */
+    private abstract static class Rule {
+
+        /**
+         * 模板定义有误，所有值都校验失败
+         */
+        static final Rule REJECT = new Rule() {
+            @Override
+            boolean check(Object value) {
+                return false;
+            }
+        };
+
+        /**
+         * BOOL类型取值0或者1
+         */
+        static final Rule BOOL = new Rule() {
+            @Override
+            boolean check(Object value) {
+                return value instanceof Integer && (((Integer) value) == 0 || ((Integer) value) == 1);
+            }
+        };
+
+        /**
+         * 时间类型为无符号整数 也有可能是长整数
+         */
+        static final Rule TIMESTAMP = new Rule() {
+            @Override
+            boolean check(Object value) {
+                return value instanceof Integer || value instanceof Long;
+            }
+        };
+
+        abstract boolean check(Object value);
+    }
+
+    private static final class IntRule extends Rule {
+        private final int mMin;
+        private final int mMax;
+        private final boolean mAcceptLong;
+
+        IntRule(int min, int max, boolean acceptLong) {
+            this.mMin = min;
+            this.mMax = max;
+            this.mAcceptLong = acceptLong;
+        }
+
+        @Override
+        boolean check(Object value) {
+            if (!(value instanceof Integer || mAcceptLong && value instanceof Long)) {
+                return false;
+            }
+            int intValue = ((Number) value).intValue();
+            return intValue >= mMin && intValue <= mMax;
+        }
+    }
+
+    private static final class DecimalRule extends Rule {
+        private final float mFloatMin;
+        private final float mFloatMax;
+        private final double mDoubleMin;
+        private final double mDoubleMax;
+        private final boolean mAcceptFloat;
+        private final boolean mCompareAsFloat;
+
+        /**
+         * @param acceptFloat    是否接受 Float 类型的值，否则只接受 Double
+         * @param compareAsFloat Double 类型的值是否按 float 精度比较
+         */
+        DecimalRule(float floatMin, float floatMax, double doubleMin, double doubleMax,
+                    boolean acceptFloat, boolean compareAsFloat) {
+            this.mFloatMin = floatMin;
+            this.mFloatMax = floatMax;
+            this.mDoubleMin = doubleMin;
+            this.mDoubleMax = doubleMax;
+            this.mAcceptFloat = acceptFloat;
+            this.mCompareAsFloat = compareAsFloat;
+        }
+
+        @Override
+        boolean check(Object value) {
+            if (value instanceof Double) {
+                if (mCompareAsFloat) {
+                    float floatValue = ((Double) value).floatValue();
+                    return floatValue >= mFloatMin && floatValue <= mFloatMax;
+                }
+                double doubleValue = (Double) value;
+                return doubleValue >= mDoubleMin && doubleValue <= mDoubleMax;
+            }
+            if (mAcceptFloat && value instanceof Float) {
+                float floatValue = (Float) value;
+                return floatValue >= mFloatMin && floatValue <= mFloatMax;
+            }
+            return false;
+        }
+    }
+
+    private static final class StringRule extends Rule {
+        private final int mMinLength;
+        private final int mMaxLength;
+
+        StringRule(int minLength, int maxLength) {
+            this.mMinLength = minLength;
+            this.mMaxLength = maxLength;
+        }
+
+        @Override
+        boolean check(Object value) {
+            if (!(value instanceof String)) {
+                return false;
+            }
+            int length = ((String) value).length();
+            return length >= mMinLength && length <= mMaxLength;
+        }
+    }
+
+    private static final class EnumRule extends Rule {
+        private final Set<Integer> mValues;
+
+        EnumRule(Set<Integer> values) {
+            this.mValues = values;
+        }
+
+        @Override
+        boolean check(Object value) {
+            return value instanceof Integer && mValues.contains(value);
+        }
+    }
+
+    private static final class StructRule extends Rule {
+        private final Map<String, Rule> mMembers;
+        private final boolean mRequireObject;
+
+        /**
+         * @param members       成员 id 与对应的规则
+         * @param requireObject 值不是 JSONObject 时是否校验失败，否则不检查
+         */
+        StructRule(Map<String, Rule> members, boolean requireObject) {
+            this.mMembers = members;
+            this.mRequireObject = requireObject;
+        }
+
+        @Override
+        boolean check(Object value) {
+            if (!(value instanceof JSONObject)) {
+                return !mRequireObject;
+            }
+            JSONObject json = (JSONObject) value;
+            Iterator<String> it = json.keys();
+            while (it.hasNext()) {
+                String key = it.next();
+                Rule member = mMembers.get(key);
+                if (member == null || !member.check(json.opt(key))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class ArrayRule extends Rule {
+        private final Rule mElement;
+
+        /**
+         * @param element 成员规则，为 null 时任何数组都校验失败
+         */
+        ArrayRule(Rule element) {
+            this.mElement = element;
+        }
+
+        @Override
+        boolean check(Object value) {
+            // 不是数组时不检查
+            if (!(value instanceof JSONArray)) {
+                return true;
+            }
+            if (mElement == null) {
+                return false;
+            }
+            JSONArray array = (JSONArray) value;
+            for (int i = 0; i < array.length(); i++) {
+                if (!mElement.check(array.opt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
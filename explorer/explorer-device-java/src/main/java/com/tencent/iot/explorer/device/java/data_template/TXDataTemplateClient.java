@@ -8,7 +8,6 @@ import com.tencent.iot.hub.device.java.core.mqtt.TXMqttConstants;
 
 import org.eclipse.paho.client.mqttv3.DisconnectedBufferOptions;
 import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
-import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
@@ -36,6 +35,7 @@ public class TXDataTemplateClient extends TXMqttConnection {
         super( serverURI, productID, deviceName, secretKey, bufferOpts, clientPersistence, callBack);
         this.mDataTemplate = new TXDataTemplate(this,  productID,  deviceName, jsonFileName, jsonFilePath, downStreamCallBack);
         this.mPropertyDownStreamTopic = mDataTemplate.mPropertyDownStreamTopic;
+        this.mDataTemplate.registerTopicHandlers(mTopicRouter);
     }
 
     public boolean isConnected() {
@@ -117,16 +117,4 @@ public class TXDataTemplateClient extends TXMqttConnection {
     public Status eventsPost(JSONArray events) {
        return mDataTemplate.eventsPost(events);
     }
-
-    /**
-     * 消息到达回调函数
-     * @param topic   消息主题
-     * @param message 消息内容
-     * @throws Exception 异常
-     */
-    @Override
-    public void messageArrived(String topic, MqttMessage message) throws Exception {
-        super.messageArrived(topic, message);
-        mDataTemplate.onMessageArrived(topic, message);
-    }
 }
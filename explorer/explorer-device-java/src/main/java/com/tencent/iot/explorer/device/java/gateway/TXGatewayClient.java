@@ -20,9 +20,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.tencent.iot.hub.device.java.core.common.Status;
+import com.tencent.iot.hub.device.java.core.json.TXJsonCodecs;
 import com.tencent.iot.hub.device.java.core.mqtt.TXAlarmPingSender;
 import com.tencent.iot.hub.device.java.core.mqtt.TXMqttActionCallBack;
 import com.tencent.iot.hub.device.java.core.mqtt.TXMqttConstants;
+import com.tencent.iot.hub.device.java.core.mqtt.TXTopicHandler;
 import com.tencent.iot.hub.device.java.core.util.Base64;
 import com.tencent.iot.hub.device.java.core.util.HmacSha256;
 
@@ -40,6 +42,12 @@ public class TXGatewayClient extends TXDataTemplateClient {
                             MqttClientPersistence clientPersistence, TXMqttActionCallBack callBack,
                             final String jsonFileName, final String jsonFilePath, TXDataTemplateDownStreamCallBack downStreamCallBack) {
         super( serverURI, productID, deviceName, secretKey, bufferOpts, clientPersistence, callBack, jsonFileName, jsonFilePath, downStreamCallBack);
+        mTopicRouter.addHandler(GW_OPERATION_RES_PREFIX + "#", new TXTopicHandler() {
+            @Override
+            public boolean onMessageArrived(String topic, MqttMessage message) {
+                return consumeGwOperationMsg(topic, message);
+            }
+        });
     }
 
     /**
@@ -180,7 +188,7 @@ public class TXGatewayClient extends TXDataTemplateClient {
 
         MqttMessage message = new MqttMessage();
         message.setQos(0);
-        message.setPayload(obj.toString().getBytes());
+        message.setPayload(TXJsonCodecs.getDefault().encode(obj));
         LOG.debug("publish message " + message);
         return super.publish(topic, message, null);
     }
@@ -333,7 +341,7 @@ public class TXGatewayClient extends TXDataTemplateClient {
 
         try {
             byte[] payload = message.getPayload();
-            JSONObject jsonObject = new JSONObject(new String(payload));
+            JSONObject jsonObject = TXJsonCodecs.getDefault().decode(payload);
             String type = jsonObject.getString("type");
 
             JSONObject payload_json = jsonObject.getJSONObject("payload");
@@ -375,20 +383,18 @@ public class TXGatewayClient extends TXDataTemplateClient {
     @Override
     public void messageArrived(String topic, MqttMessage message) throws Exception {
         LOG.debug("message received " + topic);
-        if (!consumeGwOperationMsg(topic, message)) {
-            String [] productInfo = topic.split("/");
-            String productId = productInfo[3];
-            String devName = productInfo[4];
+        String [] productInfo = topic.split("/");
+        String productId = productInfo[3];
+        String devName = productInfo[4];
 
-            if(this.mProductId.equals(productId) && this.mDeviceName.equals(devName)) {
-                super.messageArrived(topic, message);
+        if(this.mProductId.equals(productId) && this.mDeviceName.equals(devName)) {
+            super.messageArrived(topic, message);
+        } else {
+            TXGatewaySubdev subdev= findSubdev(productId, devName);
+            if(null != subdev) {
+                subdev.onMessageArrived(topic, message);
             } else {
-                TXGatewaySubdev subdev= findSubdev(productId, devName);
-                if(null != subdev) {
-                    subdev.onMessageArrived(topic, message);
-                } else {
-                    LOG.error("Sub dev should be added! Product id:" + productId + ", Device Name:" + devName);
-                }
+                LOG.error("Sub dev should be added! Product id:" + productId + ", Device Name:" + devName);
             }
         }
     }
@@ -0,0 +1,202 @@
+package com.tencent.iot.explorer.device.java.data_template;
+
+import com.tencent.iot.explorer.device.java.utils.ILog;
+import com.tencent.iot.hub.device.java.core.common.Status;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+public class DataTemplateValidatorTest {
+
+    private static final int PROPERTY_COUNT = 100;
+
+    private static final ILog SILENT_LOG = new ILog() {
+        @Override
+        public void debug(String tag, String msg) {
+        }
+
+        @Override
+        public void info(String tag, String msg) {
+        }
+
+        @Override
+        public void warn(String tag, String msg) {
+        }
+
+        @Override
+        public void error(String tag, String msg) {
+        }
+    };
+
+    private DataTemplateJson mTemplate;
+
+    @Before
+    public void setUp() {
+        mTemplate = new DataTemplateJson(SILENT_LOG) {
+            {
+                JSONObject json = buildTemplate();
+                mPropertyJson = json.getJSONArray("properties");
+                mEventJson = json.getJSONArray("events");
+                mActionJson = json.getJSONArray("actions");
+                compileDataTemplate();
+            }
+        };
+    }
+
+    private static JSONObject buildTemplate() {
+        JSONArray properties = new JSONArray();
+        for (int i = 0; i < PROPERTY_COUNT; i++) {
+            properties.put(new JSONObject().put("id", "property" + i).put("define", define(i % 8)));
+        }
+        JSONArray params = new JSONArray()
+                .put(new JSONObject().put("id", "code").put("define", define(1)))
+                .put(new JSONObject().put("id", "message").put("define", define(3)));
+        JSONObject event = new JSONObject().put("id", "status_report").put("type", "info").put("params", params);
+        JSONObject action = new JSONObject().put("id", "blink").put("input", params).put("output", params);
+        return new JSONObject()
+                .put("properties", properties)
+                .put("events", new JSONArray().put(event))
+                .put("actions", new JSONArray().put(action));
+    }
+
+    private static JSONObject define(int kind) {
+        switch (kind) {
+            case 0:
+                return new JSONObject().put("type", "bool");
+            case 1:
+                return new JSONObject().put("type", "int").put("min", "0").put("max", "100");
+            case 2:
+                return new JSONObject().put("type", "float").put("min", "-10.5").put("max", "60");
+            case 3:
+                return new JSONObject().put("type", "string").put("min", "0").put("max", "8");
+            case 4:
+                return new JSONObject().put("type", "enum")
+                        .put("mapping", new JSONObject().put("0", "Red").put("1", "Green").put("2", "Blue"));
+            case 5:
+                return new JSONObject().put("type", "timestamp");
+            case 6:
+                JSONArray specs = new JSONArray()
+                        .put(new JSONObject().put("id", "x").put("dataType", define(1)))
+                        .put(new JSONObject().put("id", "label").put("dataType", define(3)));
+                return new JSONObject().put("type", "struct").put("specs", specs);
+            default:
+                return new JSONObject().put("type", "array").put("arrayInfo", define(1));
+        }
+    }
+
+    private static Object validValue(int kind, int i) {
+        switch (kind) {
+            case 0:
+                return i & 1;
+            case 1:
+                return i;
+            case 2:
+                return i * 0.5;
+            case 3:
+                return "v" + i;
+            case 4:
+                return i % 3;
+            case 5:
+                return 1600000000123L;
+            case 6:
+                return new JSONObject().put("x", i).put("label", "s");
+            default:
+                return new JSONArray().put(1).put(i);
+        }
+    }
+
+    private static JSONObject report() {
+        JSONObject property = new JSONObject();
+        for (int i = 0; i < PROPERTY_COUNT; i++) {
+            property.put("property" + i, validValue(i % 8, i));
+        }
+        return property;
+    }
+
+    private Status checkOne(int index, Object value) {
+        return mTemplate.checkPropertyJson(new JSONObject().put("property" + index, value));
+    }
+
+    @Test
+    public void testPropertyValues() {
+        assertEquals(Status.OK, mTemplate.checkPropertyJson(report()));
+        assertEquals(Status.PARAMETER_INVALID, mTemplate.checkPropertyJson(new JSONObject().put("unknown", 1)));
+
+        assertEquals(Status.PARAMETER_INVALID, checkOne(0, 2));
+        assertEquals(Status.PARAMETER_INVALID, checkOne(1, 101));
+        assertEquals(Status.PARAMETER_INVALID, checkOne(1, "1"));
+        assertEquals(Status.OK, checkOne(2, -10.5f));
+        assertEquals(Status.PARAMETER_INVALID, checkOne(2, 60.1));
+        assertEquals(Status.PARAMETER_INVALID, checkOne(2, 1));
+        assertEquals(Status.PARAMETER_INVALID, checkOne(3, "123456789"));
+        assertEquals(Status.PARAMETER_INVALID, checkOne(4, 3));
+        assertEquals(Status.OK, checkOne(5, 1));
+        assertEquals(Status.PARAMETER_INVALID, checkOne(5, 1.0));
+        assertEquals(Status.PARAMETER_INVALID, checkOne(6, new JSONObject().put("x", 1).put("y", 1)));
+        assertEquals(Status.PARAMETER_INVALID, checkOne(6, new JSONObject().put("x", 1).put("label", "too long!")));
+        assertEquals(Status.OK, checkOne(6, new JSONObject().put("x", 1L)));
+        assertEquals(Status.OK, checkOne(7, new JSONArray()));
+        assertEquals(Status.PARAMETER_INVALID, checkOne(7, new JSONArray().put(1).put(200)));
+    }
+
+    @Test
+    public void testEventsAndActions() {
+        JSONObject params = new JSONObject().put("code", 0).put("message", "ok");
+        assertEquals(Status.OK, mTemplate.checkEventJson("status_report", "info", params));
+        assertEquals(Status.PARAMETER_INVALID, mTemplate.checkEventJson("status_report", "alert", params));
+        assertEquals(Status.PARAMETER_INVALID, mTemplate.checkEventJson("no_such_event", "info", params));
+        assertEquals(Status.PARAMETER_INVALID, mTemplate.checkEventJson("status_report", "info",
+                new JSONObject().put("code", 0).put("extra", 1)));
+
+        JSONArray events = new JSONArray().put(new JSONObject().put("eventId", "status_report")
+                .put("type", "info").put("timestamp", 1600000000123L).put("params", params));
+        assertEquals(Status.OK, mTemplate.checkEventsJson(events));
+
+        assertEquals(Status.OK, mTemplate.checkActionJson("blink", params));
+        assertEquals(Status.PARAMETER_INVALID, mTemplate.checkActionJson("blink", new JSONObject().put("code", 0)));
+        assertEquals(Status.PARAMETER_INVALID, mTemplate.checkActionJson("no_such_action", params));
+        assertEquals(Status.PARAMETER_INVALID, mTemplate.checkActionReplyJson("blink",
+                new JSONObject().put("code", -1).put("message", "ok")));
+    }
+
+    /**
+     * 100 个属性的模板上，单个属性与整份属性上报的校验吞吐量：-Dbenchmark=true
+     */
+    @Test
+    public void benchmarkValidation() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        JSONObject report = report();
+        JSONObject[] singles = new JSONObject[PROPERTY_COUNT];
+        for (int i = 0; i < PROPERTY_COUNT; i++) {
+            singles[i] = new JSONObject().put("property" + i, report.get("property" + i));
+        }
+
+        int iterations = 200000;
+        for (int i = 0; i < iterations / 10; i++) {
+            mTemplate.checkPropertyJson(singles[i % PROPERTY_COUNT]);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (Status.OK != mTemplate.checkPropertyJson(singles[i % PROPERTY_COUNT])) {
+                throw new AssertionError("property" + i % PROPERTY_COUNT);
+            }
+        }
+        long single = System.nanoTime() - start;
+
+        int reports = iterations / PROPERTY_COUNT;
+        start = System.nanoTime();
+        for (int i = 0; i < reports; i++) {
+            mTemplate.checkPropertyJson(report);
+        }
+        long full = System.nanoTime() - start;
+
+        System.out.println(String.format("%d property template, single property: %.0f validations/s, "
+                        + "full report: %.0f reports/s (%.0f values/s)", PROPERTY_COUNT,
+                iterations * 1e9 / single, reports * 1e9 / full, reports * PROPERTY_COUNT * 1e9 / full));
+    }
+}
@@ -324,10 +324,9 @@ public class TXMqttConnection extends com.tencent.iot.hub.device.java.core.mqtt.
      * @param obj 日志内容
      */
     public void mLog(int logLevel, final String tag,final String format, final Object... obj) {
-        if( mMqttLog != null) {
-            if( !(mMqttLog.saveMqttLog(logLevel, tag, format, obj))) {
-                TXLog.w(tag, "Save %s Level Log failed!", TXMqttLog.level_str[logLevel] );
-            }
+        // 低于设置级别的日志直接丢弃，不构造任何字符串
+        if (mMqttLog != null && mMqttLog.isLoggable(logLevel)) {
+            mMqttLog.saveMqttLog(logLevel, tag, format, obj);
         }
     }
 
@@ -344,10 +343,9 @@ public class TXMqttConnection extends com.tencent.iot.hub.device.java.core.mqtt.
      * @param msg 日志内容
      */
     public void mLog(int logLevel, final String tag, final String msg) {
-        if( mMqttLog != null) {
-            if( !(mMqttLog.saveMqttLog(logLevel, tag, msg))) {
-                TXLog.w(tag, "Save %s Level Log failed!", TXMqttLog.level_str[logLevel] );
-            }
+        // 低于设置级别的日志直接丢弃，不构造任何字符串
+        if (mMqttLog != null && mMqttLog.isLoggable(logLevel)) {
+            mMqttLog.saveMqttLog(logLevel, tag, msg);
         }
     }
 
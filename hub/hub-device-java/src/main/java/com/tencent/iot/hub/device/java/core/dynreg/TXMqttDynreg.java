@@ -1,7 +1,7 @@
 package com.tencent.iot.hub.device.java.core.dynreg;
 
 import com.tencent.iot.hub.device.java.core.util.Base64;
-import com.tencent.iot.hub.device.java.core.util.HmacSha256;
+import com.tencent.iot.hub.device.java.core.util.TXRequestSigner;
 import com.tencent.iot.hub.device.java.utils.Loggor;
 
 import org.json.JSONException;
@@ -20,13 +20,11 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -38,7 +36,6 @@ import javax.crypto.spec.SecretKeySpec;
 public class TXMqttDynreg {
     private static final String TAG = TXMqttDynreg.class.getSimpleName();
     private static final Logger logger = LoggerFactory.getLogger(TXMqttDynreg.class);
-    private static final String HMAC_ALGO = "hmacsha256";
     private static final String DECRYPT_MODE = "AES/CBC/NoPadding";
 
     private String mProductKey;
@@ -48,6 +45,11 @@ public class TXMqttDynreg {
 
     private TXMqttDynregCallback mCallback;
 
+    /**
+     * 请求签名，首次请求时根据产品密钥创建并复用
+     */
+    private TXRequestSigner mSigner;
+
     // 默认的动态注册 URL，文档链接：https://cloud.tencent.com/document/product/634/47225
     private final String mDefaultDynRegUrl ="https://ap-guangzhou.gateway.tencentdevices.com/device/register";
 
@@ -139,7 +141,7 @@ public class TXMqttDynreg {
                 conn.setRequestMethod("POST");
                 conn.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
                 conn.setRequestProperty("Accept","application/json");
-                conn.setRequestProperty("X-TC-Algorithm", HMAC_ALGO);
+                conn.setRequestProperty("X-TC-Algorithm", TXRequestSigner.HMAC_SHA256_ALGO);
                 conn.setRequestProperty("X-TC-Timestamp", timestamp);
                 conn.setRequestProperty("X-TC-Nonce", nonce);
                 conn.setRequestProperty("X-TC-Signature", signature);
@@ -233,18 +235,9 @@ public class TXMqttDynreg {
      * @return 动态注册结果；true：OK；false：ERROR
      */
     public boolean doDynamicRegister() {
-        Mac mac = null;
-
-        try {
-            mac = Mac.getInstance(HMAC_ALGO);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return false;
-        }
         int randNum = (int)(Math.random() * ((1 << 31) - 1));
         String hmacSign;
         int timestamp = (int)(System.currentTimeMillis() / 1000);
-        SecretKeySpec signKey = new SecretKeySpec(mProductKey.getBytes(), HMAC_ALGO);
 
         final JSONObject obj = new JSONObject();
         try {
@@ -255,35 +248,12 @@ public class TXMqttDynreg {
             return false;
         }
         String originRequest = obj.toString();
-        String hashedRequest = "";
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] encodedhash = digest.digest(originRequest.getBytes(Charset.forName("UTF-8")));
-            hashedRequest = HmacSha256.bytesToHexString(encodedhash);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-
-        @SuppressWarnings("DefaultLocale")
-        String signSourceStr = String.format("%s\n%s\n%s\n%s\n%s\n%d\n%d\n%s",
-                "POST",
-                "ap-guangzhou.gateway.tencentdevices.com",
-                "/device/register",
-                "",
-                HMAC_ALGO,
-                timestamp,
-                randNum,
-                hashedRequest
-                );
-
-        try {
-            mac.init(signKey);
-            byte[] rawHmac = mac.doFinal(signSourceStr.getBytes());
-            hmacSign = Base64.encodeToString(rawHmac, Base64.NO_WRAP);
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
+        TXRequestSigner signer = getSigner();
+        if (!signer.isValid()) {
             return false;
         }
+        String signSourceStr = signer.buildStringToSign("/device/register", originRequest.getBytes(Charset.forName("UTF-8")), timestamp, randNum);
+        hmacSign = signer.sign(signSourceStr);
 
         Loggor.info(TAG, "Register request " + obj + "; signSourceStr:" + signSourceStr);
         HttpPostThread httpThread = new HttpPostThread(obj.toString(), mDefaultDynRegUrl,
@@ -292,4 +262,11 @@ public class TXMqttDynreg {
 
         return true;
     }
+
+    private synchronized TXRequestSigner getSigner() {
+        if (mSigner == null) {
+            mSigner = new TXRequestSigner(mProductKey);
+        }
+        return mSigner;
+    }
 }
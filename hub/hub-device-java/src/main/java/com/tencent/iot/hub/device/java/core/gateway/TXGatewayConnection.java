@@ -1,18 +1,15 @@
 package com.tencent.iot.hub.device.java.core.gateway;
 
 import com.tencent.iot.hub.device.java.core.common.Status;
-import com.tencent.iot.hub.device.java.core.mqtt.TXAlarmPingSender;
+import com.tencent.iot.hub.device.java.core.json.TXJsonCodecs;
 import com.tencent.iot.hub.device.java.core.mqtt.TXMqttActionCallBack;
 import com.tencent.iot.hub.device.java.core.mqtt.TXMqttConnection;
 import com.tencent.iot.hub.device.java.core.mqtt.TXMqttConstants;
-import com.tencent.iot.hub.device.java.core.util.Base64;
-import com.tencent.iot.hub.device.java.core.util.HmacSha256;
+import com.tencent.iot.hub.device.java.core.mqtt.TXTopicHandler;
 import com.tencent.iot.hub.device.java.utils.Loggor;
 
 import org.eclipse.paho.client.mqttv3.DisconnectedBufferOptions;
-import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttToken;
-import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
@@ -63,6 +60,12 @@ public class TXGatewayConnection extends TXMqttConnection {
 			DisconnectedBufferOptions bufferOpts, MqttClientPersistence clientPersistence,
 			TXMqttActionCallBack callBack) {
 		super(serverURI, productID, deviceName, secretKey, bufferOpts, clientPersistence, callBack);
+		mTopicRouter.addHandler(GW_OPERATION_RES_PREFIX + "#", new TXTopicHandler() {
+			@Override
+			public boolean onMessageArrived(String topic, MqttMessage message) {
+				return consumeGwOperationMsg(topic, message);
+			}
+		});
 	}
 
 	/**
@@ -228,7 +231,7 @@ public class TXGatewayConnection extends TXMqttConnection {
 		}
 		MqttMessage message = new MqttMessage();
 		message.setQos(0);
-		message.setPayload(obj.toString().getBytes());
+		message.setPayload(TXJsonCodecs.getDefault().encode(obj));
 		Loggor.debug(TAG, "publish message " + message);
 
 		return super.publish(topic, message, null);
@@ -265,7 +268,7 @@ public class TXGatewayConnection extends TXMqttConnection {
 
 		MqttMessage message = new MqttMessage();
 		message.setQos(0);
-		message.setPayload(obj.toString().getBytes());
+		message.setPayload(TXJsonCodecs.getDefault().encode(obj));
 		Loggor.debug(TAG,  "publish to "+topic+" message " + message);
 
 		return super.publish(topic, message, null);
@@ -333,7 +336,7 @@ public class TXGatewayConnection extends TXMqttConnection {
 
 		MqttMessage message = new MqttMessage();
 		message.setQos(0);
-		message.setPayload(obj.toString().getBytes());
+		message.setPayload(TXJsonCodecs.getDefault().encode(obj));
 		Loggor.debug(TAG,  "publish message " + message);
 
 		return super.publish(topic, message, null);
@@ -368,7 +371,7 @@ public class TXGatewayConnection extends TXMqttConnection {
 
 		MqttMessage message = new MqttMessage();
 		message.setQos(0);
-		message.setPayload(obj.toString().getBytes());
+		message.setPayload(TXJsonCodecs.getDefault().encode(obj));
 		Loggor.debug(TAG, "publish message " + message);
 
 		return super.publish(topic, message, null);
@@ -391,7 +394,7 @@ public class TXGatewayConnection extends TXMqttConnection {
 
 		MqttMessage message = new MqttMessage();
 		message.setQos(0);
-		message.setPayload(obj.toString().getBytes());
+		message.setPayload(TXJsonCodecs.getDefault().encode(obj));
 		Loggor.debug(TAG, "publish message " + message);
 
 		return super.publish(topic, message, null);
@@ -413,7 +416,7 @@ public class TXGatewayConnection extends TXMqttConnection {
 
 		MqttMessage message = new MqttMessage();
 		// 这里添加获取到的数据
-		message.setPayload(obj.toString().getBytes());
+		message.setPayload(TXJsonCodecs.getDefault().encode(obj));
 		message.setQos(1);
 		String topic = String.format("$config/report/%s/%s", mProductId, mDeviceName);
 		return super.publish(topic, message, null);
@@ -438,7 +441,7 @@ public class TXGatewayConnection extends TXMqttConnection {
 
 		try {
 			byte[] payload = message.getPayload();
-			JSONObject jsonObject = new JSONObject(new String(payload));
+			JSONObject jsonObject = TXJsonCodecs.getDefault().decode(payload);
 
 			String type = jsonObject.getString("type");
 			if (type.equalsIgnoreCase("online")) {
@@ -473,117 +476,28 @@ public class TXGatewayConnection extends TXMqttConnection {
 	}
 
 	/**
-	 * 消息到达回调
+	 * 连接 MQTT 服务，不等待连接结果，结果通过回调函数通知
 	 *
-	 * @param topic 消息主题
-	 * @param message 消息内容结构体
-	 * @throws Exception
+	 * @param options 连接参数
+	 * @param userContext 用户上下文（这个参数在回调函数时透传给用户）
+	 * @return 操作结果 {@link Status}
 	 */
 	@Override
-	public void messageArrived(String topic, MqttMessage message) throws Exception {
-		Loggor.debug(TAG, "message received " + topic);
-		if (!consumeGwOperationMsg(topic, message)) {
-			super.messageArrived(topic, message);
-		}
+	public Status connect(MqttConnectOptions options, Object userContext) {
+		return connectAsync(options, userContext);
 	}
 
 	/**
-	 * 连接 MQTT 服务
+	 * 连接建立后，订阅网关操作结果 topic
 	 *
-	 * @param options 连接参数
-	 * @param userContext 用户上下文（这个参数在回调函数时透传给用户）
-	 * @return 操作结果 {@link Status}
+	 * @param token 连接 token
 	 */
 	@Override
-	public synchronized Status connect(MqttConnectOptions options, Object userContext) {
-		if (mConnectStatus.equals(TXMqttConstants.ConnectStatus.kConnecting)) {
-			Loggor.info(TAG, "The client is connecting. Connect return directly.");
-			return Status.MQTT_CONNECT_IN_PROGRESS;
-		}
-
-		if (mConnectStatus.equals(TXMqttConstants.ConnectStatus.kConnected)) {
-			Loggor.info(TAG, "The client is already connected. Connect return directly.");
-			return Status.OK;
-		}
-
-		this.mConnOptions = options;
-		if (mConnOptions == null) {
-			Loggor.error(TAG, "Connect options == null, will not connect.");
-			return Status.PARAMETER_INVALID;
-		}
-
-		Long timestamp;
-		if (options.isAutomaticReconnect()) {
-			timestamp = (long) Integer.MAX_VALUE;
-		} else {
-			timestamp = System.currentTimeMillis() / 1000 + 600;
-		}
-
-		String userNameStr = mUserName + ";" + getConnectId() + ";" + timestamp;
-		Loggor.debug(TAG, "**** userNameStr is " + userNameStr + " timestamp " + timestamp);
-
-		mConnOptions.setUserName(userNameStr);
+	protected void onConnectSuccess(IMqttToken token) {
+		String gwTopic = GW_OPERATION_RES_PREFIX + mProductId + "/" + mDeviceName;
+		int qos = TXMqttConstants.QOS1;
 
-		if (mSecretKey != null) {
-			try {
-				String passWordStr = HmacSha256.getSignature(userNameStr.getBytes(),
-						Base64.decode(mSecretKey, Base64.DEFAULT)) + ";hmacsha256";
-				mConnOptions.setPassword(passWordStr.toCharArray());
-			} catch (IllegalArgumentException e) {
-				Loggor.debug(TAG, "Failed to set password");
-			}
-		}
-
-		mConnOptions.setMqttVersion(MqttConnectOptions.MQTT_VERSION_3_1_1);
-
-		IMqttActionListener mActionListener = new IMqttActionListener() {
-			@Override
-			public void onSuccess(IMqttToken token) {
-				Loggor.info(TAG, "onSuccess!");
-				setConnectingState(TXMqttConstants.ConnectStatus.kConnected);
-				mActionCallBack.onConnectCompleted(Status.OK, false, token.getUserContext(),
-						"connected to " + mServerURI);
-				// If the connection is established, subscribe the gateway
-				// operation topic
-				String gwTopic = GW_OPERATION_RES_PREFIX + mProductId + "/" + mDeviceName;
-				int qos = TXMqttConstants.QOS1;
-
-				subscribe(gwTopic, qos, "Subscribe GATEWAY result topic");
-				Loggor.debug(TAG, "Connected, then subscribe the gateway result topic");
-			}
-
-			@Override
-			public void onFailure(IMqttToken token, Throwable exception) {
-				Loggor.error(TAG, "onFailure!" + exception);
-				setConnectingState(TXMqttConstants.ConnectStatus.kConnectFailed);
-				mActionCallBack.onConnectCompleted(Status.ERROR, false, token.getUserContext(), exception.toString());
-			}
-		};
-
-		if (mMqttClient == null) {
-			try {
-				mPingSender = new TXAlarmPingSender();
-				mMqttClient = new MqttAsyncClient(mServerURI, mClientId, mMqttPersist, mPingSender);
-				mMqttClient.setCallback(this);
-				mMqttClient.setBufferOpts(super.bufferOpts);
-				mMqttClient.setManualAcks(false);
-			} catch (Exception e) {
-				Loggor.error(TAG, "new MqttClient failed" + e);
-				setConnectingState(TXMqttConstants.ConnectStatus.kConnectFailed);
-				return Status.ERROR;
-			}
-		}
-
-		try {
-			Loggor.info(TAG, "Start connecting to " + mServerURI);
-			setConnectingState(TXMqttConstants.ConnectStatus.kConnecting);
-			mMqttClient.connect(mConnOptions, userContext, mActionListener);
-		} catch (Exception e) {
-			Loggor.error(TAG, "MqttClient connect failed" + e);
-			setConnectingState(TXMqttConstants.ConnectStatus.kConnectFailed);
-			return Status.ERROR;
-		}
-
-		return Status.OK;
+		subscribe(gwTopic, qos, "Subscribe GATEWAY result topic");
+		Loggor.debug(TAG, "Connected, then subscribe the gateway result topic");
 	}
 }
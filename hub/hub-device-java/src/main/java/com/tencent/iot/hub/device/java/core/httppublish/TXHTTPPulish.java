@@ -1,7 +1,6 @@
 package com.tencent.iot.hub.device.java.core.httppublish;
 
-import com.tencent.iot.hub.device.java.core.util.Base64;
-import com.tencent.iot.hub.device.java.core.util.HmacSha256;
+import com.tencent.iot.hub.device.java.core.util.TXRequestSigner;
 import com.tencent.iot.hub.device.java.utils.Loggor;
 
 import org.json.JSONException;
@@ -16,12 +15,6 @@ import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.security.InvalidKeyException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 
 
 /**
@@ -30,7 +23,6 @@ import javax.crypto.spec.SecretKeySpec;
 public class TXHTTPPulish {
     private static final String TAG = TXHTTPPulish.class.getSimpleName();
     private static final Logger logger = LoggerFactory.getLogger(TXHTTPPulish.class);
-    private static final String HMAC_ALGO = "hmacsha256";
     private static final String DECRYPT_MODE = "AES/CBC/NoPadding";
 
     private String mDevicePsk;
@@ -40,6 +32,11 @@ public class TXHTTPPulish {
 
     private TXHttpPublishCallback mCallback;
 
+    /**
+     * 请求签名，首次请求时根据设备密钥创建并复用
+     */
+    private TXRequestSigner mSigner;
+
     // 默认的设备基于 HTTP 协议接入 URL，文档链接：https://cloud.tencent.com/document/product/634/36123
     private final String mDefaultHttpPublishUrl ="https://ap-guangzhou.gateway.tencentdevices.com/device/publish";
 
@@ -111,7 +108,7 @@ public class TXHTTPPulish {
                 conn.setRequestMethod("POST");
                 conn.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
                 conn.setRequestProperty("Accept","application/json");
-                conn.setRequestProperty("X-TC-Algorithm", HMAC_ALGO);
+                conn.setRequestProperty("X-TC-Algorithm", TXRequestSigner.HMAC_SHA256_ALGO);
                 conn.setRequestProperty("X-TC-Timestamp", timestamp);
                 conn.setRequestProperty("X-TC-Nonce", nonce);
                 conn.setRequestProperty("X-TC-Signature", signature);
@@ -174,18 +171,9 @@ public class TXHTTPPulish {
      * @return true for publish OK, false for publish ERROR
      */
     public boolean doHttpPublish(String topicName, JSONObject payload, Integer qos) {
-        Mac mac = null;
-
-        try {
-            mac = Mac.getInstance(HMAC_ALGO);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return false;
-        }
         int randNum = (int)(Math.random() * ((1 << 31) - 1));
         String hmacSign;
         int timestamp = (int)(System.currentTimeMillis() / 1000);
-        SecretKeySpec signKey = new SecretKeySpec(mDevicePsk.getBytes(), HMAC_ALGO);
 
         final JSONObject obj = new JSONObject();
         try {
@@ -199,36 +187,12 @@ public class TXHTTPPulish {
             return false;
         }
         String originRequest = obj.toString();
-        String hashedRequest = "";
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] encodedhash = digest.digest(originRequest.getBytes(Charset.forName("UTF-8")));
-            hashedRequest = HmacSha256.bytesToHexString(encodedhash);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return false;
-        }
-
-        @SuppressWarnings("DefaultLocale")
-        String signSourceStr = String.format("%s\n%s\n%s\n%s\n%s\n%d\n%d\n%s",
-                "POST",
-                "ap-guangzhou.gateway.tencentdevices.com",
-                "/device/publish",
-                "",
-                HMAC_ALGO,
-                timestamp,
-                randNum,
-                hashedRequest
-                );
-
-        try {
-            mac.init(signKey);
-            byte[] rawHmac = mac.doFinal(signSourceStr.getBytes());
-            hmacSign = Base64.encodeToString(rawHmac, Base64.NO_WRAP);
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
+        TXRequestSigner signer = getSigner();
+        if (!signer.isValid()) {
             return false;
         }
+        String signSourceStr = signer.buildStringToSign("/device/publish", originRequest.getBytes(Charset.forName("UTF-8")), timestamp, randNum);
+        hmacSign = signer.sign(signSourceStr);
 
         Loggor.info(TAG, "Publish request " + obj + "; signSourceStr:" + signSourceStr);
         HttpPostThread httpThread = new HttpPostThread(obj.toString(), mHttpPublishUrl,
@@ -237,4 +201,11 @@ public class TXHTTPPulish {
 
         return true;
     }
+
+    private synchronized TXRequestSigner getSigner() {
+        if (mSigner == null) {
+            mSigner = new TXRequestSigner(mDevicePsk);
+        }
+        return mSigner;
+    }
 }
@@ -0,0 +1,30 @@
+package com.tencent.iot.hub.device.java.core.json;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * MQTT 消息的 JSON 编解码接口，消息内容统一为 UTF-8 字节
+ *
+ * 默认实现为 {@link TXStreamingJsonCodec}，可以通过 {@link TXJsonCodecs#setDefault(TXJsonCodec)} 替换。
+ * 实现必须可以在多个线程中同时使用。
+ */
+public interface TXJsonCodec {
+
+    /**
+     * 解析 JSON 对象
+     *
+     * @param data UTF-8 编码的消息内容
+     * @return 解析结果
+     * @throws JSONException 内容不是合法的 JSON 对象
+     */
+    JSONObject decode(byte[] data) throws JSONException;
+
+    /**
+     * 输出 JSON 对象
+     *
+     * @param object JSON 对象
+     * @return UTF-8 编码的 JSON 文本
+     */
+    byte[] encode(JSONObject object);
+}
@@ -0,0 +1,37 @@
+package com.tencent.iot.hub.device.java.core.json;
+
+import java.nio.charset.Charset;
+
+/**
+ * 进程内使用的 JSON 编解码实现
+ */
+public final class TXJsonCodecs {
+
+    /**
+     * 消息内容的字符集
+     */
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static volatile TXJsonCodec sDefault = new TXStreamingJsonCodec();
+
+    private TXJsonCodecs() {
+    }
+
+    /**
+     * 获取当前使用的编解码实现
+     *
+     * @return {@link TXJsonCodec}
+     */
+    public static TXJsonCodec getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * 替换编解码实现，例如使用 {@link TXOrgJsonCodec} 恢复原先基于 org.json 文本的实现
+     *
+     * @param codec 编解码实现，为 null 时恢复默认实现
+     */
+    public static void setDefault(TXJsonCodec codec) {
+        sDefault = codec != null ? codec : new TXStreamingJsonCodec();
+    }
+}
@@ -0,0 +1,320 @@
+package com.tencent.iot.hub.device.java.core.json;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 直接从 UTF-8 字节解析 JSON，不经过 String 与 JSONTokener
+ *
+ * 只接受标准 JSON；数字的类型与 org.json 一致（int 范围内为 Integer，其次为 Long，带小数或指数为 Double）。
+ */
+final class TXJsonParser {
+
+    private static final int MAX_DEPTH = 512;
+
+    private final byte[] mData;
+    private final int mEnd;
+    private int mPos;
+    private int mDepth = 0;
+    private char[] mChars;
+
+    TXJsonParser(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    TXJsonParser(byte[] data, int offset, int length) {
+        this.mData = data;
+        this.mPos = offset;
+        this.mEnd = offset + length;
+    }
+
+    JSONObject parseObjectValue() throws JSONException {
+        skipWhitespace();
+        if (mPos >= mEnd || mData[mPos] != '{') {
+            throw error("A JSONObject text must begin with '{'");
+        }
+        return parseObject();
+    }
+
+    private Object parseValue() throws JSONException {
+        skipWhitespace();
+        if (mPos >= mEnd) {
+            throw error("Unexpected end of data");
+        }
+        byte b = mData[mPos];
+        switch (b) {
+            case '{':
+                return parseObject();
+            case '[':
+                return parseArray();
+            case '"':
+                return parseString();
+            case 't':
+                expectLiteral("true");
+                return Boolean.TRUE;
+            case 'f':
+                expectLiteral("false");
+                return Boolean.FALSE;
+            case 'n':
+                expectLiteral("null");
+                return JSONObject.NULL;
+            default:
+                if (b == '-' || (b >= '0' && b <= '9')) {
+                    return parseNumber();
+                }
+                throw error("Unexpected character");
+        }
+    }
+
+    private JSONObject parseObject() throws JSONException {
+        enter();
+        mPos++;
+        JSONObject object = new JSONObject();
+        skipWhitespace();
+        if (peek() == '}') {
+            mPos++;
+            mDepth--;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a key");
+            }
+            String key = parseString();
+            skipWhitespace();
+            if (peek() != ':') {
+                throw error("Expected a ':' after a key");
+            }
+            mPos++;
+            Object value = parseValue();
+            if (object.has(key)) {
+                throw error("Duplicate key \"" + key + "\"");
+            }
+            object.put(key, value);
+            skipWhitespace();
+            byte b = peek();
+            mPos++;
+            if (b == '}') {
+                mDepth--;
+                return object;
+            }
+            if (b != ',') {
+                throw error("Expected a ',' or '}'");
+            }
+        }
+    }
+
+    private JSONArray parseArray() throws JSONException {
+        enter();
+        mPos++;
+        JSONArray array = new JSONArray();
+        skipWhitespace();
+        if (peek() == ']') {
+            mPos++;
+            mDepth--;
+            return array;
+        }
+        while (true) {
+            array.put(parseValue());
+            skipWhitespace();
+            byte b = peek();
+            mPos++;
+            if (b == ']') {
+                mDepth--;
+                return array;
+            }
+            if (b != ',') {
+                throw error("Expected a ',' or ']'");
+            }
+        }
+    }
+
+    private String parseString() throws JSONException {
+        int start = ++mPos;
+        // 没有转义字符时整段按 UTF-8 解码
+        for (int i = start; i < mEnd; i++) {
+            byte b = mData[i];
+            if (b == '"') {
+                mPos = i + 1;
+                return new String(mData, start, i - start, TXJsonCodecs.UTF_8);
+            }
+            if (b == '\\') {
+                return parseEscapedString(start);
+            }
+            if (b >= 0 && b < 0x20) {
+                throw error("Unterminated string");
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private String parseEscapedString(int start) throws JSONException {
+        if (mChars == null || mChars.length < mEnd - start) {
+            mChars = new char[Math.max(64, mEnd - start)];
+        }
+        char[] chars = mChars;
+        int count = 0;
+        int i = start;
+        while (i < mEnd) {
+            int b = mData[i] & 0xFF;
+            if (b == '"') {
+                mPos = i + 1;
+                return new String(chars, 0, count);
+            }
+            if (b == '\\') {
+                if (i + 1 >= mEnd) {
+                    break;
+                }
+                byte e = mData[i + 1];
+                i += 2;
+                switch (e) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        chars[count++] = (char) e;
+                        break;
+                    case 'b':
+                        chars[count++] = '\b';
+                        break;
+                    case 'f':
+                        chars[count++] = '\f';
+                        break;
+                    case 'n':
+                        chars[count++] = '\n';
+                        break;
+                    case 'r':
+                        chars[count++] = '\r';
+                        break;
+                    case 't':
+                        chars[count++] = '\t';
+                        break;
+                    case 'u':
+                        if (i + 4 > mEnd) {
+                            throw error("Illegal escape.");
+                        }
+                        chars[count++] = (char) ((hex(mData[i]) << 12) | (hex(mData[i + 1]) << 8)
+                                | (hex(mData[i + 2]) << 4) | hex(mData[i + 3]));
+                        i += 4;
+                        break;
+                    default:
+                        throw error("Illegal escape.");
+                }
+            } else if (b < 0x80) {
+                if (b < 0x20) {
+                    throw error("Unterminated string");
+                }
+                chars[count++] = (char) b;
+                i++;
+            } else {
+                // 多字节 UTF-8 序列，交给 JDK 解码
+                int len = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+                if (i + len > mEnd) {
+                    throw error("Unterminated string");
+                }
+                String s = new String(mData, i, len, TXJsonCodecs.UTF_8);
+                for (int k = 0; k < s.length(); k++) {
+                    chars[count++] = s.charAt(k);
+                }
+                i += len;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private Object parseNumber() throws JSONException {
+        int start = mPos;
+        boolean simple = true;
+        while (mPos < mEnd) {
+            byte b = mData[mPos];
+            if (b >= '0' && b <= '9' || b == '-') {
+                mPos++;
+            } else if (b == '.' || b == 'e' || b == 'E' || b == '+') {
+                simple = false;
+                mPos++;
+            } else {
+                break;
+            }
+        }
+        int len = mPos - start;
+        boolean negative = mData[start] == '-';
+        int digits = negative ? len - 1 : len;
+        // 不超过 18 位、没有前导 0 的整数直接计算；其余情况按 org.json 的规则转换
+        if (simple && digits > 0 && digits <= 18 && (digits == 1 || mData[negative ? start + 1 : start] != '0')) {
+            long value = 0;
+            boolean valid = true;
+            for (int i = negative ? start + 1 : start; i < mPos; i++) {
+                byte b = mData[i];
+                if (b < '0' || b > '9') {
+                    valid = false;
+                    break;
+                }
+                value = value * 10 + (b - '0');
+            }
+            if (valid && !(negative && value == 0)) {
+                value = negative ? -value : value;
+                if (value == (int) value) {
+                    return (int) value;
+                }
+                return value;
+            }
+        }
+        Object value = JSONObject.stringToValue(new String(mData, start, len, TXJsonCodecs.UTF_8));
+        if (!(value instanceof Number)) {
+            throw error("Invalid number");
+        }
+        return value;
+    }
+
+    private void expectLiteral(String literal) throws JSONException {
+        int n = literal.length();
+        if (mPos + n > mEnd) {
+            throw error("Unexpected end of data");
+        }
+        for (int i = 0; i < n; i++) {
+            if (mData[mPos + i] != literal.charAt(i)) {
+                throw error("Unexpected character");
+            }
+        }
+        mPos += n;
+    }
+
+    private void enter() throws JSONException {
+        if (++mDepth > MAX_DEPTH) {
+            throw error("Nesting too deep");
+        }
+    }
+
+    private byte peek() throws JSONException {
+        if (mPos >= mEnd) {
+            throw error("Unexpected end of data");
+        }
+        return mData[mPos];
+    }
+
+    private void skipWhitespace() {
+        while (mPos < mEnd) {
+            byte b = mData[mPos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return;
+            }
+            mPos++;
+        }
+    }
+
+    private int hex(byte b) throws JSONException {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        throw error("Illegal escape.");
+    }
+
+    private JSONException error(String message) {
+        return new JSONException(message + " at " + mPos);
+    }
+}
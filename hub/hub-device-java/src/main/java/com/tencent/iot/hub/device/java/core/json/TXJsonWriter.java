@@ -0,0 +1,462 @@
+package com.tencent.iot.hub.device.java.core.json;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 流式 JSON 输出，直接写入 UTF-8 字节，不创建中间的 JSONObject 与字符串
+ *
+ * 用法：writer.beginObject().name("method").value("report").name("params").value(params).endObject()，
+ * 最后通过 {@link #toByteArray()} 取出结果。调用 {@link #reset()} 后可以复用缓冲区。不能在多个线程中同时使用。
+ */
+public final class TXJsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(TXJsonCodecs.UTF_8);
+    private static final byte[] TRUE = "true".getBytes(TXJsonCodecs.UTF_8);
+    private static final byte[] FALSE = "false".getBytes(TXJsonCodecs.UTF_8);
+    private static final byte[] NULL = "null".getBytes(TXJsonCodecs.UTF_8);
+
+    private byte[] mBuf;
+    private int mCount = 0;
+
+    /**
+     * 每一层对象或数组中是否已经写入过元素
+     */
+    private boolean[] mHasElement = new boolean[8];
+    private int mDepth = 0;
+    private boolean mAfterName = false;
+
+    /**
+     * 构造函数
+     */
+    public TXJsonWriter() {
+        this(256);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param initialCapacity 缓冲区初始大小，单位：字节
+     */
+    public TXJsonWriter(int initialCapacity) {
+        mBuf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * 开始一个对象
+     *
+     * @return {@link TXJsonWriter}
+     */
+    public TXJsonWriter beginObject() {
+        return open('{');
+    }
+
+    /**
+     * 结束当前对象
+     *
+     * @return {@link TXJsonWriter}
+     */
+    public TXJsonWriter endObject() {
+        return close('}');
+    }
+
+    /**
+     * 开始一个数组
+     *
+     * @return {@link TXJsonWriter}
+     */
+    public TXJsonWriter beginArray() {
+        return open('[');
+    }
+
+    /**
+     * 结束当前数组
+     *
+     * @return {@link TXJsonWriter}
+     */
+    public TXJsonWriter endArray() {
+        return close(']');
+    }
+
+    /**
+     * 写入对象中的字段名，之后必须写入一个值
+     *
+     * @param name 字段名
+     * @return {@link TXJsonWriter}
+     */
+    public TXJsonWriter name(String name) {
+        if (mDepth == 0 || mAfterName) {
+            throw new IllegalStateException("name outside of object");
+        }
+        separator();
+        writeString(name);
+        write(':');
+        mAfterName = true;
+        return this;
+    }
+
+    /**
+     * 写入字符串，为 null 时写入 null
+     *
+     * @param value 字符串
+     * @return {@link TXJsonWriter}
+     */
+    public TXJsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    /**
+     * 写入整数
+     *
+     * @param value 整数
+     * @return {@link TXJsonWriter}
+     */
+    public TXJsonWriter value(long value) {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * 写入浮点数，格式与 org.json 一致
+     *
+     * @param value 浮点数，不能为 NaN 或无穷大
+     * @return {@link TXJsonWriter}
+     */
+    public TXJsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new JSONException("JSON does not allow non-finite numbers.");
+        }
+        beforeValue();
+        writeAscii(JSONObject.numberToString(value));
+        return this;
+    }
+
+    /**
+     * 写入单精度浮点数，按 float 的精度输出，例如 0.1f 输出为 0.1
+     *
+     * @param value 浮点数，不能为 NaN 或无穷大
+     * @return {@link TXJsonWriter}
+     */
+    public TXJsonWriter value(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            throw new JSONException("JSON does not allow non-finite numbers.");
+        }
+        beforeValue();
+        writeAscii(JSONObject.numberToString(value));
+        return this;
+    }
+
+    /**
+     * 写入布尔值
+     *
+     * @param value 布尔值
+     * @return {@link TXJsonWriter}
+     */
+    public TXJsonWriter value(boolean value) {
+        beforeValue();
+        write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    /**
+     * 写入 null
+     *
+     * @return {@link TXJsonWriter}
+     */
+    public TXJsonWriter nullValue() {
+        beforeValue();
+        write(NULL);
+        return this;
+    }
+
+    /**
+     * 写入任意值，支持 org.json 中可以保存的所有类型
+     *
+     * @param value 字符串、数字、布尔值、{@link JSONObject}、{@link JSONArray}、{@link Map}、{@link Collection}、
+     *              数组、{@link JSONString} 或 {@link JSONObject#NULL}
+     * @return {@link TXJsonWriter}
+     */
+    public TXJsonWriter value(Object value) {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            return nullValue();
+        } else if (value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            if (value instanceof Double || value instanceof Float) {
+                double d = ((Number) value).doubleValue();
+                if (Double.isNaN(d) || Double.isInfinite(d)) {
+                    throw new JSONException("JSON does not allow non-finite numbers.");
+                }
+            }
+            beforeValue();
+            writeAscii(JSONObject.numberToString((Number) value));
+            return this;
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value instanceof JSONObject) {
+            return writeObject((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            return writeArray((JSONArray) value);
+        } else if (value instanceof Map) {
+            return writeObject(new JSONObject((Map<?, ?>) value));
+        } else if (value instanceof Collection) {
+            return writeArray(new JSONArray((Collection<?>) value));
+        } else if (value.getClass().isArray()) {
+            return writeArray(new JSONArray(value));
+        } else if (value instanceof JSONString) {
+            beforeValue();
+            writeUtf8(((JSONString) value).toJSONString());
+            return this;
+        } else if (value instanceof Enum) {
+            return value(((Enum<?>) value).name());
+        }
+        beforeValue();
+        writeUtf8(JSONObject.valueToString(value));
+        return this;
+    }
+
+    /**
+     * 已写入的字节数
+     *
+     * @return 字节数
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * 取出已写入的内容
+     *
+     * @return UTF-8 编码的 JSON 文本
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mBuf, mCount);
+    }
+
+    /**
+     * 清空已写入的内容，保留缓冲区
+     */
+    public void reset() {
+        mCount = 0;
+        mDepth = 0;
+        mAfterName = false;
+    }
+
+    /**
+     * 缓冲区大小，单位：字节
+     *
+     * @return 缓冲区大小
+     */
+    int capacity() {
+        return mBuf.length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(mBuf, 0, mCount, TXJsonCodecs.UTF_8);
+    }
+
+    private TXJsonWriter writeObject(JSONObject object) {
+        beginObject();
+        for (String key : object.keySet()) {
+            name(key);
+            value(object.opt(key));
+        }
+        return endObject();
+    }
+
+    private TXJsonWriter writeArray(JSONArray array) {
+        beginArray();
+        for (int i = 0, n = array.length(); i < n; i++) {
+            value(array.opt(i));
+        }
+        return endArray();
+    }
+
+    private TXJsonWriter open(char c) {
+        beforeValue();
+        write(c);
+        if (mDepth == mHasElement.length) {
+            mHasElement = Arrays.copyOf(mHasElement, mDepth * 2);
+        }
+        mHasElement[mDepth++] = false;
+        return this;
+    }
+
+    private TXJsonWriter close(char c) {
+        if (mDepth == 0 || mAfterName) {
+            throw new IllegalStateException("unbalanced " + c);
+        }
+        mDepth--;
+        write(c);
+        return this;
+    }
+
+    private void beforeValue() {
+        if (mAfterName) {
+            mAfterName = false;
+        } else if (mDepth > 0) {
+            separator();
+        }
+    }
+
+    private void separator() {
+        if (mHasElement[mDepth - 1]) {
+            write(',');
+        } else {
+            mHasElement[mDepth - 1] = true;
+        }
+    }
+
+    private void ensure(int extra) {
+        if (mCount + extra > mBuf.length) {
+            mBuf = Arrays.copyOf(mBuf, Math.max(mBuf.length * 2, mCount + extra));
+        }
+    }
+
+    private void write(char c) {
+        ensure(1);
+        mBuf[mCount++] = (byte) c;
+    }
+
+    private void write(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, mBuf, mCount, bytes.length);
+        mCount += bytes.length;
+    }
+
+    private void writeAscii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            mBuf[mCount++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            mBuf[mCount++] = '-';
+            value = -value;
+        }
+        int start = mCount;
+        do {
+            mBuf[mCount++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = mCount - 1; i < j; i++, j--) {
+            byte b = mBuf[i];
+            mBuf[i] = mBuf[j];
+            mBuf[j] = b;
+        }
+    }
+
+    private void writeString(String s) {
+        // 每个字符最多 6 个字节（\\uXXXX），加上两个引号
+        ensure(s.length() * 6 + 2);
+        byte[] buf = mBuf;
+        int count = mCount;
+        buf[count++] = '"';
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                buf[count++] = (byte) c;
+            } else if (c < 0x80) {
+                buf[count++] = '\\';
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        buf[count++] = (byte) c;
+                        break;
+                    case '\b':
+                        buf[count++] = 'b';
+                        break;
+                    case '\f':
+                        buf[count++] = 'f';
+                        break;
+                    case '\n':
+                        buf[count++] = 'n';
+                        break;
+                    case '\r':
+                        buf[count++] = 'r';
+                        break;
+                    case '\t':
+                        buf[count++] = 't';
+                        break;
+                    default:
+                        buf[count++] = 'u';
+                        buf[count++] = '0';
+                        buf[count++] = '0';
+                        buf[count++] = HEX[c >> 4];
+                        buf[count++] = HEX[c & 0xF];
+                }
+            } else {
+                count = encodeUtf8(s, i, c, buf, count);
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    i++;
+                }
+            }
+        }
+        buf[count++] = '"';
+        mCount = count;
+    }
+
+    private void writeUtf8(String s) {
+        ensure(s.length() * 3);
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                mBuf[mCount++] = (byte) c;
+            } else {
+                mCount = encodeUtf8(s, i, c, mBuf, mCount);
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * 输出一个非 ASCII 字符，代理对输出为 4 个字节，不成对的代理输出为 '?'
+     */
+    private static int encodeUtf8(String s, int i, char c, byte[] buf, int count) {
+        if (c < 0x800) {
+            buf[count++] = (byte) (0xC0 | (c >> 6));
+            buf[count++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(i + 1));
+                buf[count++] = (byte) (0xF0 | (cp >> 18));
+                buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                buf[count++] = '?';
+            }
+        } else {
+            buf[count++] = (byte) (0xE0 | (c >> 12));
+            buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[count++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return count;
+    }
+}
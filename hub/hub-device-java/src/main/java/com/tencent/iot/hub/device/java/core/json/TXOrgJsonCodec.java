@@ -0,0 +1,20 @@
+package com.tencent.iot.hub.device.java.core.json;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 基于 org.json 文本解析与输出的编解码实现，按 UTF-8 转换字节与文本
+ */
+public class TXOrgJsonCodec implements TXJsonCodec {
+
+    @Override
+    public JSONObject decode(byte[] data) throws JSONException {
+        return new JSONObject(new String(data, TXJsonCodecs.UTF_8));
+    }
+
+    @Override
+    public byte[] encode(JSONObject object) {
+        return object.toString().getBytes(TXJsonCodecs.UTF_8);
+    }
+}
@@ -0,0 +1,67 @@
+package com.tencent.iot.hub.device.java.core.json;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 基于 UTF-8 字节的流式编解码实现
+ *
+ * 解析时直接从字节构建 JSONObject，不先转换为 String；不符合标准 JSON 的内容（例如单引号、未加引号的字符串）
+ * 交给 org.json 按原先的宽松规则解析。输出时直接写入 UTF-8 字节，每个线程复用一个输出缓冲区。
+ */
+public class TXStreamingJsonCodec implements TXJsonCodec {
+
+    /**
+     * 超过该大小的输出缓冲区用完后不再保留，单位：字节
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<TXJsonWriter> sWriter = new ThreadLocal<TXJsonWriter>() {
+        @Override
+        protected TXJsonWriter initialValue() {
+            return new TXJsonWriter(1024);
+        }
+    };
+
+    @Override
+    public JSONObject decode(byte[] data) throws JSONException {
+        try {
+            return new TXJsonParser(data).parseObjectValue();
+        } catch (JSONException e) {
+            return new JSONObject(new String(data, TXJsonCodecs.UTF_8));
+        }
+    }
+
+    @Override
+    public byte[] encode(JSONObject object) {
+        TXJsonWriter writer = obtainWriter();
+        try {
+            return writer.value(object).toByteArray();
+        } finally {
+            recycleWriter(writer);
+        }
+    }
+
+    /**
+     * 取得当前线程复用的输出，用完后必须调用 {@link #recycleWriter(TXJsonWriter)}，同一线程中不能嵌套使用
+     *
+     * @return 已清空的 {@link TXJsonWriter}
+     */
+    public static TXJsonWriter obtainWriter() {
+        TXJsonWriter writer = sWriter.get();
+        writer.reset();
+        return writer;
+    }
+
+    /**
+     * 归还 {@link #obtainWriter()} 取得的输出
+     *
+     * @param writer 输出
+     */
+    public static void recycleWriter(TXJsonWriter writer) {
+        writer.reset();
+        if (writer.capacity() > MAX_RETAINED_BUFFER) {
+            sWriter.remove();
+        }
+    }
+}
@@ -11,7 +11,6 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.text.SimpleDateFormat;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -33,7 +32,7 @@ public class TXMqttLog {
      * 日志级别
      */
     public static final String level_str[] = new String[] {"ERR", "ERR", "WRN", "INF", "DBG"};
-    private  int mLogLevel = TXMqttLogConstants.LEVEL_FATAL;
+    private volatile int mLogLevel = TXMqttLogConstants.LEVEL_FATAL;
 
     private static final String LOG_OPERATION_PREFIX = "$log/operation/";
     private static final String LOG_OPERATION_RES_PREFIX = "$log/operation/result/";
@@ -91,18 +90,28 @@ public class TXMqttLog {
     }
 
     /**
-     * 将一条日志保存到日志队列中
+     * 指定级别的日志是否会被保存，调用方可在构造日志参数前判断
+     *
+     * @param logLevel 日志级别
+     * @return 不低于设置的日志级别时返回 true
+     */
+    public boolean isLoggable(int logLevel) {
+        return logLevel <= mLogLevel;
+    }
+
+    /**
+     * 将一条日志保存到日志队列中，只保存格式与参数，上传时才格式化
      * @param logLevel 日志级别
      * @param tag 日志标记
      * @param format 格式
      * @param obj 日志内容
-     * @return 操作结果
+     * @return 操作结果，低于设置的日志级别时返回 false
      */
     public boolean saveMqttLog(final int logLevel, final String tag, final String format, final Object... obj) {
         //低于设置日志信息等级的信息不存储
         if(mMqttConnection != null && logLevel <= mLogLevel) {
-            String log = buildMqttLog(logLevel, tag, format, obj);
-            return mqttLogImp.appendToLogDeque(log);
+            mqttLogImp.appendToLogDeque(logLevel, tag, format, obj);
+            return true;
         }
         return false;
     }
@@ -115,19 +124,55 @@ public class TXMqttLog {
     }
 
     /**
-     * 构造一条日志消息
-     * 格式：[日志内容（每行日志格式为"LEVEL|DATETIME|TAG|CONTENT"，行与行之间采用"\n\f,"分隔）]”
+     * 上传剩余的日志并停止日志上传
      */
-    private String buildMqttLog(final int logLevel,final String tag,final String format, final Object... obj) {
-        long nowCurrentMillis = System.currentTimeMillis();
-        SimpleDateFormat timeFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        String logTime = timeFormatter.format(nowCurrentMillis);
-        String log = obj == null ? format : String.format(format, obj);
-        if (log == null) {
-            log = "";
-        }
+    public void close() {
+        mqttLogImp.close();
+    }
 
-        return String.format("%s|%s|%s|%s\n\f", level_str[logLevel], logTime, tag, log);
+    /**
+     * 已上传成功的日志字节数（压缩前）
+     *
+     * @return 字节数
+     */
+    public long getUploadedBytes() {
+        return mqttLogImp.getUploadedBytes();
+    }
+
+    /**
+     * 已上传成功的请求体字节数（压缩后）
+     *
+     * @return 字节数
+     */
+    public long getSentBytes() {
+        return mqttLogImp.getSentBytes();
+    }
+
+    /**
+     * 日志上传的压缩比
+     *
+     * @return 压缩前字节数 / 压缩后字节数
+     */
+    public double getCompressionRatio() {
+        return mqttLogImp.getCompressionRatio();
+    }
+
+    /**
+     * 日志上传速率
+     *
+     * @return 每秒上传的日志字节数（压缩前）
+     */
+    public double getUploadBytesPerSecond() {
+        return mqttLogImp.getUploadBytesPerSecond();
+    }
+
+    /**
+     * 日志队列写满后被覆盖的日志数
+     *
+     * @return 日志数
+     */
+    public long getOverwrittenCount() {
+        return mqttLogImp.getOverwrittenCount();
     }
 
     /**
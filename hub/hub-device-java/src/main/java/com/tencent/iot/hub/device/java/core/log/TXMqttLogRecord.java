@@ -0,0 +1,143 @@
+package com.tencent.iot.hub.device.java.core.log;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.IllegalFormatException;
+
+/**
+ * 一条设备日志，保存级别、标记、时间、格式与参数，上传时才格式化为文本
+ *
+ * 参数按引用保存，上传前被修改的可变对象会以上传时的内容输出。记录对象在日志队列中循环复用。
+ */
+public final class TXMqttLogRecord {
+
+    /**
+     * 已格式化的文本（例如离线日志），上传时原样输出
+     */
+    static final int LEVEL_RAW = -1;
+
+    private int mLevel;
+    private String mTag;
+    private long mTimestamp;
+    private String mFormat;
+    private Object[] mArgs;
+
+    void set(int level, String tag, long timestamp, String format, Object[] args) {
+        this.mLevel = level;
+        this.mTag = tag;
+        this.mTimestamp = timestamp;
+        this.mFormat = format;
+        this.mArgs = args;
+    }
+
+    void copyFrom(TXMqttLogRecord other) {
+        set(other.mLevel, other.mTag, other.mTimestamp, other.mFormat, other.mArgs);
+    }
+
+    /**
+     * 释放对标记与参数的引用
+     */
+    void clear() {
+        set(0, null, 0, null, null);
+    }
+
+    /**
+     * 日志级别
+     *
+     * @return {@link TXMqttLogConstants} 中的日志级别
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * 日志标记
+     *
+     * @return 标记
+     */
+    public String getTag() {
+        return mTag;
+    }
+
+    /**
+     * 生成日志的时间
+     *
+     * @return 毫秒时间戳
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * 日志格式
+     *
+     * @return 格式，没有参数时为日志内容
+     */
+    public String getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * 日志参数
+     *
+     * @return 参数，没有参数时为 null
+     */
+    public Object[] getArgs() {
+        return mArgs;
+    }
+
+    /**
+     * 日志内容
+     *
+     * @return 格式化后的内容
+     */
+    public String getMessage() {
+        if (mFormat == null) {
+            return "";
+        }
+        if (mArgs == null || mArgs.length == 0) {
+            return mFormat;
+        }
+        try {
+            return String.format(mFormat, mArgs);
+        } catch (IllegalFormatException e) {
+            return mFormat + " " + Arrays.toString(mArgs);
+        }
+    }
+
+    /**
+     * 按上传格式"LEVEL|DATETIME|TAG|CONTENT\n\f"输出
+     *
+     * @param out 输出
+     * @param clock 时间格式缓存，只能在同一线程中使用
+     */
+    void appendTo(StringBuilder out, Clock clock) {
+        if (mLevel == LEVEL_RAW) {
+            out.append(mFormat);
+            return;
+        }
+        out.append(TXMqttLog.level_str[mLevel]).append('|')
+                .append(clock.format(mTimestamp)).append('|')
+                .append(mTag).append('|')
+                .append(getMessage()).append("\n\f");
+    }
+
+    /**
+     * 日志时间格式化，同一秒内的日志复用上一次的结果
+     */
+    static final class Clock {
+        private final SimpleDateFormat mFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        private long mSecond = Long.MIN_VALUE;
+        private String mText;
+
+        String format(long timestamp) {
+            long second = timestamp / 1000;
+            if (second != mSecond) {
+                mSecond = second;
+                mText = mFormatter.format(new Date(timestamp));
+            }
+            return mText;
+        }
+    }
+}
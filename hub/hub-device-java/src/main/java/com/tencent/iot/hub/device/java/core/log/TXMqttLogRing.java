@@ -0,0 +1,89 @@
+package com.tencent.iot.hub.device.java.core.log;
+
+/**
+ * 固定容量的日志环形队列，记录对象首次使用时创建、之后循环复用，写满时覆盖最旧的记录
+ *
+ * 写入只复制级别、标记、时间、格式与参数的引用，不做任何格式化；多个线程写入，由上传线程取出。
+ */
+final class TXMqttLogRing {
+
+    private final TXMqttLogRecord[] mSlots;
+    private int mHead = 0;
+    private int mSize = 0;
+    private long mOverwrittenCount = 0;
+
+    TXMqttLogRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        }
+        mSlots = new TXMqttLogRecord[capacity];
+    }
+
+    /**
+     * 写入一条记录
+     *
+     * @return 写入后的记录数
+     */
+    synchronized int add(int level, String tag, long timestamp, String format, Object[] args) {
+        int index;
+        if (mSize == mSlots.length) {
+            index = mHead;
+            mHead = (mHead + 1) % mSlots.length;
+            mOverwrittenCount++;
+        } else {
+            index = (mHead + mSize) % mSlots.length;
+            mSize++;
+        }
+        TXMqttLogRecord slot = mSlots[index];
+        if (slot == null) {
+            slot = new TXMqttLogRecord();
+            mSlots[index] = slot;
+        }
+        slot.set(level, tag, timestamp, format, args);
+        return mSize;
+    }
+
+    /**
+     * 按写入顺序取出所有记录，复制到 out 中并释放队列中的引用
+     *
+     * @param out 接收记录，长度不小于队列容量，元素可为 null
+     * @return 取出的记录数
+     */
+    synchronized int drainTo(TXMqttLogRecord[] out) {
+        int count = mSize;
+        for (int i = 0; i < count; i++) {
+            TXMqttLogRecord slot = mSlots[(mHead + i) % mSlots.length];
+            if (out[i] == null) {
+                out[i] = new TXMqttLogRecord();
+            }
+            out[i].copyFrom(slot);
+            slot.clear();
+        }
+        mHead = 0;
+        mSize = 0;
+        return count;
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+
+    int capacity() {
+        return mSlots.length;
+    }
+
+    /**
+     * 因队列写满被覆盖的记录数
+     */
+    synchronized long getOverwrittenCount() {
+        return mOverwrittenCount;
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mSlots[(mHead + i) % mSlots.length].clear();
+        }
+        mHead = 0;
+        mSize = 0;
+    }
+}
@@ -0,0 +1,263 @@
+package com.tencent.iot.hub.device.java.core.log;
+
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 日志上传失败时的磁盘缓存，按上传顺序保存待重试的日志批次
+ *
+ * 每个批次保存为一个文件，文件名为递增的序号；总大小或文件数超过上限时丢弃最旧的批次，
+ * 磁盘占用不会随断网时间增长。重新打开同一目录时继续之前未上传的批次。
+ */
+public class TXMqttLogSpool {
+    private static final String TAG = TXMqttLogSpool.class.getSimpleName();
+    private static final Logger logger = LoggerFactory.getLogger(TXMqttLogSpool.class);
+    static { Loggor.setLogger(logger); }
+
+    /**
+     * 默认容量上限：4MB
+     */
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * 默认最多保存的批次数
+     */
+    public static final int DEFAULT_MAX_FILES = 256;
+
+    private static final String SUFFIX = ".batch";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static class Entry {
+        final long seq;
+        final File file;
+        final long length;
+
+        Entry(long seq, File file, long length) {
+            this.seq = seq;
+            this.file = file;
+            this.length = length;
+        }
+    }
+
+    private final File mDir;
+    private final long mMaxBytes;
+    private final int mMaxFiles;
+    private final ArrayDeque<Entry> mEntries = new ArrayDeque<>();
+    private long mNextSeq = 0;
+    private long mBytes = 0;
+    private long mDroppedCount = 0;
+
+    /**
+     * 构造函数，使用默认的容量上限
+     *
+     * @param dir 缓存目录，不存在时自动创建
+     * @throws IOException 目录无法创建
+     */
+    public TXMqttLogSpool(File dir) throws IOException {
+        this(dir, DEFAULT_MAX_BYTES, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param dir 缓存目录，不存在时自动创建
+     * @param maxBytes 总大小上限，单位：字节
+     * @param maxFiles 最多保存的批次数
+     * @throws IOException 目录无法创建
+     */
+    public TXMqttLogSpool(File dir, long maxBytes, int maxFiles) throws IOException {
+        if (maxBytes <= 0 || maxFiles <= 0) {
+            throw new IllegalArgumentException("invalid spool limit: " + maxBytes + " bytes, " + maxFiles + " files");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create spool dir " + dir);
+        }
+        this.mDir = dir;
+        this.mMaxBytes = maxBytes;
+        this.mMaxFiles = maxFiles;
+        recover();
+    }
+
+    private void recover() {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TMP_SUFFIX)) {
+                // 写入中断的批次
+                if (!file.delete()) {
+                    Loggor.warn(TAG, "delete " + file + " failed");
+                }
+                continue;
+            }
+            if (!name.endsWith(SUFFIX)) {
+                continue;
+            }
+            try {
+                long seq = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                entries.add(new Entry(seq, file, file.length()));
+            } catch (NumberFormatException e) {
+                Loggor.warn(TAG, "ignore unknown file " + file);
+            }
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+            }
+        });
+        for (Entry entry : entries) {
+            mEntries.addLast(entry);
+            mBytes += entry.length;
+            mNextSeq = entry.seq + 1;
+        }
+        trim(0, 0);
+    }
+
+    /**
+     * 保存一个待重试的批次，超过容量上限时丢弃最旧的批次
+     *
+     * @param batch 批次内容
+     * @return 保存成功返回 true；批次本身超过容量上限或写入失败返回 false
+     */
+    public synchronized boolean offer(byte[] batch) {
+        if (batch.length > mMaxBytes) {
+            mDroppedCount++;
+            return false;
+        }
+        trim(batch.length, 1);
+
+        long seq = mNextSeq++;
+        File file = new File(mDir, String.format("%016d%s", seq, SUFFIX));
+        File tmp = new File(mDir, file.getName() + TMP_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(batch);
+            out.getFD().sync();
+        } catch (IOException e) {
+            Loggor.error(TAG, "write spool file " + tmp + " failed: " + e);
+            closeQuietly(out);
+            tmp.delete();
+            mDroppedCount++;
+            return false;
+        }
+        closeQuietly(out);
+        if (!tmp.renameTo(file)) {
+            Loggor.error(TAG, "rename spool file " + tmp + " failed");
+            tmp.delete();
+            mDroppedCount++;
+            return false;
+        }
+        mEntries.addLast(new Entry(seq, file, batch.length));
+        mBytes += batch.length;
+        return true;
+    }
+
+    /**
+     * 读取最旧的批次，不会移除
+     *
+     * @return 批次内容，没有批次时返回 null
+     */
+    public synchronized byte[] peek() {
+        while (!mEntries.isEmpty()) {
+            Entry entry = mEntries.peekFirst();
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(entry.file, "r");
+                byte[] batch = new byte[(int) file.length()];
+                file.readFully(batch);
+                return batch;
+            } catch (IOException e) {
+                Loggor.error(TAG, "read spool file " + entry.file + " failed: " + e);
+                drop(mEntries.pollFirst());
+            } finally {
+                closeQuietly(file);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 移除最旧的批次，在 {@link #peek()} 读取的批次上传完成后调用
+     */
+    public synchronized void remove() {
+        Entry entry = mEntries.pollFirst();
+        if (entry != null) {
+            delete(entry);
+        }
+    }
+
+    /**
+     * 缓存的批次数
+     *
+     * @return 批次数
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * 缓存的总字节数
+     *
+     * @return 字节数
+     */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * 因超过容量上限或读写失败被丢弃的批次数
+     *
+     * @return 批次数
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    private void trim(long incomingBytes, int incomingFiles) {
+        while (!mEntries.isEmpty()
+                && (mBytes + incomingBytes > mMaxBytes || mEntries.size() + incomingFiles > mMaxFiles)) {
+            drop(mEntries.pollFirst());
+        }
+    }
+
+    private void drop(Entry entry) {
+        delete(entry);
+        mDroppedCount++;
+    }
+
+    private void delete(Entry entry) {
+        mBytes -= entry.length;
+        if (entry.file.exists() && !entry.file.delete()) {
+            Loggor.warn(TAG, "delete spool file " + entry.file + " failed");
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
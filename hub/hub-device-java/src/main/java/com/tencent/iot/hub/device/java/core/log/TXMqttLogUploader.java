@@ -0,0 +1,265 @@
+package com.tencent.iot.hub.device.java.core.log;
+
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 日志上传调度，进程内所有连接的日志共用一组上传线程
+ *
+ * 上传由三种事件触发：日志数量达到阈值、距第一条未上传日志超过上传间隔、调用方主动刷新。
+ * 没有日志时不会唤醒上传线程；同一连接的上传不会并发执行，执行期间的触发合并为执行结束后的一次上传。
+ */
+public class TXMqttLogUploader {
+    private static final String TAG = TXMqttLogUploader.class.getSimpleName();
+    private static final Logger logger = LoggerFactory.getLogger(TXMqttLogUploader.class);
+    static { Loggor.setLogger(logger); }
+
+    /**
+     * 默认上传线程数
+     */
+    public static final int DEFAULT_THREADS = 2;
+
+    private static final TXMqttLogUploader sDefault = new TXMqttLogUploader(DEFAULT_THREADS);
+
+    /**
+     * 获取进程内共享的日志上传调度
+     *
+     * @return {@link TXMqttLogUploader}
+     */
+    public static TXMqttLogUploader getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * 执行一次上传
+     */
+    interface Target {
+        /**
+         * 上传当前队列中的日志，在上传线程中调用
+         */
+        void upload();
+    }
+
+    private static final int IDLE = 0;
+    private static final int QUEUED = 1;
+    private static final int RUNNING = 2;
+    private static final int RUNNING_RERUN = 3;
+
+    /**
+     * 一个连接的上传调度状态
+     */
+    final class Registration implements Runnable {
+        private final Target mTarget;
+        private final long mInterval;
+        private final AtomicInteger mState = new AtomicInteger(IDLE);
+        private final AtomicBoolean mTimerArmed = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> mTimer;
+        private volatile ScheduledFuture<?> mRetry;
+        private volatile boolean mClosed = false;
+
+        private final Runnable mTimerTask = new Runnable() {
+            @Override
+            public void run() {
+                mTimerArmed.set(false);
+                trigger();
+            }
+        };
+
+        private final Runnable mRetryTask = new Runnable() {
+            @Override
+            public void run() {
+                trigger();
+            }
+        };
+
+        Registration(Target target, long interval) {
+            this.mTarget = target;
+            this.mInterval = interval;
+        }
+
+        /**
+         * 有新日志时调用，尚未计时则开始计时，到达上传间隔时上传
+         */
+        void arm() {
+            if (mClosed || !mTimerArmed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                mTimer = mExecutor.schedule(mTimerTask, mInterval, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // 已关闭
+                mTimerArmed.set(false);
+            }
+        }
+
+        /**
+         * 立即上传
+         */
+        void trigger() {
+            while (true) {
+                int state = mState.get();
+                if (state == QUEUED || state == RUNNING_RERUN) {
+                    return;
+                }
+                if (state == RUNNING) {
+                    if (mState.compareAndSet(RUNNING, RUNNING_RERUN)) {
+                        return;
+                    }
+                    continue;
+                }
+                if (mState.compareAndSet(IDLE, QUEUED)) {
+                    try {
+                        mExecutor.execute(this);
+                    } catch (RuntimeException e) {
+                        mState.set(IDLE);
+                        Loggor.warn(TAG, "log uploader is shut down");
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 上传失败后在指定时间后再次上传，替换之前未到期的重试
+         *
+         * @param delay 等待时间，单位：毫秒
+         */
+        void retryAfter(long delay) {
+            if (mClosed) {
+                return;
+            }
+            ScheduledFuture<?> retry = mRetry;
+            if (retry != null) {
+                retry.cancel(false);
+            }
+            try {
+                mRetry = mExecutor.schedule(mRetryTask, delay, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // 已关闭
+            }
+        }
+
+        /**
+         * 停止调度
+         *
+         * @param flush 是否在停止前上传剩余的日志
+         */
+        void close(boolean flush) {
+            if (flush) {
+                trigger();
+            }
+            mClosed = true;
+            cancelTimer();
+            ScheduledFuture<?> retry = mRetry;
+            if (retry != null) {
+                retry.cancel(false);
+            }
+            mRegistrations.remove(this);
+        }
+
+        private void cancelTimer() {
+            ScheduledFuture<?> timer = mTimer;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            mTimerArmed.set(false);
+        }
+
+        @Override
+        public void run() {
+            mState.set(RUNNING);
+            while (true) {
+                // 上传会清空队列，之后的日志重新计时
+                cancelTimer();
+                try {
+                    mTarget.upload();
+                } catch (Throwable t) {
+                    Loggor.error(TAG, "upload log failed: " + t);
+                }
+                if (mState.compareAndSet(RUNNING, IDLE)) {
+                    return;
+                }
+                mState.set(RUNNING);
+            }
+        }
+    }
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final Set<Registration> mRegistrations =
+            Collections.newSetFromMap(new ConcurrentHashMap<Registration, Boolean>());
+
+    /**
+     * 构造函数，一般使用 {@link #getDefault()}
+     *
+     * @param threads 上传线程数
+     */
+    public TXMqttLogUploader(int threads) {
+        mExecutor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            private final AtomicInteger mIndex = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TXMqtt-log-uploader-" + mIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * 注册一个连接的日志上传
+     *
+     * @param target 执行上传
+     * @param interval 最长上传间隔，单位：毫秒
+     * @return 调度状态
+     */
+    Registration register(Target target, long interval) {
+        Registration registration = new Registration(target, interval);
+        mRegistrations.add(registration);
+        return registration;
+    }
+
+    /**
+     * 已注册的连接数
+     *
+     * @return 连接数
+     */
+    public int getRegisteredCount() {
+        return mRegistrations.size();
+    }
+
+    /**
+     * 上传所有连接剩余的日志并停止上传线程
+     *
+     * @param timeout 等待上传完成的时间，单位：毫秒
+     * @return 在超时前全部上传完成时返回 true
+     */
+    public boolean shutdown(long timeout) {
+        List<Registration> registrations = new ArrayList<>(mRegistrations);
+        for (Registration registration : registrations) {
+            registration.close(true);
+        }
+        mExecutor.shutdown();
+        try {
+            return mExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package com.tencent.iot.hub.device.java.core.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * MQTT 连接指标：发布、订阅、连接的计数与时延分布，以及在途消息数
+ *
+ * 每个连接持有一个实例，所有更新同时累加到进程级实例 {@link #global()}；
+ * 更新只做原子操作，不分配内存。时延单位均为微秒。
+ */
+public class TXMqttMetrics implements TXMqttMetricsMBean {
+
+    private static final int SLOT_COUNT = 1024;
+
+    /*
+     * 时延槽位编码：低 46 位为相对 BASE_NANOS 的微秒数，其上 16 位为 messageId，
+     * 第 62 位表示确认先于 onRequestSent 到达、记录的是确认时刻，第 63 位表示该请求为订阅
+     */
+    private static final int ID_SHIFT = 46;
+    private static final long MICROS_MASK = (1L << ID_SHIFT) - 1;
+    private static final long COMPLETED_FLAG = 1L << 62;
+    private static final long SUBSCRIBE_FLAG = 1L << 63;
+    private static final long BASE_NANOS = System.nanoTime();
+
+    private static final TXMqttMetrics sGlobal = new TXMqttMetrics(null);
+
+    /**
+     * 获取进程级指标，汇总所有连接
+     *
+     * @return {@link TXMqttMetrics}
+     */
+    public static TXMqttMetrics global() {
+        return sGlobal;
+    }
+
+    private final TXMqttMetrics mParent;
+
+    private final AtomicLong mPublished = new AtomicLong(0);
+    private final AtomicLong mPublishAcked = new AtomicLong(0);
+    private final AtomicLong mPublishFailed = new AtomicLong(0);
+    private final AtomicLong mSubscribed = new AtomicLong(0);
+    private final AtomicLong mSubscribeFailed = new AtomicLong(0);
+    private final AtomicLong mReceived = new AtomicLong(0);
+    private final AtomicLong mConnects = new AtomicLong(0);
+    private final AtomicLong mConnectFailures = new AtomicLong(0);
+    private final AtomicLong mReconnects = new AtomicLong(0);
+    private final AtomicLong mConnectionLost = new AtomicLong(0);
+    private final AtomicLong mInflight = new AtomicLong(0);
+
+    private final TXLatencyHistogram mPublishLatency = new TXLatencyHistogram();
+    private final TXLatencyHistogram mSubscribeLatency = new TXLatencyHistogram();
+    private final TXLatencyHistogram mConnectLatency = new TXLatencyHistogram();
+
+    /**
+     * 按 messageId 记录的发送时刻，用于计算发布、订阅到确认的时延；
+     * 槽位中保存 messageId，在途请求多于槽位数时冲突的请求不计时延，而不会计入错误的时延
+     */
+    private final AtomicLongArray mSentAt = new AtomicLongArray(SLOT_COUNT);
+
+    /**
+     * 构造函数，指标同时累加到 {@link #global()}
+     */
+    public TXMqttMetrics() {
+        this(sGlobal);
+    }
+
+    private TXMqttMetrics(TXMqttMetrics parent) {
+        this.mParent = parent;
+    }
+
+    /**
+     * 获取当前时刻，用作 {@link #onConnectCompleted(long, boolean)} 等方法的起始时间
+     *
+     * @return 单调时钟，单位：纳秒
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 记录一次发布请求开始发送，须在调用 MQTT 客户端发送之前调用
+     *
+     * @return 发送时刻，传给 {@link #onRequestSent(int, long)}
+     */
+    public long onPublishStarted() {
+        mPublished.incrementAndGet();
+        mInflight.incrementAndGet();
+        if (mParent != null) {
+            mParent.mPublished.incrementAndGet();
+            mParent.mInflight.incrementAndGet();
+        }
+        return now();
+    }
+
+    /**
+     * 记录一次订阅请求开始发送，须在调用 MQTT 客户端发送之前调用
+     *
+     * @return 发送时刻，传给 {@link #onRequestSent(int, long)}
+     */
+    public long onSubscribeStarted() {
+        mSubscribed.incrementAndGet();
+        if (mParent != null) {
+            mParent.mSubscribed.incrementAndGet();
+        }
+        return now();
+    }
+
+    /**
+     * 记录请求已交给 MQTT 客户端，按 messageId 保存发送时刻用于计算到确认的时延。
+     * 确认可能在 MQTT 客户端的回调线程中先于本方法到达，此时在这里补记时延
+     *
+     * @param messageId 消息 ID，QoS 0 消息为 0，不计算时延
+     * @param startNanos {@link #onPublishStarted()} 或 {@link #onSubscribeStarted()} 的返回值
+     */
+    public void onRequestSent(int messageId, long startNanos) {
+        if (messageId == 0) {
+            return;
+        }
+        int slot = slotOf(messageId);
+        long start = encode(messageId, startNanos);
+        while (true) {
+            long current = mSentAt.get(slot);
+            if (current != 0 && (current & COMPLETED_FLAG) != 0 && idOf(current) == (messageId & 0xFFFF)) {
+                // 确认已先到达
+                if (mSentAt.compareAndSet(slot, current, 0)) {
+                    long micros = (current - start) & MICROS_MASK;
+                    recordLatency((current & SUBSCRIBE_FLAG) != 0, micros);
+                    return;
+                }
+            } else if (mSentAt.compareAndSet(slot, current, start)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 记录一次发布请求完成，包括发送时即失败的请求（messageId 传 0）
+     *
+     * @param messageId 消息 ID
+     * @param success 是否成功
+     */
+    public void onPublishCompleted(int messageId, boolean success) {
+        long micros = elapsedMicros(messageId, success, false);
+        mInflight.decrementAndGet();
+        (success ? mPublishAcked : mPublishFailed).incrementAndGet();
+        if (success && micros >= 0) {
+            mPublishLatency.record(micros);
+        }
+        if (mParent != null) {
+            mParent.mInflight.decrementAndGet();
+            (success ? mParent.mPublishAcked : mParent.mPublishFailed).incrementAndGet();
+            if (success && micros >= 0) {
+                mParent.mPublishLatency.record(micros);
+            }
+        }
+    }
+
+    /**
+     * 记录一次订阅请求完成，包括发送时即失败的请求（messageId 传 0）
+     *
+     * @param messageId 消息 ID
+     * @param success 是否成功
+     */
+    public void onSubscribeCompleted(int messageId, boolean success) {
+        long micros = elapsedMicros(messageId, success, true);
+        if (!success) {
+            mSubscribeFailed.incrementAndGet();
+        } else if (micros >= 0) {
+            mSubscribeLatency.record(micros);
+        }
+        if (mParent != null) {
+            if (!success) {
+                mParent.mSubscribeFailed.incrementAndGet();
+            } else if (micros >= 0) {
+                mParent.mSubscribeLatency.record(micros);
+            }
+        }
+    }
+
+    /**
+     * 记录一次连接完成
+     *
+     * @param startNanos 发起连接的时刻，{@link #now()}
+     * @param success 是否成功
+     */
+    public void onConnectCompleted(long startNanos, boolean success) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(now() - startNanos);
+        record(success ? mConnects : mConnectFailures, success ? mConnectLatency : null, micros);
+        if (mParent != null) {
+            mParent.record(success ? mParent.mConnects : mParent.mConnectFailures,
+                    success ? mParent.mConnectLatency : null, micros);
+        }
+    }
+
+    /**
+     * 记录一次自动重连成功
+     */
+    public void onReconnected() {
+        mReconnects.incrementAndGet();
+        if (mParent != null) {
+            mParent.mReconnects.incrementAndGet();
+        }
+    }
+
+    /**
+     * 记录一次连接断开
+     */
+    public void onConnectionLost() {
+        mConnectionLost.incrementAndGet();
+        if (mParent != null) {
+            mParent.mConnectionLost.incrementAndGet();
+        }
+    }
+
+    /**
+     * 记录收到一条消息
+     */
+    public void onMessageReceived() {
+        mReceived.incrementAndGet();
+        if (mParent != null) {
+            mParent.mReceived.incrementAndGet();
+        }
+    }
+
+    private void record(AtomicLong counter, TXLatencyHistogram histogram, long micros) {
+        counter.incrementAndGet();
+        if (histogram != null) {
+            histogram.record(micros);
+        }
+    }
+
+    private void recordLatency(boolean subscribe, long micros) {
+        (subscribe ? mSubscribeLatency : mPublishLatency).record(micros);
+        if (mParent != null) {
+            (subscribe ? mParent.mSubscribeLatency : mParent.mPublishLatency).record(micros);
+        }
+    }
+
+    /**
+     * 取出发送时刻计算时延；尚未记录发送时刻时，成功的请求在槽位中留下确认时刻，由 {@link #onRequestSent} 补记
+     *
+     * @return 时延，单位：微秒；无法计算时返回 -1
+     */
+    private long elapsedMicros(int messageId, boolean success, boolean subscribe) {
+        if (messageId == 0) {
+            return -1;
+        }
+        int slot = slotOf(messageId);
+        long end = encode(messageId, now());
+        while (true) {
+            long current = mSentAt.get(slot);
+            boolean pending = current != 0 && (current & COMPLETED_FLAG) == 0;
+            if (pending && idOf(current) == (messageId & 0xFFFF)) {
+                if (mSentAt.compareAndSet(slot, current, 0)) {
+                    return (end - current) & MICROS_MASK;
+                }
+            } else if (pending || !success) {
+                // 槽位被其它在途请求占用，或失败的请求不计时延
+                return -1;
+            } else if (mSentAt.compareAndSet(slot, current, end | COMPLETED_FLAG | (subscribe ? SUBSCRIBE_FLAG : 0))) {
+                return -1;
+            }
+        }
+    }
+
+    private static long encode(int messageId, long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos - BASE_NANOS) & MICROS_MASK;
+        return ((long) (messageId & 0xFFFF) << ID_SHIFT) | micros;
+    }
+
+    private static int idOf(long value) {
+        return (int) ((value >>> ID_SHIFT) & 0xFFFF);
+    }
+
+    private static int slotOf(int messageId) {
+        return messageId & (SLOT_COUNT - 1);
+    }
+
+    /**
+     * 获取发布时延分布，QoS 0 消息不计入
+     *
+     * @return {@link TXLatencyHistogram}
+     */
+    public TXLatencyHistogram getPublishLatency() {
+        return mPublishLatency;
+    }
+
+    /**
+     * 获取订阅时延分布
+     *
+     * @return {@link TXLatencyHistogram}
+     */
+    public TXLatencyHistogram getSubscribeLatency() {
+        return mSubscribeLatency;
+    }
+
+    /**
+     * 获取连接时延分布
+     *
+     * @return {@link TXLatencyHistogram}
+     */
+    public TXLatencyHistogram getConnectLatency() {
+        return mConnectLatency;
+    }
+
+    @Override
+    public long getPublished() {
+        return mPublished.get();
+    }
+
+    @Override
+    public long getPublishAcked() {
+        return mPublishAcked.get();
+    }
+
+    @Override
+    public long getPublishFailed() {
+        return mPublishFailed.get();
+    }
+
+    @Override
+    public long getSubscribed() {
+        return mSubscribed.get();
+    }
+
+    @Override
+    public long getSubscribeFailed() {
+        return mSubscribeFailed.get();
+    }
+
+    @Override
+    public long getReceived() {
+        return mReceived.get();
+    }
+
+    @Override
+    public long getConnects() {
+        return mConnects.get();
+    }
+
+    @Override
+    public long getConnectFailures() {
+        return mConnectFailures.get();
+    }
+
+    @Override
+    public long getReconnects() {
+        return mReconnects.get();
+    }
+
+    @Override
+    public long getConnectionLost() {
+        return mConnectionLost.get();
+    }
+
+    @Override
+    public long getInflight() {
+        return Math.max(0, mInflight.get());
+    }
+
+    @Override
+    public long getPublishLatencyP50() {
+        return mPublishLatency.getPercentile(50);
+    }
+
+    @Override
+    public long getPublishLatencyP99() {
+        return mPublishLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getPublishLatencyMax() {
+        return mPublishLatency.getMax();
+    }
+
+    @Override
+    public long getSubscribeLatencyP99() {
+        return mSubscribeLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getConnectLatencyP99() {
+        return mConnectLatency.getPercentile(99);
+    }
+
+    /**
+     * 获取全部指标的快照，便于上报或打印
+     *
+     * @return 指标名到数值的有序映射
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        map.put("published", getPublished());
+        map.put("publishAcked", getPublishAcked());
+        map.put("publishFailed", getPublishFailed());
+        map.put("subscribed", getSubscribed());
+        map.put("subscribeFailed", getSubscribeFailed());
+        map.put("received", getReceived());
+        map.put("connects", getConnects());
+        map.put("connectFailures", getConnectFailures());
+        map.put("reconnects", getReconnects());
+        map.put("connectionLost", getConnectionLost());
+        map.put("inflight", getInflight());
+        putLatency(map, "publishLatency", mPublishLatency);
+        putLatency(map, "subscribeLatency", mSubscribeLatency);
+        putLatency(map, "connectLatency", mConnectLatency);
+        return map;
+    }
+
+    private static void putLatency(Map<String, Long> map, String name, TXLatencyHistogram histogram) {
+        map.put(name + ".count", histogram.getCount());
+        map.put(name + ".mean", histogram.getMean());
+        map.put(name + ".p50", histogram.getPercentile(50));
+        map.put(name + ".p99", histogram.getPercentile(99));
+        map.put(name + ".p999", histogram.getPercentile(99.9));
+        map.put(name + ".max", histogram.getMax());
+    }
+
+    /**
+     * 清空计数与时延分布，不影响在途消息数
+     */
+    @Override
+    public void reset() {
+        mPublished.set(0);
+        mPublishAcked.set(0);
+        mPublishFailed.set(0);
+        mSubscribed.set(0);
+        mSubscribeFailed.set(0);
+        mReceived.set(0);
+        mConnects.set(0);
+        mConnectFailures.set(0);
+        mReconnects.set(0);
+        mConnectionLost.set(0);
+        mPublishLatency.reset();
+        mSubscribeLatency.reset();
+        mConnectLatency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
@@ -0,0 +1,74 @@
+package com.tencent.iot.hub.device.java.core.metrics;
+
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 将 {@link TXMqttMetrics} 注册为 JMX MBean，仅在 JVM 环境可用（Android 上不要调用）
+ */
+public class TXMqttMetricsJmx {
+    private static final String TAG = TXMqttMetricsJmx.class.getSimpleName();
+    private static final Logger logger = LoggerFactory.getLogger(TXMqttMetricsJmx.class);
+    static { Loggor.setLogger(logger); }
+
+    private static final String DOMAIN = "com.tencent.iot.hub.device.java";
+
+    /**
+     * 注册进程级指标
+     *
+     * @return 注册成功返回 true
+     */
+    public static boolean registerGlobal() {
+        return register("global", TXMqttMetrics.global());
+    }
+
+    /**
+     * 注册指标
+     *
+     * @param name 名称，如 productId/deviceName
+     * @param metrics 指标
+     * @return 注册成功返回 true
+     */
+    public static boolean register(String name, TXMqttMetrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(metrics, objectName);
+            return true;
+        } catch (Exception e) {
+            Loggor.error(TAG, "register metrics mbean failed: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * 注销指标
+     *
+     * @param name 名称，与 {@link #register(String, TXMqttMetrics)} 一致
+     */
+    public static void unregister(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            Loggor.error(TAG, "unregister metrics mbean failed: " + e);
+        }
+    }
+
+    private static ObjectName objectName(String name) throws Exception {
+        return new ObjectName(DOMAIN + ":type=MqttMetrics,name=" + ObjectName.quote(name));
+    }
+}
@@ -0,0 +1,41 @@
+package com.tencent.iot.hub.device.java.core.metrics;
+
+/**
+ * MQTT 连接指标的 JMX 接口，由 {@link TXMqttMetricsJmx} 注册
+ */
+public interface TXMqttMetricsMBean {
+
+    long getPublished();
+
+    long getPublishAcked();
+
+    long getPublishFailed();
+
+    long getSubscribed();
+
+    long getSubscribeFailed();
+
+    long getReceived();
+
+    long getConnects();
+
+    long getConnectFailures();
+
+    long getReconnects();
+
+    long getConnectionLost();
+
+    long getInflight();
+
+    long getPublishLatencyP50();
+
+    long getPublishLatencyP99();
+
+    long getPublishLatencyMax();
+
+    long getSubscribeLatencyP99();
+
+    long getConnectLatencyP99();
+
+    void reset();
+}
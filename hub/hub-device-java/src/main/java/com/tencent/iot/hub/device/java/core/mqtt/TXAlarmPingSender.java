@@ -2,13 +2,31 @@ package com.tencent.iot.hub.device.java.core.mqtt;
 
 import com.tencent.iot.hub.device.java.utils.Loggor;
 
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttPingSender;
+import org.eclipse.paho.client.mqttv3.MqttToken;
 import org.eclipse.paho.client.mqttv3.internal.ClientComms;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * ping 发送器类
+ * ping 发送器类，所有连接共用 {@link TXPingScheduler} 的定时线程
+ *
+ * 定时线程只负责到期后投递检查任务，检查活动、发送 PINGREQ 以及超时断开连接在共享的检查线程池中执行，
+ * 某个连接断开时的阻塞不会推迟其它连接的心跳。
+ *
+ * 每次定时在 Paho 要求的间隔上增加最多 {@link #JITTER_RATIO} 的随机延时，避免同时建立的大量连接在同一时刻发送心跳
+ * （服务端在 1.5 倍 keepAlive 内未收到报文才会断开连接）。
  */
 public class TXAlarmPingSender implements MqttPingSender {
 	private static final Logger logger = LoggerFactory.getLogger(TXMqttConnection.class);
@@ -17,16 +35,97 @@ public class TXAlarmPingSender implements MqttPingSender {
 
 	static { Loggor.setLogger(logger); }
 
-	private ClientComms mComms;
+	/**
+	 * 心跳随机延时占定时间隔的最大比例
+	 */
+	public static final double JITTER_RATIO = 0.1;
+
+	/**
+	 * 检查线程池的线程数
+	 */
+	public static final int CHECK_THREADS = 4;
+
+	private static final ExecutorService sCheckExecutor = createCheckExecutor();
+
+	private static ExecutorService createCheckExecutor() {
+		final AtomicInteger index = new AtomicInteger(0);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(CHECK_THREADS, CHECK_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "TXMqtt-ping-check-" + index.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
 
-	private TXAlarmPingSender that;
+	private final TXPingScheduler mScheduler;
+	private final Random mRandom = new Random();
+
+	private ClientComms mComms;
+	private volatile TXPingScheduler.Timeout mTimeout;
 	private volatile boolean hasStarted = false;
 
+	private volatile long mPingSentTime = 0;
+	private volatile long mLastPingRtt = -1;
+
+	/** 检查任务已投递尚未执行，避免检查线程繁忙时同一连接的检查任务堆积 */
+	private final AtomicBoolean mCheckQueued = new AtomicBoolean(false);
+
+	private final IMqttActionListener mPingListener = new IMqttActionListener() {
+		@Override
+		public void onSuccess(IMqttToken asyncActionToken) {
+			mLastPingRtt = System.currentTimeMillis() - mPingSentTime;
+			Loggor.debug(TAG, "Ping success, rtt " + mLastPingRtt + "ms");
+		}
+
+		@Override
+		public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+			Loggor.warn(TAG, "Ping failed " + exception);
+		}
+	};
+
+	private final Runnable mCheckTask = new Runnable() {
+		@Override
+		public void run() {
+			mCheckQueued.set(false);
+			if (!hasStarted) {
+				return;
+			}
+			// checkForActivity 在需要时发送 PINGREQ，并通过 schedule 安排下一次检查；超时时会同步断开连接
+			MqttToken token = mComms.checkForActivity(mPingListener);
+			if (token != null) {
+				mPingSentTime = System.currentTimeMillis();
+			}
+		}
+	};
+
+	private final Runnable mPingTask = new Runnable() {
+		@Override
+		public void run() {
+			if (hasStarted && mCheckQueued.compareAndSet(false, true)) {
+				sCheckExecutor.execute(mCheckTask);
+			}
+		}
+	};
+
 	/**
-	 * 构造函数
+	 * 构造函数，使用进程内共享的心跳定时器
 	 */
 	public TXAlarmPingSender() {
-		that = this;
+		this(TXPingScheduler.getDefault());
+	}
+
+	/**
+	 * 构造函数
+	 *
+	 * @param scheduler 心跳定时器 {@link TXPingScheduler}
+	 */
+	public TXAlarmPingSender(TXPingScheduler scheduler) {
+		this.mScheduler = scheduler;
 	}
 
 	/**
@@ -43,10 +142,9 @@ public class TXAlarmPingSender implements MqttPingSender {
 	 */
 	@Override
 	public void start() {
-		String action = TAG + TXMqttConstants.PING_SENDER + mComms.getClient().getClientId();
-		Loggor.debug(TAG, "Register alarmreceiver to Context " + action);
-		schedule(mComms.getKeepAlive());
+		Loggor.debug(TAG, "Start ping sender " + mComms.getClient().getClientId());
 		hasStarted = true;
+		schedule(mComms.getKeepAlive());
 	}
 
 	/**
@@ -54,13 +152,12 @@ public class TXAlarmPingSender implements MqttPingSender {
 	 */
 	@Override
 	public void stop() {
-		Loggor.debug(TAG, "Unregister alarmreceiver to Context " + mComms.getClient().getClientId());
-		if (hasStarted) {
-			hasStarted = false;
-			try {
-			} catch (IllegalArgumentException e) {
-				// Ignore unregister errors.
-			}
+		Loggor.debug(TAG, "Stop ping sender " + mComms.getClient().getClientId());
+		hasStarted = false;
+		TXPingScheduler.Timeout timeout = mTimeout;
+		if (timeout != null) {
+			timeout.cancel();
+			mTimeout = null;
 		}
 	}
 
@@ -70,8 +167,23 @@ public class TXAlarmPingSender implements MqttPingSender {
 	 */
 	@Override
 	public void schedule(long delayInMilliseconds) {
-		long nextAlarmInMilliseconds = System.currentTimeMillis() + delayInMilliseconds;
-		Loggor.debug(TAG, "Schedule next alarm at " + nextAlarmInMilliseconds);
+		if (!hasStarted) {
+			return;
+		}
+		long jitter = (long) (delayInMilliseconds * JITTER_RATIO * mRandom.nextDouble());
+		TXPingScheduler.Timeout old = mTimeout;
+		if (old != null) {
+			old.cancel();
+		}
+		mTimeout = mScheduler.schedule(mPingTask, delayInMilliseconds + jitter);
 	}
 
+	/**
+	 * 获取最近一次心跳的往返时延
+	 *
+	 * @return 往返时延，单位：毫秒；尚未完成过心跳时返回 -1
+	 */
+	public long getLastPingRtt() {
+		return mLastPingRtt;
+	}
 }
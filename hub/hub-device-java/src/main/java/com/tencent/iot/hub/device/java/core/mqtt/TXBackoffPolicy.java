@@ -0,0 +1,19 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+/**
+ * 重连退避策略，每个连接持有独立的实例
+ */
+public interface TXBackoffPolicy {
+
+    /**
+     * 计算下一次重连前的等待时间，每次调用视为一次新的重连尝试
+     *
+     * @return 等待时间，单位：毫秒
+     */
+    long nextDelay();
+
+    /**
+     * 连接成功后重置退避状态
+     */
+    void reset();
+}
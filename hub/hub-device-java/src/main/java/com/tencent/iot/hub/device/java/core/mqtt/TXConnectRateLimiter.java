@@ -0,0 +1,180 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接请求限速器（令牌桶），限制进程内所有连接发起 CONNECT 的速率及同时进行中的连接数
+ *
+ * 采用预约方式：{@link #reserve(long)} 立即返回该请求可以发出的时刻，调用方按返回的等待时间定时发起连接，
+ * 不阻塞线程。桶容量内的请求无需等待，超出后按固定速率依次排队。
+ *
+ * 仅限速率时，服务端无响应的连接要等到超时才结束，故障恢复期间进行中的连接数仍会不断累积；
+ * 因此发起连接前还须通过 {@link #tryAcquireConnect(Runnable)} 取得并发许可，连接成功、失败或超时后
+ * 调用 {@link #releaseConnect()} 归还。
+ */
+public class TXConnectRateLimiter {
+
+    /**
+     * 默认每秒允许的连接数
+     */
+    public static final int DEFAULT_CONNECTS_PER_SECOND = 50;
+
+    /**
+     * 默认桶容量
+     */
+    public static final int DEFAULT_BURST = 50;
+
+    /**
+     * 默认同时进行中的最大连接数
+     */
+    public static final int DEFAULT_MAX_CONCURRENT = 100;
+
+    private static final TXConnectRateLimiter sDefault =
+            new TXConnectRateLimiter(DEFAULT_CONNECTS_PER_SECOND, DEFAULT_BURST, DEFAULT_MAX_CONCURRENT);
+
+    /**
+     * 获取进程内共享的限速器
+     *
+     * @return {@link TXConnectRateLimiter}
+     */
+    public static TXConnectRateLimiter getDefault() {
+        return sDefault;
+    }
+
+    private volatile long mIntervalNanos;
+    private volatile long mBurstNanos;
+    /**
+     * 下一个令牌的理论到达时刻
+     */
+    private long mNextFreeNanos = System.nanoTime();
+
+    private int mMaxConcurrent;
+    private int mConnecting = 0;
+    /** 等待并发许可的请求，按先后顺序放行 */
+    private final ArrayDeque<Runnable> mWaiters = new ArrayDeque<>();
+
+    /**
+     * 构造函数，不限制进行中的连接数
+     *
+     * @param connectsPerSecond 每秒允许的连接数
+     * @param burst 桶容量，允许瞬时发出的连接数
+     */
+    public TXConnectRateLimiter(int connectsPerSecond, int burst) {
+        this(connectsPerSecond, burst, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param connectsPerSecond 每秒允许的连接数
+     * @param burst 桶容量，允许瞬时发出的连接数
+     * @param maxConcurrent 同时进行中的最大连接数
+     */
+    public TXConnectRateLimiter(int connectsPerSecond, int burst, int maxConcurrent) {
+        setRate(connectsPerSecond, burst);
+        setMaxConcurrent(maxConcurrent);
+    }
+
+    /**
+     * 修改限速参数，对之后的预约生效
+     *
+     * @param connectsPerSecond 每秒允许的连接数
+     * @param burst 桶容量，允许瞬时发出的连接数
+     */
+    public void setRate(int connectsPerSecond, int burst) {
+        if (connectsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("invalid rate: " + connectsPerSecond + "/s, burst " + burst);
+        }
+        mIntervalNanos = TimeUnit.SECONDS.toNanos(1) / connectsPerSecond;
+        mBurstNanos = mIntervalNanos * (burst - 1);
+    }
+
+    /**
+     * 修改同时进行中的最大连接数，已发出的连接不受影响
+     *
+     * @param maxConcurrent 最大连接数
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("invalid max concurrent connects: " + maxConcurrent);
+        }
+        Runnable[] granted;
+        synchronized (this) {
+            mMaxConcurrent = maxConcurrent;
+            granted = grantWaiters();
+        }
+        runAll(granted);
+    }
+
+    /**
+     * 申请一个并发许可
+     *
+     * @param onAvailable 暂无许可时排队，取得许可后在归还许可的线程中调用，此后由它负责归还许可；
+     *                    不能执行耗时操作。为 null 时不排队
+     * @return 立即取得许可时返回 true
+     */
+    public boolean tryAcquireConnect(Runnable onAvailable) {
+        synchronized (this) {
+            if (mConnecting < mMaxConcurrent) {
+                mConnecting++;
+                return true;
+            }
+            if (onAvailable != null) {
+                mWaiters.offer(onAvailable);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 连接结束（成功、失败或超时）后归还并发许可，许可直接转交给等待最久的请求
+     */
+    public void releaseConnect() {
+        Runnable[] granted;
+        synchronized (this) {
+            mConnecting--;
+            granted = grantWaiters();
+        }
+        runAll(granted);
+    }
+
+    /**
+     * 进行中的连接数
+     *
+     * @return 已取得许可、尚未归还的连接数
+     */
+    public synchronized int getConnecting() {
+        return mConnecting;
+    }
+
+    private Runnable[] grantWaiters() {
+        int count = Math.min(mWaiters.size(), Math.max(mMaxConcurrent - mConnecting, 0));
+        Runnable[] granted = new Runnable[count];
+        for (int i = 0; i < count; i++) {
+            granted[i] = mWaiters.poll();
+        }
+        mConnecting += count;
+        return granted;
+    }
+
+    private static void runAll(Runnable[] granted) {
+        for (Runnable waiter : granted) {
+            waiter.run();
+        }
+    }
+
+    /**
+     * 预约一次连接
+     *
+     * @param delayMillis 调用方希望的最早发起时间（距现在），单位：毫秒
+     * @return 实际应等待的时间，不小于 delayMillis，单位：毫秒
+     */
+    public synchronized long reserve(long delayMillis) {
+        long now = System.nanoTime();
+        long desired = now + TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0));
+        long at = Math.max(desired, mNextFreeNanos - mBurstNanos);
+        mNextFreeNanos = Math.max(mNextFreeNanos, at) + mIntervalNanos;
+        return TimeUnit.NANOSECONDS.toMillis(at - now + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+    }
+}
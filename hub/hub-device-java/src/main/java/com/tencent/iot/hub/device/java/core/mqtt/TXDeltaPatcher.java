@@ -0,0 +1,216 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 差分升级补丁，格式与 bsdiff 的流式格式（ENDSLEY/BSDIFF43）一致：
+ *
+ * 文件头为 16 字节的 {@link #MAGIC} 与 8 字节的新固件长度，其后是由若干 (控制块, diff 数据, extra 数据)
+ * 依次组成的数据流。控制块为 3 个 8 字节整数 (x, y, z)：新固件的后 x 字节由旧固件对应位置的字节加上
+ * diff 数据得到，再追加 y 字节 extra 数据，然后旧固件读取位置移动 z 字节。
+ *
+ * 数据流可以不压缩或使用 gzip 压缩；补丁边读边应用，旧固件按需随机读取，内存占用与固件大小无关。
+ */
+public class TXDeltaPatcher {
+
+    /**
+     * 补丁文件头
+     */
+    public static final String MAGIC = "ENDSLEY/BSDIFF43";
+
+    private static final int HEADER_SIZE = 16 + 8;
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 应用进度回调
+     */
+    public interface ProgressListener {
+        /**
+         * 应用进度
+         *
+         * @param writtenBytes 已生成的新固件字节数
+         * @param totalBytes 新固件总字节数
+         */
+        void onProgress(long writtenBytes, long totalBytes);
+    }
+
+    private final int mBufferSize;
+
+    /**
+     * 构造函数
+     */
+    public TXDeltaPatcher() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param bufferSize 读写缓冲区大小，决定应用补丁时的内存占用
+     */
+    public TXDeltaPatcher(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("invalid buffer size " + bufferSize);
+        }
+        this.mBufferSize = bufferSize;
+    }
+
+    /**
+     * 将补丁应用到旧固件，生成新固件
+     *
+     * @param oldFile 当前安装的旧固件
+     * @param patch 补丁数据流，不需要缓存到文件
+     * @param out 新固件输出流
+     * @param digest 边生成边计算新固件摘要，可为 null
+     * @param listener 进度回调，可为 null
+     * @return 新固件长度
+     * @throws IOException 读写失败或补丁格式错误
+     */
+    public long apply(File oldFile, InputStream patch, OutputStream out, TXFirmwareDigest digest,
+                      ProgressListener listener) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(patch, mBufferSize));
+        byte[] header = new byte[HEADER_SIZE];
+        in.readFully(header);
+        if (!MAGIC.equals(new String(header, 0, 16, Charset.forName("US-ASCII")))) {
+            throw new IOException("invalid patch header");
+        }
+        long newSize = offtin(header, 16);
+        if (newSize < 0) {
+            throw new IOException("invalid new file size " + newSize);
+        }
+        in = new DataInputStream(decompress(in));
+
+        RandomAccessFile old = new RandomAccessFile(oldFile, "r");
+        try {
+            long oldSize = old.length();
+            byte[] ctrl = new byte[24];
+            byte[] data = new byte[mBufferSize];
+            byte[] base = new byte[mBufferSize];
+            long newPos = 0;
+            long oldPos = 0;
+            while (newPos < newSize) {
+                in.readFully(ctrl);
+                long diffLength = offtin(ctrl, 0);
+                long extraLength = offtin(ctrl, 8);
+                long seek = offtin(ctrl, 16);
+                if (diffLength < 0 || extraLength < 0 || newPos + diffLength + extraLength > newSize) {
+                    throw new IOException("corrupt patch control block at " + newPos);
+                }
+
+                // diff 数据与旧固件对应字节相加
+                long remaining = diffLength;
+                while (remaining > 0) {
+                    int len = (int) Math.min(remaining, data.length);
+                    in.readFully(data, 0, len);
+                    readOld(old, oldSize, oldPos, base, len);
+                    for (int i = 0; i < len; i++) {
+                        data[i] += base[i];
+                    }
+                    write(out, digest, data, len);
+                    oldPos += len;
+                    newPos += len;
+                    remaining -= len;
+                    if (listener != null) {
+                        listener.onProgress(newPos, newSize);
+                    }
+                }
+
+                // extra 数据直接写入
+                remaining = extraLength;
+                while (remaining > 0) {
+                    int len = (int) Math.min(remaining, data.length);
+                    in.readFully(data, 0, len);
+                    write(out, digest, data, len);
+                    newPos += len;
+                    remaining -= len;
+                    if (listener != null) {
+                        listener.onProgress(newPos, newSize);
+                    }
+                }
+
+                oldPos += seek;
+            }
+        } catch (EOFException e) {
+            throw new IOException("truncated patch", e);
+        } finally {
+            old.close();
+        }
+        out.flush();
+        return newSize;
+    }
+
+    private static InputStream decompress(InputStream in) throws IOException {
+        in.mark(3);
+        int b0 = in.read();
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+        if (b0 == 0x1f && b1 == 0x8b) {
+            return new GZIPInputStream(in, DEFAULT_BUFFER_SIZE);
+        }
+        if (b0 == 'B' && b1 == 'Z' && b2 == 'h') {
+            throw new IOException("bzip2 compressed patch is not supported, use gzip or no compression");
+        }
+        return in;
+    }
+
+    /**
+     * 读取旧固件 [pos, pos + len)，超出旧固件范围的部分按 0 处理
+     */
+    private static void readOld(RandomAccessFile old, long oldSize, long pos, byte[] buffer, int len)
+            throws IOException {
+        long start = Math.max(pos, 0);
+        long end = Math.min(pos + len, oldSize);
+        if (start >= end) {
+            Arrays.fill(buffer, 0, len, (byte) 0);
+            return;
+        }
+        int head = (int) (start - pos);
+        int count = (int) (end - start);
+        Arrays.fill(buffer, 0, head, (byte) 0);
+        old.seek(start);
+        old.readFully(buffer, head, count);
+        Arrays.fill(buffer, head + count, len, (byte) 0);
+    }
+
+    private static void write(OutputStream out, TXFirmwareDigest digest, byte[] data, int len) throws IOException {
+        out.write(data, 0, len);
+        if (digest != null) {
+            digest.update(data, 0, len);
+        }
+    }
+
+    /**
+     * bsdiff 的 8 字节整数编码：小端序，最高字节的最高位为符号位
+     */
+    static long offtin(byte[] buf, int offset) {
+        long y = buf[offset + 7] & 0x7F;
+        for (int i = 6; i >= 0; i--) {
+            y = (y << 8) | (buf[offset + i] & 0xFF);
+        }
+        return (buf[offset + 7] & 0x80) != 0 ? -y : y;
+    }
+
+    /**
+     * {@link #offtin(byte[], int)} 的逆运算
+     */
+    static void offtout(long x, byte[] buf, int offset) {
+        long y = x < 0 ? -x : x;
+        for (int i = 0; i < 8; i++) {
+            buf[offset + i] = (byte) (y >>> (8 * i));
+        }
+        if (x < 0) {
+            buf[offset + 7] |= (byte) 0x80;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import java.util.Random;
+
+/**
+ * 指数退避，带去相关抖动（decorrelated jitter）：
+ * 下一次等待时间在 [base, 上一次等待时间 * 3] 中随机选取，且不超过 max
+ *
+ * 与固定倍数的指数退避相比，大量设备同时断连后的重连时间会被打散，不会集中在同一时刻
+ */
+public class TXExponentialBackoff implements TXBackoffPolicy {
+
+    /**
+     * 默认最小等待时间，单位：毫秒
+     */
+    public static final long DEFAULT_BASE_MILLIS = 1000;
+
+    /**
+     * 默认最大等待时间，单位：毫秒
+     */
+    public static final long DEFAULT_MAX_MILLIS = 2 * 60 * 1000;
+
+    private final long mBaseMillis;
+    private final long mMaxMillis;
+    private final Random mRandom = new Random();
+    private long mLastDelay;
+
+    /**
+     * 构造函数，使用默认的最小、最大等待时间
+     */
+    public TXExponentialBackoff() {
+        this(DEFAULT_BASE_MILLIS, DEFAULT_MAX_MILLIS);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param baseMillis 最小等待时间，单位：毫秒
+     * @param maxMillis 最大等待时间，单位：毫秒
+     */
+    public TXExponentialBackoff(long baseMillis, long maxMillis) {
+        if (baseMillis <= 0 || maxMillis < baseMillis) {
+            throw new IllegalArgumentException("invalid backoff range: " + baseMillis + " ~ " + maxMillis);
+        }
+        this.mBaseMillis = baseMillis;
+        this.mMaxMillis = maxMillis;
+        this.mLastDelay = baseMillis;
+    }
+
+    @Override
+    public synchronized long nextDelay() {
+        long upper = Math.min(mMaxMillis, mLastDelay * 3);
+        long delay = mBaseMillis + (long) (mRandom.nextDouble() * (upper - mBaseMillis));
+        mLastDelay = Math.max(delay, mBaseMillis);
+        return delay;
+    }
+
+    @Override
+    public synchronized void reset() {
+        mLastDelay = mBaseMillis;
+    }
+}
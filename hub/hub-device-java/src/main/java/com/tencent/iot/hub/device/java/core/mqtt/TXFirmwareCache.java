@@ -0,0 +1,334 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * 固件缓存：以固件的 MD5 或 SHA-256 为文件名保存已校验通过的固件，超出磁盘配额时按最近最少使用淘汰
+ *
+ * 网关的多个子设备升级同一固件时只需下载一次，其余子设备的输出文件通过硬链接生成，
+ * 缓存目录与输出文件不在同一文件系统时改用 {@link FileChannel#transferTo} 复制。
+ * 缓存文件设置为只读，但只读对 root 用户无效，通过硬链接原地修改输出文件仍会改变缓存内容，
+ * 因此每次命中缓存时都重新校验摘要，不一致的缓存被丢弃。
+ */
+public class TXFirmwareCache {
+    private static final String TAG = TXFirmwareCache.class.getSimpleName();
+    private static final Logger logger = LoggerFactory.getLogger(TXFirmwareCache.class);
+    static { Loggor.setLogger(logger); }
+
+    private static final Pattern CHECKSUM_PATTERN = Pattern.compile("[0-9a-f]{32}|[0-9a-f]{64}");
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    /** 按访问顺序排列，最先迭代到的是最久未使用的条目 */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, KeyLock> mKeyLocks = new HashMap<>();
+    private long mTotalBytes = 0;
+
+    private static final class KeyLock {
+        final ReentrantLock lock = new ReentrantLock();
+        int refs = 0;
+    }
+
+    /**
+     * 构造函数，加载缓存目录中已有的固件
+     *
+     * @param directory 缓存目录，不存在时创建
+     * @param maxBytes 磁盘配额，单位：字节
+     */
+    public TXFirmwareCache(File directory, long maxBytes) {
+        if (directory == null || maxBytes <= 0) {
+            throw new IllegalArgumentException("invalid firmware cache parameters");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("cannot create cache directory " + directory);
+        }
+        this.mDirectory = directory;
+        this.mMaxBytes = maxBytes;
+        load();
+    }
+
+    /**
+     * 缓存中是否有该固件
+     *
+     * @param checksum 固件的 MD5 或 SHA-256
+     * @return 有缓存时返回 true
+     */
+    public synchronized boolean contains(String checksum) {
+        String key = normalize(checksum);
+        return key != null && mEntries.containsKey(key);
+    }
+
+    /**
+     * 缓存的固件总大小
+     *
+     * @return 单位：字节
+     */
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * 缓存的固件个数
+     *
+     * @return 固件个数
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * 从缓存生成输出文件，优先使用硬链接，失败时复制。生成前重新校验缓存文件的摘要。
+     *
+     * 硬链接的输出文件与缓存共享数据且为只读，需要修改时应先删除或复制，不能原地写入
+     *
+     * @param checksum 固件的 MD5 或 SHA-256
+     * @param outputFile 输出文件全路径，已存在时覆盖
+     * @return 缓存命中并生成输出文件时返回 true
+     */
+    public boolean copyTo(String checksum, String outputFile) {
+        String key = normalize(checksum);
+        if (key == null) {
+            return false;
+        }
+        File cached = new File(mDirectory, key);
+        synchronized (this) {
+            Long length = mEntries.get(key);
+            if (length == null) {
+                return false;
+            }
+            if (cached.length() != length) {
+                Loggor.warn(TAG, "cached firmware " + key + " is corrupted, discard it");
+                remove(key);
+                return false;
+            }
+            cached.setLastModified(System.currentTimeMillis());
+        }
+        File output = new File(outputFile);
+        try {
+            String algorithm = key.length() == 64 ? TXFirmwareDigest.SHA256 : TXFirmwareDigest.MD5;
+            if (!key.equals(TXFirmwareDigest.digestFile(cached.getPath(), algorithm))) {
+                Loggor.warn(TAG, "cached firmware " + key + " was modified, discard it");
+                synchronized (this) {
+                    remove(key);
+                }
+                return false;
+            }
+            if (!link(cached, output)) {
+                copy(cached, output);
+            }
+            Loggor.info(TAG, "serve firmware " + key + " from cache to " + outputFile);
+            return true;
+        } catch (IOException e) {
+            // 复制时缓存文件被淘汰等
+            Loggor.warn(TAG, "copy cached firmware " + key + " failed: " + e);
+            output.delete();
+            return false;
+        }
+    }
+
+    /**
+     * 将已校验通过的固件复制到缓存，超出配额时淘汰最久未使用的固件，不改变源文件
+     *
+     * @param checksum 固件的 MD5 或 SHA-256
+     * @param file 固件文件全路径
+     * @return 加入缓存时返回 true；固件大于配额或复制失败时返回 false
+     */
+    public boolean put(String checksum, String file) {
+        String key = normalize(checksum);
+        File source = new File(file);
+        long length = source.length();
+        if (key == null || !source.isFile() || length > mMaxBytes) {
+            return false;
+        }
+        synchronized (this) {
+            if (mEntries.containsKey(key)) {
+                return true;
+            }
+        }
+        File temp = new File(mDirectory, key + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        File cached = new File(mDirectory, key);
+        try {
+            // 复制而不是链接，调用方之后修改或续写源文件不影响缓存
+            copy(source, temp);
+            temp.setReadOnly();
+            synchronized (this) {
+                if (mEntries.containsKey(key)) {
+                    temp.delete();
+                    return true;
+                }
+                Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                mEntries.put(key, length);
+                mTotalBytes += length;
+                trim();
+            }
+            Loggor.info(TAG, "cache firmware " + key + ", " + length + " bytes");
+            return true;
+        } catch (IOException e) {
+            Loggor.warn(TAG, "cache firmware " + key + " failed: " + e);
+            temp.delete();
+            return false;
+        }
+    }
+
+    /**
+     * 获取固件的下载锁。同一固件的多个下载任务（下载地址可能不同）依次执行，
+     * 后执行的任务可以直接从缓存生成输出文件；必须在 finally 中调用 {@link #unlock(String)}
+     *
+     * @param checksum 固件的 MD5 或 SHA-256
+     */
+    public void lock(String checksum) {
+        String key = String.valueOf(normalize(checksum));
+        KeyLock keyLock;
+        synchronized (mKeyLocks) {
+            keyLock = mKeyLocks.get(key);
+            if (keyLock == null) {
+                keyLock = new KeyLock();
+                mKeyLocks.put(key, keyLock);
+            }
+            keyLock.refs++;
+        }
+        keyLock.lock.lock();
+    }
+
+    /**
+     * 释放 {@link #lock(String)} 获取的下载锁
+     *
+     * @param checksum 固件的 MD5 或 SHA-256
+     */
+    public void unlock(String checksum) {
+        String key = String.valueOf(normalize(checksum));
+        synchronized (mKeyLocks) {
+            KeyLock keyLock = mKeyLocks.get(key);
+            keyLock.lock.unlock();
+            if (--keyLock.refs == 0) {
+                mKeyLocks.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        for (String key : new ArrayList<>(mEntries.keySet())) {
+            remove(key);
+        }
+    }
+
+    private static String normalize(String checksum) {
+        if (checksum == null) {
+            return null;
+        }
+        String key = checksum.toLowerCase(Locale.US);
+        return CHECKSUM_PATTERN.matcher(key).matches() ? key : null;
+    }
+
+    private void load() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> cached = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (file.isFile() && normalize(file.getName()) != null) {
+                cached.add(file);
+            }
+        }
+        // 最后访问时间记录在修改时间中，重启后恢复淘汰顺序
+        Collections.sort(cached, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        synchronized (this) {
+            for (File file : cached) {
+                mEntries.put(file.getName(), file.length());
+                mTotalBytes += file.length();
+            }
+            trim();
+        }
+        Loggor.info(TAG, "load " + mEntries.size() + " cached firmware, " + mTotalBytes + " bytes");
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (mTotalBytes > mMaxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            mTotalBytes -= eldest.getValue();
+            new File(mDirectory, eldest.getKey()).delete();
+            Loggor.info(TAG, "evict cached firmware " + eldest.getKey());
+        }
+    }
+
+    private void remove(String key) {
+        Long length = mEntries.remove(key);
+        if (length != null) {
+            mTotalBytes -= length;
+        }
+        new File(mDirectory, key).delete();
+    }
+
+    private static boolean link(File existing, File link) {
+        try {
+            Files.deleteIfExists(link.toPath());
+            Files.createLink(link.toPath(), existing.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            // 跨文件系统或不支持硬链接
+            return false;
+        }
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        Files.deleteIfExists(target.toPath());
+        FileInputStream in = new FileInputStream(source);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(target);
+            FileChannel src = in.getChannel();
+            FileChannel dst = out.getChannel();
+            long size = src.size();
+            long position = 0;
+            while (position < size) {
+                position += src.transferTo(position, size - position, dst);
+            }
+        } finally {
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+        }
+        if (target.length() != source.length()) {
+            throw new IOException("short copy of " + source);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import org.bouncycastle.crypto.digests.EncodableDigest;
+import org.bouncycastle.crypto.digests.GeneralDigest;
+import org.bouncycastle.crypto.digests.MD5Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 固件摘要，支持 MD5 与 SHA-256，在下载过程中边写边计算
+ *
+ * 基于 BouncyCastle 的摘要实现，与 {@link java.security.MessageDigest} 不同，计算中间状态可以保存到文件
+ * 并在断点续传时恢复，续传时不需要重新读取已下载的部分。
+ */
+public final class TXFirmwareDigest {
+
+    /**
+     * MD5 算法名
+     */
+    public static final String MD5 = "MD5";
+
+    /**
+     * SHA-256 算法名
+     */
+    public static final String SHA256 = "SHA-256";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String mAlgorithm;
+    private final GeneralDigest mDigest;
+    private long mLength = 0;
+
+    /**
+     * 创建摘要对象
+     *
+     * @param algorithm {@link #MD5} 或 {@link #SHA256}
+     * @return {@link TXFirmwareDigest}
+     */
+    public static TXFirmwareDigest create(String algorithm) {
+        if (MD5.equalsIgnoreCase(algorithm)) {
+            return new TXFirmwareDigest(MD5, new MD5Digest());
+        }
+        if (SHA256.equalsIgnoreCase(algorithm)) {
+            return new TXFirmwareDigest(SHA256, new SHA256Digest());
+        }
+        throw new IllegalArgumentException("unsupported digest algorithm: " + algorithm);
+    }
+
+    /**
+     * 根据校验值的长度选择算法：32 个十六进制字符为 MD5，64 个为 SHA-256
+     *
+     * @param checksum 十六进制校验值
+     * @return {@link TXFirmwareDigest}
+     */
+    public static TXFirmwareDigest forChecksum(String checksum) {
+        return create(checksum != null && checksum.length() == 64 ? SHA256 : MD5);
+    }
+
+    /**
+     * 从文件恢复摘要计算状态
+     *
+     * @param file 状态文件，由 {@link #saveTo(File)} 写入
+     * @param algorithm 期望的算法
+     * @return 恢复的摘要对象；文件不存在、损坏或算法不一致时返回 null
+     */
+    public static TXFirmwareDigest loadFrom(File file, String algorithm) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            String saved = in.readUTF();
+            if (!saved.equals(algorithm)) {
+                return null;
+            }
+            long length = in.readLong();
+            byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+            TXFirmwareDigest digest = MD5.equals(saved)
+                    ? new TXFirmwareDigest(MD5, new MD5Digest(state))
+                    : new TXFirmwareDigest(SHA256, new SHA256Digest(state));
+            digest.mLength = length;
+            return digest;
+        } catch (Exception e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 计算整个文件的摘要
+     *
+     * @param filePath 全路径文件名
+     * @param algorithm {@link #MD5} 或 {@link #SHA256}
+     * @return 十六进制摘要字符串
+     * @throws IOException 读取失败
+     */
+    public static String digestFile(String filePath, String algorithm) throws IOException {
+        TXFirmwareDigest digest = create(algorithm);
+        InputStream in = new FileInputStream(filePath);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digestHex();
+    }
+
+    private TXFirmwareDigest(String algorithm, GeneralDigest digest) {
+        this.mAlgorithm = algorithm;
+        this.mDigest = digest;
+    }
+
+    /**
+     * 获取算法名
+     *
+     * @return {@link #MD5} 或 {@link #SHA256}
+     */
+    public String getAlgorithm() {
+        return mAlgorithm;
+    }
+
+    /**
+     * 追加数据
+     *
+     * @param data 数据
+     * @param offset 起始位置
+     * @param len 长度
+     */
+    public void update(byte[] data, int offset, int len) {
+        mDigest.update(data, offset, len);
+        mLength += len;
+    }
+
+    /**
+     * 获取已计算的字节数
+     *
+     * @return 字节数
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    /**
+     * 计算当前已追加数据的摘要，不影响继续追加
+     *
+     * @return 十六进制摘要字符串
+     */
+    public String digestHex() {
+        GeneralDigest copy = (GeneralDigest) mDigest.copy();
+        byte[] result = new byte[copy.getDigestSize()];
+        copy.doFinal(result, 0);
+        char[] hex = new char[result.length * 2];
+        for (int i = 0; i < result.length; i++) {
+            hex[i * 2] = HEX[(result[i] >>> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX[result[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * 比较摘要与校验值（忽略大小写）
+     *
+     * @param checksum 十六进制校验值
+     * @return 一致时返回 true
+     */
+    public boolean matches(String checksum) {
+        return digestHex().equalsIgnoreCase(checksum);
+    }
+
+    /**
+     * 保存计算状态到文件，先写临时文件再替换，避免写入中途断电留下损坏的状态
+     *
+     * @param file 状态文件
+     * @throws IOException 写入失败
+     */
+    public void saveTo(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(getAlgorithm());
+        out.writeLong(mLength);
+        byte[] state = ((EncodableDigest) mDigest).getEncodedState();
+        out.writeInt(state.length);
+        out.write(state);
+        out.flush();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            fos.write(bytes.toByteArray());
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("rename " + tmp + " failed");
+            }
+        }
+    }
+}
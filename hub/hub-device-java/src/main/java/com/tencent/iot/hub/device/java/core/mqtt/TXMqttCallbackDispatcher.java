@@ -0,0 +1,292 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.core.common.Status;
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MQTT 结果回调分发器，多个 {@link TXMqttConnection} 共享一组回调线程
+ *
+ * 经 {@link #wrap(TXMqttActionCallBack)} 包装的回调中，连接、断开、发布、订阅的结果回调在共享线程池中执行：
+ * 同一个包装后的回调内保持顺序；未执行的回调数有上限，达到上限时投递回调的线程等待。共享线程数有上限，
+ * 空闲线程超时后退出。
+ *
+ * 收到的消息仍在 Paho 的回调线程中同步交给 {@link TXMqttActionCallBack#onMessageReceived}，
+ * 回调返回后才确认 QoS1 消息，回调抛出的异常也由 Paho 处理，与未包装的回调一致。
+ *
+ * 分发器只把耗时的结果回调移出 Paho 线程，不减少每个连接的线程数：Paho 1.1.0 的每个客户端仍有各自的收、发、回调线程。
+ */
+public class TXMqttCallbackDispatcher {
+    private static final String TAG = TXMqttCallbackDispatcher.class.getSimpleName();
+    private static final Logger logger = LoggerFactory.getLogger(TXMqttCallbackDispatcher.class);
+    static { Loggor.setLogger(logger); }
+
+    /**
+     * 默认回调线程数
+     */
+    public static final int DEFAULT_CALLBACK_THREADS = 4;
+
+    /**
+     * 默认每个回调最多未执行的结果回调数
+     */
+    public static final int DEFAULT_MAX_PENDING_CALLBACKS = 1024;
+
+    /**
+     * 默认空闲回调线程的存活时间，单位：毫秒
+     */
+    static final long DEFAULT_KEEP_ALIVE_MILLIS = 60 * 1000;
+
+    /** 标记当前线程正在执行分发的回调，回调中再投递回调时不等待，避免占满线程池后互相等待 */
+    private static final ThreadLocal<Boolean> sInCallback = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor mCallbackExecutor;
+    private final int mMaxPendingCallbacks;
+
+    /**
+     * 构造函数，使用默认的回调线程数
+     */
+    public TXMqttCallbackDispatcher() {
+        this(DEFAULT_CALLBACK_THREADS, DEFAULT_MAX_PENDING_CALLBACKS);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param callbackThreads 共享回调线程数上限
+     * @param maxPendingCallbacks 每个回调最多未执行的结果回调数
+     */
+    public TXMqttCallbackDispatcher(int callbackThreads, int maxPendingCallbacks) {
+        this(callbackThreads, maxPendingCallbacks, DEFAULT_KEEP_ALIVE_MILLIS);
+    }
+
+    TXMqttCallbackDispatcher(int callbackThreads, int maxPendingCallbacks, long keepAliveMillis) {
+        if (callbackThreads < 1 || maxPendingCallbacks < 1) {
+            throw new IllegalArgumentException();
+        }
+        mMaxPendingCallbacks = maxPendingCallbacks;
+        // 排队数由各回调的上限约束，线程池本身只限制线程数
+        mCallbackExecutor = new ThreadPoolExecutor(callbackThreads, callbackThreads, keepAliveMillis,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("TXMqttCallback-"));
+        mCallbackExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 包装连接回调，传给 {@link TXMqttConnection} 的构造函数；每个连接须使用各自包装的回调
+     *
+     * @param callBack 连接、消息发布、消息订阅回调接口 {@link TXMqttActionCallBack}
+     * @return 在共享线程池中执行结果回调的 {@link TXMqttActionCallBack}
+     */
+    public TXMqttActionCallBack wrap(TXMqttActionCallBack callBack) {
+        if (callBack == null) {
+            throw new IllegalArgumentException("callBack == null");
+        }
+        return new DispatchingCallBack(callBack, new SerialExecutor(mCallbackExecutor, mMaxPendingCallbacks));
+    }
+
+    /**
+     * 获取当前回调线程数，空闲线程超时退出后减少
+     *
+     * @return 线程数
+     */
+    public int getThreadCount() {
+        return mCallbackExecutor.getPoolSize();
+    }
+
+    /**
+     * 释放共享回调线程，已投递的回调执行完后线程退出，之后投递的回调被丢弃
+     *
+     * @param timeout 等待回调线程退出的时间，单位：毫秒
+     */
+    public void shutdown(long timeout) {
+        mCallbackExecutor.shutdown();
+        try {
+            mCallbackExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 将结果回调投递到共享线程池，消息回调在调用线程中直接执行
+     */
+    private static class DispatchingCallBack extends TXMqttActionCallBack {
+        private final TXMqttActionCallBack mCallBack;
+        private final Executor mExecutor;
+
+        DispatchingCallBack(TXMqttActionCallBack callBack, Executor executor) {
+            this.mCallBack = callBack;
+            this.mExecutor = executor;
+        }
+
+        @Override
+        public void onConnectCompleted(final Status status, final boolean reconnect, final Object userContext, final String msg) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallBack.onConnectCompleted(status, reconnect, userContext, msg);
+                }
+            });
+        }
+
+        @Override
+        public void onConnectionLost(final Throwable cause) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallBack.onConnectionLost(cause);
+                }
+            });
+        }
+
+        @Override
+        public void onDisconnectCompleted(final Status status, final Object userContext, final String msg) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallBack.onDisconnectCompleted(status, userContext, msg);
+                }
+            });
+        }
+
+        @Override
+        public void onPublishCompleted(final Status status, final IMqttToken token, final Object userContext, final String msg) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallBack.onPublishCompleted(status, token, userContext, msg);
+                }
+            });
+        }
+
+        @Override
+        public void onSubscribeCompleted(final Status status, final IMqttToken token, final Object userContext, final String msg) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallBack.onSubscribeCompleted(status, token, userContext, msg);
+                }
+            });
+        }
+
+        @Override
+        public void onUnSubscribeCompleted(final Status status, final IMqttToken token, final Object userContext, final String msg) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallBack.onUnSubscribeCompleted(status, token, userContext, msg);
+                }
+            });
+        }
+
+        @Override
+        public void onMessageReceived(String topic, MqttMessage message) {
+            mCallBack.onMessageReceived(topic, message);
+        }
+    }
+
+    /**
+     * 在共享线程池上按提交顺序串行执行任务，保证同一连接的回调不会乱序；
+     * 未执行的任务数达到上限时，提交任务的线程等待，与 Paho 回调线程原有的背压一致
+     */
+    private static class SerialExecutor implements Executor {
+        private final ArrayDeque<Task> mTasks = new ArrayDeque<>();
+        private final Executor mExecutor;
+        private final Semaphore mPermits;
+        private Task mActive;
+
+        SerialExecutor(Executor executor, int maxPending) {
+            this.mExecutor = executor;
+            this.mPermits = new Semaphore(maxPending);
+        }
+
+        private final class Task implements Runnable {
+            private final Runnable mRunnable;
+            private final boolean mHoldsPermit;
+
+            Task(Runnable runnable, boolean holdsPermit) {
+                this.mRunnable = runnable;
+                this.mHoldsPermit = holdsPermit;
+            }
+
+            @Override
+            public void run() {
+                sInCallback.set(Boolean.TRUE);
+                try {
+                    mRunnable.run();
+                } catch (RuntimeException e) {
+                    Loggor.error(TAG, "callback failed: " + e);
+                } finally {
+                    sInCallback.remove();
+                    release();
+                    scheduleNext();
+                }
+            }
+
+            void release() {
+                if (mHoldsPermit) {
+                    mPermits.release();
+                }
+            }
+        }
+
+        @Override
+        public void execute(Runnable r) {
+            boolean holdsPermit = sInCallback.get() == null;
+            if (holdsPermit) {
+                mPermits.acquireUninterruptibly();
+            }
+            synchronized (this) {
+                mTasks.offer(new Task(r, holdsPermit));
+                if (mActive == null) {
+                    scheduleNext();
+                }
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            if ((mActive = mTasks.poll()) != null) {
+                try {
+                    mExecutor.execute(mActive);
+                } catch (RuntimeException e) {
+                    // 线程池已关闭，丢弃剩余回调
+                    mActive.release();
+                    for (Task task : mTasks) {
+                        task.release();
+                    }
+                    mTasks.clear();
+                    mActive = null;
+                }
+            }
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String mPrefix;
+        private final AtomicInteger mIndex = new AtomicInteger(0);
+
+        NamedThreadFactory(String prefix) {
+            this.mPrefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, mPrefix + mIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -5,6 +5,8 @@ import com.tencent.iot.hub.device.java.core.device.CA;
 import com.tencent.iot.hub.device.java.core.log.TXMqttLog;
 import com.tencent.iot.hub.device.java.core.log.TXMqttLogCallBack;
 import com.tencent.iot.hub.device.java.core.log.TXMqttLogConstants;
+import com.tencent.iot.hub.device.java.core.log.TXMqttLogSpool;
+import com.tencent.iot.hub.device.java.core.metrics.TXMqttMetrics;
 import com.tencent.iot.hub.device.java.core.util.Base64;
 import com.tencent.iot.hub.device.java.core.util.HmacSha256;
 import com.tencent.iot.hub.device.java.utils.Loggor;
@@ -27,12 +29,19 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -97,13 +106,73 @@ public class TXMqttConnection implements MqttCallbackExtended {
     protected TXAlarmPingSender mPingSender = null;
     protected TXMqttActionCallBack mActionCallBack = null;
 
-    protected HashMap<String, Integer> mSubscribedTopicMap = new HashMap<>();
+    protected ConcurrentHashMap<String, Integer> mSubscribedTopicMap = new ConcurrentHashMap<>();
 
     private static int INVALID_MESSAGE_ID = -1;
     protected int mLastReceivedMessageId = INVALID_MESSAGE_ID;
 
     protected TXOTAImpl mOTAImpl = null;
 
+    /**
+     * 下行消息路由，OTA、日志、RRPC 等内置处理器以及子类的处理器都注册在这里
+     */
+    protected final TXTopicRouter mTopicRouter = new TXTopicRouter();
+
+    /**
+     * 各类请求的结果监听器不持有请求状态，按命令类型复用
+     */
+    private final QcloudMqttActionListener mPublishListener = new QcloudMqttActionListener(TXMqttConstants.PUBLISH);
+    private final QcloudMqttActionListener mSubscribeListener = new QcloudMqttActionListener(TXMqttConstants.SUBSCRIBE);
+    private final QcloudMqttActionListener mUnSubscribeListener = new QcloudMqttActionListener(TXMqttConstants.UNSUBSCRIBE);
+
+    /**
+     * 连接指标，同时累加到进程级指标 {@link TXMqttMetrics#global()}
+     */
+    protected final TXMqttMetrics mMetrics = new TXMqttMetrics();
+
+    private final TXProgressReporter mProgressReporter = new TXProgressReporter(TXProgressReporter.DEFAULT_MAX_PER_SECOND);
+
+    private volatile TXReconnectController mReconnectController = null;
+    private ScheduledFuture<?> mReconnectFuture = null;
+    /** 正在等待并发许可的重连 */
+    private SlotWaiter mSlotWaiter = null;
+    /** 已取得并发许可、即将由 connectInternal 交给连接请求的重连控制器 */
+    private TXReconnectController mPendingSlot = null;
+
+    private static final int OFFLINE_REPLAY_BATCH_SIZE = 64;
+    private static final long OFFLINE_REPLAY_TIMEOUT = 30 * 1000;
+    private volatile TXOfflineMessageStore mOfflineStore = null;
+    private final AtomicBoolean mReplaying = new AtomicBoolean(false);
+
+    private volatile TXPublishWindow mPublishWindow =
+            new TXPublishWindow(TXPublishWindow.DEFAULT_MAX_INFLIGHT, TXPublishWindow.DEFAULT_MAX_PENDING);
+
+    private final TXPublishWindow.Sender mBatchSender = new TXPublishWindow.Sender() {
+        @Override
+        public void send(String topic, MqttMessage message, TXPublishWindow.Ticket ticket) throws Exception {
+            MqttAsyncClient client = mMqttClient;
+            if (client == null || !(client.isConnected() || (bufferOpts != null && bufferOpts.isBufferEnabled()))) {
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+            }
+            sendPublish(client, topic, message, ticket, mBatchPublishListener);
+        }
+    };
+
+    private final IMqttActionListener mBatchPublishListener = new IMqttActionListener() {
+        @Override
+        public void onSuccess(IMqttToken token) {
+            mMetrics.onPublishCompleted(token.getMessageId(), true);
+            ((TXPublishWindow.Ticket) token.getUserContext()).complete(true);
+        }
+
+        @Override
+        public void onFailure(IMqttToken token, Throwable exception) {
+            Loggor.error(TAG, "publish in batch failed. " + exception);
+            mMetrics.onPublishCompleted(token.getMessageId(), false);
+            ((TXPublishWindow.Ticket) token.getUserContext()).complete(false);
+        }
+    };
+
 
     protected boolean mMqttLogFlag;
     /**
@@ -111,6 +180,8 @@ public class TXMqttConnection implements MqttCallbackExtended {
      */
     public TXMqttLogCallBack mMqttLogCallBack = null;
     protected TXMqttLog mMqttLog = null;
+    private TXMqttLogSpool mLogSpool = null;
+    private boolean mLogCompress = true;
 
     /**
      * 设置日志回调
@@ -121,6 +192,51 @@ public class TXMqttConnection implements MqttCallbackExtended {
         this.mMqttLogCallBack = mMqttLogCallBack;
     }
 
+    /**
+     * 设置日志上传失败时的磁盘缓存，需在连接前设置；未设置时通过 {@link TXMqttLogCallBack#saveLogOffline(String)} 保存
+     *
+     * @param spool {@link TXMqttLogSpool}
+     */
+    public void setLogSpool(TXMqttLogSpool spool) {
+        this.mLogSpool = spool;
+    }
+
+    /**
+     * 获取日志上传失败时的磁盘缓存
+     *
+     * @return {@link TXMqttLogSpool}，未设置时返回 null
+     */
+    public TXMqttLogSpool getLogSpool() {
+        return mLogSpool;
+    }
+
+    /**
+     * 设置日志上传是否使用 gzip 压缩请求体，默认开启，需在连接前设置
+     *
+     * @param enabled true 表示压缩
+     */
+    public void setLogCompressEnabled(boolean enabled) {
+        this.mLogCompress = enabled;
+    }
+
+    /**
+     * 日志上传是否使用 gzip 压缩请求体
+     *
+     * @return true 表示压缩
+     */
+    public boolean isLogCompressEnabled() {
+        return mLogCompress;
+    }
+
+    /**
+     * 获取日志功能，连接成功并开启日志后可用
+     *
+     * @return {@link TXMqttLog}，未开启日志时返回 null
+     */
+    public TXMqttLog getMqttLog() {
+        return mMqttLog;
+    }
+
     /**
      * 获取子设备版本号
      *
@@ -200,6 +316,16 @@ public class TXMqttConnection implements MqttCallbackExtended {
 
     protected volatile TXMqttConstants.ConnectStatus mConnectStatus = TXMqttConstants.ConnectStatus.kConnectIdle;
 
+    /**
+     * 连接超时时间，单位：毫秒；小于 0 表示使用连接参数中的 connectionTimeout
+     */
+    private volatile long mConnectTimeout = -1;
+
+    /**
+     * 最近一次连接请求的 token
+     */
+    private volatile IMqttToken mConnectToken = null;
+
     /** 构造函数
      *
      * @param productID 产品 ID
@@ -284,6 +410,61 @@ public class TXMqttConnection implements MqttCallbackExtended {
         this.bufferOpts = bufferOpts;
         this.mMqttPersist = clientPersistence;
         this.mActionCallBack = callBack;
+        registerTopicHandlers();
+    }
+
+    /**
+     * 注册内置的 RRPC、OTA、日志主题处理器
+     */
+    private void registerTopicHandlers() {
+        mTopicRouter.addHandler("$rrpc/rxd/+/+/+", new TXTopicHandler() {
+            @Override
+            public boolean onMessageArrived(String topic, MqttMessage message) {
+                String processId = topic.substring(topic.lastIndexOf('/') + 1);
+                //TODO：数据格式暂不确定
+                Map<String, String> replyMessage = new HashMap<>();
+                publishRRPCToCloud(null, processId, replyMessage);
+                return false;
+            }
+        });
+        mTopicRouter.addHandler("$ota/#", new TXTopicHandler() {
+            @Override
+            public boolean onMessageArrived(String topic, MqttMessage message) {
+                return mOTAImpl != null && mOTAImpl.processMessage(topic, message);
+            }
+        });
+        mTopicRouter.addHandler("$" + TXMqttLogConstants.LOG + "/#", new TXTopicHandler() {
+            @Override
+            public boolean onMessageArrived(String topic, MqttMessage message) {
+                //判断获取日志等级
+                if (mMqttLog == null) {
+                    return false;
+                }
+                try {
+                    JSONObject jsonObj = new JSONObject(new String(message.getPayload()));
+                    if (jsonObj.has(TXMqttLogConstants.LOG_LEVEL)) {
+                        int logLevel = jsonObj.getInt(TXMqttLogConstants.LOG_LEVEL);
+                        mMqttLog.setMqttLogLevel(logLevel);
+                        uploadLog();
+                        Loggor.debug(TAG,  "******Set mqttLogLevel to " + logLevel);
+                        return false;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                Loggor.debug(TAG,  "******Get mqttLogLevel failed ");
+                return false;
+            }
+        });
+    }
+
+    /**
+     * 获取下行消息路由，用于注册自定义主题处理器
+     *
+     * @return {@link TXTopicRouter}
+     */
+    public TXTopicRouter getTopicRouter() {
+        return mTopicRouter;
     }
 
     /**
@@ -369,94 +550,167 @@ public class TXMqttConnection implements MqttCallbackExtended {
     }
 
     /**
-     * 连接 MQTT 服务器，结果通过回调函数通知
+     * 设置连接超时时间，超过该时间仍未收到连接应答时强制结束本次连接并通过回调通知失败
+     *
+     * @param timeout 超时时间，单位：毫秒；小于 0 表示使用连接参数中的 connectionTimeout；0 表示不限制
+     */
+    public void setConnectTimeout(long timeout) {
+        this.mConnectTimeout = timeout;
+    }
+
+    /**
+     * 获取本次连接实际使用的超时时间
+     *
+     * @return 超时时间，单位：毫秒；0 表示不限制
+     */
+    protected long getConnectTimeoutMillis() {
+        if (mConnectTimeout >= 0) {
+            return mConnectTimeout;
+        }
+        return mConnOptions == null ? 0 : mConnOptions.getConnectionTimeout() * 1000L;
+    }
+
+    /**
+     * 设置重连控制器。设置后由控制器按退避策略、连接限速和熔断状态发起重连，
+     * 并在连接时关闭 Paho 自动重连；熔断期间 {@link #getConnectStatus()} 返回 kConnectSuspended
+     *
+     * @param controller 重连控制器 {@link TXReconnectController}，null 表示使用 Paho 自动重连
+     */
+    public void setReconnectController(TXReconnectController controller) {
+        this.mReconnectController = controller;
+        if (controller == null) {
+            cancelReconnect();
+        }
+    }
+
+    /**
+     * 获取重连控制器
+     *
+     * @return {@link TXReconnectController}，未设置时返回 null
+     */
+    public TXReconnectController getReconnectController() {
+        return mReconnectController;
+    }
+
+    /**
+     * 连接 MQTT 服务器，等待连接结果返回（最长等待连接超时时间），结果同时通过回调函数通知
      *
      * @param options 连接参数
      * @param userContext 用户上下文（这个参数在回调函数时透传给用户）
      * @return 发送请求成功时返回 Status.OK；其它返回值表示发送请求失败；
      */
-    public synchronized Status connect(MqttConnectOptions options, Object userContext) {
-        if (mConnectStatus.equals(TXMqttConstants.ConnectStatus.kConnecting)) {
-            Loggor.info(TAG, "The client is connecting. Connect return directly.");
-            return Status.MQTT_CONNECT_IN_PROGRESS;
+    public Status connect(MqttConnectOptions options, Object userContext) {
+        Status status = connectAsync(options, userContext);
+        if (status != Status.OK) {
+            return status;
         }
 
-        if (mConnectStatus.equals(TXMqttConstants.ConnectStatus.kConnected)) {
-            Loggor.info(TAG, "The client is already connected. Connect return directly.");
+        IMqttToken token = mConnectToken;
+        if (token == null) {
             return Status.OK;
         }
 
-        this.mConnOptions = options;
-        if (mConnOptions == null) {
-            Loggor.error(TAG,  "Connect options == null, will not connect.");
-            return Status.PARAMETER_INVALID;
+        try {
+            long timeout = getConnectTimeoutMillis();
+            token.waitForCompletion(timeout > 0 ? timeout : -1);
+            Loggor.info(TAG, "wait_for completion return");
+        } catch (Exception e) {
+            Loggor.error(TAG,  "MqttClient connect failed " + e);
+            return Status.ERROR;
         }
 
-        Long timestamp;
-        if (options.isAutomaticReconnect()) {
-            timestamp = (long) Integer.MAX_VALUE;
-        } else {
-            timestamp = System.currentTimeMillis() / 1000 + 600;
-        }
-        String userNameStr = mUserName + ";" + getConnectId() + ";" + timestamp;
+        return Status.OK;
+    }
+
+    /**
+     * 异步连接 MQTT 服务器，不等待网络结果直接返回，结果通过回调函数通知
+     *
+     * @param options 连接参数
+     * @param userContext 用户上下文（这个参数在回调函数时透传给用户）
+     * @return 发送请求成功时返回 Status.OK；其它返回值表示发送请求失败；
+     */
+    public Status connectAsync(MqttConnectOptions options, Object userContext) {
+        return connectInternal(options, userContext, false);
+    }
 
-        mConnOptions.setUserName(userNameStr);
+    private Status connectInternal(MqttConnectOptions options, Object userContext, boolean reconnect) {
+        final ConnectAttempt attempt;
 
-        if (mSecretKey != null && mSecretKey.length() != 0) {
-            try {
-                String passWordStr = HmacSha256.getSignature(userNameStr.getBytes(),
-                        Base64.decode(mSecretKey, Base64.DEFAULT)) + ";hmacsha256";
-                mConnOptions.setPassword(passWordStr.toCharArray());
-            } catch (IllegalArgumentException e) {
-                Loggor.debug(TAG,  "Failed to set password");
+        synchronized (this) {
+            if (mConnectStatus.equals(TXMqttConstants.ConnectStatus.kConnecting)) {
+                Loggor.info(TAG, "The client is connecting. Connect return directly.");
+                return Status.MQTT_CONNECT_IN_PROGRESS;
             }
-        }
 
-        mConnOptions.setMqttVersion(MqttConnectOptions.MQTT_VERSION_3_1_1);
+            if (mConnectStatus.equals(TXMqttConstants.ConnectStatus.kConnected)) {
+                Loggor.info(TAG, "The client is already connected. Connect return directly.");
+                return Status.OK;
+            }
 
-        IMqttActionListener mActionListener = new IMqttActionListener() {
-            @Override
-            public void onSuccess(IMqttToken token) {
-                Loggor.info(TAG, "onSuccess! hashcode: " + System.identityHashCode(this));
-                setConnectingState(TXMqttConstants.ConnectStatus.kConnected);
-                mActionCallBack.onConnectCompleted(Status.OK, false, token.getUserContext(),
-                        "connected to " + mServerURI);
-                // 连接建立后，如果需要日志，则初始化日志功能
-                if (mMqttLogFlag) {
-                    initMqttLog(TAG);
+            this.mConnOptions = options;
+            if (mConnOptions == null) {
+                Loggor.error(TAG,  "Connect options == null, will not connect.");
+                return Status.PARAMETER_INVALID;
+            }
+
+            Long timestamp;
+            if (options.isAutomaticReconnect()) {
+                timestamp = (long) Integer.MAX_VALUE;
+            } else {
+                timestamp = System.currentTimeMillis() / 1000 + 600;
+            }
+            String userNameStr = mUserName + ";" + getConnectId() + ";" + timestamp;
+
+            mConnOptions.setUserName(userNameStr);
+
+            if (mSecretKey != null && mSecretKey.length() != 0) {
+                try {
+                    String passWordStr = HmacSha256.getSignature(userNameStr.getBytes(),
+                            Base64.decode(mSecretKey, Base64.DEFAULT)) + ";hmacsha256";
+                    mConnOptions.setPassword(passWordStr.toCharArray());
+                } catch (IllegalArgumentException e) {
+                    Loggor.debug(TAG,  "Failed to set password");
                 }
             }
 
-            @Override
-            public void onFailure(IMqttToken token, Throwable exception) {
-                Loggor.error(TAG,  exception + "onFailure!");
-                setConnectingState(TXMqttConstants.ConnectStatus.kConnectFailed);
-                mActionCallBack.onConnectCompleted(Status.ERROR, false, token.getUserContext(), exception.toString());
+            mConnOptions.setMqttVersion(MqttConnectOptions.MQTT_VERSION_3_1_1);
+            if (mReconnectController != null) {
+                mConnOptions.setAutomaticReconnect(false);
+            }
+            // Paho 的在途上限不能小于批量发布窗口，否则窗口内的消息会被 Paho 拒绝
+            if (mConnOptions.getMaxInflight() < mPublishWindow.getMaxInflight()) {
+                mConnOptions.setMaxInflight(mPublishWindow.getMaxInflight());
             }
-        };
 
-        if (mMqttClient == null) {
-            try {
-                mMqttClient = new MqttAsyncClient(mServerURI, mClientId, mMqttPersist);
-                mMqttClient.setCallback(this);
-                mMqttClient.setBufferOpts(this.bufferOpts);
-                mMqttClient.setManualAcks(false);
-            } catch (Exception e) {
-                Loggor.error(TAG,  "new MqttClient failed " + e);
-                setConnectingState(TXMqttConstants.ConnectStatus.kConnectFailed);
-                return Status.ERROR;
+            if (mMqttClient == null) {
+                try {
+                    mMqttClient = createMqttClient();
+                    mMqttClient.setCallback(this);
+                    mMqttClient.setBufferOpts(this.bufferOpts);
+                    mMqttClient.setManualAcks(false);
+                } catch (Exception e) {
+                    Loggor.error(TAG,  "new MqttClient failed " + e);
+                    setConnectingState(TXMqttConstants.ConnectStatus.kConnectFailed);
+                    return Status.ERROR;
+                }
             }
+
+            attempt = new ConnectAttempt(reconnect, mPendingSlot);
+            mPendingSlot = null;
+            mConnectToken = null;
+            setConnectingState(TXMqttConstants.ConnectStatus.kConnecting);
         }
 
         try {
-            IMqttToken token;
             Loggor.info(TAG, "Start connecting to " + mServerURI);
-            setConnectingState(TXMqttConstants.ConnectStatus.kConnecting);
-            token = mMqttClient.connect(mConnOptions, userContext, mActionListener);
-            token.waitForCompletion(-1);
-            Loggor.info(TAG, "wait_for completion return");
+            IMqttToken token = mMqttClient.connect(mConnOptions, userContext, attempt);
+            mConnectToken = token;
+            attempt.scheduleDeadline(token, getConnectTimeoutMillis());
         } catch (Exception e) {
             Loggor.error(TAG,  "MqttClient connect failed " + e);
+            if (attempt.finish()) {
+                mMetrics.onConnectCompleted(attempt.mStartNanos, false);
+            }
             setConnectingState(TXMqttConstants.ConnectStatus.kConnectFailed);
             return Status.ERROR;
         }
@@ -464,6 +718,57 @@ public class TXMqttConnection implements MqttCallbackExtended {
         return Status.OK;
     }
 
+    /**
+     * 创建底层 MQTT 客户端
+     *
+     * @return {@link MqttAsyncClient}
+     * @throws MqttException 创建失败
+     */
+    protected MqttAsyncClient createMqttClient() throws MqttException {
+        mPingSender = new TXAlarmPingSender();
+        return new MqttAsyncClient(mServerURI, mClientId, mMqttPersist, mPingSender);
+    }
+
+    /**
+     * 获取最近一次心跳的往返时延
+     *
+     * @return 往返时延，单位：毫秒；尚未完成过心跳时返回 -1
+     */
+    public long getPingRtt() {
+        TXAlarmPingSender pingSender = mPingSender;
+        return pingSender == null ? -1 : pingSender.getLastPingRtt();
+    }
+
+    /**
+     * 获取连接指标：发布、订阅、连接的计数与时延分布，以及在途消息数
+     *
+     * @return {@link TXMqttMetrics}
+     */
+    public TXMqttMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 获取下载进度上报器，OTA 及资源下载的进度消息经此合并、限速后发送
+     *
+     * @return {@link TXProgressReporter}
+     */
+    public TXProgressReporter getProgressReporter() {
+        return mProgressReporter;
+    }
+
+    /**
+     * 首次连接成功，连接状态已切换为已连接并已通知上层
+     *
+     * @param token 连接 token
+     */
+    protected void onConnectSuccess(IMqttToken token) {
+        // 连接建立后，如果需要日志，则初始化日志功能
+        if (mMqttLogFlag) {
+            initMqttLog(TAG);
+        }
+    }
+
     /**
      * 重新连接, 结果通过回调函数通知
      *
@@ -480,6 +785,14 @@ public class TXMqttConnection implements MqttCallbackExtended {
             return Status.MQTT_CONNECT_IN_PROGRESS;
         }
 
+        TXReconnectController controller = mReconnectController;
+        if (controller != null) {
+            if (!mMqttClient.isConnected()) {
+                scheduleReconnect(controller.onDisconnected(true));
+            }
+            return Status.OK;
+        }
+
         if (mConnOptions.isAutomaticReconnect()
                 && !getConnectStatus().equals(TXMqttConstants.ConnectStatus.kConnecting)) {
             Loggor.info(TAG, "Requesting Automatic reconnect using New Java AC");
@@ -542,6 +855,7 @@ public class TXMqttConnection implements MqttCallbackExtended {
      */
     public Status disConnect(long timeout, Object userContext) {
         mLastReceivedMessageId = INVALID_MESSAGE_ID;
+        cancelReconnect();
 
         if (mOTAImpl != null) {
             mOTAImpl.setSubscribedState(false);
@@ -587,8 +901,6 @@ public class TXMqttConnection implements MqttCallbackExtended {
      * @return 发送请求成功时返回 Status.OK；其它返回值表示发送请求失败
      */
     public Status publish(String topic, MqttMessage message, Object userContext) {
-        IMqttDeliveryToken sendToken = null;
-
         if (topic == null || topic.trim().length() == 0) {
             Loggor.error(TAG,  "Topic is empty!!!");
             return Status.PARAMETER_INVALID;
@@ -598,38 +910,116 @@ public class TXMqttConnection implements MqttCallbackExtended {
             return Status.PARAMETER_INVALID;
         }
 
-        Loggor.info(TAG, String.format("Starting publish topic: %s Message: %s", topic, message.toString()));
-        Loggor.debug(TAG, "topic = " + topic);
-        Loggor.debug(TAG, "message.toString() = " + message.toString());
-        //Loggor.debug(TAG, "mMqttClient.isConnected() = " + mMqttClient.isConnected());
-        
-        Loggor.debug(TAG, "mMqttClient != null = " + (mMqttClient != null));
-        
-        if ((mMqttClient != null) && (mMqttClient.isConnected())) {
-            try {
-                sendToken = mMqttClient.publish(topic, message, userContext,
-                        new QcloudMqttActionListener(TXMqttConstants.PUBLISH));
-            } catch (Exception e) {
-                Loggor.error(TAG,  e + "publish topic: " + topic + " failed1.");
-                return Status.ERROR;
-            }
-        } else if ((mMqttClient != null) && (this.bufferOpts != null) && (this.bufferOpts.isBufferEnabled())) { // 放入缓存
+        if (Loggor.isInfoEnabled()) {
+            Loggor.info(TAG, "Starting publish topic: " + topic + " Message: " + message);
+        }
+
+        MqttAsyncClient client = mMqttClient;
+        TXOfflineMessageStore offlineStore = mOfflineStore;
+        if (offlineStore != null && (client == null || !client.isConnected() || !offlineStore.isEmpty())) {
+            // 断连期间以及离线消息重放完成前，新消息写入磁盘以保持发送顺序
             try {
-                sendToken = mMqttClient.publish(topic, message, userContext,
-                        new QcloudMqttActionListener(TXMqttConstants.PUBLISH));
-            } catch (Exception e) {
-                Loggor.error(TAG,  e + "publish topic: " + topic + " failed2.");
+                return offlineStore.append(topic, message) ? Status.OK : Status.ERR_MAX_APPENDING_REQUEST;
+            } catch (IOException e) {
+                Loggor.error(TAG,  e + "store offline message of topic: " + topic + " failed.");
                 return Status.ERROR;
             }
-        } else {
-            Loggor.debug(TAG, "1111111111111111111111111111 topic = " + topic);
-            Loggor.error(TAG, String.format("publish topic: %s failed, mMqttClient not connected and disconnect buffer not enough.", topic));
+        }
+        if (client == null || !(client.isConnected() || (this.bufferOpts != null && this.bufferOpts.isBufferEnabled()))) {
+            Loggor.error(TAG, "publish topic: " + topic + " failed, mMqttClient not connected and disconnect buffer not enough.");
+            return Status.ERROR;
+        }
+
+        // 未连接时消息进入断连缓存
+        try {
+            sendPublish(client, topic, message, userContext, mPublishListener);
+        } catch (Exception e) {
+            Loggor.error(TAG,  e + "publish topic: " + topic + " failed.");
             return Status.ERROR;
         }
 
         return Status.OK;
     }
 
+    /**
+     * 发布 MQTT 消息接口，直接使用调用方的 payload 数组而不做拷贝, 结果通过回调函数通知
+     *
+     * 在 {@link TXMqttActionCallBack#onPublishCompleted} 回调之前调用方不能修改 payload 的内容
+     *
+     * @param topic topic名称
+     * @param payload 消息内容
+     * @param qos QOS 等级
+     * @param retained 是否保留消息
+     * @param userContext 用户上下文（这个参数在回调函数时透传给用户）
+     * @return 发送请求成功时返回 Status.OK；其它返回值表示发送请求失败
+     */
+    public Status publish(String topic, byte[] payload, int qos, boolean retained, Object userContext) {
+        if (payload == null) {
+            Loggor.error(TAG,  "Payload is null!!!");
+            return Status.PARAMETER_INVALID;
+        }
+        MqttMessage message = new MqttMessage(payload);
+        message.setQos(qos);
+        message.setRetained(retained);
+        return publish(topic, message, userContext);
+    }
+
+    /**
+     * 设置磁盘离线消息存储。设置后，断连期间发布的消息写入该存储，并在连接成功后按顺序重放，
+     * 代替 {@link DisconnectedBufferOptions} 的内存缓存；重放消息的发布结果回调中用户上下文为 null
+     *
+     * @param store 离线消息存储 {@link TXOfflineMessageStore}，null 表示不使用
+     */
+    public void setOfflineStore(TXOfflineMessageStore store) {
+        this.mOfflineStore = store;
+    }
+
+    /**
+     * 设置批量发布窗口，须在连接前设置
+     *
+     * @param maxInflight 最大在途消息数（已发送、未收到 PUBACK 的消息）
+     * @param maxPending 最大待发送消息数，超过时 {@link #publishBatch} 返回 Status.ERR_MAX_APPENDING_REQUEST
+     */
+    public void setPublishWindow(int maxInflight, int maxPending) {
+        this.mPublishWindow = new TXPublishWindow(maxInflight, maxPending);
+    }
+
+    /**
+     * 获取批量发布窗口，可用于查询在途及待发送的消息数
+     *
+     * @return {@link TXPublishWindow}
+     */
+    public TXPublishWindow getPublishWindow() {
+        return mPublishWindow;
+    }
+
+    /**
+     * 批量发布 MQTT 消息，在发布窗口内流水线发送，全部完成后通过 callBack 返回每条消息的结果
+     *
+     * @param batch 消息批次 {@link TXPublishBatch}
+     * @param callBack 批次完成回调 {@link TXPublishBatchCallBack}
+     * @param userContext 用户上下文（这个参数在回调函数时透传给用户）
+     * @return 受理时返回 Status.OK；待发送消息过多时返回 Status.ERR_MAX_APPENDING_REQUEST，调用方应稍后重试
+     */
+    public Status publishBatch(TXPublishBatch batch, TXPublishBatchCallBack callBack, Object userContext) {
+        if (batch == null || batch.size() == 0) {
+            Loggor.error(TAG,  "Publish batch is empty!!!");
+            return Status.PARAMETER_INVALID;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            String topic = batch.getTopic(i);
+            if (topic.trim().length() == 0 || topic.length() > TXMqttConstants.MAX_SIZE_OF_CLOUD_TOPIC) {
+                Loggor.error(TAG,  "Invalid topic in batch: " + topic);
+                return Status.PARAMETER_INVALID;
+            }
+        }
+        if (mMqttClient == null) {
+            Loggor.error(TAG,  "publish batch failed, mMqttClient not connected.");
+            return Status.MQTT_NO_CONN;
+        }
+        return mPublishWindow.submit(batch, mBatchSender, callBack, userContext);
+    }
+
     /**
      * 获取远程配置
      *
@@ -816,9 +1206,14 @@ public class TXMqttConnection implements MqttCallbackExtended {
         Loggor.info(TAG, "Starting subscribe topic: " + topic);
 
         if ((mMqttClient != null) && (mMqttClient.isConnected())) {
+            // 先登记再发送，避免发送过程中发生重连时漏掉该主题
+            Integer oldQos = mSubscribedTopicMap.put(topic, qos);
             try {
-                mMqttClient.subscribe(topic, qos, userContext, new QcloudMqttActionListener(TXMqttConstants.SUBSCRIBE));
+                sendSubscribe(new String[] {topic}, new int[] {qos}, userContext);
             } catch (Exception e) {
+                if (oldQos == null) {
+                    mSubscribedTopicMap.remove(topic, qos);
+                }
                 Loggor.error(TAG,  String.format(e + "subscribe topic: %s failed.", topic));
                 return Status.ERROR;
             }
@@ -827,8 +1222,6 @@ public class TXMqttConnection implements MqttCallbackExtended {
             return Status.MQTT_NO_CONN;
         }
 
-        mSubscribedTopicMap.put(topic, qos);
-
         return Status.OK;
     }
 
@@ -853,7 +1246,7 @@ public class TXMqttConnection implements MqttCallbackExtended {
 
         if ((mMqttClient != null) && (mMqttClient.isConnected())) {
             try {
-                mMqttClient.unsubscribe(topic, userContext, new QcloudMqttActionListener(TXMqttConstants.UNSUBSCRIBE));
+                mMqttClient.unsubscribe(topic, userContext, mUnSubscribeListener);
             } catch (Exception e) {
                 Loggor.error(TAG,  String.format(e + "unSubscribe topic: %s failed.", topic));
                 return Status.ERROR;
@@ -937,11 +1330,13 @@ public class TXMqttConnection implements MqttCallbackExtended {
      * @param outputFile 输出文件
      * @param md5Sum md5 值
      * @param version 子设备固件版本号
+     * @return 下载任务，未初始化 OTA 或已关闭时返回 null
      */
-    public void gatewayDownSubdevApp(String firmwareURL, String outputFile, String md5Sum, String version) {
+    public TXOTAJob gatewayDownSubdevApp(String firmwareURL, String outputFile, String md5Sum, String version) {
         if (mOTAImpl != null && getSubDevVersion() != null) {
-            mOTAImpl.gatewayDownSubdevApp(firmwareURL, outputFile, md5Sum, version);
+            return mOTAImpl.gatewayDownSubdevApp(firmwareURL, outputFile, md5Sum, version);
         }
+        return null;
     }
 
     /**
@@ -1059,10 +1454,9 @@ public class TXMqttConnection implements MqttCallbackExtended {
      * @param obj 日志内容
      */
     public void mLog(int logLevel, final String tag, final String format, final Object... obj) {
-        if( mMqttLog != null) {
-            if( !(mMqttLog.saveMqttLog(logLevel, tag, format, obj))) {
-                Loggor.warn(TAG,  String.format("Save %s Level Log failed!", TXMqttLog.level_str[logLevel]));
-            }
+        // 低于设置级别的日志直接丢弃，不构造任何字符串
+        if (mMqttLog != null && mMqttLog.isLoggable(logLevel)) {
+            mMqttLog.saveMqttLog(logLevel, tag, format, obj);
         }
     }
 
@@ -1079,10 +1473,9 @@ public class TXMqttConnection implements MqttCallbackExtended {
      * @param msg 日志内容
      */
     public void mLog(int logLevel, final String tag, final String msg) {
-        if( mMqttLog != null) {
-            if( !(mMqttLog.saveMqttLog(logLevel, tag, msg))) {
-                Loggor.warn(TAG,  String.format("Save %s Level Log failed!", TXMqttLog.level_str[logLevel]));
-            }
+        // 低于设置级别的日志直接丢弃，不构造任何字符串
+        if (mMqttLog != null && mMqttLog.isLoggable(logLevel)) {
+            mMqttLog.saveMqttLog(logLevel, tag, msg);
         }
     }
 
@@ -1095,6 +1488,15 @@ public class TXMqttConnection implements MqttCallbackExtended {
         }
     }
 
+    /**
+     * 上传剩余的日志并停止日志上传，连接不再使用时调用
+     */
+    public void closeLog() {
+        if(mMqttLog != null) {
+            mMqttLog.close();
+        }
+    }
+
     /**
      * 订阅 RRPC Topic, 结果通过回调函数通知，topic 格式: $rrpc/rxd/${ProductId}/${DeviceName}/+
      *
@@ -1138,7 +1540,7 @@ public class TXMqttConnection implements MqttCallbackExtended {
         if ((mMqttClient != null) && (mMqttClient.isConnected())) {
             broadCastTopic = String.format("$broadcast/rxd/%s/%s", mProductId, mDeviceName);
             try {
-                mMqttClient.subscribe(broadCastTopic, qos ,userContext, new QcloudMqttActionListener(TXMqttConstants.SUBSCRIBE));
+                sendSubscribe(new String[] {broadCastTopic}, new int[] {qos}, userContext);
             } catch (Exception e) {
                 Loggor.error(TAG,  String.format(e.getMessage() + " subscribe topic: %s failed.", broadCastTopic));
                 mLog(TXMqttLogConstants.LEVEL_FATAL, TAG, "subscribe topic: %s failed.", broadCastTopic);
@@ -1181,24 +1583,26 @@ public class TXMqttConnection implements MqttCallbackExtended {
         Loggor.info(TAG, "connectComplete. reconnect flag is " + reconnect);
         setConnectingState(TXMqttConstants.ConnectStatus.kConnected);
 
+        replayOfflineMessages();
+
         if (!reconnect) {
             return;
         }
 
-        Iterator<String> it = mSubscribedTopicMap.keySet().iterator();
-        while (it.hasNext()) {
-            String topic = it.next();
-            Integer qos = mSubscribedTopicMap.get(topic);
-            try {
-                Loggor.info(TAG, String.format("subscribe to %s...", topic));
-                mMqttClient.subscribe(topic, qos, null, new QcloudMqttActionListener(TXMqttConstants.SUBSCRIBE));
-            } catch (Exception e) {
-                Loggor.error(TAG, String.format("subscribe to %s failed.", topic));
-                mLog(TXMqttLogConstants.LEVEL_FATAL, TAG,"subscribe to %s failed.", topic);
-            }
-        }
+        onReconnected(serverURI);
+    }
+
+    /**
+     * 重连成功，恢复订阅并回调上层
+     *
+     * @param serverURI 服务器 URI
+     */
+    private void onReconnected(String serverURI) {
+        mMetrics.onReconnected();
+
+        resubscribeAll();
 
-        mActionCallBack.onConnectCompleted(Status.OK, reconnect, null, "connected to " + serverURI);
+        mActionCallBack.onConnectCompleted(Status.OK, true, null, "connected to " + serverURI);
 
         //重新连接，处理离线日志，重新获取日志级别
         if (mMqttLogFlag) {
@@ -1206,6 +1610,187 @@ public class TXMqttConnection implements MqttCallbackExtended {
         }
     }
 
+    /**
+     * 按重连控制器给出的等待时间定时重连，熔断期间连接状态切换为 kConnectSuspended
+     *
+     * @param delay 等待时间，单位：毫秒
+     */
+    private synchronized void scheduleReconnect(long delay) {
+        TXReconnectController controller = mReconnectController;
+        if (controller == null) {
+            return;
+        }
+        if (mReconnectFuture != null) {
+            mReconnectFuture.cancel(false);
+        }
+        cancelSlotWaiter();
+        if (controller.getState() == TXReconnectController.State.OPEN) {
+            Loggor.warn(TAG, "Too many reconnect failures, suspend reconnecting for " + delay + " ms");
+            setConnectingState(TXMqttConstants.ConnectStatus.kConnectSuspended);
+        } else {
+            Loggor.info(TAG, "Reconnect to " + mServerURI + " in " + delay + " ms");
+        }
+        mReconnectFuture = DeadlineScheduler.INSTANCE.schedule(new ReconnectTask(controller, false, false),
+                delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelReconnect() {
+        if (mReconnectFuture != null) {
+            mReconnectFuture.cancel(false);
+            mReconnectFuture = null;
+        }
+        cancelSlotWaiter();
+    }
+
+    private synchronized void cancelSlotWaiter() {
+        if (mSlotWaiter != null) {
+            mSlotWaiter.mCancelled = true;
+            mSlotWaiter = null;
+        }
+    }
+
+    /**
+     * 在后台线程中按顺序重放磁盘中的离线消息，每批消息全部发送完成后才确认，
+     * 中途断连时未确认的消息在下次连接后重新发送
+     */
+    protected void replayOfflineMessages() {
+        final TXOfflineMessageStore store = mOfflineStore;
+        if (store == null || store.isEmpty() || !mReplaying.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (drainOfflineMessages(store)) {
+                    }
+                } finally {
+                    mReplaying.set(false);
+                }
+                // 重放结束前写入的消息
+                MqttAsyncClient client = mMqttClient;
+                if (!store.isEmpty() && client != null && client.isConnected()) {
+                    replayOfflineMessages();
+                }
+            }
+        }, "TXMqtt-offline-replay-" + mClientId);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 发送并确认一批离线消息
+     *
+     * @return 还有剩余消息且连接正常时返回 true
+     */
+    private boolean drainOfflineMessages(TXOfflineMessageStore store) {
+        TXOfflineMessageStore.ReplayBatch batch = store.peek(OFFLINE_REPLAY_BATCH_SIZE);
+        if (batch.size() == 0) {
+            return false;
+        }
+        List<IMqttDeliveryToken> tokens = new ArrayList<>(batch.size());
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                MqttAsyncClient client = mMqttClient;
+                if (client == null || !client.isConnected()) {
+                    return false;
+                }
+                try {
+                    tokens.add(sendPublish(client, batch.getTopic(i), batch.getMessage(i), null, mPublishListener));
+                } catch (MqttException e) {
+                    if (e.getReasonCode() != MqttException.REASON_CODE_MAX_INFLIGHT) {
+                        throw e;
+                    }
+                    // 在途消息已满，等待之前的消息完成后重试
+                    for (IMqttDeliveryToken token : tokens) {
+                        token.waitForCompletion(OFFLINE_REPLAY_TIMEOUT);
+                    }
+                    tokens.add(sendPublish(client, batch.getTopic(i), batch.getMessage(i), null, mPublishListener));
+                }
+            }
+            for (IMqttDeliveryToken token : tokens) {
+                token.waitForCompletion(OFFLINE_REPLAY_TIMEOUT);
+            }
+            store.commit(batch.getEndPosition());
+        } catch (Exception e) {
+            Loggor.error(TAG, "replay offline messages failed: " + e);
+            return false;
+        }
+        Loggor.debug(TAG, "replayed " + batch.size() + " offline messages, remaining " + store.size());
+        return true;
+    }
+
+    /**
+     * 发送 PUBLISH 并记录指标，完成时由 listener 调用 {@link TXMqttMetrics#onPublishCompleted(int, boolean)}
+     */
+    private IMqttDeliveryToken sendPublish(MqttAsyncClient client, String topic, MqttMessage message,
+                                           Object userContext, IMqttActionListener listener) throws MqttException {
+        long start = mMetrics.onPublishStarted();
+        IMqttDeliveryToken token;
+        try {
+            token = client.publish(topic, message, userContext, listener);
+        } catch (MqttException | RuntimeException e) {
+            mMetrics.onPublishCompleted(0, false);
+            throw e;
+        }
+        if (token != null) {
+            mMetrics.onRequestSent(token.getMessageId(), start);
+        }
+        return token;
+    }
+
+    /**
+     * 发送 SUBSCRIBE 并记录指标
+     */
+    private void sendSubscribe(String[] topics, int[] qos, Object userContext) throws MqttException {
+        long start = mMetrics.onSubscribeStarted();
+        IMqttToken token;
+        try {
+            token = mMqttClient.subscribe(topics, qos, userContext, mSubscribeListener);
+        } catch (MqttException | RuntimeException e) {
+            mMetrics.onSubscribeCompleted(0, false);
+            throw e;
+        }
+        if (token != null) {
+            mMetrics.onRequestSent(token.getMessageId(), start);
+        }
+    }
+
+    /**
+     * 重连后重新订阅已订阅的主题，每 {@link TXMqttConstants#MAX_TOPICS_PER_SUBSCRIBE} 个主题合并为一个 SUBSCRIBE 报文
+     */
+    protected void resubscribeAll() {
+        List<String> topics = new ArrayList<>(TXMqttConstants.MAX_TOPICS_PER_SUBSCRIBE);
+        List<Integer> qosList = new ArrayList<>(TXMqttConstants.MAX_TOPICS_PER_SUBSCRIBE);
+        for (Map.Entry<String, Integer> entry : mSubscribedTopicMap.entrySet()) {
+            topics.add(entry.getKey());
+            qosList.add(entry.getValue());
+            if (topics.size() == TXMqttConstants.MAX_TOPICS_PER_SUBSCRIBE) {
+                subscribeBatch(topics, qosList);
+                topics.clear();
+                qosList.clear();
+            }
+        }
+        if (!topics.isEmpty()) {
+            subscribeBatch(topics, qosList);
+        }
+    }
+
+    private void subscribeBatch(List<String> topics, List<Integer> qosList) {
+        String[] topicArray = topics.toArray(new String[topics.size()]);
+        int[] qosArray = new int[qosList.size()];
+        for (int i = 0; i < qosArray.length; i++) {
+            qosArray[i] = qosList.get(i);
+        }
+        try {
+            Loggor.info(TAG, "subscribe to " + topics + "...");
+            sendSubscribe(topicArray, qosArray, null);
+        } catch (Exception e) {
+            Loggor.error(TAG, "subscribe to " + topics + " failed.");
+            mLog(TXMqttLogConstants.LEVEL_FATAL, TAG, "subscribe to " + topics + " failed.");
+        }
+    }
+
     /**
      * 连接丢失，回调上层
      *
@@ -1216,6 +1801,7 @@ public class TXMqttConnection implements MqttCallbackExtended {
         Loggor.error(TAG, "connection lost because of: " + cause.toString());
 
         setConnectingState(TXMqttConstants.ConnectStatus.kDisconnected);
+        mMetrics.onConnectionLost();
 
         mActionCallBack.onConnectionLost(cause);
 
@@ -1224,6 +1810,11 @@ public class TXMqttConnection implements MqttCallbackExtended {
         if (mOTAImpl != null) {
             mOTAImpl.setSubscribedState(false);
         }
+
+        TXReconnectController controller = mReconnectController;
+        if (controller != null) {
+            scheduleReconnect(controller.onDisconnected(false));
+        }
     }
 
     /**
@@ -1244,49 +1835,16 @@ public class TXMqttConnection implements MqttCallbackExtended {
 
         Loggor.info(TAG, String.format("Received topic: %s, id: %d, message: %s", topic, message.getId(), message));
 
-        if (topic != null && topic.contains("rrpc/rxd")) {
-            String[] items = topic.split("/");
-            String processId = items[items.length-1];
-            //TODO：数据格式暂不确定
-            Map<String, String> replyMessage = new HashMap<>();
-            publishRRPCToCloud(null, processId, replyMessage);
-        }
-
         mLastReceivedMessageId = message.getId();
+        mMetrics.onMessageReceived();
 
-        boolean consumed = false;
-        if (mOTAImpl != null) {
-            consumed = mOTAImpl.processMessage(topic, message);
-        }
+        boolean consumed = mTopicRouter.dispatch(topic, message);
 
         if (mActionCallBack != null) {
             if (!consumed) {
                 mActionCallBack.onMessageReceived(topic, message);
             }
         }
-
-        //判断获取日志等级
-        if (mMqttLog != null) {
-            if (topic.startsWith("$" + TXMqttLogConstants.LOG)) {
-                String jsonStr = new String(message.getPayload());
-
-                try {
-                    JSONObject jsonObj = new JSONObject(jsonStr);
-
-                    if (jsonObj.has(TXMqttLogConstants.LOG_LEVEL)) {
-                        int logLevel = jsonObj.getInt(TXMqttLogConstants.LOG_LEVEL);
-                        mMqttLog.setMqttLogLevel(logLevel);
-                        uploadLog();
-                        Loggor.debug(TAG,  "******Set mqttLogLevel to " + logLevel);
-                        return;
-                    }
-
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-            Loggor.debug(TAG,  "******Get mqttLogLevel failed ");
-        }
     }
 
     /**
@@ -1323,6 +1881,235 @@ public class TXMqttConnection implements MqttCallbackExtended {
         return connectId.toString();
     }
 
+    /**
+     * 一次连接请求，连接结果与超时只会通知一次
+     */
+    private class ConnectAttempt implements IMqttActionListener, Runnable {
+        private final AtomicBoolean mFinished = new AtomicBoolean(false);
+        private final long mStartNanos = TXMqttMetrics.now();
+        private final boolean mReconnect;
+        /** 持有并发许可的重连控制器，连接结束时归还 */
+        private final TXReconnectController mSlot;
+        private volatile ScheduledFuture<?> mDeadline;
+        private volatile IMqttToken mToken;
+
+        ConnectAttempt(boolean reconnect, TXReconnectController slot) {
+            this.mReconnect = reconnect;
+            this.mSlot = slot;
+        }
+
+        void scheduleDeadline(IMqttToken token, long timeout) {
+            mToken = token;
+            if (timeout > 0 && !mFinished.get()) {
+                mDeadline = DeadlineScheduler.INSTANCE.schedule(this, timeout, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        boolean finish() {
+            if (!mFinished.compareAndSet(false, true)) {
+                return false;
+            }
+            ScheduledFuture<?> deadline = mDeadline;
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            if (mSlot != null) {
+                mSlot.releaseConnect();
+            }
+            return true;
+        }
+
+        @Override
+        public void onSuccess(IMqttToken token) {
+            if (!finish()) {
+                return;
+            }
+            Loggor.info(TAG, "onSuccess! hashcode: " + System.identityHashCode(this));
+            mMetrics.onConnectCompleted(mStartNanos, true);
+            setConnectingState(TXMqttConstants.ConnectStatus.kConnected);
+            TXReconnectController controller = mReconnectController;
+            if (controller != null) {
+                controller.onConnected();
+            }
+            if (mReconnect) {
+                onReconnected(mServerURI);
+                return;
+            }
+            mActionCallBack.onConnectCompleted(Status.OK, false, token.getUserContext(),
+                    "connected to " + mServerURI);
+            onConnectSuccess(token);
+        }
+
+        @Override
+        public void onFailure(IMqttToken token, Throwable exception) {
+            if (!finish()) {
+                return;
+            }
+            Loggor.error(TAG,  exception + "onFailure!");
+            mMetrics.onConnectCompleted(mStartNanos, false);
+            setConnectingState(TXMqttConstants.ConnectStatus.kConnectFailed);
+            mActionCallBack.onConnectCompleted(Status.ERROR, mReconnect, token.getUserContext(), exception.toString());
+            onReconnectFailed();
+        }
+
+        /**
+         * 连接超时
+         */
+        @Override
+        public void run() {
+            if (!finish()) {
+                return;
+            }
+            Loggor.error(TAG, "Connect to " + mServerURI + " timeout, abort it");
+            mMetrics.onConnectCompleted(mStartNanos, false);
+            setConnectingState(TXMqttConstants.ConnectStatus.kConnectFailed);
+            mActionCallBack.onConnectCompleted(Status.ERROR, mReconnect, mToken == null ? null : mToken.getUserContext(),
+                    "connect to " + mServerURI + " timeout");
+            try {
+                // disconnectTimeout 为 0 时会一直等待，这里只需关闭网络连接
+                mMqttClient.disconnectForcibly(0, 1);
+            } catch (Exception e) {
+                Loggor.warn(TAG, "disconnectForcibly failed " + e);
+            }
+            onReconnectFailed();
+        }
+
+        private void onReconnectFailed() {
+            TXReconnectController controller = mReconnectController;
+            if (mReconnect && controller != null) {
+                scheduleReconnect(controller.onConnectFailed());
+            }
+        }
+    }
+
+    /**
+     * 定时重连任务，退避等待结束后先申请限速许可，再申请并发许可，都获得后发起连接
+     */
+    private class ReconnectTask implements Runnable {
+        private final TXReconnectController mController;
+        private final boolean mPermitted;
+        private final boolean mHoldsSlot;
+
+        ReconnectTask(TXReconnectController controller, boolean permitted, boolean holdsSlot) {
+            this.mController = controller;
+            this.mPermitted = permitted;
+            this.mHoldsSlot = holdsSlot;
+        }
+
+        @Override
+        public void run() {
+            if (mController != mReconnectController) {
+                if (mHoldsSlot) {
+                    mController.releaseConnect();
+                }
+                return;
+            }
+            if (!mPermitted) {
+                long wait = mController.acquirePermit();
+                if (wait > 0) {
+                    synchronized (TXMqttConnection.this) {
+                        mReconnectFuture = DeadlineScheduler.INSTANCE.schedule(
+                                new ReconnectTask(mController, true, false), wait, TimeUnit.MILLISECONDS);
+                    }
+                    return;
+                }
+            }
+            if (!mHoldsSlot) {
+                SlotWaiter waiter = new SlotWaiter(mController);
+                synchronized (TXMqttConnection.this) {
+                    cancelSlotWaiter();
+                    mSlotWaiter = waiter;
+                }
+                if (!mController.tryAcquireConnect(waiter)) {
+                    // 进行中的连接数已达上限，有连接结束时由 waiter 继续
+                    return;
+                }
+                synchronized (TXMqttConnection.this) {
+                    if (mSlotWaiter == waiter) {
+                        mSlotWaiter = null;
+                    }
+                }
+                if (waiter.mCancelled) {
+                    mController.releaseConnect();
+                    return;
+                }
+            }
+            mController.onConnectStarted();
+            synchronized (TXMqttConnection.this) {
+                mPendingSlot = mController;
+            }
+            Status status = connectInternal(mConnOptions, null, true);
+            TXReconnectController unused;
+            synchronized (TXMqttConnection.this) {
+                // 正在连接或已连接等未发出连接请求的情况
+                unused = mPendingSlot;
+                mPendingSlot = null;
+            }
+            if (unused != null) {
+                unused.releaseConnect();
+            }
+            if (status == Status.ERROR || status == Status.PARAMETER_INVALID) {
+                scheduleReconnect(mController.onConnectFailed());
+            }
+        }
+    }
+
+    /**
+     * 等待并发许可的重连，获得许可后在定时线程中继续重连；已取消时直接归还许可
+     */
+    private class SlotWaiter implements Runnable {
+        private final TXReconnectController mController;
+        private volatile boolean mCancelled = false;
+
+        SlotWaiter(TXReconnectController controller) {
+            this.mController = controller;
+        }
+
+        @Override
+        public void run() {
+            synchronized (TXMqttConnection.this) {
+                if (mSlotWaiter == this) {
+                    mSlotWaiter = null;
+                }
+            }
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled) {
+                        mController.releaseConnect();
+                    } else {
+                        new ReconnectTask(mController, true, true).run();
+                    }
+                }
+            };
+            try {
+                DeadlineScheduler.INSTANCE.execute(task);
+            } catch (RuntimeException e) {
+                mController.releaseConnect();
+            }
+        }
+    }
+
+    /**
+     * 连接超时检查及定时重连共享的定时器
+     */
+    private static class DeadlineScheduler {
+        static final ScheduledThreadPoolExecutor INSTANCE = create();
+
+        private static ScheduledThreadPoolExecutor create() {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "TXMqtt-connect-deadline");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+    }
+
     /**
      * 事件回调
      */
@@ -1340,13 +2127,15 @@ public class TXMqttConnection implements MqttCallbackExtended {
 
             switch (command) {
             case TXMqttConstants.PUBLISH:
+                mMetrics.onPublishCompleted(token.getMessageId(), true);
                 mActionCallBack.onPublishCompleted(Status.OK, token, token.getUserContext(),
                         TXMqttConstants.PUBLISH_SUCCESS);
                 break;
 
             case TXMqttConstants.SUBSCRIBE:
                 int[] qos = ((MqttSuback) mqttWireMessage).getGrantedQos();
-                if (null != qos && qos.length >= 1 && qos[0] == 128) {
+                mMetrics.onSubscribeCompleted(token.getMessageId(), !isSubscribeRejected(qos));
+                if (isSubscribeRejected(qos)) {
                     mActionCallBack.onSubscribeCompleted(Status.ERROR, token, token.getUserContext(),
                             TXMqttConstants.SUBSCRIBE_FAIL);
                 } else {
@@ -1372,13 +2161,30 @@ public class TXMqttConnection implements MqttCallbackExtended {
             }
         }
 
+        /**
+         * 批量订阅时任意一个主题被拒绝（返回码 0x80）即视为订阅失败
+         */
+        private boolean isSubscribeRejected(int[] qos) {
+            if (qos == null) {
+                return false;
+            }
+            for (int granted : qos) {
+                if (granted == 128) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         @Override
         public void onFailure(IMqttToken token, Throwable exception) {
             switch (command) {
             case TXMqttConstants.PUBLISH:
+                mMetrics.onPublishCompleted(token.getMessageId(), false);
                 mActionCallBack.onPublishCompleted(Status.ERROR, token, token.getUserContext(), exception.toString());
                 break;
             case TXMqttConstants.SUBSCRIBE:
+                mMetrics.onSubscribeCompleted(token.getMessageId(), false);
                 mActionCallBack.onSubscribeCompleted(Status.ERROR, token, token.getUserContext(), exception.toString());
                 break;
             case TXMqttConstants.UNSUBSCRIBE:
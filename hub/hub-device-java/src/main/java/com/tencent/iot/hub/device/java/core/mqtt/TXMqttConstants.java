@@ -50,6 +50,11 @@ public interface TXMqttConstants {
      */
     int MAX_SIZE_OF_CLOUD_TOPIC = 128;
 
+    /**
+     * 重连后批量重新订阅时，单个 SUBSCRIBE 报文包含的最大主题数
+     */
+    int MAX_TOPICS_PER_SUBSCRIBE = 32;
+
     /**
      * 连接标识字符串最大长度
      */
@@ -68,7 +73,12 @@ public interface TXMqttConstants {
 
         kConnectFailed,
 
-        kDisconnected
+        kDisconnected,
+
+        /**
+         * 连续重连失败，重连控制器熔断中，暂停重连
+         */
+        kConnectSuspended
     }
 
     /**
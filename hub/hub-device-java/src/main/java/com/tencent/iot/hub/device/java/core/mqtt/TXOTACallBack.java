@@ -45,7 +45,8 @@ public interface TXOTACallBack {
      *                 -2:文件不存在；
      *                 -3:签名过期；
      *                 -4:校验错误；
-     *                 -5:更新固件失败
+     *                 -5:更新固件失败；
+     *                 -6:下载已取消
      * @param version  目标版本号
      */
     void onDownloadFailure(int errCode, String version);
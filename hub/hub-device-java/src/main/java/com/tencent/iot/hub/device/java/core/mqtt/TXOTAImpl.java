@@ -1,13 +1,17 @@
 package com.tencent.iot.hub.device.java.core.mqtt;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.security.MessageDigest;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
@@ -29,6 +33,7 @@ import org.slf4j.LoggerFactory;
 
 import com.tencent.iot.hub.device.java.core.common.Status;
 import com.tencent.iot.hub.device.java.core.device.CA;
+import com.tencent.iot.hub.device.java.core.json.TXJsonCodecs;
 import com.tencent.iot.hub.device.java.utils.Loggor;
 
 /**
@@ -49,14 +54,32 @@ public class TXOTAImpl {
 	private final String OTA_SUB_DEV_REPORT_TOPIC;
 	private final String mStoragePath;
 
-	private volatile static boolean mDownloadThreadRunning = false;
-	private static Thread mDownloadThread = null;
+	private volatile TXOTAJobScheduler mJobScheduler = new TXOTAJobScheduler(1);
 
 	private boolean mSubscribedState = false;
 
 	private final int DEFAULT_CONNECT_TIMEOUT = 10000; // 毫秒
 	private final int DEFAULT_READ_TIMEOUT = 10000; // 毫秒
 	private final int MAX_TRY_TIMES = 3;
+	private static final String DIGEST_STATE_SUFFIX = ".digest";
+	private static final String PATCH_TEMP_SUFFIX = ".patching";
+	private static final long DIGEST_CHECKPOINT_BYTES = 4 * 1024 * 1024;
+	private volatile int mDownloadParallelism = 0;
+	private volatile TXFirmwareCache mFirmwareCache = null;
+
+	private final TXProgressReporter.Sender mProgressSender = new TXProgressReporter.Sender() {
+		@Override
+		public void send(int percent, String version) {
+			reportProgressMessage(OTA_REPORT_TOPIC, percent, version);
+		}
+	};
+
+	private final TXProgressReporter.Sender mSubDevProgressSender = new TXProgressReporter.Sender() {
+		@Override
+		public void send(int percent, String version) {
+			reportProgressMessage(OTA_SUB_DEV_REPORT_TOPIC, percent, version);
+		}
+	};
 	private static List<X509Certificate> serverCertList = null;
 	private static String[] mCosServerCaCrtList = CA.cosServerCaCrtList;
 
@@ -132,6 +155,48 @@ public class TXOTAImpl {
 		this(connection, storagePath, null, callback);
 	}
 
+	/**
+	 * 设置分段并行下载。服务器支持 Range 请求时，固件按 {@link TXSegmentedDownloader#DEFAULT_SEGMENT_SIZE}
+	 * 切分为多个分段并行下载，下载中断后只续传未完成的分段；服务器不支持时自动改用单连接下载
+	 *
+	 * @param parallelism 并行下载的分段数，小于等于 1 表示使用单连接下载
+	 */
+	public void setDownloadParallelism(int parallelism) {
+		this.mDownloadParallelism = parallelism;
+	}
+
+	/**
+	 * 设置下载任务调度器，默认每个 OTA 对象同时只下载一个固件，其余任务排队。
+	 * 网关可以让多个 OTA 对象共用一个调度器，以限制整个网关同时下载的固件数
+	 *
+	 * @param scheduler {@link TXOTAJobScheduler}
+	 */
+	public void setJobScheduler(TXOTAJobScheduler scheduler) {
+		if (scheduler == null) {
+			throw new IllegalArgumentException("scheduler is null");
+		}
+		this.mJobScheduler = scheduler;
+	}
+
+	/**
+	 * 设置固件缓存。下载前先查找缓存，命中时直接从缓存生成输出文件；下载校验通过后加入缓存。
+	 * 网关可以让多个 OTA 对象共用一个缓存，相同固件只下载一次
+	 *
+	 * @param cache {@link TXFirmwareCache}，null 表示不使用缓存
+	 */
+	public void setFirmwareCache(TXFirmwareCache cache) {
+		this.mFirmwareCache = cache;
+	}
+
+	/**
+	 * 获取下载任务调度器，可用于查询或取消下载任务
+	 *
+	 * @return {@link TXOTAJobScheduler}
+	 */
+	public TXOTAJobScheduler getJobScheduler() {
+		return mJobScheduler;
+	}
+
 	/**
 	 * 设置 OTA TOPIC 订阅是否成功的标记
 	 *
@@ -178,7 +243,7 @@ public class TXOTAImpl {
 
 		try {
 			byte[] payload = message.getPayload();
-			JSONObject jsonObject = new JSONObject(new String(payload));
+			JSONObject jsonObject = TXJsonCodecs.getDefault().decode(payload);
 
 			String type = jsonObject.getString("type");
 			if (type.equalsIgnoreCase("update_firmware")) {
@@ -247,7 +312,7 @@ public class TXOTAImpl {
 			e.printStackTrace();
 		}
 
-		message.setPayload(jsonObject.toString().getBytes());
+		message.setPayload(TXJsonCodecs.getDefault().encode(jsonObject));
 
 		Status status = mConnection.publish(topic, message, null);
 		Loggor.debug(TAG, "reportDevVersion status " + status);
@@ -277,6 +342,7 @@ public class TXOTAImpl {
 	 * @return 操作结果 {@link Status}
 	 */
 	public Status reportFailedMessage(int errorCode, String errorMsg, String version) {
+		mConnection.getProgressReporter().cancel(OTA_SUB_DEV_REPORT_TOPIC + "#" + version);
 		return reportMessage(OTA_SUB_DEV_REPORT_TOPIC, "report_progress", "fail", errorCode, errorMsg, version);
 	}
 
@@ -287,6 +353,7 @@ public class TXOTAImpl {
 	 * @return 操作结果 {@link Status}
 	 */
 	public Status reportSuccessMessage(String version) {
+		mConnection.getProgressReporter().cancel(OTA_SUB_DEV_REPORT_TOPIC + "#" + version);
 		return reportMessage(OTA_SUB_DEV_REPORT_TOPIC, "report_progress", "done", 0, "", version);
 	}
 
@@ -297,6 +364,7 @@ public class TXOTAImpl {
 	 * @return 操作结果 {@link Status}
 	 */
 	public Status reportBurnngMessage(String version) {
+		mConnection.getProgressReporter().cancel(OTA_SUB_DEV_REPORT_TOPIC + "#" + version);
 		return reportMessage(OTA_SUB_DEV_REPORT_TOPIC, "report_progress", "burning", 0, "", version);
 	}
 
@@ -334,12 +402,22 @@ public class TXOTAImpl {
 		}
 
 		message.setQos(0);
-		message.setPayload(jsonObject.toString().getBytes());
+		message.setPayload(TXJsonCodecs.getDefault().encode(jsonObject));
 
 		Status status = mConnection.publish(topic, message, null);
 		return status;
 	}
 
+	/**
+	 * 经连接的 {@link TXProgressReporter} 上报下载进度，同一版本未发送的进度只保留最新一条
+	 *
+	 * @param percent 进度
+	 * @param version 版本号
+	 */
+	private void queueProgress(int percent, String version) {
+		mConnection.getProgressReporter().report(OTA_REPORT_TOPIC + "#" + version, percent, version, mProgressSender);
+	}
+
 	/**
 	 * 上报下载进度消息到后台服务器
 	 *
@@ -371,7 +449,7 @@ public class TXOTAImpl {
 		}
 
 		message.setQos(0);
-		message.setPayload(jsonObject.toString().getBytes());
+		message.setPayload(TXJsonCodecs.getDefault().encode(jsonObject));
 
 		Status status = mConnection.publish(topic, message, null);
 		return status;
@@ -505,217 +583,469 @@ public class TXOTAImpl {
 	 *
 	 * @param firmwareURL 固件 URL
 	 * @param outputFile 输出文件
-	 * @param md5Sum md5 值
+	 * @param md5Sum 校验值，32 位为 MD5，64 位为 SHA-256
 	 * @param version 版本号
+	 * @return 下载任务 {@link TXOTAJob}，可用于查询进度或取消
 	 */
-	public void gatewayDownSubdevApp(String firmwareURL, String outputFile, String md5Sum, String version) {
-		downloadFirmware(firmwareURL, outputFile, md5Sum, version);
+	public TXOTAJob gatewayDownSubdevApp(String firmwareURL, String outputFile, String md5Sum, String version) {
+		return downloadFirmware(firmwareURL, outputFile, md5Sum, version);
 	}
 
 	/**
-	 * 网关上报子设备进度
+	 * 网关上报子设备进度，经连接的 {@link TXProgressReporter} 限速发送，同一版本未发送的进度只保留最新一条
 	 *
 	 * @param percent 进度
 	 * @param version 目标子设备固件版本号
-	 * @return 操作结果 {@link Status}
+	 * @return 操作结果 {@link Status}，进度加入上报队列时返回 Status.OK
 	 */
 	public Status gatewaySubdevReportProgress(int percent, String version) {
-		return reportProgressMessage(OTA_SUB_DEV_REPORT_TOPIC, percent, version);
+		mConnection.getProgressReporter().report(OTA_SUB_DEV_REPORT_TOPIC + "#" + version, percent, version,
+				mSubDevProgressSender);
+		return Status.OK;
 	}
 
 	/**
-	 * 开启线程下载固件
+	 * 提交固件下载任务，相同固件的下载请求合并为一个任务
 	 *
 	 * @param firmwareURL 固件 URL
 	 * @param outputFile 固件要保存的全路径及文件名
-	 * @param md5Sum 用于下载完成后做校验的 MD5
+	 * @param md5Sum 用于下载完成后做校验的 MD5 或 SHA-256
+	 * @param version 目标版本号
+	 * @return 下载任务 {@link TXOTAJob}
 	 */
-	private void downloadFirmware(final String firmwareURL, final String outputFile, final String md5Sum,
-			final String version) {
+	private TXOTAJob downloadFirmware(String firmwareURL, String outputFile, String md5Sum, String version) {
+		return mJobScheduler.submit(firmwareURL, md5Sum, outputFile, version, mCallback,
+				new TXOTAJobScheduler.JobRunner() {
+			@Override
+			public boolean run(TXOTAJob job) {
+				return runDownload(job, null);
+			}
+		});
+	}
 
-		if (mDownloadThreadRunning) {
-			return;
+	/**
+	 * 差分升级：下载补丁并应用到当前安装的固件，生成的新固件校验通过后回调 onDownloadCompleted。
+	 * 补丁边下载边应用，不保存补丁文件，内存占用与固件大小无关。
+	 * 可在 {@link TXOTACallBack#onLastestFirmwareReady} 中调用并返回 true，以差分升级代替整包下载
+	 *
+	 * @param patchURL 补丁 URL，补丁格式见 {@link TXDeltaPatcher}
+	 * @param baseFile 当前安装的固件全路径
+	 * @param outputFile 新固件要保存的全路径及文件名，可以与 baseFile 相同；校验通过后才替换
+	 * @param md5Sum 新固件的 MD5 或 SHA-256
+	 * @param version 目标版本号
+	 * @return 下载任务 {@link TXOTAJob}
+	 */
+	public TXOTAJob downloadDeltaFirmware(String patchURL, final String baseFile, String outputFile, String md5Sum, String version) {
+		return mJobScheduler.submit(patchURL, md5Sum, outputFile, version, mCallback,
+				new TXOTAJobScheduler.JobRunner() {
+			@Override
+			public boolean run(TXOTAJob job) {
+				return runDownload(job, baseFile);
+			}
+		});
+	}
+
+	/**
+	 * 在下载线程中执行下载任务，设置了固件缓存时优先从缓存获取
+	 *
+	 * @param job 下载任务
+	 * @param baseFile 差分升级的旧固件，null 表示整包下载
+	 * @return 下载并校验成功时返回 true
+	 */
+	private boolean runDownload(TXOTAJob job, String baseFile) {
+		try {
+			return fetchFirmware(job, baseFile);
+		} finally {
+			// 任务结束后由调用方上报最终状态，未发送的下载进度不再发送
+			mConnection.getProgressReporter().cancel(OTA_REPORT_TOPIC + "#" + job.getVersion());
 		}
+	}
 
-		mDownloadThreadRunning = true;
-		mDownloadThread = new Thread(new Runnable() {
-			@Override
-			public void run() {
+	/**
+	 * 从缓存获取或下载固件
+	 *
+	 * @param job 下载任务
+	 * @param baseFile 差分升级的旧固件，null 表示整包下载
+	 * @return 下载并校验成功时返回 true
+	 */
+	private boolean fetchFirmware(TXOTAJob job, String baseFile) {
+		TXFirmwareCache cache = mFirmwareCache;
+		if (cache == null) {
+			return baseFile == null ? downloadWithRetry(job) : downloadDelta(job, baseFile);
+		}
 
-				int tryTimes = 0;
+		// 同一固件的下载地址可能不同，在缓存上按校验值排队，后执行的任务直接命中缓存
+		cache.lock(job.getChecksum());
+		try {
+			if (job.isCancelled()) {
+				return false;
+			}
+			if (cache.copyTo(job.getChecksum(), job.getOutputFile())) {
+				job.notifyProgress(100);
+				return true;
+			}
+			File outputFile = new File(job.getOutputFile());
+			if (baseFile == null && outputFile.exists() && !isPrivateFile(outputFile)) {
+				// 可能是之前从缓存链接的文件，续传会写入缓存及其他子设备共享的数据
+				outputFile.delete();
+			}
+			if (!(baseFile == null ? downloadWithRetry(job) : downloadDelta(job, baseFile))) {
+				return false;
+			}
+			cache.put(job.getChecksum(), job.getOutputFile());
+			return true;
+		} finally {
+			cache.unlock(job.getChecksum());
+		}
+	}
 
-				do {
-					RandomAccessFile fos = null;
-					InputStream stream = null;
+	/**
+	 * 文件是否只有一个硬链接。无法获取链接数时视为共享文件
+	 *
+	 * @param file 文件
+	 * @return 确认没有其他硬链接时返回 true
+	 */
+	private static boolean isPrivateFile(File file) {
+		try {
+			Object links = Files.getAttribute(file.toPath(), "unix:nlink");
+			return links instanceof Integer && (Integer) links == 1;
+		} catch (IOException | UnsupportedOperationException | IllegalArgumentException | SecurityException e) {
+			return false;
+		}
+	}
 
-					try {
-						tryTimes++;
+	/**
+	 * 下载固件，下载或校验失败时重试
+	 *
+	 * @param job 下载任务
+	 * @return 下载并校验成功时返回 true
+	 */
+	private boolean downloadWithRetry(TXOTAJob job) {
+		String firmwareURL = job.getUrl();
+		String outputFile = job.getOutputFile();
+		String md5Sum = job.getChecksum();
+		String version = job.getVersion();
 
-						fos = new RandomAccessFile(outputFile, "rw");
-						Loggor.debug(TAG,  "fileLength " + fos.length() + " bytes");
+		int tryTimes = 0;
 
-						long downloadBytes = fos.length();
-						int lastPercent = 0;
-						long lastReportProcentTimestamp = 0;
+		do {
+			if (job.isCancelled()) {
+				return false;
+			}
 
-						if (downloadBytes > 0) {
-							fos.seek(downloadBytes);
-						}
+			RandomAccessFile fos = null;
+			InputStream stream = null;
+			TXFirmwareDigest digest = null;
+			File digestState = new File(outputFile + DIGEST_STATE_SUFFIX);
 
-						Loggor.debug(TAG,  "connect: " + firmwareURL);
-						HttpURLConnection conn = createURLConnection(firmwareURL);
+			// 分段下载失败时保留已完成的分段，下次重试时续传
+			boolean segmented = mDownloadParallelism > 1;
 
-						conn.setConnectTimeout(DEFAULT_CONNECT_TIMEOUT);
-						conn.setReadTimeout(DEFAULT_READ_TIMEOUT);
-						conn.setRequestProperty("Range", "bytes=" + downloadBytes + "-");
+			try {
+				tryTimes++;
 
-						conn.connect();
+				if (segmented && !downloadSegmented(job)) {
+					segmented = false;
+				}
+				if (!segmented) {
+					fos = new RandomAccessFile(outputFile, "rw");
+					Loggor.debug(TAG,  "fileLength " + fos.length() + " bytes");
 
-						int totalLength = conn.getContentLength()+Long.valueOf(downloadBytes).intValue();
-						Loggor.debug(TAG,  "totalLength " + totalLength + " bytes");
+					long downloadBytes = fos.length();
+					int lastPercent = 0;
 
-						stream = conn.getInputStream();
-						byte buffer[] = new byte[1024 * 1024];
+					// 边下载边计算摘要，续传时恢复之前保存的计算状态
+					digest = resumeDigest(fos, digestState, md5Sum);
+					long lastCheckpoint = downloadBytes;
 
-						while (downloadBytes < totalLength) {
-							int len = stream.read(buffer);
-							if (len < 0) {
-								break;
-							}
-							downloadBytes += len;
+					if (downloadBytes > 0) {
+						fos.seek(downloadBytes);
+					}
 
-							fos.write(buffer, 0, len);
+					Loggor.debug(TAG,  "connect: " + firmwareURL);
+					HttpURLConnection conn = createURLConnection(firmwareURL);
 
-							int percent = (int) (((float) downloadBytes / (float) totalLength) * 100);
-							long currentTimestamp = System.currentTimeMillis();
+					conn.setConnectTimeout(DEFAULT_CONNECT_TIMEOUT);
+					conn.setReadTimeout(DEFAULT_READ_TIMEOUT);
+					conn.setRequestProperty("Range", "bytes=" + downloadBytes + "-");
 
-							if (percent != lastPercent) {
-								lastPercent = percent;
+					conn.connect();
 
-								if (mCallback != null) {
-									mCallback.onDownloadProgress(percent, version);
-								}
+					int totalLength = conn.getContentLength()+Long.valueOf(downloadBytes).intValue();
+					Loggor.debug(TAG,  "totalLength " + totalLength + " bytes");
 
-								if (lastReportProcentTimestamp == 0 || (currentTimestamp - lastReportProcentTimestamp >= 100)) { //间隔100ms上报一次process进度，防止每秒上报超过30次
-									Loggor.debug(TAG,  "download " + downloadBytes + " bytes. percent:" + percent);
-									lastReportProcentTimestamp = currentTimestamp;
-									reportProgressMessage(OTA_REPORT_TOPIC, percent, version);
-								}
-							}
+					stream = conn.getInputStream();
+					byte buffer[] = new byte[1024 * 1024];
+
+					while (downloadBytes < totalLength) {
+						if (job.isCancelled()) {
+							return false;
 						}
+						int len = stream.read(buffer);
+						if (len < 0) {
+							break;
+						}
+						downloadBytes += len;
 
-						if (fos != null) {
-							fos.close();
+						fos.write(buffer, 0, len);
+						digest.update(buffer, 0, len);
+						if (downloadBytes - lastCheckpoint >= DIGEST_CHECKPOINT_BYTES) {
+							lastCheckpoint = downloadBytes;
+							digest.saveTo(digestState);
 						}
-						if (stream != null) {
-							stream.close();
+
+						int percent = (int) (((float) downloadBytes / (float) totalLength) * 100);
+
+						if (percent != lastPercent) {
+							lastPercent = percent;
+
+							job.notifyProgress(percent);
+							queueProgress(percent, version);
 						}
+					}
 
-						String calcMD5 = fileToMD5(outputFile);
+					if (fos != null) {
+						fos.close();
+					}
+					if (stream != null) {
+						stream.close();
+					}
+				}
 
-						if (!calcMD5.equalsIgnoreCase(md5Sum)) {
-							Loggor.error(TAG,  "md5 checksum not match!!! calculated md5:" + calcMD5);
+				// 分段下载时各分段乱序写入，只能在下载完成后计算整个文件的摘要
+				String calcMD5 = digest != null ? digest.digestHex() : fileDigest(outputFile, md5Sum);
+				digestState.delete();
 
-							if (mCallback != null) {
-								mCallback.onDownloadFailure(-4, version); // 校验失败
-//								reportFailedMessage(-4, "MD5不匹配", version);
-							}
+				if (!calcMD5.equalsIgnoreCase(md5Sum)) {
+					Loggor.error(TAG,  "checksum not match!!! calculated:" + calcMD5);
 
-							new File(outputFile).delete(); // delete
+					job.notifyFailure(-4); // 校验失败
+//						reportFailedMessage(-4, "MD5不匹配", version);
 
-							continue; // try again
-						} else {
-							if (mCallback != null) {
-//								reportSuccessMessage(version);
-								mCallback.onDownloadCompleted(outputFile, version);
-							}
+					new File(outputFile).delete(); // delete
+					TXSegmentedDownloader.discardState(outputFile);
 
-							break; // quit loop
-						}
-					} catch (CertificateException e) {
-						if (mCallback != null) {
-							mCallback.onDownloadFailure(-4, version); // 校验失败
-//							reportFailedMessage(-4, "MD5不匹配", version);
-						}
+					continue; // try again
+				} else {
+//					reportSuccessMessage(version);
+					return true; // quit loop
+				}
+			} catch (CertificateException e) {
+				job.notifyFailure(-4); // 校验失败
+//				reportFailedMessage(-4, "MD5不匹配", version);
+			} catch (Exception e) {
+				e.printStackTrace();
+				if (!segmented) {
+					new File(outputFile).delete(); // delete
+					digestState.delete();
+				}
+
+			} finally {
+				if (fos != null) {
+					try {
+						fos.close();
 					} catch (Exception e) {
-						e.printStackTrace();
-						new File(outputFile).delete(); // delete
 
-					} finally {
-						if (fos != null) {
-							try {
-								fos.close();
-							} catch (Exception e) {
+					}
+				}
+
+				if (stream != null) {
+					try {
+						stream.close();
+					} catch (Exception e) {
 
-							}
+					}
+				}
+			}
+		} while (tryTimes <= MAX_TRY_TIMES);
+
+		return false;
+	}
+
+	/**
+	 * 下载补丁并边下载边应用到旧固件，下载失败时重试。新固件先写入临时文件，校验通过后替换输出文件，
+	 * 输出文件可以与旧固件相同（原地升级）
+	 *
+	 * @param job 下载任务，URL 为补丁地址，校验值为新固件的校验值
+	 * @param baseFile 当前安装的旧固件
+	 * @return 新固件校验成功时返回 true
+	 */
+	private boolean downloadDelta(final TXOTAJob job, String baseFile) {
+		final String version = job.getVersion();
+		String outputFile = job.getOutputFile();
+		String md5Sum = job.getChecksum();
+		File tempFile = new File(outputFile + PATCH_TEMP_SUFFIX);
+
+		if (!new File(baseFile).isFile()) {
+			Loggor.error(TAG, "base firmware " + baseFile + " not found");
+			job.fail(-2); // 文件不存在
+			return false;
+		}
+
+		int tryTimes = 0;
+
+		do {
+			if (job.isCancelled()) {
+				return false;
+			}
+
+			InputStream stream = null;
+			OutputStream fos = null;
+
+			try {
+				tryTimes++;
+
+				Loggor.debug(TAG,  "connect: " + job.getUrl());
+				HttpURLConnection conn = createURLConnection(job.getUrl());
+
+				conn.setConnectTimeout(DEFAULT_CONNECT_TIMEOUT);
+				conn.setReadTimeout(DEFAULT_READ_TIMEOUT);
+				conn.connect();
+
+				stream = conn.getInputStream();
+				fos = new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024);
+				TXFirmwareDigest digest = TXFirmwareDigest.forChecksum(md5Sum);
+
+				long newSize = new TXDeltaPatcher().apply(new File(baseFile), stream, fos, digest,
+						new TXDeltaPatcher.ProgressListener() {
+					private int lastPercent = 0;
+
+					@Override
+					public void onProgress(long writtenBytes, long totalBytes) {
+						if (job.isCancelled()) {
+							throw new IllegalStateException("download cancelled");
 						}
+						int percent = (int) (((float) writtenBytes / (float) totalBytes) * 100);
 
-						if (stream != null) {
-							try {
-								stream.close();
-							} catch (Exception e) {
+						if (percent != lastPercent) {
+							lastPercent = percent;
 
-							}
+							job.notifyProgress(percent);
+							queueProgress(percent, version);
 						}
 					}
-				} while (tryTimes <= MAX_TRY_TIMES);
-				mDownloadThreadRunning = false;
+				});
+				fos.close();
+				fos = null;
+				Loggor.debug(TAG,  "patched " + baseFile + " to " + newSize + " bytes");
+
+				if (digest.matches(md5Sum)) {
+					// 替换而不是覆盖写入，不影响与输出文件共享数据的硬链接
+					Files.move(tempFile.toPath(), new File(outputFile).toPath(), StandardCopyOption.REPLACE_EXISTING);
+					return true;
+				}
+				// 旧固件与补丁不对应时重试也无法成功，由调用方改为整包升级
+				Loggor.error(TAG,  "checksum not match!!! calculated:" + digest.digestHex());
+				tempFile.delete();
+				job.fail(-4); // 校验失败
+				return false;
+			} catch (CertificateException e) {
+				job.notifyFailure(-4); // 校验失败
+			} catch (Exception e) {
+				Loggor.error(TAG, "apply patch failed: " + e);
+				tempFile.delete();
+			} finally {
+				if (fos != null) {
+					try {
+						fos.close();
+					} catch (Exception e) {
+
+					}
+				}
+
+				if (stream != null) {
+					try {
+						stream.close();
+					} catch (Exception e) {
+
+					}
+				}
 			}
-		});
+		} while (tryTimes <= MAX_TRY_TIMES);
 
-		mDownloadThread.start();
+		return false;
 	}
 
 	/**
-	 * 计算文件的 MD5 摘要值
+	 * 分段并行下载固件，进度回调与单连接下载一致
 	 *
-	 * @param filePath 全路径文件名
-	 * @return 以 16 进制字符表示的摘要字符串
+	 * @return 下载完成返回 true；服务器不支持 Range 请求时返回 false
 	 */
-	private static String fileToMD5(String filePath) {
-		InputStream inputStream = null;
+	private boolean downloadSegmented(final TXOTAJob job) throws Exception {
+		final String version = job.getVersion();
+		TXSegmentedDownloader downloader = new TXSegmentedDownloader(new TXSegmentedDownloader.ConnectionFactory() {
+			@Override
+			public HttpURLConnection open(String url) throws Exception {
+				return createURLConnection(url);
+			}
+		}, mDownloadParallelism, TXSegmentedDownloader.DEFAULT_SEGMENT_SIZE);
+		downloader.setTimeout(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
 
-		try {
-			inputStream = new FileInputStream(filePath);
+		return downloader.download(job.getUrl(), job.getOutputFile(), new TXSegmentedDownloader.ProgressListener() {
+			private int lastPercent = 0;
+
+			@Override
+			public synchronized void onProgress(long downloadBytes, long totalBytes) {
+				if (job.isCancelled()) {
+					throw new IllegalStateException("download cancelled");
+				}
+				int percent = (int) (((float) downloadBytes / (float) totalBytes) * 100);
 
-			byte[] buffer = new byte[1024];
-			MessageDigest digest = MessageDigest.getInstance("MD5");
+				if (percent != lastPercent) {
+					lastPercent = percent;
 
-			int numRead = 0;
-			while (numRead != -1) {
-				numRead = inputStream.read(buffer);
-				if (numRead > 0) {
-					digest.update(buffer, 0, numRead);
+					job.notifyProgress(percent);
+					queueProgress(percent, version);
 				}
 			}
+		});
+	}
 
-			byte[] md5Bytes = digest.digest();
-			return convertHashToString(md5Bytes);
-		} catch (Exception e) {
-			return "";
-		} finally {
-			if (inputStream != null) {
-				try {
-					inputStream.close();
-				} catch (Exception e) {
-				}
+	/**
+	 * 恢复已下载部分的摘要计算状态，状态落后于文件时只补算落后的部分，状态无效时从头计算
+	 *
+	 * @param file 已打开的固件文件
+	 * @param stateFile 摘要状态文件
+	 * @param checksum 校验值，用于选择算法
+	 * @return 已计算到文件末尾的摘要对象
+	 */
+	private static TXFirmwareDigest resumeDigest(RandomAccessFile file, File stateFile, String checksum) throws Exception {
+		TXFirmwareDigest digest = TXFirmwareDigest.forChecksum(checksum);
+		long fileLength = file.length();
+		if (fileLength == 0) {
+			return digest;
+		}
+
+		TXFirmwareDigest saved = TXFirmwareDigest.loadFrom(stateFile, digest.getAlgorithm());
+		if (saved != null && saved.getLength() <= fileLength) {
+			digest = saved;
+		}
+		Loggor.debug(TAG, "resume digest from " + digest.getLength() + " of " + fileLength + " bytes");
+
+		byte[] buffer = new byte[64 * 1024];
+		file.seek(digest.getLength());
+		while (digest.getLength() < fileLength) {
+			int len = file.read(buffer, 0, (int) Math.min(buffer.length, fileLength - digest.getLength()));
+			if (len < 0) {
+				break;
 			}
+			digest.update(buffer, 0, len);
 		}
+		return digest;
 	}
 
 	/**
-	 * 转换摘要值为字符串形式
+	 * 计算整个文件的摘要值
 	 *
-	 * @param digestBytes 二进制摘要值
+	 * @param filePath 全路径文件名
+	 * @param checksum 校验值，用于选择算法
 	 * @return 以 16 进制字符表示的摘要字符串
 	 */
-	private static String convertHashToString(byte[] digestBytes) {
-		String returnVal = "";
-
-		for (int i = 0; i < digestBytes.length; i++) {
-			returnVal += Integer.toString((digestBytes[i] & 0xff) + 0x100, 16).substring(1);
+	private static String fileDigest(String filePath, String checksum) {
+		try {
+			return TXFirmwareDigest.digestFile(filePath, TXFirmwareDigest.forChecksum(checksum).getAlgorithm());
+		} catch (Exception e) {
+			return "";
 		}
-
-		return returnVal.toLowerCase();
 	}
 }
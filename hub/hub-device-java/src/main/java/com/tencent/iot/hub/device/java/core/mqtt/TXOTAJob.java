@@ -0,0 +1,375 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * OTA 下载任务，由 {@link TXOTAJobScheduler} 创建
+ *
+ * 固件 URL 与校验值相同的请求合并为同一次下载，每个请求对应一个任务，保留各自的保存路径、版本号和回调。
+ * 下载写入第一个请求的保存路径，完成后复制到其他请求的保存路径；取消一个任务只移除该请求，
+ * 所有请求都取消后才停止下载。
+ */
+public class TXOTAJob {
+    private static final String TAG = TXOTAJob.class.getSimpleName();
+    private static final Logger logger = LoggerFactory.getLogger(TXOTAJob.class);
+    static { Loggor.setLogger(logger); }
+
+    /**
+     * 下载已取消的错误码，通过 {@link TXOTACallBack#onDownloadFailure(int, String)} 通知
+     */
+    public static final int ERR_CANCELLED = -6;
+
+    /**
+     * 下载完成但复制到本任务保存路径失败的错误码，通过 {@link TXOTACallBack#onDownloadFailure(int, String)} 通知
+     */
+    public static final int ERR_WRITE_FAILED = -5;
+
+    /**
+     * 任务状态
+     */
+    public enum State {
+        /**
+         * 排队等待空闲下载线程
+         */
+        PENDING,
+        /**
+         * 下载中
+         */
+        DOWNLOADING,
+        /**
+         * 下载并校验完成
+         */
+        COMPLETED,
+        /**
+         * 下载失败
+         */
+        FAILED,
+        /**
+         * 已取消
+         */
+        CANCELLED
+    }
+
+    /**
+     * 合并的请求共用的一次下载
+     */
+    private static final class Download {
+        final String url;
+        final String checksum;
+        final String outputFile;
+        final List<TXOTAJob> subscribers = new CopyOnWriteArrayList<>();
+        volatile State state = State.PENDING;
+        volatile int percent = 0;
+        int lastError = 0;
+
+        Download(String url, String checksum, String outputFile) {
+            this.url = url;
+            this.checksum = checksum;
+            this.outputFile = outputFile;
+        }
+    }
+
+    private final Download mDownload;
+    private final String mOutputFile;
+    private final String mVersion;
+    private final TXOTACallBack mCallback;
+    // 由调度器持有、交给下载执行者的任务，不对应具体请求
+    private final boolean mRunner;
+    // 本请求单独结束时的状态（取消，或复制到保存路径失败）
+    private volatile State mOwnState = null;
+    private boolean mFailureNotified = false;
+
+    /**
+     * 创建交给下载执行者的任务，下载写入 outputFile
+     */
+    TXOTAJob(String url, String checksum, String outputFile, String version) {
+        this(new Download(url, checksum, outputFile), outputFile, version, null, true);
+    }
+
+    private TXOTAJob(Download download, String outputFile, String version, TXOTACallBack callback, boolean runner) {
+        this.mDownload = download;
+        this.mOutputFile = outputFile;
+        this.mVersion = version;
+        this.mCallback = callback;
+        this.mRunner = runner;
+    }
+
+    /**
+     * 获取固件 URL
+     *
+     * @return 固件 URL
+     */
+    public String getUrl() {
+        return mDownload.url;
+    }
+
+    /**
+     * 获取校验值
+     *
+     * @return MD5 或 SHA-256 校验值
+     */
+    public String getChecksum() {
+        return mDownload.checksum;
+    }
+
+    /**
+     * 获取本请求的固件保存路径
+     *
+     * @return 全路径文件名
+     */
+    public String getOutputFile() {
+        return mOutputFile;
+    }
+
+    /**
+     * 获取本请求的目标版本号
+     *
+     * @return 版本号
+     */
+    public String getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * 获取任务状态
+     *
+     * @return {@link State}
+     */
+    public State getState() {
+        State own = mOwnState;
+        return own != null ? own : mDownload.state;
+    }
+
+    /**
+     * 获取下载进度
+     *
+     * @return 0 ~ 100
+     */
+    public int getPercent() {
+        return mDownload.percent;
+    }
+
+    /**
+     * 任务是否已结束（完成、失败或取消）
+     *
+     * @return 已结束时返回 true
+     */
+    public boolean isDone() {
+        State state = getState();
+        return state == State.COMPLETED || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    /**
+     * 是否已取消
+     *
+     * @return 已取消时返回 true
+     */
+    public boolean isCancelled() {
+        return getState() == State.CANCELLED;
+    }
+
+    /**
+     * 取消任务；合并下载的其他请求不受影响，所有请求都取消后排队中的下载不再执行，
+     * 下载中的在下一次读取数据时停止
+     *
+     * @return 任务未结束且取消成功时返回 true
+     */
+    public boolean cancel() {
+        if (mRunner) {
+            boolean cancelled = false;
+            for (TXOTAJob subscriber : mDownload.subscribers) {
+                cancelled |= subscriber.cancel();
+            }
+            synchronized (mDownload) {
+                if (!isDone()) {
+                    mDownload.state = State.CANCELLED;
+                    cancelled = true;
+                }
+            }
+            return cancelled;
+        }
+        synchronized (mDownload) {
+            if (isDone()) {
+                return false;
+            }
+            mOwnState = State.CANCELLED;
+            mDownload.subscribers.remove(this);
+            if (mDownload.subscribers.isEmpty()) {
+                mDownload.state = State.CANCELLED;
+            }
+        }
+        if (mCallback != null) {
+            mCallback.onDownloadFailure(ERR_CANCELLED, mVersion);
+        }
+        return true;
+    }
+
+    /**
+     * 把请求合并到本次下载
+     *
+     * @return 请求对应的任务；下载已结束时返回 null
+     */
+    TXOTAJob addSubscriber(TXOTACallBack callback, String version, String outputFile) {
+        synchronized (mDownload) {
+            if (mDownload.state != State.PENDING && mDownload.state != State.DOWNLOADING) {
+                return null;
+            }
+            for (TXOTAJob subscriber : mDownload.subscribers) {
+                if (subscriber.mCallback == callback && equals(version, subscriber.mVersion)
+                        && equals(outputFile, subscriber.mOutputFile)) {
+                    return subscriber;
+                }
+            }
+            TXOTAJob job = new TXOTAJob(mDownload, outputFile, version, callback, false);
+            mDownload.subscribers.add(job);
+            return job;
+        }
+    }
+
+    boolean start() {
+        synchronized (mDownload) {
+            if (mDownload.state != State.PENDING) {
+                return false;
+            }
+            mDownload.state = State.DOWNLOADING;
+            return true;
+        }
+    }
+
+    void notifyProgress(int percent) {
+        mDownload.percent = percent;
+        for (TXOTAJob subscriber : mDownload.subscribers) {
+            if (subscriber.mCallback != null) {
+                subscriber.mCallback.onDownloadProgress(percent, subscriber.mVersion);
+            }
+        }
+    }
+
+    /**
+     * 校验失败等可重试的错误，任务状态不变
+     */
+    void notifyFailure(int errCode) {
+        List<TXOTAJob> subscribers;
+        synchronized (mDownload) {
+            mDownload.lastError = errCode;
+            subscribers = new ArrayList<>(mDownload.subscribers);
+            for (TXOTAJob subscriber : subscribers) {
+                subscriber.mFailureNotified = true;
+            }
+        }
+        notifyFailure(subscribers, errCode);
+    }
+
+    private static void notifyFailure(List<TXOTAJob> subscribers, int errCode) {
+        for (TXOTAJob subscriber : subscribers) {
+            if (subscriber.mCallback != null) {
+                subscriber.mCallback.onDownloadFailure(errCode, subscriber.mVersion);
+            }
+        }
+    }
+
+    /**
+     * 下载完成，把固件复制到其他请求的保存路径后通知各请求
+     */
+    void complete() {
+        List<TXOTAJob> subscribers;
+        synchronized (mDownload) {
+            if (mDownload.state != State.PENDING && mDownload.state != State.DOWNLOADING) {
+                return;
+            }
+            mDownload.percent = 100;
+            mDownload.state = State.COMPLETED;
+            subscribers = new ArrayList<>(mDownload.subscribers);
+        }
+        File source = new File(mDownload.outputFile).getAbsoluteFile();
+        boolean sourceWanted = false;
+        for (TXOTAJob subscriber : subscribers) {
+            File target = new File(subscriber.mOutputFile).getAbsoluteFile();
+            if (target.equals(source)) {
+                sourceWanted = true;
+            } else {
+                try {
+                    Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    Loggor.error(TAG, "copy firmware to " + target + " failed: " + e);
+                    subscriber.mOwnState = State.FAILED;
+                    if (subscriber.mCallback != null) {
+                        subscriber.mCallback.onDownloadFailure(ERR_WRITE_FAILED, subscriber.mVersion);
+                    }
+                    continue;
+                }
+            }
+            if (subscriber.mCallback != null) {
+                subscriber.mCallback.onDownloadCompleted(subscriber.mOutputFile, subscriber.mVersion);
+            }
+        }
+        // 下载路径所属的请求已取消
+        if (!sourceWanted && !source.delete()) {
+            Loggor.warn(TAG, "can not delete " + source);
+        }
+    }
+
+    /**
+     * 下载失败且不再重试；在上一次失败通知之后合并进来的请求补发该失败
+     */
+    void fail() {
+        List<TXOTAJob> subscribers = new ArrayList<>();
+        int errCode;
+        synchronized (mDownload) {
+            if (mDownload.state != State.PENDING && mDownload.state != State.DOWNLOADING) {
+                return;
+            }
+            mDownload.state = State.FAILED;
+            errCode = mDownload.lastError;
+            if (errCode != 0) {
+                for (TXOTAJob subscriber : mDownload.subscribers) {
+                    if (!subscriber.mFailureNotified) {
+                        subscriber.mFailureNotified = true;
+                        subscribers.add(subscriber);
+                    }
+                }
+            }
+        }
+        notifyFailure(subscribers, errCode);
+    }
+
+    /**
+     * 下载失败且不再重试，结束任务后再通知各请求，之后提交的请求会重新下载
+     */
+    void fail(int errCode) {
+        List<TXOTAJob> subscribers;
+        synchronized (mDownload) {
+            if (mDownload.state != State.PENDING && mDownload.state != State.DOWNLOADING) {
+                return;
+            }
+            mDownload.state = State.FAILED;
+            mDownload.lastError = errCode;
+            subscribers = new ArrayList<>(mDownload.subscribers);
+            for (TXOTAJob subscriber : subscribers) {
+                subscriber.mFailureNotified = true;
+            }
+        }
+        notifyFailure(subscribers, errCode);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public String toString() {
+        return "TXOTAJob{url=" + mDownload.url + ", output=" + mOutputFile + ", state=" + getState()
+                + ", percent=" + mDownload.percent + "}";
+    }
+}
@@ -0,0 +1,163 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * OTA 下载任务调度器：固定数量的下载线程按提交顺序执行任务，
+ * 固件 URL 与校验值相同的未结束任务合并为一次下载
+ *
+ * 多个 {@link TXOTAImpl} 可以共用一个调度器，以限制整个网关同时下载的固件数。
+ */
+public class TXOTAJobScheduler {
+    private static final String TAG = TXOTAJobScheduler.class.getSimpleName();
+    private static final Logger logger = LoggerFactory.getLogger(TXOTAJobScheduler.class);
+    static { Loggor.setLogger(logger); }
+
+    /**
+     * 默认同时下载的任务数
+     */
+    public static final int DEFAULT_MAX_CONCURRENT = 4;
+
+    /**
+     * 执行下载，由提交任务的一方实现
+     */
+    public interface JobRunner {
+        /**
+         * 在下载线程中执行任务，须定期检查 {@link TXOTAJob#isCancelled()}
+         *
+         * @param job 任务
+         * @return 下载并校验成功返回 true
+         */
+        boolean run(TXOTAJob job);
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final ConcurrentHashMap<String, TXOTAJob> mJobs = new ConcurrentHashMap<>();
+
+    /**
+     * 构造函数，使用默认并发数
+     */
+    public TXOTAJobScheduler() {
+        this(DEFAULT_MAX_CONCURRENT);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param maxConcurrent 同时下载的最大任务数
+     */
+    public TXOTAJobScheduler(int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be positive");
+        }
+        mExecutor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mIndex = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TXOTA-job-" + mIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交下载任务。已有相同固件 URL 与校验值的未结束下载时不再重复下载，
+     * 下载完成后固件复制到本次请求的保存路径，事件同时通知本次请求的回调
+     *
+     * @param url 固件 URL
+     * @param checksum 校验值
+     * @param outputFile 固件保存路径
+     * @param version 目标版本号，回调时透传
+     * @param callback 事件回调
+     * @param runner 下载执行者
+     * @return 本次请求的任务 {@link TXOTAJob}，取消时不影响合并的其他请求；调度器已关闭时返回 null
+     */
+    public TXOTAJob submit(String url, String checksum, String outputFile, String version,
+                           TXOTACallBack callback, final JobRunner runner) {
+        String key = url + "#" + checksum;
+        final TXOTAJob job;
+        TXOTAJob request;
+        synchronized (mJobs) {
+            TXOTAJob existing = mJobs.get(key);
+            if (existing != null) {
+                request = existing.addSubscriber(callback, version, outputFile);
+                if (request != null) {
+                    Loggor.info(TAG, "merge download request of version " + version + " into " + existing);
+                    return request;
+                }
+            }
+            if (mExecutor.isShutdown()) {
+                return null;
+            }
+            job = new TXOTAJob(url, checksum, outputFile, version);
+            request = job.addSubscriber(callback, version, outputFile);
+            mJobs.put(key, job);
+        }
+        final String jobKey = key;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!job.start()) {
+                        return;
+                    }
+                    if (runner.run(job)) {
+                        job.complete();
+                    } else {
+                        job.fail();
+                    }
+                } catch (Throwable t) {
+                    Loggor.error(TAG, "OTA job " + job + " failed: " + t);
+                    job.fail();
+                } finally {
+                    mJobs.remove(jobKey, job);
+                }
+            }
+        });
+        return request;
+    }
+
+    /**
+     * 获取未结束的下载，合并的请求只对应一个任务，取消该任务时取消所有合并的请求
+     *
+     * @return 任务列表
+     */
+    public List<TXOTAJob> getJobs() {
+        return new ArrayList<>(mJobs.values());
+    }
+
+    /**
+     * 取消所有未结束的任务
+     */
+    public void cancelAll() {
+        for (TXOTAJob job : mJobs.values()) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * 取消所有任务并停止下载线程
+     */
+    public void shutdown() {
+        synchronized (mJobs) {
+            mExecutor.shutdown();
+        }
+        cancelAll();
+    }
+}
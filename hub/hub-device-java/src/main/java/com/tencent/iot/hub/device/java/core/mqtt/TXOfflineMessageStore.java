@@ -0,0 +1,517 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 断连消息的磁盘存储，作为 Paho 内存断连缓存的替代
+ *
+ * 消息按顺序追加到内存映射的分段文件中，堆内存占用与缓存的消息量无关；总大小超过上限时按
+ * {@link DropPolicy} 丢弃最旧的分段或拒绝新消息。每条记录带有长度和 CRC 校验，进程崩溃后重新打开时
+ * 从最后一条完整记录处继续写入，并从上次确认的位置按顺序重放（至少一次）。
+ */
+public class TXOfflineMessageStore {
+    private static final String TAG = TXOfflineMessageStore.class.getSimpleName();
+    private static final Logger logger = LoggerFactory.getLogger(TXOfflineMessageStore.class);
+    static { Loggor.setLogger(logger); }
+
+    /**
+     * 默认分段大小：4MB
+     */
+    public static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * 超过容量上限时的处理策略
+     */
+    public enum DropPolicy {
+        /**
+         * 丢弃最旧的分段
+         */
+        DROP_OLDEST,
+        /**
+         * 拒绝新消息
+         */
+        DROP_NEWEST
+    }
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // 记录格式：[int 长度][int CRC][short 主题长度][主题][byte QOS][byte retained][payload]，长度不含自身 4 字节
+    private static final int LENGTH_BYTES = 4;
+    private static final int FIXED_BODY_BYTES = 4 + 2 + 1 + 1;
+
+    /**
+     * 读取位置，由 {@link #peek(int)} 返回，用于 {@link #commit(Position)}
+     */
+    public static final class Position {
+        private final long segmentId;
+        private final int offset;
+
+        private Position(long segmentId, int offset) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * {@link #peek(int)} 读出的消息批次，带有批次末尾的读取位置
+     */
+    public static final class ReplayBatch extends TXPublishBatch {
+        private Position mEnd;
+
+        private ReplayBatch(int capacity) {
+            super(capacity);
+        }
+
+        /**
+         * 获取批次末尾的读取位置，发送完成后传给 {@link #commit(Position)}
+         *
+         * @return 读取位置
+         */
+        public Position getEndPosition() {
+            return mEnd;
+        }
+    }
+
+    private static class Segment {
+        final long id;
+        final File file;
+        MappedByteBuffer buffer;
+        int writePos;
+        int records;
+
+        Segment(long id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+    }
+
+    private final File mDir;
+    private final long mMaxBytes;
+    private final int mSegmentBytes;
+    private final DropPolicy mPolicy;
+    private final List<Segment> mSegments = new ArrayList<>();
+    private final CRC32 mCrc = new CRC32();
+    private final byte[] mScratch = new byte[8192];
+
+    // 读游标始终位于首个分段
+    private int mReadPos = 0;
+    private int mReadRecords = 0;
+    private long mBytes = 0;
+    private long mDropped = 0;
+    private boolean mClosed = false;
+
+    /**
+     * 构造函数，使用默认分段大小
+     *
+     * @param dir 存储目录，每个连接须使用独立目录
+     * @param maxBytes 容量上限，单位：字节
+     * @param policy 超过容量上限时的处理策略
+     * @throws IOException 打开或恢复存储失败
+     */
+    public TXOfflineMessageStore(File dir, long maxBytes, DropPolicy policy) throws IOException {
+        this(dir, maxBytes, DEFAULT_SEGMENT_BYTES, policy);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param dir 存储目录，每个连接须使用独立目录
+     * @param maxBytes 容量上限，单位：字节，至少为两个分段大小
+     * @param segmentBytes 分段大小，单位：字节，单条消息不能超过该大小
+     * @param policy 超过容量上限时的处理策略
+     * @throws IOException 打开或恢复存储失败
+     */
+    public TXOfflineMessageStore(File dir, long maxBytes, int segmentBytes, DropPolicy policy) throws IOException {
+        if (dir == null || policy == null || segmentBytes < 1024 || maxBytes < 2L * segmentBytes) {
+            throw new IllegalArgumentException();
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can not create directory " + dir);
+        }
+        this.mDir = dir;
+        this.mMaxBytes = maxBytes;
+        this.mSegmentBytes = segmentBytes;
+        this.mPolicy = policy;
+        recover();
+    }
+
+    /**
+     * 追加一条消息
+     *
+     * @param topic 主题
+     * @param message 消息内容
+     * @return 已写入时返回 true；消息过大、存储已关闭或按 DROP_NEWEST 策略被丢弃时返回 false
+     * @throws IOException 创建新分段失败
+     */
+    public synchronized boolean append(String topic, MqttMessage message) throws IOException {
+        if (mClosed) {
+            return false;
+        }
+        byte[] topicBytes = topic.getBytes(UTF_8);
+        byte[] payload = message.getPayload();
+        int recordBytes = LENGTH_BYTES + FIXED_BODY_BYTES + topicBytes.length + payload.length;
+        if (topicBytes.length > Short.MAX_VALUE || recordBytes > mSegmentBytes) {
+            Loggor.error(TAG, "message too large for offline store, topic: " + topic);
+            return false;
+        }
+
+        while (mBytes + recordBytes > mMaxBytes) {
+            if (mPolicy == DropPolicy.DROP_NEWEST || mSegments.size() < 2) {
+                mDropped++;
+                return false;
+            }
+            dropHead();
+        }
+
+        Segment tail = mSegments.get(mSegments.size() - 1);
+        if (tail.writePos + recordBytes > mSegmentBytes) {
+            tail.buffer.force();
+            tail = createSegment(tail.id + 1);
+        }
+
+        int pos = tail.writePos;
+        MappedByteBuffer buffer = tail.buffer;
+        ((Buffer) buffer).position(pos + LENGTH_BYTES + 4);
+        buffer.putShort((short) topicBytes.length);
+        buffer.put(topicBytes);
+        buffer.put((byte) message.getQos());
+        buffer.put((byte) (message.isRetained() ? 1 : 0));
+        buffer.put(payload);
+        int bodyLength = recordBytes - LENGTH_BYTES;
+        mCrc.reset();
+        mCrc.update(topicBytes.length >>> 8);
+        mCrc.update(topicBytes.length);
+        mCrc.update(topicBytes);
+        mCrc.update(message.getQos());
+        mCrc.update(message.isRetained() ? 1 : 0);
+        mCrc.update(payload);
+        buffer.putInt(pos + LENGTH_BYTES, (int) mCrc.getValue());
+        // 长度最后写入，作为记录完整的标记
+        buffer.putInt(pos, bodyLength);
+
+        tail.writePos += recordBytes;
+        tail.records++;
+        mBytes += recordBytes;
+        return true;
+    }
+
+    /**
+     * 从读游标处按顺序读取消息，不移动游标
+     *
+     * @param max 最多读取的消息数
+     * @return 消息批次，可能为空
+     */
+    public synchronized ReplayBatch peek(int max) {
+        ReplayBatch batch = new ReplayBatch(Math.min(max, 64));
+        int pos = mReadPos;
+        long endSegment = mSegments.get(0).id;
+        int endPos = mReadPos;
+        for (int i = 0; i < mSegments.size() && batch.size() < max; i++) {
+            Segment segment = mSegments.get(i);
+            ByteBuffer buffer = segment.buffer.duplicate();
+            while (pos < segment.writePos && batch.size() < max) {
+                int bodyLength = buffer.getInt(pos);
+                ((Buffer) buffer).position(pos + LENGTH_BYTES + 4);
+                byte[] topicBytes = new byte[buffer.getShort()];
+                buffer.get(topicBytes);
+                int qos = buffer.get();
+                boolean retained = buffer.get() == 1;
+                byte[] payload = new byte[bodyLength - FIXED_BODY_BYTES - topicBytes.length];
+                buffer.get(payload);
+
+                MqttMessage message = new MqttMessage(payload);
+                message.setQos(qos);
+                message.setRetained(retained);
+                batch.add(new String(topicBytes, UTF_8), message);
+                pos += LENGTH_BYTES + bodyLength;
+                endSegment = segment.id;
+                endPos = pos;
+            }
+            pos = 0;
+        }
+        batch.mEnd = new Position(endSegment, endPos);
+        return batch;
+    }
+
+    /**
+     * 确认已发送的消息，读游标前移到 position，并持久化游标位置
+     *
+     * peek 之后、commit 之前按 DROP_OLDEST 策略丢弃了分段时，只确认仍然保存的部分；
+     * position 所在的分段已被丢弃时不做任何处理。
+     *
+     * @param position {@link ReplayBatch#getEndPosition()} 返回的读取位置
+     * @throws IOException 写入游标失败
+     */
+    public synchronized void commit(Position position) throws IOException {
+        if (position == null || mSegments.isEmpty() || position.segmentId < mSegments.get(0).id) {
+            return;
+        }
+        while (mSegments.size() > 1 && mSegments.get(0).id < position.segmentId) {
+            mBytes -= mSegments.get(0).writePos - mReadPos;
+            deleteHead();
+        }
+        Segment head = mSegments.get(0);
+        if (head.id == position.segmentId) {
+            int end = Math.min(position.offset, head.writePos);
+            while (mReadPos < end) {
+                int recordBytes = LENGTH_BYTES + head.buffer.getInt(mReadPos);
+                mReadPos += recordBytes;
+                mReadRecords++;
+                mBytes -= recordBytes;
+            }
+        }
+        if (mSegments.size() > 1 && mReadPos >= mSegments.get(0).writePos) {
+            deleteHead();
+        }
+        writeCheckpoint();
+    }
+
+    /**
+     * 获取未确认的消息数
+     *
+     * @return 消息数
+     */
+    public synchronized int size() {
+        int count = -mReadRecords;
+        for (Segment segment : mSegments) {
+            count += segment.records;
+        }
+        return count;
+    }
+
+    /**
+     * 是否没有未确认的消息
+     *
+     * @return 没有消息时返回 true
+     */
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 获取未确认消息占用的字节数
+     *
+     * @return 字节数
+     */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * 获取因超过容量上限而丢弃的消息数（DROP_OLDEST 策略下按分段丢弃的消息也计入）
+     *
+     * @return 丢弃的消息数
+     */
+    public synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * 将已写入的数据刷到磁盘；进程崩溃时已写入映射内存的数据由操作系统保存，掉电保护需要调用本方法
+     */
+    public synchronized void sync() {
+        for (Segment segment : mSegments) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * 刷盘并关闭存储
+     */
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        sync();
+        mClosed = true;
+    }
+
+    private void recover() throws IOException {
+        File[] files = mDir.listFiles();
+        List<Long> ids = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        ids.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        Loggor.warn(TAG, "ignore unknown file " + name);
+                    }
+                }
+            }
+        }
+        Long[] sorted = ids.toArray(new Long[ids.size()]);
+        Arrays.sort(sorted);
+        for (Long id : sorted) {
+            Segment segment = openSegment(id);
+            scan(segment);
+            mSegments.add(segment);
+            mBytes += segment.writePos;
+        }
+        if (mSegments.isEmpty()) {
+            createSegment(0);
+            return;
+        }
+
+        // 清除最后一个分段中不完整记录残留的数据，避免之后被误认为有效记录
+        Segment tail = mSegments.get(mSegments.size() - 1);
+        for (int i = tail.writePos; i < mSegmentBytes; i++) {
+            if (tail.buffer.get(i) != 0) {
+                for (int j = tail.writePos; j < mSegmentBytes; j++) {
+                    tail.buffer.put(j, (byte) 0);
+                }
+                break;
+            }
+        }
+
+        readCheckpoint();
+    }
+
+    private void scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int pos = 0;
+        while (pos + LENGTH_BYTES + FIXED_BODY_BYTES <= mSegmentBytes) {
+            int bodyLength = buffer.getInt(pos);
+            if (bodyLength < FIXED_BODY_BYTES || pos + LENGTH_BYTES + bodyLength > mSegmentBytes) {
+                break;
+            }
+            int crc = buffer.getInt(pos + LENGTH_BYTES);
+            if (crc != checksum(buffer, pos + LENGTH_BYTES + 4, bodyLength - 4)) {
+                Loggor.warn(TAG, "truncate broken record at " + segment.file.getName() + ":" + pos);
+                break;
+            }
+            segment.records++;
+            pos += LENGTH_BYTES + bodyLength;
+        }
+        segment.writePos = pos;
+    }
+
+    private void readCheckpoint() throws IOException {
+        File file = new File(mDir, CHECKPOINT_FILE);
+        if (!file.exists() || file.length() < 16) {
+            return;
+        }
+        long segmentId;
+        int pos;
+        int crc;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            segmentId = raf.readLong();
+            pos = raf.readInt();
+            crc = raf.readInt();
+        } finally {
+            raf.close();
+        }
+        ByteBuffer data = ByteBuffer.allocate(12);
+        data.putLong(segmentId).putInt(pos);
+        if (crc != checksum(data, 0, 12)) {
+            Loggor.warn(TAG, "checkpoint broken, replay from the oldest message");
+            return;
+        }
+
+        // 已确认完的分段在删除前进程退出
+        while (mSegments.size() > 1 && mSegments.get(0).id < segmentId) {
+            mBytes -= mSegments.get(0).writePos;
+            deleteHead();
+        }
+        Segment head = mSegments.get(0);
+        if (head.id != segmentId) {
+            return;
+        }
+        int readPos = 0;
+        while (readPos < pos && readPos < head.writePos) {
+            int recordBytes = LENGTH_BYTES + head.buffer.getInt(readPos);
+            readPos += recordBytes;
+            mReadRecords++;
+            mBytes -= recordBytes;
+        }
+        mReadPos = readPos;
+    }
+
+    private void writeCheckpoint() throws IOException {
+        long segmentId = mSegments.get(0).id;
+        ByteBuffer data = ByteBuffer.allocate(16);
+        data.putLong(segmentId).putInt(mReadPos);
+        data.putInt(checksum(data, 0, 12));
+        RandomAccessFile raf = new RandomAccessFile(new File(mDir, CHECKPOINT_FILE), "rw");
+        try {
+            raf.write(data.array());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Segment segment = new Segment(id, new File(mDir, String.format("%020d%s", id, SEGMENT_SUFFIX)));
+        RandomAccessFile raf = new RandomAccessFile(segment.file, "rw");
+        try {
+            if (raf.length() != mSegmentBytes) {
+                raf.setLength(mSegmentBytes);
+            }
+            segment.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentBytes);
+        } finally {
+            raf.close();
+        }
+        return segment;
+    }
+
+    private Segment createSegment(long id) throws IOException {
+        Segment segment = openSegment(id);
+        mSegments.add(segment);
+        return segment;
+    }
+
+    private void dropHead() throws IOException {
+        Segment head = mSegments.get(0);
+        int dropped = head.records - mReadRecords;
+        mDropped += dropped;
+        Loggor.warn(TAG, "offline store full, drop " + dropped + " oldest messages");
+        mBytes -= head.writePos - mReadPos;
+        deleteHead();
+        writeCheckpoint();
+    }
+
+    private void deleteHead() {
+        Segment head = mSegments.remove(0);
+        head.buffer = null;
+        if (!head.file.delete()) {
+            Loggor.warn(TAG, "can not delete " + head.file);
+        }
+        mReadPos = 0;
+        mReadRecords = 0;
+    }
+
+    private int checksum(ByteBuffer buffer, int offset, int length) {
+        mCrc.reset();
+        ByteBuffer slice = buffer.duplicate();
+        // 通过 Buffer 调用，避免在新版 JDK 上编译时引用 Java 8 及 Android 上不存在的协变方法
+        ((Buffer) slice).position(offset);
+        ((Buffer) slice).limit(offset + length);
+        while (slice.hasRemaining()) {
+            int n = Math.min(mScratch.length, slice.remaining());
+            slice.get(mScratch, 0, n);
+            mCrc.update(mScratch, 0, n);
+        }
+        return (int) mCrc.getValue();
+    }
+}
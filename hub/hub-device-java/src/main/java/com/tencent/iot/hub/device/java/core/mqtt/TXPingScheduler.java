@@ -0,0 +1,178 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 心跳定时器，基于时间轮实现，进程内所有连接共用一个定时线程
+ *
+ * 定时精度为一个刻度（{@link #TICK_MILLIS} 毫秒），添加、取消定时任务的开销与任务数量无关；
+ * 任务在定时线程中执行，会阻塞的操作须由任务转交给其它线程执行。
+ */
+public class TXPingScheduler {
+    private static final String TAG = TXPingScheduler.class.getSimpleName();
+    private static final Logger logger = LoggerFactory.getLogger(TXPingScheduler.class);
+    static { Loggor.setLogger(logger); }
+
+    /**
+     * 时间轮刻度，单位：毫秒
+     */
+    public static final long TICK_MILLIS = 100;
+
+    private static final int WHEEL_SIZE = 512;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+
+    private static final TXPingScheduler sDefault = new TXPingScheduler("TXMqtt-ping-wheel");
+
+    /**
+     * 获取进程内共享的心跳定时器
+     *
+     * @return {@link TXPingScheduler}
+     */
+    public static TXPingScheduler getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * 定时任务句柄
+     */
+    public static final class Timeout {
+        private final Runnable mTask;
+        private final long mDeadline;
+        private long mRounds;
+        private volatile boolean mCancelled = false;
+
+        private Timeout(Runnable task, long deadline) {
+            this.mTask = task;
+            this.mDeadline = deadline;
+        }
+
+        /**
+         * 取消定时任务，任务已执行时无效
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        /**
+         * 是否已取消
+         *
+         * @return 已取消时返回 true
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    private final String mThreadName;
+    private final ConcurrentLinkedQueue<Timeout> mPending = new ConcurrentLinkedQueue<>();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final LinkedList<Timeout>[] mWheel = new LinkedList[WHEEL_SIZE];
+    private final long mStartTime = System.nanoTime();
+    private volatile Thread mWorker;
+    private long mTick = 0;
+
+    /**
+     * 构造函数，一般使用 {@link #getDefault()}
+     *
+     * @param threadName 定时线程名
+     */
+    public TXPingScheduler(String threadName) {
+        this.mThreadName = threadName;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            mWheel[i] = new LinkedList<>();
+        }
+    }
+
+    /**
+     * 添加定时任务
+     *
+     * @param task 任务，在定时线程中执行
+     * @param delay 延时，单位：毫秒
+     * @return 任务句柄，可用于取消
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        if (task == null) {
+            throw new IllegalArgumentException("task is null");
+        }
+        startIfNeeded();
+        Timeout timeout = new Timeout(task, System.nanoTime() - mStartTime + TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0)));
+        mPending.offer(timeout);
+        return timeout;
+    }
+
+    private void startIfNeeded() {
+        if (mWorker != null) {
+            return;
+        }
+        synchronized (this) {
+            if (mWorker == null) {
+                Thread worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        runWheel();
+                    }
+                }, mThreadName);
+                worker.setDaemon(true);
+                worker.start();
+                mWorker = worker;
+            }
+        }
+    }
+
+    private void runWheel() {
+        while (true) {
+            long deadline = (mTick + 1) * TICK_NANOS;
+            long sleepNanos = deadline - (System.nanoTime() - mStartTime);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    Loggor.warn(TAG, "ping wheel interrupted, ignore");
+                    continue;
+                }
+            }
+            transferPending();
+            expire(mWheel[(int) (mTick & (WHEEL_SIZE - 1))]);
+            mTick++;
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = mPending.poll()) != null) {
+            if (timeout.mCancelled) {
+                continue;
+            }
+            long targetTick = Math.max(timeout.mDeadline / TICK_NANOS, mTick);
+            timeout.mRounds = (targetTick - mTick) / WHEEL_SIZE;
+            mWheel[(int) (targetTick & (WHEEL_SIZE - 1))].add(timeout);
+        }
+    }
+
+    private void expire(LinkedList<Timeout> bucket) {
+        Iterator<Timeout> it = bucket.iterator();
+        while (it.hasNext()) {
+            Timeout timeout = it.next();
+            if (timeout.mCancelled) {
+                it.remove();
+            } else if (timeout.mRounds > 0) {
+                timeout.mRounds--;
+            } else {
+                it.remove();
+                try {
+                    timeout.mTask.run();
+                } catch (Throwable t) {
+                    Loggor.error(TAG, "ping task failed: " + t);
+                }
+            }
+        }
+    }
+}
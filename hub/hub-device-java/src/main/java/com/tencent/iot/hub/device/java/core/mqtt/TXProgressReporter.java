@@ -0,0 +1,260 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 下载进度上报：同一任务未发送的进度只保留最新一条，一个连接上所有任务的进度消息合计不超过设定的速率
+ *
+ * 多个任务同时下载时按各任务最早一条未发送进度的先后轮流发送，任务越多每个任务上报越稀疏，
+ * 消息总数不随任务数增加。未到发送时间的进度由进程内共享的上报线程延后发送。
+ */
+public class TXProgressReporter {
+    private static final String TAG = TXProgressReporter.class.getSimpleName();
+    private static final Logger logger = LoggerFactory.getLogger(TXProgressReporter.class);
+    static { Loggor.setLogger(logger); }
+
+    /**
+     * 默认每秒最多上报的进度消息数
+     */
+    public static final int DEFAULT_MAX_PER_SECOND = 10;
+
+    /**
+     * 发送一条进度消息
+     */
+    public interface Sender {
+        /**
+         * 发送进度，在调用 {@link #report} 的线程或上报线程中执行
+         *
+         * @param percent 进度
+         * @param version 版本号
+         */
+        void send(int percent, String version);
+    }
+
+    /**
+     * 时间来源及延后执行，测试中可替换
+     */
+    interface Clock {
+        long nanoTime();
+
+        void schedule(Runnable task, long delayNanos);
+    }
+
+    private static final class Pending {
+        final Sender sender;
+        int percent;
+        String version;
+        /** 由 {@link #cancel} 设置，在该对象锁内检查，设置之后不会再发送 */
+        boolean cancelled;
+
+        Pending(Sender sender, int percent, String version) {
+            this.sender = sender;
+            this.percent = percent;
+            this.version = version;
+        }
+    }
+
+    private static final ScheduledThreadPoolExecutor sExecutor = createExecutor();
+
+    private static ScheduledThreadPoolExecutor createExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TXMqtt-progress-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayNanos) {
+            sExecutor.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    };
+
+    private final Clock mClock;
+
+    /** 按加入顺序排列，同一任务的新进度覆盖旧进度但不改变位置 */
+    private final LinkedHashMap<String, Pending> mPending = new LinkedHashMap<>();
+    /** 已移出队列、正在发送中的进度 */
+    private final HashMap<String, Pending> mSending = new HashMap<>();
+    private volatile long mIntervalNanos;
+    private long mLastSendNanos = 0;
+    private boolean mFlushScheduled = false;
+    private long mSentCount = 0;
+    private long mCoalescedCount = 0;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * 构造函数
+     *
+     * @param maxPerSecond 每秒最多上报的进度消息数
+     */
+    public TXProgressReporter(int maxPerSecond) {
+        this(maxPerSecond, SYSTEM_CLOCK);
+    }
+
+    TXProgressReporter(int maxPerSecond, Clock clock) {
+        this.mClock = clock;
+        setMaxPerSecond(maxPerSecond);
+    }
+
+    /**
+     * 设置每秒最多上报的进度消息数
+     *
+     * @param maxPerSecond 每秒消息数，必须大于 0
+     */
+    public void setMaxPerSecond(int maxPerSecond) {
+        if (maxPerSecond <= 0) {
+            throw new IllegalArgumentException("invalid progress report rate " + maxPerSecond);
+        }
+        this.mIntervalNanos = TimeUnit.SECONDS.toNanos(1) / maxPerSecond;
+    }
+
+    /**
+     * 上报进度，允许发送时立即在当前线程发送，否则合并到该任务未发送的进度中延后发送
+     *
+     * @param key 任务标识，例如上报 topic 与版本号
+     * @param percent 进度
+     * @param version 版本号
+     * @param sender 发送进度消息
+     */
+    public void report(String key, int percent, String version, Sender sender) {
+        Pending sending;
+        synchronized (this) {
+            Pending pending = mPending.get(key);
+            if (pending != null) {
+                pending.percent = percent;
+                pending.version = version;
+                mCoalescedCount++;
+                return;
+            }
+            long now = mClock.nanoTime();
+            if (!mFlushScheduled && mPending.isEmpty() && !mSending.containsKey(key)
+                    && (mSentCount == 0 || now - mLastSendNanos >= mIntervalNanos)) {
+                mLastSendNanos = now;
+                mSentCount++;
+                sending = new Pending(sender, percent, version);
+                mSending.put(key, sending);
+            } else {
+                mPending.put(key, new Pending(sender, percent, version));
+                scheduleFlush(now);
+                return;
+            }
+        }
+        send(key, sending);
+    }
+
+    /**
+     * 丢弃任务未发送的进度，任务结束、上报最终状态之前调用，避免过期的进度在最终状态之后发送。
+     * 若该任务的进度正在其他线程发送，等待其发送完成后返回
+     *
+     * @param key 任务标识
+     */
+    public void cancel(String key) {
+        Pending sending;
+        synchronized (this) {
+            mPending.remove(key);
+            sending = mSending.get(key);
+        }
+        if (sending != null) {
+            synchronized (sending) {
+                sending.cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * 已发送的进度消息数
+     *
+     * @return 消息数
+     */
+    public synchronized long getSentCount() {
+        return mSentCount;
+    }
+
+    /**
+     * 被合并而未单独发送的进度数
+     *
+     * @return 进度数
+     */
+    public synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    private void scheduleFlush(long now) {
+        if (mFlushScheduled) {
+            return;
+        }
+        mFlushScheduled = true;
+        long delay = Math.max(mLastSendNanos + mIntervalNanos - now, 0);
+        mClock.schedule(mFlushTask, delay);
+    }
+
+    private void flush() {
+        String key;
+        Pending pending;
+        synchronized (this) {
+            mFlushScheduled = false;
+            Iterator<Map.Entry<String, Pending>> it = mPending.entrySet().iterator();
+            if (!it.hasNext()) {
+                return;
+            }
+            Map.Entry<String, Pending> entry = it.next();
+            key = entry.getKey();
+            pending = entry.getValue();
+            it.remove();
+            mSending.put(key, pending);
+            long now = mClock.nanoTime();
+            mLastSendNanos = now;
+            mSentCount++;
+            if (!mPending.isEmpty()) {
+                scheduleFlush(now);
+            }
+        }
+        send(key, pending);
+    }
+
+    private void send(String key, Pending pending) {
+        synchronized (pending) {
+            if (!pending.cancelled) {
+                try {
+                    pending.sender.send(pending.percent, pending.version);
+                } catch (Exception e) {
+                    Loggor.error(TAG, "report progress failed: " + e);
+                }
+            }
+        }
+        synchronized (this) {
+            if (mSending.get(key) == pending) {
+                mSending.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量发布的消息集合，消息按加入顺序发送，结果也按加入顺序返回
+ */
+public class TXPublishBatch {
+    private final List<String> mTopics;
+    private final List<MqttMessage> mMessages;
+
+    /**
+     * 构造函数
+     */
+    public TXPublishBatch() {
+        this(16);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param capacity 预估消息条数
+     */
+    public TXPublishBatch(int capacity) {
+        mTopics = new ArrayList<>(capacity);
+        mMessages = new ArrayList<>(capacity);
+    }
+
+    /**
+     * 加入一条消息
+     *
+     * @param topic topic 名称
+     * @param message 消息内容
+     * @return 当前批次，便于链式调用
+     */
+    public TXPublishBatch add(String topic, MqttMessage message) {
+        if (topic == null || message == null) {
+            throw new IllegalArgumentException("topic or message is null");
+        }
+        mTopics.add(topic);
+        mMessages.add(message);
+        return this;
+    }
+
+    /**
+     * 获取消息条数
+     *
+     * @return 消息条数
+     */
+    public int size() {
+        return mTopics.size();
+    }
+
+    /**
+     * 获取第 index 条消息的主题
+     *
+     * @param index 消息序号
+     * @return 主题
+     */
+    public String getTopic(int index) {
+        return mTopics.get(index);
+    }
+
+    /**
+     * 获取第 index 条消息
+     *
+     * @param index 消息序号
+     * @return 消息内容
+     */
+    public MqttMessage getMessage(int index) {
+        return mMessages.get(index);
+    }
+}
@@ -0,0 +1,17 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.core.common.Status;
+
+/**
+ * 批量发布结果回调接口
+ */
+public interface TXPublishBatchCallBack {
+    /**
+     * 批次内所有消息都已完成（QOS0 为写出，QOS1 为收到 PUBACK，或发送失败）
+     *
+     * @param status 全部成功时为 Status.OK，否则为 Status.ERROR
+     * @param results 每条消息的发布结果，顺序与 {@link TXPublishBatch} 中的加入顺序一致
+     * @param userContext 用户上下文
+     */
+    void onBatchCompleted(Status status, Status[] results, Object userContext);
+}
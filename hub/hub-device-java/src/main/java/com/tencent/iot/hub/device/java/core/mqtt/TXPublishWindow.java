@@ -0,0 +1,227 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.core.common.Status;
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量发布的在途窗口
+ *
+ * 同时在途（已发送未完成）的消息数不超过 maxInflight，有消息完成时立即补发下一条；
+ * 已提交未发送的消息数超过 maxPending 时拒绝新的批次，由调用方稍后重试，以此实现背压。
+ */
+public class TXPublishWindow {
+    private static final String TAG = TXPublishWindow.class.getSimpleName();
+    private static final Logger logger = LoggerFactory.getLogger(TXPublishWindow.class);
+    static { Loggor.setLogger(logger); }
+
+    /**
+     * 默认最大在途消息数，与 Paho 默认的 maxInflight 一致
+     */
+    public static final int DEFAULT_MAX_INFLIGHT = 10;
+
+    /**
+     * 默认最大待发送消息数
+     */
+    public static final int DEFAULT_MAX_PENDING = 1000;
+
+    /**
+     * 消息发送通道
+     */
+    public interface Sender {
+        /**
+         * 发送一条消息，完成时须调用 {@link Ticket#complete(boolean)}
+         *
+         * @param topic 主题
+         * @param message 消息内容
+         * @param ticket 该消息的完成凭据
+         * @throws Exception 发送失败
+         */
+        void send(String topic, MqttMessage message, Ticket ticket) throws Exception;
+    }
+
+    private final int mMaxInflight;
+    private final int mMaxPending;
+    private final Semaphore mPermits;
+    private final AtomicInteger mPending = new AtomicInteger(0);
+    private final ConcurrentLinkedQueue<Batch> mQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 构造函数
+     *
+     * @param maxInflight 最大在途消息数
+     * @param maxPending 最大待发送消息数
+     */
+    public TXPublishWindow(int maxInflight, int maxPending) {
+        if (maxInflight < 1 || maxPending < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.mMaxInflight = maxInflight;
+        this.mMaxPending = maxPending;
+        this.mPermits = new Semaphore(maxInflight);
+    }
+
+    /**
+     * 获取最大在途消息数
+     *
+     * @return 最大在途消息数
+     */
+    public int getMaxInflight() {
+        return mMaxInflight;
+    }
+
+    /**
+     * 获取当前在途消息数
+     *
+     * @return 在途消息数
+     */
+    public int getInflightCount() {
+        return mMaxInflight - mPermits.availablePermits();
+    }
+
+    /**
+     * 获取已提交未发送的消息数
+     *
+     * @return 待发送消息数
+     */
+    public int getPendingCount() {
+        return mPending.get();
+    }
+
+    /**
+     * 提交一个批次
+     *
+     * @param batch 消息批次
+     * @param sender 发送通道
+     * @param callBack 批次完成回调
+     * @param userContext 用户上下文（这个参数在回调函数时透传给用户）
+     * @return 受理时返回 Status.OK；待发送消息过多时返回 Status.ERR_MAX_APPENDING_REQUEST
+     */
+    public Status submit(TXPublishBatch batch, Sender sender, TXPublishBatchCallBack callBack, Object userContext) {
+        if (batch == null || batch.size() == 0 || sender == null) {
+            return Status.PARAMETER_INVALID;
+        }
+        if (mPending.addAndGet(batch.size()) > mMaxPending) {
+            mPending.addAndGet(-batch.size());
+            Loggor.warn(TAG, "publish window is full, pending " + mPending.get());
+            return Status.ERR_MAX_APPENDING_REQUEST;
+        }
+        mQueue.offer(new Batch(batch, sender, callBack, userContext));
+        drain();
+        return Status.OK;
+    }
+
+    /**
+     * 在窗口允许的范围内发送排队中的消息；每次释放窗口后都会调用，因此不会遗漏唤醒
+     */
+    private void drain() {
+        Batch batch;
+        while ((batch = mQueue.peek()) != null) {
+            if (!mPermits.tryAcquire()) {
+                return;
+            }
+            int index = batch.next();
+            if (index < 0) {
+                mQueue.remove(batch);
+                mPermits.release();
+                continue;
+            }
+            mPending.decrementAndGet();
+            Ticket ticket = new Ticket(batch, index);
+            try {
+                batch.mSender.send(batch.mBatch.getTopic(index), batch.mBatch.getMessage(index), ticket);
+            } catch (Exception e) {
+                Loggor.error(TAG, "publish topic: " + batch.mBatch.getTopic(index) + " failed. " + e);
+                // 已在 drain 循环中，无需递归调用
+                ticket.finish(false);
+            }
+        }
+    }
+
+    /**
+     * 单条消息的完成凭据
+     */
+    public final class Ticket {
+        private final Batch mOwner;
+        private final int mIndex;
+        private boolean mDone = false;
+
+        private Ticket(Batch owner, int index) {
+            this.mOwner = owner;
+            this.mIndex = index;
+        }
+
+        /**
+         * 标记该消息完成，重复调用无效
+         *
+         * @param success 是否发布成功
+         */
+        public void complete(boolean success) {
+            if (finish(success)) {
+                drain();
+            }
+        }
+
+        private boolean finish(boolean success) {
+            synchronized (this) {
+                if (mDone) {
+                    return false;
+                }
+                mDone = true;
+            }
+            mPermits.release();
+            mOwner.onResult(mIndex, success ? Status.OK : Status.ERROR);
+            return true;
+        }
+    }
+
+    private static class Batch {
+        final TXPublishBatch mBatch;
+        final Sender mSender;
+        final TXPublishBatchCallBack mCallBack;
+        final Object mUserContext;
+        final Status[] mResults;
+        int mNext = 0;
+        int mRemaining;
+
+        Batch(TXPublishBatch batch, Sender sender, TXPublishBatchCallBack callBack, Object userContext) {
+            this.mBatch = batch;
+            this.mSender = sender;
+            this.mCallBack = callBack;
+            this.mUserContext = userContext;
+            this.mResults = new Status[batch.size()];
+            this.mRemaining = batch.size();
+        }
+
+        synchronized int next() {
+            return mNext < mBatch.size() ? mNext++ : -1;
+        }
+
+        void onResult(int index, Status status) {
+            boolean done;
+            boolean allOk = true;
+            synchronized (this) {
+                mResults[index] = status;
+                done = --mRemaining == 0;
+                if (done) {
+                    for (Status result : mResults) {
+                        if (result != Status.OK) {
+                            allOk = false;
+                            break;
+                        }
+                    }
+                }
+            }
+            if (done && mCallBack != null) {
+                mCallBack.onBatchCompleted(allOk ? Status.OK : Status.ERROR, mResults, mUserContext);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+/**
+ * 重连控制器：退避策略 + 进程级连接限速 + 熔断
+ *
+ * 连续失败达到阈值后熔断，在熔断期内不再发起重连；熔断期结束后放行一次试探连接，
+ * 成功则恢复，失败则再次熔断。退避等待结束后还须通过 {@link #acquirePermit()} 获得限速许可、
+ * 通过 {@link #tryAcquireConnect(Runnable)} 获得并发许可才能发起连接。
+ * 控制器只计算等待时间，由 {@link TXMqttConnection} 负责定时发起连接。
+ */
+public class TXReconnectController {
+
+    /**
+     * 默认熔断阈值（连续失败次数）
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 10;
+
+    /**
+     * 默认熔断时长，单位：毫秒
+     */
+    public static final long DEFAULT_OPEN_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        /**
+         * 正常，按退避策略重连
+         */
+        CLOSED,
+        /**
+         * 熔断中，暂停重连
+         */
+        OPEN,
+        /**
+         * 熔断期结束，正在进行试探连接
+         */
+        HALF_OPEN
+    }
+
+    private final TXBackoffPolicy mBackoff;
+    private final TXConnectRateLimiter mRateLimiter;
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+
+    private State mState = State.CLOSED;
+    private int mFailures = 0;
+
+    /**
+     * 构造函数，使用默认退避策略、进程级限速器及默认熔断参数
+     */
+    public TXReconnectController() {
+        this(new TXExponentialBackoff(), TXConnectRateLimiter.getDefault(),
+                DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param backoff 退避策略，每个连接须使用独立的实例
+     * @param rateLimiter 连接限速器，null 表示不限速
+     * @param failureThreshold 熔断阈值（连续失败次数），小于等于 0 表示不熔断
+     * @param openMillis 熔断时长，单位：毫秒
+     */
+    public TXReconnectController(TXBackoffPolicy backoff, TXConnectRateLimiter rateLimiter,
+                                 int failureThreshold, long openMillis) {
+        if (backoff == null) {
+            throw new IllegalArgumentException("backoff is null");
+        }
+        this.mBackoff = backoff;
+        this.mRateLimiter = rateLimiter;
+        this.mFailureThreshold = failureThreshold;
+        this.mOpenMillis = openMillis;
+    }
+
+    /**
+     * 连接断开或请求重连，计算首次重连前的等待时间
+     *
+     * @param immediate 是否跳过退避立即重连（仍受限速约束）
+     * @return 等待时间，单位：毫秒
+     */
+    public synchronized long onDisconnected(boolean immediate) {
+        if (mState == State.OPEN) {
+            return mOpenMillis;
+        }
+        return immediate ? 0 : mBackoff.nextDelay();
+    }
+
+    /**
+     * 一次重连失败，计算下一次重连前的等待时间；达到熔断阈值时进入熔断
+     *
+     * @return 等待时间，单位：毫秒
+     */
+    public synchronized long onConnectFailed() {
+        mFailures++;
+        if (mState == State.HALF_OPEN
+                || (mFailureThreshold > 0 && mFailures >= mFailureThreshold && mState == State.CLOSED)) {
+            mState = State.OPEN;
+            return mOpenMillis;
+        }
+        return mBackoff.nextDelay();
+    }
+
+    /**
+     * 即将发起一次重连，熔断期结束时转为试探状态
+     */
+    public synchronized void onConnectStarted() {
+        if (mState == State.OPEN) {
+            mState = State.HALF_OPEN;
+        }
+    }
+
+    /**
+     * 连接成功，重置退避与熔断状态
+     */
+    public synchronized void onConnected() {
+        mFailures = 0;
+        mState = State.CLOSED;
+        mBackoff.reset();
+    }
+
+    /**
+     * 获取熔断器状态
+     *
+     * @return {@link State}
+     */
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * 获取连续失败次数
+     *
+     * @return 连续失败次数
+     */
+    public synchronized int getFailureCount() {
+        return mFailures;
+    }
+
+    /**
+     * 退避等待结束后向限速器申请连接许可，返回值大于 0 时须再等待相应时间后直接发起连接
+     *
+     * @return 还需等待的时间，单位：毫秒
+     */
+    public long acquirePermit() {
+        return mRateLimiter == null ? 0 : mRateLimiter.reserve(0);
+    }
+
+    /**
+     * 申请并发许可，见 {@link TXConnectRateLimiter#tryAcquireConnect(Runnable)}
+     *
+     * @param onAvailable 暂无许可时排队，取得许可后调用
+     * @return 立即取得许可时返回 true
+     */
+    public boolean tryAcquireConnect(Runnable onAvailable) {
+        return mRateLimiter == null || mRateLimiter.tryAcquireConnect(onAvailable);
+    }
+
+    /**
+     * 连接结束后归还并发许可
+     */
+    public void releaseConnect() {
+        if (mRateLimiter != null) {
+            mRateLimiter.releaseConnect();
+        }
+    }
+}
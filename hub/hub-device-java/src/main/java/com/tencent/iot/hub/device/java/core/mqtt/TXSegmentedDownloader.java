@@ -0,0 +1,365 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分段并行下载：将文件按固定大小切分为多个分段，多个线程分别以 Range 请求下载并写入文件中对应的偏移位置
+ *
+ * 每个分段完成后记录到分段位图文件（输出文件名 + {@link #STATE_FILE_SUFFIX}），
+ * 中断后再次下载同一文件时只下载未完成的分段；全部完成后删除位图文件。
+ */
+public class TXSegmentedDownloader {
+    private static final String TAG = TXSegmentedDownloader.class.getSimpleName();
+    private static final Logger logger = LoggerFactory.getLogger(TXSegmentedDownloader.class);
+    static { Loggor.setLogger(logger); }
+
+    /**
+     * 默认分段大小，单位：字节
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    /**
+     * 分段位图文件后缀
+     */
+    public static final String STATE_FILE_SUFFIX = ".seg";
+
+    private static final int STATE_MAGIC = 0x54585347;
+    private static final int STATE_HEADER_SIZE = 4 + 8 + 8 + 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 创建 HTTP 连接，由调用方设置证书校验等
+     */
+    public interface ConnectionFactory {
+        /**
+         * 创建连接（尚未 connect）
+         *
+         * @param url 下载地址
+         * @return {@link HttpURLConnection}
+         * @throws Exception 创建失败
+         */
+        HttpURLConnection open(String url) throws Exception;
+    }
+
+    /**
+     * 下载进度回调，会在多个下载线程中调用
+     */
+    public interface ProgressListener {
+        /**
+         * 下载进度
+         *
+         * @param downloadBytes 已下载字节数（包括之前已完成的分段）
+         * @param totalBytes 文件总字节数
+         */
+        void onProgress(long downloadBytes, long totalBytes);
+    }
+
+    private final ConnectionFactory mFactory;
+    private final int mParallelism;
+    private final long mSegmentSize;
+    private int mConnectTimeout = 10000;
+    private int mReadTimeout = 10000;
+
+    /**
+     * 构造函数
+     *
+     * @param factory HTTP 连接工厂
+     * @param parallelism 并行下载的分段数
+     * @param segmentSize 分段大小，单位：字节
+     */
+    public TXSegmentedDownloader(ConnectionFactory factory, int parallelism, long segmentSize) {
+        if (factory == null || parallelism <= 0 || segmentSize <= 0) {
+            throw new IllegalArgumentException("invalid segmented download parameters");
+        }
+        this.mFactory = factory;
+        this.mParallelism = parallelism;
+        this.mSegmentSize = segmentSize;
+    }
+
+    /**
+     * 设置超时时间
+     *
+     * @param connectTimeout 连接超时，单位：毫秒
+     * @param readTimeout 读超时，单位：毫秒
+     */
+    public void setTimeout(int connectTimeout, int readTimeout) {
+        this.mConnectTimeout = connectTimeout;
+        this.mReadTimeout = readTimeout;
+    }
+
+    /**
+     * 下载文件，阻塞直到全部分段完成或失败
+     *
+     * @param url 下载地址
+     * @param outputFile 输出文件全路径
+     * @param listener 进度回调，可为 null
+     * @return 下载完成返回 true；服务器不支持 Range 请求时返回 false，调用方应改用单连接下载
+     * @throws Exception 下载失败，已完成的分段保留在位图中，再次调用时续传
+     */
+    public boolean download(String url, String outputFile, ProgressListener listener) throws Exception {
+        long totalLength = probeLength(url);
+        if (totalLength <= 0) {
+            Loggor.warn(TAG, "server does not support range request, fallback to single connection");
+            return false;
+        }
+
+        File stateFile = new File(outputFile + STATE_FILE_SUFFIX);
+        int segmentCount = (int) ((totalLength + mSegmentSize - 1) / mSegmentSize);
+        RandomAccessFile output = new RandomAccessFile(outputFile, "rw");
+        RandomAccessFile state = null;
+        ExecutorService executor = null;
+        try {
+            boolean resumed = stateFile.exists() && output.length() == totalLength;
+            state = new RandomAccessFile(stateFile, "rw");
+            byte[] bitmap = new byte[(segmentCount + 7) / 8];
+            if (!resumed || !loadState(state, totalLength, segmentCount, bitmap)) {
+                initState(state, totalLength, segmentCount, bitmap);
+                output.setLength(totalLength);
+            }
+
+            final FileChannel channel = output.getChannel();
+            final AtomicLong downloaded = new AtomicLong(0);
+            List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < segmentCount; i++) {
+                if ((bitmap[i >> 3] & (1 << (i & 7))) != 0) {
+                    downloaded.addAndGet(segmentLength(i, totalLength));
+                } else {
+                    missing.add(i);
+                }
+            }
+            Loggor.info(TAG, String.format("download %s: %d bytes, %d segments, %d missing",
+                    url, totalLength, segmentCount, missing.size()));
+            if (listener != null) {
+                listener.onProgress(downloaded.get(), totalLength);
+            }
+
+            executor = Executors.newFixedThreadPool(Math.min(mParallelism, Math.max(missing.size(), 1)),
+                    new ThreadFactory() {
+                        private final AtomicInteger mIndex = new AtomicInteger(0);
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "TXOTA-segment-" + mIndex.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            AtomicBoolean failed = new AtomicBoolean(false);
+            List<Future<?>> futures = new ArrayList<>(missing.size());
+            for (int index : missing) {
+                futures.add(executor.submit(new SegmentTask(url, index, totalLength, channel, state, bitmap,
+                        downloaded, failed, listener)));
+            }
+            Exception error = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            channel.force(false);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            if (state != null) {
+                state.close();
+            }
+            output.close();
+        }
+        stateFile.delete();
+        return true;
+    }
+
+    /**
+     * 删除输出文件对应的分段位图，下次下载从头开始
+     *
+     * @param outputFile 输出文件全路径
+     */
+    public static void discardState(String outputFile) {
+        new File(outputFile + STATE_FILE_SUFFIX).delete();
+    }
+
+    /**
+     * 请求第一个字节以确认服务器支持 Range，并从 Content-Range 中取得文件总长度
+     */
+    private long probeLength(String url) throws Exception {
+        HttpURLConnection conn = mFactory.open(url);
+        try {
+            conn.setConnectTimeout(mConnectTimeout);
+            conn.setReadTimeout(mReadTimeout);
+            conn.setRequestProperty("Range", "bytes=0-0");
+            conn.connect();
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                return -1;
+            }
+            String contentRange = conn.getHeaderField("Content-Range");
+            int slash = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+            if (slash < 0 || contentRange.endsWith("*")) {
+                return -1;
+            }
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private boolean loadState(RandomAccessFile state, long totalLength, int segmentCount, byte[] bitmap)
+            throws IOException {
+        if (state.length() != STATE_HEADER_SIZE + bitmap.length) {
+            return false;
+        }
+        state.seek(0);
+        if (state.readInt() != STATE_MAGIC || state.readLong() != totalLength
+                || state.readLong() != mSegmentSize || state.readInt() != segmentCount) {
+            return false;
+        }
+        state.readFully(bitmap);
+        return true;
+    }
+
+    private void initState(RandomAccessFile state, long totalLength, int segmentCount, byte[] bitmap)
+            throws IOException {
+        state.setLength(0);
+        state.writeInt(STATE_MAGIC);
+        state.writeLong(totalLength);
+        state.writeLong(mSegmentSize);
+        state.writeInt(segmentCount);
+        state.write(bitmap);
+        state.getFD().sync();
+    }
+
+    private long segmentLength(int index, long totalLength) {
+        return Math.min(mSegmentSize, totalLength - index * mSegmentSize);
+    }
+
+    /**
+     * 下载一个分段，完成后先刷盘数据再记录位图
+     */
+    private class SegmentTask implements Runnable {
+        private final String mUrl;
+        private final int mIndex;
+        private final long mTotalLength;
+        private final FileChannel mChannel;
+        private final RandomAccessFile mState;
+        private final byte[] mBitmap;
+        private final AtomicLong mDownloaded;
+        private final AtomicBoolean mFailed;
+        private final ProgressListener mListener;
+
+        SegmentTask(String url, int index, long totalLength, FileChannel channel, RandomAccessFile state,
+                    byte[] bitmap, AtomicLong downloaded, AtomicBoolean failed, ProgressListener listener) {
+            this.mUrl = url;
+            this.mIndex = index;
+            this.mTotalLength = totalLength;
+            this.mChannel = channel;
+            this.mState = state;
+            this.mBitmap = bitmap;
+            this.mDownloaded = downloaded;
+            this.mFailed = failed;
+            this.mListener = listener;
+        }
+
+        @Override
+        public void run() {
+            if (mFailed.get()) {
+                throw new IllegalStateException("download aborted");
+            }
+            try {
+                download();
+            } catch (Exception e) {
+                mFailed.set(true);
+                throw new IllegalStateException("segment " + mIndex + " failed: " + e, e);
+            }
+        }
+
+        private void download() throws Exception {
+            long start = mIndex * mSegmentSize;
+            long length = segmentLength(mIndex, mTotalLength);
+            HttpURLConnection conn = mFactory.open(mUrl);
+            InputStream stream = null;
+            long written = 0;
+            try {
+                conn.setConnectTimeout(mConnectTimeout);
+                conn.setReadTimeout(mReadTimeout);
+                conn.setRequestProperty("Range", "bytes=" + start + "-" + (start + length - 1));
+                conn.connect();
+                if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("unexpected response code " + conn.getResponseCode());
+                }
+                stream = conn.getInputStream();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                while (written < length) {
+                    if (mFailed.get()) {
+                        throw new IOException("download aborted");
+                    }
+                    int len = stream.read(buffer, 0, (int) Math.min(buffer.length, length - written));
+                    if (len < 0) {
+                        throw new IOException("unexpected end of segment at " + written + "/" + length);
+                    }
+                    // 通过 Buffer 调用，避免在新版 JDK 上编译时引用 Java 8 及 Android 上不存在的协变方法
+                    ((Buffer) wrapped).clear();
+                    ((Buffer) wrapped).limit(len);
+                    while (wrapped.hasRemaining()) {
+                        mChannel.write(wrapped, start + written + wrapped.position());
+                    }
+                    written += len;
+                    long downloaded = mDownloaded.addAndGet(len);
+                    if (mListener != null) {
+                        mListener.onProgress(downloaded, mTotalLength);
+                    }
+                }
+            } catch (Exception e) {
+                // 未完成的分段下次从头下载，这里只回退进度
+                mDownloaded.addAndGet(-written);
+                throw e;
+            } finally {
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                    }
+                }
+                conn.disconnect();
+            }
+            markCompleted();
+        }
+
+        private void markCompleted() throws IOException {
+            mChannel.force(false);
+            synchronized (mState) {
+                mBitmap[mIndex >> 3] |= (byte) (1 << (mIndex & 7));
+                mState.seek(STATE_HEADER_SIZE + (mIndex >> 3));
+                mState.write(mBitmap[mIndex >> 3]);
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * 主题消息处理接口，通过 {@link TXTopicRouter} 注册
+ */
+public interface TXTopicHandler {
+    /**
+     * 收到匹配主题的消息
+     *
+     * @param topic 消息主题
+     * @param message 消息内容
+     * @return true：消息已被消费，不再回调 {@link TXMqttActionCallBack#onMessageReceived}；false：继续回调
+     * @throws Exception 异常
+     */
+    boolean onMessageArrived(String topic, MqttMessage message) throws Exception;
+}
@@ -0,0 +1,167 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 主题路由类，按 MQTT 主题过滤器（支持通配符 + 和 #）把消息分发给已注册的 {@link TXTopicHandler}
+ *
+ * 过滤器按层级组织为前缀树，一次分发只需沿主题层级查找一遍，与注册的处理器数量无关；
+ * 与 MQTT 协议一致，以 $ 开头的主题不会被首层的 + 和 # 匹配。
+ */
+public class TXTopicRouter {
+
+    private static final String SINGLE_LEVEL = "+";
+    private static final String MULTI_LEVEL = "#";
+
+    private static class Node {
+        final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+        final CopyOnWriteArrayList<TXTopicHandler> handlers = new CopyOnWriteArrayList<>();
+    }
+
+    private final Node mRoot = new Node();
+
+    /**
+     * 注册主题处理器
+     *
+     * @param topicFilter 主题过滤器，可包含通配符 + 和 #
+     * @param handler 处理器
+     */
+    public void addHandler(String topicFilter, TXTopicHandler handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler is null");
+        }
+        String[] levels = parseFilter(topicFilter);
+        synchronized (mRoot) {
+            Node node = mRoot;
+            for (String level : levels) {
+                Node child = node.children.get(level);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(level, child);
+                }
+                node = child;
+            }
+            node.handlers.addIfAbsent(handler);
+        }
+    }
+
+    /**
+     * 注销主题处理器
+     *
+     * @param topicFilter 注册时使用的主题过滤器
+     * @param handler 处理器
+     * @return 处理器存在并已注销时返回 true
+     */
+    public boolean removeHandler(String topicFilter, TXTopicHandler handler) {
+        String[] levels = parseFilter(topicFilter);
+        synchronized (mRoot) {
+            Node node = mRoot;
+            for (String level : levels) {
+                node = node.children.get(level);
+                if (node == null) {
+                    return false;
+                }
+            }
+            return node.handlers.remove(handler);
+        }
+    }
+
+    /**
+     * 查找与主题匹配的所有处理器
+     *
+     * @param topic 消息主题（不含通配符）
+     * @return 匹配的处理器列表
+     */
+    public List<TXTopicHandler> match(String topic) {
+        List<TXTopicHandler> matched = new ArrayList<>(4);
+        if (topic != null && topic.length() > 0) {
+            collect(mRoot, topic, 0, true, matched);
+        }
+        return matched;
+    }
+
+    /**
+     * 把消息分发给所有匹配的处理器
+     *
+     * @param topic 消息主题
+     * @param message 消息内容
+     * @return 任意一个处理器消费了消息时返回 true
+     * @throws Exception 处理器抛出的异常
+     */
+    public boolean dispatch(String topic, MqttMessage message) throws Exception {
+        boolean consumed = false;
+        for (TXTopicHandler handler : match(topic)) {
+            if (handler.onMessageArrived(topic, message)) {
+                consumed = true;
+            }
+        }
+        return consumed;
+    }
+
+    private void collect(Node node, String topic, int start, boolean firstLevel, List<TXTopicHandler> out) {
+        boolean wildcardAllowed = !(firstLevel && topic.charAt(0) == '$');
+        if (wildcardAllowed) {
+            Node multi = node.children.get(MULTI_LEVEL);
+            if (multi != null) {
+                addAll(out, multi.handlers);
+            }
+        }
+
+        int end = topic.indexOf('/', start);
+        String level = end < 0 ? topic.substring(start) : topic.substring(start, end);
+        Node exact = node.children.get(level);
+        if (exact != null) {
+            descend(exact, topic, end, out);
+        }
+        if (wildcardAllowed) {
+            Node single = node.children.get(SINGLE_LEVEL);
+            if (single != null) {
+                descend(single, topic, end, out);
+            }
+        }
+    }
+
+    private void descend(Node child, String topic, int end, List<TXTopicHandler> out) {
+        if (end >= 0) {
+            collect(child, topic, end + 1, false, out);
+            return;
+        }
+        addAll(out, child.handlers);
+        // "a/#" 同时匹配 "a"
+        Node multi = child.children.get(MULTI_LEVEL);
+        if (multi != null) {
+            addAll(out, multi.handlers);
+        }
+    }
+
+    private static void addAll(List<TXTopicHandler> out, List<TXTopicHandler> handlers) {
+        for (TXTopicHandler handler : handlers) {
+            if (!out.contains(handler)) {
+                out.add(handler);
+            }
+        }
+    }
+
+    private static String[] parseFilter(String topicFilter) {
+        if (topicFilter == null || topicFilter.length() == 0) {
+            throw new IllegalArgumentException("topic filter is empty");
+        }
+        String[] levels = topicFilter.split("/", -1);
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (level.equals(MULTI_LEVEL)) {
+                if (i != levels.length - 1) {
+                    throw new IllegalArgumentException("'#' must be the last level: " + topicFilter);
+                }
+            } else if (!level.equals(SINGLE_LEVEL) && (level.indexOf('+') >= 0 || level.indexOf('#') >= 0)) {
+                throw new IllegalArgumentException("wildcard must occupy an entire level: " + topicFilter);
+            }
+        }
+        return levels;
+    }
+}
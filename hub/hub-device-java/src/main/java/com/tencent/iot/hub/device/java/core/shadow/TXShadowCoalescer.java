@@ -0,0 +1,263 @@
+package com.tencent.iot.hub.device.java.core.shadow;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tencent.iot.hub.device.java.core.common.Status;
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+/**
+ * 影子上报合并
+ *
+ * 合并窗口内的多次上报按属性名合并（后写入的值覆盖先写入的值），窗口结束时作为一个文档发送。
+ * 每次上报都会把窗口顺延，但从第一次上报起最多等待最长延迟。发送失败时，未被新值覆盖的属性重新放回队列，
+ * 在最长延迟后再次发送。进程内所有连接的合并共用一个调度线程，同一连接的发送按顺序执行。
+ */
+public class TXShadowCoalescer {
+
+	private static final String TAG = TXShadowCoalescer.class.getSimpleName();
+	private static final Logger logger = LoggerFactory.getLogger(TXShadowCoalescer.class);
+	static { Loggor.setLogger(logger); }
+
+	private static final ScheduledThreadPoolExecutor sExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "TXShadow-coalescer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * 发送合并后的文档
+	 */
+	interface Flusher {
+		/**
+		 * 发送一个上报文档
+		 *
+		 * @param values 属性名与 JSON 值
+		 * @param userContext 窗口内最后一次上报的用户上下文
+		 * @return 发送结果
+		 */
+		Status flush(Map<String, Object> values, Object userContext);
+	}
+
+	private final Flusher mFlusher;
+	private final long mWindow;
+	private final long mMaxLatency;
+	private final ScheduledExecutorService mExecutor;
+
+	/**
+	 * 保证同一连接的发送按顺序执行
+	 */
+	private final Object mFlushLock = new Object();
+
+	private Map<String, Object> mValues = new LinkedHashMap<>();
+	private Object mUserContext = null;
+	private int mQueuedRequests = 0;
+	private long mFirstTime = 0;
+	private long mDeadline = 0;
+	private boolean mScheduled = false;
+	private boolean mClosed = false;
+
+	private long mRequestCount = 0;
+	private long mFlushCount = 0;
+	private long mMergedCount = 0;
+
+	private final Runnable mFlushTask = new Runnable() {
+		@Override
+		public void run() {
+			onTimer();
+		}
+	};
+
+	TXShadowCoalescer(Flusher flusher, long window, long maxLatency) {
+		this(flusher, window, maxLatency, sExecutor);
+	}
+
+	TXShadowCoalescer(Flusher flusher, long window, long maxLatency, ScheduledExecutorService executor) {
+		if (window <= 0 || maxLatency < window) {
+			throw new IllegalArgumentException(String.format("invalid window %d, max latency %d", window, maxLatency));
+		}
+		this.mFlusher = flusher;
+		this.mWindow = window;
+		this.mMaxLatency = maxLatency;
+		this.mExecutor = executor;
+	}
+
+	/**
+	 * 加入一次上报
+	 *
+	 * @param values 属性名与 JSON 值
+	 * @param userContext 用户上下文
+	 */
+	synchronized void submit(Map<String, Object> values, Object userContext) {
+		long now = now();
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			if (mValues.containsKey(entry.getKey())) {
+				mMergedCount++;
+				// 保持最后一次写入的顺序
+				mValues.remove(entry.getKey());
+			}
+			mValues.put(entry.getKey(), entry.getValue());
+		}
+		mUserContext = userContext;
+		mRequestCount++;
+		if (mQueuedRequests++ == 0) {
+			mFirstTime = now;
+		}
+		mDeadline = Math.min(now + mWindow, mFirstTime + mMaxLatency);
+		schedule(mDeadline - now);
+	}
+
+	/**
+	 * 立即发送队列中的上报
+	 *
+	 * @return 发送结果，队列为空时返回 Status.OK
+	 */
+	Status flush() {
+		synchronized (mFlushLock) {
+			Map<String, Object> values;
+			Object userContext;
+			synchronized (this) {
+				if (mQueuedRequests == 0) {
+					return Status.OK;
+				}
+				values = mValues;
+				userContext = mUserContext;
+				mValues = new LinkedHashMap<>();
+				mUserContext = null;
+				mQueuedRequests = 0;
+			}
+
+			Status status = mFlusher.flush(values, userContext);
+			synchronized (this) {
+				mFlushCount++;
+				if (status != Status.OK && !mClosed) {
+					requeue(values, userContext);
+				}
+			}
+			return status;
+		}
+	}
+
+	/**
+	 * 发送队列中的上报，之后的上报不再合并
+	 *
+	 * @return 发送结果
+	 */
+	Status close() {
+		synchronized (this) {
+			mClosed = true;
+		}
+		return flush();
+	}
+
+	private void onTimer() {
+		synchronized (this) {
+			mScheduled = false;
+			if (mQueuedRequests == 0) {
+				return;
+			}
+			long remaining = mDeadline - now();
+			if (remaining > 0) {
+				schedule(remaining);
+				return;
+			}
+		}
+		Status status = flush();
+		if (status != Status.OK) {
+			Loggor.warn(TAG, "flush shadow update failed: " + status + ", retry in " + mMaxLatency + " ms");
+		}
+	}
+
+	private void requeue(Map<String, Object> values, Object userContext) {
+		Map<String, Object> merged = new LinkedHashMap<>(values);
+		merged.putAll(mValues);
+		mValues = merged;
+		if (mQueuedRequests == 0) {
+			mUserContext = userContext;
+			mFirstTime = now();
+		}
+		mQueuedRequests++;
+		mDeadline = now() + mMaxLatency;
+		schedule(mMaxLatency);
+	}
+
+	private void schedule(long delay) {
+		if (mScheduled || mClosed) {
+			return;
+		}
+		try {
+			mExecutor.schedule(mFlushTask, delay, TimeUnit.MILLISECONDS);
+			mScheduled = true;
+		} catch (RuntimeException e) {
+			Loggor.error(TAG, "schedule flush failed: " + e);
+		}
+	}
+
+	private static long now() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	/**
+	 * 合并窗口，单位：毫秒
+	 *
+	 * @return 合并窗口
+	 */
+	public long getWindow() {
+		return mWindow;
+	}
+
+	/**
+	 * 最长延迟，单位：毫秒
+	 *
+	 * @return 最长延迟
+	 */
+	public long getMaxLatency() {
+		return mMaxLatency;
+	}
+
+	/**
+	 * 加入合并的上报次数
+	 *
+	 * @return 上报次数
+	 */
+	public synchronized long getRequestCount() {
+		return mRequestCount;
+	}
+
+	/**
+	 * 实际发送的文档数
+	 *
+	 * @return 文档数
+	 */
+	public synchronized long getFlushCount() {
+		return mFlushCount;
+	}
+
+	/**
+	 * 被同一窗口内后写入的值覆盖的属性数
+	 *
+	 * @return 属性数
+	 */
+	public synchronized long getMergedCount() {
+		return mMergedCount;
+	}
+
+	/**
+	 * 合并比例：上报次数与发送文档数之比
+	 *
+	 * @return 合并比例，尚未发送时返回 0
+	 */
+	public synchronized double getMergeRatio() {
+		return mFlushCount == 0 ? 0 : (double) mRequestCount / mFlushCount;
+	}
+}
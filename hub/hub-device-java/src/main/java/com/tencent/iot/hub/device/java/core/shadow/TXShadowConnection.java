@@ -1,10 +1,10 @@
 package com.tencent.iot.hub.device.java.core.shadow;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -19,6 +19,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.tencent.iot.hub.device.java.core.common.Status;
+import com.tencent.iot.hub.device.java.core.json.TXJsonCodecs;
+import com.tencent.iot.hub.device.java.core.json.TXJsonWriter;
+import com.tencent.iot.hub.device.java.core.json.TXStreamingJsonCodec;
 import com.tencent.iot.hub.device.java.core.mqtt.TXMqttActionCallBack;
 import com.tencent.iot.hub.device.java.core.mqtt.TXMqttConnection;
 import com.tencent.iot.hub.device.java.core.mqtt.TXMqttConstants;
@@ -58,7 +61,7 @@ public class TXShadowConnection {
 	/**
 	 * 保存用户注册的属性
 	 */
-	private HashMap<String, DeviceProperty> mRegisterPropertyMap = new HashMap<>();
+	private final TXShadowPropertyIndex mPropertyIndex = new TXShadowPropertyIndex();
 
 	/**
 	 * 是否已经成功订阅 OPERATION_RESULT_TOPIC
@@ -66,9 +69,19 @@ public class TXShadowConnection {
 	private boolean mIsOperationResultSubscribeSuccess = false;
 
 	/**
-	 * 文档版本号
+	 * 本地影子文档缓存
 	 */
-	private int mDocumentVersion = 0;
+	private final TXShadowStore mShadowStore = new TXShadowStore();
+
+	/**
+	 * 是否只上报发生变化的属性
+	 */
+	private volatile boolean mDiffReportEnabled = true;
+
+	/**
+	 * 上报合并，为 null 时每次上报单独发送
+	 */
+	private volatile TXShadowCoalescer mCoalescer = null;
 
 	private String OPERATION_TOPIC = null;
 	private String OPERATION_RESULT_TOPIC = null;
@@ -219,6 +232,11 @@ public class TXShadowConnection {
 	 * @return 发送请求成功时返回 Status.OK；其它返回值表示发送请求失败
 	 */
 	public Status disConnect(Object userContext) {
+		TXShadowCoalescer coalescer = mCoalescer;
+		if (coalescer != null) {
+			coalescer.flush();
+		}
+
 		Status status = mMqttConnection.unSubscribe(OPERATION_RESULT_TOPIC, userContext);
 		if (status != Status.OK) {
 			return status;
@@ -271,9 +289,69 @@ public class TXShadowConnection {
 		return mMqttConnection.getConnectStatus();
 	}
 
+	/**
+	 * 本地影子文档缓存
+	 *
+	 * @return {@link TXShadowStore}
+	 */
+	public TXShadowStore getShadowStore() {
+		return mShadowStore;
+	}
+
+	/**
+	 * 设置是否只上报发生变化的属性，默认开启
+	 *
+	 * @param enabled true: 只上报与云端已确认的值不同的属性；false: 每次上报全部属性
+	 */
+	public void setDiffReportEnabled(boolean enabled) {
+		this.mDiffReportEnabled = enabled;
+	}
+
+	/**
+	 * 是否只上报发生变化的属性
+	 *
+	 * @return true: 只上报发生变化的属性
+	 */
+	public boolean isDiffReportEnabled() {
+		return mDiffReportEnabled;
+	}
+
+	/**
+	 * 开启上报合并：合并窗口内的多次 {@link #update(List, Object)} 按属性名合并（后写入的值覆盖先写入的值），
+	 * 作为一个文档发送。每次上报都会把窗口顺延，但从第一次上报起最多等待 maxLatency。
+	 *
+	 * @param window 合并窗口，单位：毫秒；不大于 0 时关闭合并，并立即发送尚未发送的上报
+	 * @param maxLatency 最长延迟，单位：毫秒，不小于 window
+	 */
+	public synchronized void setUpdateCoalescing(long window, long maxLatency) {
+		TXShadowCoalescer old = mCoalescer;
+		mCoalescer = window > 0 ? new TXShadowCoalescer(new TXShadowCoalescer.Flusher() {
+			@Override
+			public Status flush(Map<String, Object> values, Object userContext) {
+				return publishUpdate(values, userContext);
+			}
+		}, window, maxLatency) : null;
+		if (old != null) {
+			old.close();
+		}
+	}
+
+	/**
+	 * 上报合并的统计信息
+	 *
+	 * @return {@link TXShadowCoalescer}，未开启合并时返回 null
+	 */
+	public TXShadowCoalescer getUpdateCoalescer() {
+		return mCoalescer;
+	}
+
 	/**
 	 * 更新设备属性信息，结果通过回调函数通知
 	 *
+	 * 开启 {@link #setUpdateCoalescing(long, long)} 时，属性值在调用时取出，合并窗口结束后发送，返回 Status.OK 表示已加入合并。
+	 * 开启 {@link #setDiffReportEnabled(boolean)} 时只发送与云端已确认（或已发送、尚未应答）的值不同的属性；
+	 * 所有属性都没有变化时不发送请求，直接返回 Status.OK。
+	 *
 	 * @param devicePropertyList 需要更新的设备属性集
 	 * @param userContext 用户上下文（这个参数在回调函数时透传给用户）
 	 * @return 发送请求成功时返回 Status.OK；其它返回值表示发送请求失败
@@ -290,10 +368,45 @@ public class TXShadowConnection {
 			return Status.ERROR_TOPIC_UNSUBSCRIBED;
 		}
 
+		Map<String, Object> reported = toJsonValues(devicePropertyList);
+		TXShadowCoalescer coalescer = mCoalescer;
+		if (coalescer != null) {
+			coalescer.submit(reported, userContext);
+			return Status.OK;
+		}
+
+		return publishUpdate(reported, userContext);
+	}
+
+	/**
+	 * 发送上报文档
+	 *
+	 * @param reported 属性名与 JSON 值
+	 * @param userContext 用户上下文
+	 * @return 发送请求成功时返回 Status.OK；其它返回值表示发送请求失败
+	 */
+	private Status publishUpdate(Map<String, Object> reported, Object userContext) {
+		Status status = checkMqttStatus();
+		if (Status.OK != status) {
+			return status;
+		}
+
 		String clientToken = String.format(CLIENT_TOKEN, mMqttConnection.mClientId, mClientTokenNum.getAndIncrement());
-		String jsonDocument = buildUpdateJsonDocument(devicePropertyList, clientToken);
+		if (mDiffReportEnabled) {
+			int total = reported.size();
+			reported = mShadowStore.prepareUpdate(clientToken, reported, System.currentTimeMillis());
+			if (total > 0 && reported.isEmpty()) {
+				Loggor.debug(TAG, "update skipped, no property changed");
+				return Status.OK;
+			}
+		}
+		byte[] jsonDocument = buildUpdateJsonDocument(reported, clientToken);
 
-		return publish(OPERATION_TOPIC, jsonDocument, userContext);
+		status = publish(OPERATION_TOPIC, jsonDocument, userContext);
+		if (status != Status.OK) {
+			mShadowStore.cancelUpdate(clientToken);
+		}
+		return status;
 	}
 
 	/**
@@ -308,9 +421,10 @@ public class TXShadowConnection {
 		}
 
 		String clientToken = String.format(CLIENT_TOKEN, mMqttConnection.mClientId, mClientTokenNum.getAndIncrement());
-		String jsonDocument = buildReportNullJsonDocument(clientToken);
+		byte[] jsonDocument = buildReportNullJsonDocument(clientToken);
+		mShadowStore.invalidate();
 
-		Loggor.debug(TAG, "reportNullReportedInfo, document: " + jsonDocument);
+		Loggor.debug(TAG, "reportNullReportedInfo, document: " + new String(jsonDocument, TXJsonCodecs.UTF_8));
 
 		return publish(OPERATION_TOPIC, jsonDocument, null);
 	}
@@ -327,9 +441,10 @@ public class TXShadowConnection {
 		}
 
 		String clientToken = String.format(CLIENT_TOKEN, mMqttConnection.mClientId, mClientTokenNum.getAndIncrement());
-		String jsonDocument = buildDesiredNullJsonDocument(null, clientToken);
+		byte[] jsonDocument = buildDesiredNullJsonDocument(null, clientToken);
+		mShadowStore.clearDesired();
 
-		Loggor.debug(TAG, "reportNullDesiredInfo, document: " + jsonDocument);
+		Loggor.debug(TAG, "reportNullDesiredInfo, document: " + new String(jsonDocument, TXJsonCodecs.UTF_8));
 
 		return publish(OPERATION_TOPIC, jsonDocument, null);
 	}
@@ -347,9 +462,12 @@ public class TXShadowConnection {
 		}
 
 		String clientToken = String.format(CLIENT_TOKEN, mMqttConnection.mClientId, mClientTokenNum.getAndIncrement());
-		String jsonDocument = buildDesiredNullJsonDocument(reportJsonDoc, clientToken);
+		byte[] jsonDocument = buildDesiredNullJsonDocument(reportJsonDoc, clientToken);
+		mShadowStore.clearDesired();
+		// 直接上报的 JSON 内容不经过本地缓存，其中的属性下次上报时重新发送
+		invalidateKeys(reportJsonDoc);
 
-		Loggor.debug(TAG, "reportNullDesiredInfo, document: " + jsonDocument);
+		Loggor.debug(TAG, "reportNullDesiredInfo, document: " + new String(jsonDocument, TXJsonCodecs.UTF_8));
 
 		return publish(OPERATION_TOPIC, jsonDocument, null);
 	}
@@ -374,9 +492,9 @@ public class TXShadowConnection {
 		}
 
 		String clientToken = String.format(CLIENT_TOKEN, mMqttConnection.mClientId, mClientTokenNum.getAndIncrement());
-		String jsonDocument = buildGetJsonDocument(clientToken);
+		byte[] jsonDocument = buildGetJsonDocument(clientToken);
 
-		Loggor.debug(TAG, "get document: " + jsonDocument);
+		Loggor.debug(TAG, "get document: " + new String(jsonDocument, TXJsonCodecs.UTF_8));
 
 		return publish(OPERATION_TOPIC, jsonDocument, userContext);
 	}
@@ -387,7 +505,7 @@ public class TXShadowConnection {
 	 * @param property 设备属性 {@link DeviceProperty}
 	 */
 	public void registerProperty(DeviceProperty property) {
-		mRegisterPropertyMap.put(property.mKey, property);
+		mPropertyIndex.register(property);
 	}
 
 	/**
@@ -396,18 +514,18 @@ public class TXShadowConnection {
 	 * @param property {@link DeviceProperty}
 	 */
 	public void unRegisterProperty(DeviceProperty property) {
-		mRegisterPropertyMap.remove(property.mKey);
+		mPropertyIndex.unregister(property);
 	}
 
 	/**
 	 * 向指定 TOPIC 发布设备影子文档，结果通过回调函数通知
 	 *
 	 * @param topic 指定的 topic
-	 * @param document json 文档
+	 * @param document UTF-8 编码的 json 文档
 	 * @param userContext 用户上下文（这个参数在回调函数时透传给用户）
 	 * @return 发送请求成功时返回 Status.OK；其它返回值表示发送请求失败
 	 */
-	private Status publish(String topic, String document, Object userContext) {
+	private Status publish(String topic, byte[] document, Object userContext) {
 		Status status;
 		status = checkMqttStatus();
 		if (status != Status.OK) {
@@ -415,9 +533,9 @@ public class TXShadowConnection {
 		}
 
 		MqttMessage mqttMessage = new MqttMessage();
-		if ((null != document) && (document.length() != 0)) {
+		if ((null != document) && (document.length != 0)) {
 			mqttMessage.setId(getMessageId());
-			mqttMessage.setPayload(document.getBytes());
+			mqttMessage.setPayload(document);
 		}
 		mqttMessage.setQos(TXMqttConstants.QOS0);
 		Loggor.debug(TAG,  "******publish message id:" + mqttMessage.getId());
@@ -445,53 +563,84 @@ public class TXShadowConnection {
 	}
 
 	/**
-	 * 构建 json 信息
+	 * 把设备属性转换为上报的 JSON 值
 	 *
 	 * @param devicePropertyList 需要上报的设备属性集
-	 * @param clientToken clientToken 字段
-	 * @return json 字符串
-	 */
-	private String buildUpdateJsonDocument(List<? extends DeviceProperty> devicePropertyList, String clientToken) {
-		JSONObject documentJSONObj = new JSONObject();
+	 * @return 属性名与 JSON 值，按属性集顺序排列
+	 */
+	private Map<String, Object> toJsonValues(List<? extends DeviceProperty> devicePropertyList) {
+		Map<String, Object> values = new LinkedHashMap<>();
+		if (devicePropertyList == null) {
+			return values;
+		}
+		for (DeviceProperty deviceProperty : devicePropertyList) {
+			if (TXShadowConstants.JSONDataType.INT == deviceProperty.mDataType) {
+				values.put(deviceProperty.mKey, Integer.parseInt((String) deviceProperty.mData));
+			} else if (TXShadowConstants.JSONDataType.LONG == deviceProperty.mDataType) {
+				values.put(deviceProperty.mKey, Long.parseLong((String) deviceProperty.mData));
+			} else if (TXShadowConstants.JSONDataType.FLOAT == deviceProperty.mDataType) {
+				values.put(deviceProperty.mKey, Float.parseFloat((String) deviceProperty.mData));
+			} else if (TXShadowConstants.JSONDataType.DOUBLE == deviceProperty.mDataType) {
+				values.put(deviceProperty.mKey, Double.parseDouble((String) deviceProperty.mData));
+			} else if (TXShadowConstants.JSONDataType.BOOLEAN == deviceProperty.mDataType) {
+				values.put(deviceProperty.mKey, Boolean.parseBoolean((String) deviceProperty.mData));
+			} else {
+				values.put(deviceProperty.mKey, deviceProperty.mData);
+			}
+		}
+		return values;
+	}
 
+	private void invalidateKeys(String jsonDoc) {
+		if (jsonDoc == null) {
+			return;
+		}
 		try {
-			documentJSONObj.put(TXShadowConstants.TYPE, TXShadowConstants.UPDATE);
+			Iterator<String> keys = new JSONObject(jsonDoc).keys();
+			while (keys.hasNext()) {
+				mShadowStore.invalidate(keys.next());
+			}
+		} catch (JSONException e) {
+			mShadowStore.invalidate();
+		}
+	}
 
-			JSONObject stateJSONObj = new JSONObject();
-			if (devicePropertyList != null && !devicePropertyList.isEmpty()) {
-
-				JSONObject reportedJSONObj = new JSONObject();
-				for (DeviceProperty deviceProperty : devicePropertyList) {
-					if (TXShadowConstants.JSONDataType.INT == deviceProperty.mDataType) {
-						reportedJSONObj.put(deviceProperty.mKey, Integer.parseInt((String) deviceProperty.mData));
-					} else if (TXShadowConstants.JSONDataType.LONG == deviceProperty.mDataType) {
-						reportedJSONObj.put(deviceProperty.mKey, Long.parseLong((String) deviceProperty.mData));
-					} else if (TXShadowConstants.JSONDataType.FLOAT == deviceProperty.mDataType) {
-						reportedJSONObj.put(deviceProperty.mKey, Float.parseFloat((String) deviceProperty.mData));
-					} else if (TXShadowConstants.JSONDataType.DOUBLE == deviceProperty.mDataType) {
-						reportedJSONObj.put(deviceProperty.mKey, Double.parseDouble((String) deviceProperty.mData));
-					} else if (TXShadowConstants.JSONDataType.BOOLEAN == deviceProperty.mDataType) {
-						reportedJSONObj.put(deviceProperty.mKey, Boolean.parseBoolean((String) deviceProperty.mData));
-					} else {
-						reportedJSONObj.put(deviceProperty.mKey, deviceProperty.mData);
-					}
+	/**
+	 * 构建 json 信息，直接输出 UTF-8 字节
+	 *
+	 * @param reported 需要上报的属性名与 JSON 值
+	 * @param clientToken clientToken 字段
+	 * @return json 文档
+	 */
+	private byte[] buildUpdateJsonDocument(Map<String, Object> reported, String clientToken) {
+		TXJsonWriter writer = TXStreamingJsonCodec.obtainWriter();
+		try {
+			writer.beginObject();
+			writer.name(TXShadowConstants.TYPE).value(TXShadowConstants.UPDATE);
+
+			writer.name(TXShadowConstants.STATE).beginObject();
+			if (reported != null && !reported.isEmpty()) {
+				writer.name(TXShadowConstants.REPORTED).beginObject();
+				for (Map.Entry<String, Object> entry : reported.entrySet()) {
+					writer.name(entry.getKey()).value(entry.getValue());
 				}
-				stateJSONObj.put(TXShadowConstants.REPORTED, reportedJSONObj);
+				writer.endObject();
 			}
+			writer.endObject();
 
-			documentJSONObj.put(TXShadowConstants.STATE, stateJSONObj);
-			documentJSONObj.put(TXShadowConstants.CLIENT_TOKEN, clientToken);
-			documentJSONObj.put(TXShadowConstants.VERSION, 0); //防止多次触发update导致version冲突5005的错误。
-
+			writer.name(TXShadowConstants.CLIENT_TOKEN).value(clientToken);
+			writer.name(TXShadowConstants.VERSION).value(0); //防止多次触发update导致version冲突5005的错误。
+			writer.endObject();
+			return writer.toByteArray();
 		} catch (JSONException e) {
 			Loggor.error(TAG,  "build report info failed " + e);
-			return "";
+			return new byte[0];
+		} finally {
+			TXStreamingJsonCodec.recycleWriter(writer);
 		}
-
-		return documentJSONObj.toString();
 	}
 
-	private String buildReportNullJsonDocument(String clientToken) {
+	private byte[] buildReportNullJsonDocument(String clientToken) {
 		JSONObject documentJSONObj = new JSONObject();
 
 		try {
@@ -506,13 +655,13 @@ public class TXShadowConnection {
 
 		} catch (JSONException e) {
 			Loggor.error(TAG, "build report info failed " + e);
-			return "";
+			return new byte[0];
 		}
 
-		return documentJSONObj.toString();
+		return TXJsonCodecs.getDefault().encode(documentJSONObj);
 	}
 
-	private String buildDesiredNullJsonDocument(String reportJsonDoc, String clientToken) {
+	private byte[] buildDesiredNullJsonDocument(String reportJsonDoc, String clientToken) {
 		JSONObject documentJSONObj = new JSONObject();
 
 		try {
@@ -531,13 +680,13 @@ public class TXShadowConnection {
 
 		} catch (JSONException e) {
 			Loggor.error(TAG, "build report info failed " + e);
-			return "";
+			return new byte[0];
 		}
 
-		return documentJSONObj.toString();
+		return TXJsonCodecs.getDefault().encode(documentJSONObj);
 	}
 
-	private String buildGetJsonDocument(String clientToken) {
+	private byte[] buildGetJsonDocument(String clientToken) {
 		JSONObject documentJSONObj = new JSONObject();
 
 		try {
@@ -545,13 +694,13 @@ public class TXShadowConnection {
 			documentJSONObj.put(TXShadowConstants.CLIENT_TOKEN, clientToken);
 		} catch (JSONException e) {
 			Loggor.error(TAG, "build report info failed " + e);
-			return "";
+			return new byte[0];
 		}
 
-		return documentJSONObj.toString();
+		return TXJsonCodecs.getDefault().encode(documentJSONObj);
 	}
 
-	private String buildDeleteJsonDocument(String clientToken) {
+	private byte[] buildDeleteJsonDocument(String clientToken) {
 		JSONObject documentJSONObj = new JSONObject();
 
 		try {
@@ -559,10 +708,10 @@ public class TXShadowConnection {
 			documentJSONObj.put(TXShadowConstants.CLIENT_TOKEN, clientToken);
 		} catch (JSONException e) {
 			Loggor.error(TAG, "build report info failed " + e);
-			return "";
+			return new byte[0];
 		}
 
-		return documentJSONObj.toString();
+		return TXJsonCodecs.getDefault().encode(documentJSONObj);
 	}
 
 	private int getMessageId() {
@@ -578,110 +727,69 @@ public class TXShadowConnection {
 	 * 处理接收到的影子消息
 	 *
 	 * @param topic 来自哪个 TOPIC 的消息
-	 * @param message MQTT 消息
+	 * @param jsonObj 已解析的消息内容
 	 */
-	private void processShadowMessageReceived(String topic, MqttMessage message) {
-		if (null == message || null == message.getPayload()) {
-			Loggor.error(TAG, "handle mqtt message failed, reason[message or payload is empty]!");
-			return;
-		}
-
-		String jsonStr = new String(message.getPayload());
-		JSONObject jsonObj = null;
-		try {
-			jsonObj = new JSONObject(jsonStr);
-
-			String type = jsonObj.getString(TXShadowConstants.TYPE);
-			if (TXShadowConstants.DELTA.equals(type)) {
-				processDeltaMessage(message);
-			}
-		} catch (Exception e) {
-
+	private void processShadowMessageReceived(String topic, JSONObject jsonObj) {
+		if (TXShadowConstants.DELTA.equals(jsonObj.optString(TXShadowConstants.TYPE))) {
+			processDeltaMessage(jsonObj);
 		}
 	}
 
 	/**
 	 * 处理 delta 消息函数。 当服务端发送 delta 消息到终端, 将会调用此方法
 	 *
-	 * @param message mqtt 消息
+	 * 只处理消息中出现且已注册的属性，属性值按注册时的值类型解析一次。
+	 *
+	 * @param jsonObj 已解析的消息内容
 	 */
-	private void processDeltaMessage(MqttMessage message) {
-		JSONObject jsonObj = null;
-
-		try {
-			jsonObj = new JSONObject(new String(message.getPayload()));
-			//edited by v_vweisun 2020/09/22 start
-			jsonObj = jsonObj.getJSONObject(TXShadowConstants.PAYLOAD);//new JSONObject(jsonObj.getString(TXShadowConstants.PAYLOAD));
-			//edited by v_vweisun 2020/09/22 end
-
-			if (jsonObj.has(TXShadowConstants.VERSION)) {
-				int versionNum = jsonObj.getInt(TXShadowConstants.VERSION);
-				if (versionNum > mDocumentVersion) {
-					mDocumentVersion = versionNum;
-					Loggor.debug(TAG,  "New Version number : " + mDocumentVersion);
-				} else {
-					Loggor.warn(TAG, String.format("Old Delta Message received - Ignoring rx : %d local : %d", versionNum,
-							mDocumentVersion));
-					return;
-				}
-			}
-		} catch (JSONException e) {
-			Loggor.error(TAG, "Received JSON is not valid!" + e);
+	private void processDeltaMessage(JSONObject jsonObj) {
+		JSONObject payloadObj = jsonObj.optJSONObject(TXShadowConstants.PAYLOAD);
+		if (payloadObj == null) {
+			Loggor.error(TAG, "Received JSON is not valid! no payload");
 			return;
 		}
 
-		if (!jsonObj.has(TXShadowConstants.STATE)) {
+		int localVersion = mShadowStore.getVersion();
+		if (!mShadowStore.onDelta(payloadObj)) {
+			Loggor.warn(TAG, String.format("Old Delta Message received - Ignoring rx : %d local : %d",
+					payloadObj.optInt(TXShadowConstants.VERSION), localVersion));
 			return;
 		}
+		Loggor.debug(TAG,  "New Version number : " + mShadowStore.getVersion());
 
-		List<DeviceProperty> propertyList = new ArrayList<>();
-		String stateJsonStr = "";
-
-		try {
-			//edited by v_vweisun 2020/09/22 start
-//			stateJsonStr = jsonObj.getString(TXShadowConstants.STATE);
-
-			JSONObject stateObj = jsonObj.getJSONObject(TXShadowConstants.STATE);//new JSONObject(stateJsonStr);
-			//edited by v_vweisun 2020/09/22 end
-
-			Iterator it = mRegisterPropertyMap.keySet().iterator();
-			while (it.hasNext()) {
-				DeviceProperty property = mRegisterPropertyMap.get(it.next());
-
-				if (stateObj.has(property.mKey)) {
-					// edited by v_vweisun 2020/09/22 start
-					String value = "";
-					if (TXShadowConstants.JSONDataType.INT == property.mDataType) {
-						property.data(stateObj.getInt(property.mKey));
-						value = String.valueOf(stateObj.getInt(property.mKey));
-					} else if (TXShadowConstants.JSONDataType.LONG == property.mDataType) {
-						property.data(stateObj.getLong(property.mKey));
-						value = String.valueOf(stateObj.getLong(property.mKey));
-					} else if (TXShadowConstants.JSONDataType.FLOAT == property.mDataType) {
-						property.data(stateObj.getFloat(property.mKey));
-						value = String.valueOf(stateObj.getFloat(property.mKey));
-					} else if (TXShadowConstants.JSONDataType.DOUBLE == property.mDataType) {
-						property.data(stateObj.getDouble(property.mKey));
-						value = String.valueOf(stateObj.getDouble(property.mKey));
-					} else if (TXShadowConstants.JSONDataType.BOOLEAN == property.mDataType) {
-						property.data(stateObj.getBoolean(property.mKey));
-						value = String.valueOf(stateObj.getBoolean(property.mKey));
-					} else {
-						property.data(stateObj.getString(property.mKey));
-						value = String.valueOf(stateObj.getString(property.mKey));
-					}
-					// edited by v_vweisun 2020/09/22 end
-					propertyList.add(property);
-					Loggor.debug(TAG,  String.format("******%s, %s", property.mKey, value));
-				}
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		JSONObject stateObj = payloadObj.optJSONObject(TXShadowConstants.STATE);
+		if (stateObj == null) {
+			return;
 		}
 
+		List<DeviceProperty> propertyList = mPropertyIndex.apply(stateObj);
 		if (null != mShadowActionCallback && !propertyList.isEmpty()) {
-			mShadowActionCallback.onDevicePropertyCallback(stateJsonStr, propertyList);
+			mShadowActionCallback.onDevicePropertyCallback("", propertyList);
+		}
+	}
+
+	/**
+	 * 用 get/update/delete 应答更新本地影子文档缓存
+	 *
+	 * @param type 文档操作方式
+	 * @param result 应答结果，0 表示成功
+	 * @param clientToken 应答中的 clientToken
+	 * @param payload 应答中的 payload，可能为 null
+	 */
+	private void reconcileShadowStore(String type, int result, String clientToken, JSONObject payload) {
+		int version = payload != null ? payload.optInt(TXShadowConstants.VERSION, -1) : -1;
+		if (TXShadowConstants.UPDATE.equals(type)) {
+			mShadowStore.onUpdateAck(clientToken, result, version);
+		} else if (TXShadowConstants.GET.equals(type)) {
+			if (result == 0 && payload != null) {
+				mShadowStore.onGetResponse(payload);
+			}
+		} else if (TXShadowConstants.DELETE.equals(type)) {
+			if (result == 0) {
+				mShadowStore.clear();
+			}
 		}
+		Loggor.debug(TAG,  "******update local document version to " + mShadowStore.getVersion());
 	}
 
 	private class ShadowUponMqttCallBack extends TXMqttActionCallBack {
@@ -689,6 +797,8 @@ public class TXShadowConnection {
 		public void onConnectCompleted(Status status, boolean reconnect, Object userContext, String msg) {
 			Loggor.debug(TAG, String.format("onConnectCompleted, status[%s], reconnect[%b], msg[%s]", status, reconnect, msg));
 			if (Status.OK == status) {
+				// 断线期间的上报可能丢失，重连后第一次上报发送全部属性
+				mShadowStore.invalidate();
 				Loggor.debug(TAG,  "******subscribe topic:" + OPERATION_RESULT_TOPIC);
 				mMqttConnection.subscribe(OPERATION_RESULT_TOPIC, mQos, "subscribe context");
 			}
@@ -773,11 +883,15 @@ public class TXShadowConnection {
 					return;
 				}
 
-				String jsonStr = new String(message.getPayload());
-
+				JSONObject jsonObj;
 				try {
-					JSONObject jsonObj = new JSONObject(jsonStr);
+					jsonObj = TXJsonCodecs.getDefault().decode(message.getPayload());
+				} catch (JSONException e) {
+					Loggor.error(TAG, "Received JSON is not valid!" + e);
+					return;
+				}
 
+				try {
 					if (jsonObj.has(TXShadowConstants.TYPE)) {
 						String type = jsonObj.getString(TXShadowConstants.TYPE);
 
@@ -786,16 +900,12 @@ public class TXShadowConnection {
 
 							if (jsonObj.has(TXShadowConstants.RESULT)) {
 								int result = jsonObj.getInt(TXShadowConstants.RESULT);
-								if (jsonObj.has(TXShadowConstants.PAYLOAD)) {
-									String payloadStr = jsonObj.getJSONObject(TXShadowConstants.PAYLOAD).toString();
-
-									mShadowActionCallback.onRequestCallback(type, result, payloadStr);
+								JSONObject payloadJsonObj = jsonObj.optJSONObject(TXShadowConstants.PAYLOAD);
+								reconcileShadowStore(type, result, jsonObj.optString(TXShadowConstants.CLIENT_TOKEN, null),
+										payloadJsonObj);
 
-									JSONObject payloadJsonObj = new JSONObject(payloadStr);
-									if (payloadJsonObj.has(TXShadowConstants.VERSION)) {
-										mDocumentVersion = payloadJsonObj.getInt(TXShadowConstants.VERSION);
-										Loggor.debug(TAG,  "******update local mDocumentVersion to " + mDocumentVersion);
-									}
+								if (payloadJsonObj != null) {
+									mShadowActionCallback.onRequestCallback(type, result, payloadJsonObj.toString());
 								}
 							}
 						}
@@ -804,7 +914,7 @@ public class TXShadowConnection {
 					e.printStackTrace();
 				}
 
-				processShadowMessageReceived(topic, message);
+				processShadowMessageReceived(topic, jsonObj);
 			} else {
 				mShadowActionCallback.onMessageReceived(topic, message);
 			}
@@ -0,0 +1,151 @@
+package com.tencent.iot.hub.device.java.core.shadow;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tencent.iot.hub.device.java.utils.Loggor;
+
+/**
+ * 已注册设备属性的索引，按属性名保存属性及其值类型对应的解析方式
+ *
+ * 处理 delta 时只遍历消息中出现的属性名，每个属性只解析一次。
+ */
+class TXShadowPropertyIndex {
+
+	private static final String TAG = TXShadowPropertyIndex.class.getSimpleName();
+	private static final Logger logger = LoggerFactory.getLogger(TXShadowPropertyIndex.class);
+	static { Loggor.setLogger(logger); }
+
+	/**
+	 * 按值类型从 JSON 中取值
+	 */
+	enum Decoder {
+		INT {
+			@Override
+			Object decode(JSONObject state, String key) throws JSONException {
+				return state.getInt(key);
+			}
+		},
+		LONG {
+			@Override
+			Object decode(JSONObject state, String key) throws JSONException {
+				return state.getLong(key);
+			}
+		},
+		FLOAT {
+			@Override
+			Object decode(JSONObject state, String key) throws JSONException {
+				return state.getFloat(key);
+			}
+		},
+		DOUBLE {
+			@Override
+			Object decode(JSONObject state, String key) throws JSONException {
+				return state.getDouble(key);
+			}
+		},
+		BOOLEAN {
+			@Override
+			Object decode(JSONObject state, String key) throws JSONException {
+				return state.getBoolean(key);
+			}
+		},
+		STRING {
+			@Override
+			Object decode(JSONObject state, String key) throws JSONException {
+				return state.getString(key);
+			}
+		};
+
+		abstract Object decode(JSONObject state, String key) throws JSONException;
+
+		static Decoder of(TXShadowConstants.JSONDataType dataType) {
+			if (dataType == null) {
+				return STRING;
+			}
+			switch (dataType) {
+				case INT:
+					return INT;
+				case LONG:
+					return LONG;
+				case FLOAT:
+					return FLOAT;
+				case DOUBLE:
+					return DOUBLE;
+				case BOOLEAN:
+					return BOOLEAN;
+				default:
+					return STRING;
+			}
+		}
+	}
+
+	private static final class Entry {
+		final DeviceProperty property;
+		TXShadowConstants.JSONDataType dataType;
+		Decoder decoder;
+
+		Entry(DeviceProperty property) {
+			this.property = property;
+			this.dataType = property.mDataType;
+			this.decoder = Decoder.of(dataType);
+		}
+
+		Decoder decoder() {
+			// 注册后修改了值类型
+			if (property.mDataType != dataType) {
+				dataType = property.mDataType;
+				decoder = Decoder.of(dataType);
+			}
+			return decoder;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+
+	void register(DeviceProperty property) {
+		mEntries.put(property.mKey, new Entry(property));
+	}
+
+	void unregister(DeviceProperty property) {
+		mEntries.remove(property.mKey);
+	}
+
+	int size() {
+		return mEntries.size();
+	}
+
+	/**
+	 * 把 delta 中的值写入已注册的属性
+	 *
+	 * @param state delta 消息中的 state
+	 * @return 值被更新的属性
+	 */
+	List<DeviceProperty> apply(JSONObject state) {
+		List<DeviceProperty> propertyList = new ArrayList<>(state.length());
+		Iterator<String> keys = state.keys();
+		while (keys.hasNext()) {
+			String key = keys.next();
+			Entry entry = mEntries.get(key);
+			if (entry == null) {
+				continue;
+			}
+			try {
+				Object value = entry.decoder().decode(state, key);
+				entry.property.data(value);
+				propertyList.add(entry.property);
+				Loggor.debug(TAG, "******%s, %s", key, value);
+			} catch (JSONException e) {
+				Loggor.error(TAG, "decode property " + key + " failed: " + e);
+			}
+		}
+		return propertyList;
+	}
+}
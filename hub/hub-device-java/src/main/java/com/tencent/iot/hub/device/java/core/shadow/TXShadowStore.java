@@ -0,0 +1,328 @@
+package com.tencent.iot.hub.device.java.core.shadow;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**
+ * 本地影子文档缓存，记录云端已确认的 reported、desired 状态与文档版本号
+ *
+ * 上报时与已确认（或已发送、尚未应答）的值比较，只保留发生变化的属性；update 应答成功后提交本次上报的值，
+ * 应答失败、超时未应答时丢弃，下次上报重新发送。get 应答与 delta 消息用于与云端状态对齐。
+ * 属性值以 JSON 文本形式比较。同一个实例可以在多个线程中同时使用。
+ */
+public class TXShadowStore {
+
+	/**
+	 * 默认的应答超时时间，单位：毫秒
+	 */
+	public static final long DEFAULT_PENDING_TIMEOUT = 20 * 1000;
+
+	/**
+	 * 云端已确认的 reported 状态
+	 */
+	private final Map<String, String> mReported = new HashMap<>();
+
+	/**
+	 * 最近一次得知的 desired 状态
+	 */
+	private final Map<String, String> mDesired = new HashMap<>();
+
+	/**
+	 * 已发送、尚未应答的上报，按 clientToken 保存，按发送顺序排列
+	 */
+	private final LinkedHashMap<String, Pending> mPending = new LinkedHashMap<>();
+
+	/**
+	 * 每个属性最近一次发送、尚未应答的值
+	 */
+	private final Map<String, InFlight> mInFlight = new HashMap<>();
+
+	private int mVersion = 0;
+	private long mPendingTimeout = DEFAULT_PENDING_TIMEOUT;
+
+	private long mSentCount = 0;
+	private long mSkippedCount = 0;
+
+	/**
+	 * 筛选需要上报的属性，并把本次上报记录为等待应答
+	 *
+	 * @param clientToken 本次上报的 clientToken
+	 * @param values 属性名与 JSON 值，按上报顺序排列
+	 * @param now 当前时间，单位：毫秒
+	 * @return 与已确认或已发送的值不同的属性；没有变化时返回空集合，此时不记录等待应答
+	 */
+	public synchronized Map<String, Object> prepareUpdate(String clientToken, Map<String, Object> values, long now) {
+		expirePending(now);
+
+		Map<String, Object> changed = new LinkedHashMap<>();
+		Map<String, String> texts = new HashMap<>();
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			String key = entry.getKey();
+			String text = JSONObject.valueToString(entry.getValue());
+			InFlight inFlight = mInFlight.get(key);
+			String known = inFlight != null ? inFlight.value : mReported.get(key);
+			if (text.equals(known)) {
+				mSkippedCount++;
+				continue;
+			}
+			changed.put(key, entry.getValue());
+			texts.put(key, text);
+			mInFlight.put(key, new InFlight(clientToken, text));
+		}
+		mSentCount += changed.size();
+
+		if (!texts.isEmpty()) {
+			mPending.put(clientToken, new Pending(texts, now));
+		}
+		return changed;
+	}
+
+	/**
+	 * 上报请求未能发送，撤销等待应答的记录
+	 *
+	 * @param clientToken 本次上报的 clientToken
+	 */
+	public synchronized void cancelUpdate(String clientToken) {
+		Pending pending = mPending.remove(clientToken);
+		if (pending != null) {
+			releaseInFlight(clientToken, pending);
+		}
+	}
+
+	/**
+	 * 处理 update 应答
+	 *
+	 * @param clientToken 应答中的 clientToken
+	 * @param result 应答结果，0 表示成功
+	 * @param version 应答中的文档版本号，没有时为 -1
+	 */
+	public synchronized void onUpdateAck(String clientToken, int result, int version) {
+		Pending pending = clientToken != null ? mPending.remove(clientToken) : null;
+		if (pending != null) {
+			if (result == 0) {
+				mReported.putAll(pending.values);
+			}
+			releaseInFlight(clientToken, pending);
+		}
+		if (result == 0 && version >= 0) {
+			mVersion = version;
+		}
+	}
+
+	/**
+	 * 用 get 应答中的影子文档替换本地缓存，正在等待应答的上报不受影响
+	 *
+	 * @param payload get 应答中的 payload
+	 */
+	public synchronized void onGetResponse(JSONObject payload) {
+		JSONObject state = payload.optJSONObject(TXShadowConstants.STATE);
+		mReported.clear();
+		mDesired.clear();
+		if (state != null) {
+			copyTo(state.optJSONObject(TXShadowConstants.REPORTED), mReported);
+			copyTo(state.optJSONObject(TXShadowConstants.DESIRED), mDesired);
+			// 云端 reported 与 desired 不一致的属性，下次上报时重新发送
+			forget(state.optJSONObject(TXShadowConstants.DELTA));
+		}
+		if (payload.has(TXShadowConstants.VERSION)) {
+			mVersion = payload.optInt(TXShadowConstants.VERSION, mVersion);
+		}
+	}
+
+	/**
+	 * 处理 delta 消息
+	 *
+	 * delta 中的属性记入 desired，并从已确认的 reported 中移除，设备处理后下次上报时一定会发送这些属性。
+	 *
+	 * @param payload delta 消息中的 payload
+	 * @return 版本号不大于本地版本号的旧消息返回 false，此时不修改缓存
+	 */
+	public synchronized boolean onDelta(JSONObject payload) {
+		if (payload.has(TXShadowConstants.VERSION)) {
+			int version = payload.optInt(TXShadowConstants.VERSION, mVersion);
+			if (version <= mVersion) {
+				return false;
+			}
+			mVersion = version;
+		}
+		JSONObject state = payload.optJSONObject(TXShadowConstants.STATE);
+		copyTo(state, mDesired);
+		forget(state);
+		return true;
+	}
+
+	/**
+	 * 清空已确认的 reported 状态与等待应答的上报，下次上报时发送全部属性
+	 */
+	public synchronized void invalidate() {
+		mReported.clear();
+		mPending.clear();
+		mInFlight.clear();
+	}
+
+	/**
+	 * 清空指定属性的已确认值，下次上报时重新发送
+	 *
+	 * @param key 属性名
+	 */
+	public synchronized void invalidate(String key) {
+		mReported.remove(key);
+		mInFlight.remove(key);
+	}
+
+	/**
+	 * 清空 desired 状态
+	 */
+	public synchronized void clearDesired() {
+		mDesired.clear();
+	}
+
+	/**
+	 * 清空全部缓存，版本号归零
+	 */
+	public synchronized void clear() {
+		invalidate();
+		mDesired.clear();
+		mVersion = 0;
+	}
+
+	/**
+	 * 本地文档版本号
+	 *
+	 * @return 版本号
+	 */
+	public synchronized int getVersion() {
+		return mVersion;
+	}
+
+	/**
+	 * 已确认的 reported 属性值
+	 *
+	 * @param key 属性名
+	 * @return JSON 文本，没有时返回 null
+	 */
+	public synchronized String getReported(String key) {
+		return mReported.get(key);
+	}
+
+	/**
+	 * 最近一次得知的 desired 属性值
+	 *
+	 * @param key 属性名
+	 * @return JSON 文本，没有时返回 null
+	 */
+	public synchronized String getDesired(String key) {
+		return mDesired.get(key);
+	}
+
+	/**
+	 * 已确认的 reported 属性数
+	 *
+	 * @return 属性数
+	 */
+	public synchronized int getReportedCount() {
+		return mReported.size();
+	}
+
+	/**
+	 * 等待应答的上报数
+	 *
+	 * @return 上报数
+	 */
+	public synchronized int getPendingCount() {
+		return mPending.size();
+	}
+
+	/**
+	 * 已发送的属性数
+	 *
+	 * @return 属性数
+	 */
+	public synchronized long getSentCount() {
+		return mSentCount;
+	}
+
+	/**
+	 * 因未变化而没有发送的属性数
+	 *
+	 * @return 属性数
+	 */
+	public synchronized long getSkippedCount() {
+		return mSkippedCount;
+	}
+
+	/**
+	 * 设置应答超时时间，超时未应答的上报视为失败，属性在下次上报时重新发送
+	 *
+	 * @param timeout 超时时间，单位：毫秒
+	 */
+	public synchronized void setPendingTimeout(long timeout) {
+		this.mPendingTimeout = timeout;
+	}
+
+	private void expirePending(long now) {
+		Iterator<Map.Entry<String, Pending>> it = mPending.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Pending> entry = it.next();
+			if (now - entry.getValue().time < mPendingTimeout) {
+				break;
+			}
+			it.remove();
+			releaseInFlight(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void releaseInFlight(String clientToken, Pending pending) {
+		for (String key : pending.values.keySet()) {
+			InFlight inFlight = mInFlight.get(key);
+			if (inFlight != null && inFlight.clientToken.equals(clientToken)) {
+				mInFlight.remove(key);
+			}
+		}
+	}
+
+	private void forget(JSONObject state) {
+		if (state == null) {
+			return;
+		}
+		Iterator<String> keys = state.keys();
+		while (keys.hasNext()) {
+			invalidate(keys.next());
+		}
+	}
+
+	private static void copyTo(JSONObject object, Map<String, String> target) {
+		if (object == null) {
+			return;
+		}
+		Iterator<String> keys = object.keys();
+		while (keys.hasNext()) {
+			String key = keys.next();
+			target.put(key, JSONObject.valueToString(object.opt(key)));
+		}
+	}
+
+	private static final class Pending {
+		final Map<String, String> values;
+		final long time;
+
+		Pending(Map<String, String> values, long time) {
+			this.values = values;
+			this.time = time;
+		}
+	}
+
+	private static final class InFlight {
+		final String clientToken;
+		final String value;
+
+		InFlight(String clientToken, String value) {
+			this.clientToken = clientToken;
+			this.value = value;
+		}
+	}
+}
@@ -4,6 +4,9 @@ import com.tencent.iot.hub.device.java.core.common.Status;
 import com.tencent.iot.hub.device.java.core.mqtt.TXMqttActionCallBack;
 import com.tencent.iot.hub.device.java.core.mqtt.TXOTACallBack;
 import com.tencent.iot.hub.device.java.core.mqtt.TXOTAConstansts;
+import com.tencent.iot.hub.device.java.core.mqtt.TXPublishBatch;
+import com.tencent.iot.hub.device.java.core.mqtt.TXPublishBatchCallBack;
+import com.tencent.iot.hub.device.java.core.mqtt.TXPublishWindow;
 import com.tencent.iot.hub.device.java.service.interfaces.ITXMqttActionListener;
 import com.tencent.iot.hub.device.java.service.interfaces.ITXMqttService;
 import com.tencent.iot.hub.device.java.service.interfaces.ITXOTAListener;
@@ -12,8 +15,11 @@ import com.tencent.iot.hub.device.java.utils.Loggor;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +61,26 @@ public class TXMqttClient {
      */
     protected ITXMqttService mRemoteServer = null;
 
+    /**
+     * 批量发布窗口，以及批量发布中 requestId 与消息完成凭据的映射
+     */
+    private volatile TXPublishWindow mPublishWindow =
+            new TXPublishWindow(TXPublishWindow.DEFAULT_MAX_INFLIGHT, TXPublishWindow.DEFAULT_MAX_PENDING);
+    private final Map<Long, TXPublishWindow.Ticket> mBatchTicketMap = new ConcurrentHashMap<>();
+
+    private final TXPublishWindow.Sender mBatchSender = new TXPublishWindow.Sender() {
+        @Override
+        public void send(String topic, MqttMessage message, TXPublishWindow.Ticket ticket) throws Exception {
+            long requestId = mRequestId.getAndIncrement();
+            mBatchTicketMap.put(requestId, ticket);
+            String statusStr = mRemoteServer.publish(topic, new TXMqttMessage(message), requestId);
+            if (Status.valueOf(Status.class, statusStr) != Status.OK) {
+                mBatchTicketMap.remove(requestId);
+                throw new IllegalStateException("remote service publish return " + statusStr);
+            }
+        }
+    };
+
     private TXOTACallBack mOTACallback = null;
 
     private ITXOTAListener mOTAListener = new ITXOTAListener() {
@@ -319,6 +345,32 @@ public class TXMqttClient {
         return status;
     }
 
+    /**
+     * 设置批量发布窗口
+     *
+     * @param maxInflight 最大在途消息数
+     * @param maxPending 最大待发送消息数，超过时 {@link #publishBatch} 返回 Status.ERR_MAX_APPENDING_REQUEST
+     */
+    public void setPublishWindow(int maxInflight, int maxPending) {
+        this.mPublishWindow = new TXPublishWindow(maxInflight, maxPending);
+    }
+
+    /**
+     * 批量发布MQTT消息，在发布窗口内流水线发送，全部完成后通过 callBack 返回每条消息的结果。
+     *
+     * @param batch 消息批次
+     * @param callBack 批次完成回调
+     * @param userContext 用户上下文（这个参数在回调函数时透传给用户）
+     * @return 受理时返回Status.OK; 待发送消息过多时返回Status.ERR_MAX_APPENDING_REQUEST {@link Status}
+     */
+    public Status publishBatch(TXPublishBatch batch, TXPublishBatchCallBack callBack, Object userContext) {
+        if (null == mRemoteServer) {
+            Loggor.error(TAG, "remote service is not start!");
+            return Status.ERROR;
+        }
+        return mPublishWindow.submit(batch, mBatchSender, callBack, userContext);
+    }
+
     /**
      * 释放资源
      */
@@ -448,6 +500,11 @@ public class TXMqttClient {
 
             @Override
             public void onPublishCompleted(String status, TXMqttToken token, long userContextId, String errMsg) {
+                TXPublishWindow.Ticket ticket = mBatchTicketMap.remove(Long.valueOf(userContextId));
+                if (null != ticket) {
+                    ticket.complete(Status.valueOf(Status.class, status) == Status.OK);
+                    return;
+                }
                 Loggor.error(TAG, String.format("onPublishCompleted, status[%s], token[%s], errMsg[%s]", status, token, errMsg));
                 if (null != mMqttActionCallBack) {
                     Object userContext = mUserContextMap.get(Long.valueOf(userContextId));
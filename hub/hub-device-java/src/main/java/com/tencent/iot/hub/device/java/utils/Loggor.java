@@ -97,6 +97,24 @@ public class Loggor {
         logCallback = callback;
     }
 
+    /**
+     * 是否需要输出 debug 级别日志，可用于在拼接日志内容前判断，避免无用的字符串分配
+     *
+     * @return 日志实体开启 debug 级别或设置了日志回调时返回 true
+     */
+    public static boolean isDebugEnabled() {
+        return logCallback != null || logger.isDebugEnabled();
+    }
+
+    /**
+     * 是否需要输出 info 级别日志，可用于在拼接日志内容前判断，避免无用的字符串分配
+     *
+     * @return 日志实体开启 info 级别或设置了日志回调时返回 true
+     */
+    public static boolean isInfoEnabled() {
+        return logCallback != null || logger.isInfoEnabled();
+    }
+
     /**
      * 打印 error 级别日志
      *
@@ -147,4 +165,30 @@ public class Loggor {
             logCallback.debug(tag, msg);
         }
     }
+
+    /**
+     * 打印 info 级别日志，仅在需要输出时才格式化日志内容
+     *
+     * @param tag 日志标记
+     * @param format 日志格式，同 {@link String#format(String, Object...)}
+     * @param args 格式参数
+     */
+    public static void info(String tag, String format, Object... args) {
+        if (isInfoEnabled()) {
+            info(tag, String.format(format, args));
+        }
+    }
+
+    /**
+     * 打印 debug 级别日志，仅在需要输出时才格式化日志内容
+     *
+     * @param tag 日志标记
+     * @param format 日志格式，同 {@link String#format(String, Object...)}
+     * @param args 格式参数
+     */
+    public static void debug(String tag, String format, Object... args) {
+        if (isDebugEnabled()) {
+            debug(tag, String.format(format, args));
+        }
+    }
 }
@@ -0,0 +1,144 @@
+package com.tencent.iot.hub.device.java.core.json;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class TXJsonCodecTest {
+
+    private static final String DOCUMENT = "{\"method\":\"control\",\"clientToken\":\"PRODUCT-1\",\"code\":0,"
+            + "\"timestamp\":1600000000123,\"params\":{\"power_switch\":1,\"brightness\":85.5,\"color\":\"红色\","
+            + "\"name\":\"lamp \\\"one\\\"\\n\\u00e9\\ud83d\\ude00\",\"empty\":null,\"on\":true,\"off\":false,"
+            + "\"neg\":-12,\"exp\":1e3,\"big\":123456789012345678901234,\"list\":[1,2.5,\"x\",{\"a\":[]},[]],"
+            + "\"obj\":{}}}";
+
+    private final TXJsonCodec mStreaming = new TXStreamingJsonCodec();
+    private final TXJsonCodec mOrgJson = new TXOrgJsonCodec();
+
+    @Test
+    public void testDecodeMatchesOrgJson() {
+        byte[] data = DOCUMENT.getBytes(TXJsonCodecs.UTF_8);
+        JSONObject expected = mOrgJson.decode(data);
+        JSONObject actual = mStreaming.decode(data);
+        assertTrue(expected.similar(actual));
+
+        JSONObject params = actual.getJSONObject("params");
+        assertEquals(Integer.class, params.get("power_switch").getClass());
+        assertEquals(Long.class, actual.get("timestamp").getClass());
+        assertEquals(Double.class, params.get("brightness").getClass());
+        assertEquals(params.get("big").getClass(), expected.getJSONObject("params").get("big").getClass());
+        assertEquals("红色", params.getString("color"));
+        assertEquals("lamp \"one\"\né😀", params.getString("name"));
+        assertEquals(JSONObject.NULL, params.get("empty"));
+    }
+
+    @Test
+    public void testEncodeRoundTrip() {
+        JSONObject object = new JSONObject(DOCUMENT);
+        byte[] encoded = mStreaming.encode(object);
+        // 与 org.json 输出后再解析的结果一致（例如 1e3 输出为 1000）
+        JSONObject expected = new JSONObject(object.toString());
+        assertTrue(expected.similar(new JSONObject(new String(encoded, TXJsonCodecs.UTF_8))));
+        assertTrue(expected.similar(mStreaming.decode(encoded)));
+
+        TXJsonWriter writer = new TXJsonWriter(16);
+        writer.beginObject()
+                .name("s").value("a\u0001\t/\\")
+                .name("i").value(-42)
+                .name("f").value(0.1f)
+                .name("d").value(2.0)
+                .name("b").value(true)
+                .name("n").nullValue()
+                .name("a").beginArray().value(1).value("x").beginObject().endObject().endArray()
+                .endObject();
+        assertEquals("{\"s\":\"a\\u0001\\t/\\\\\",\"i\":-42,\"f\":0.1,\"d\":2,\"b\":true,\"n\":null,"
+                + "\"a\":[1,\"x\",{}]}", writer.toString());
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("v", Long.MIN_VALUE);
+        writer.reset();
+        writer.value(map);
+        assertEquals("{\"v\":" + Long.MIN_VALUE + "}", writer.toString());
+    }
+
+    @Test
+    public void testLenientAndInvalidInput() {
+        // 非标准 JSON 按 org.json 的规则解析
+        JSONObject lenient = mStreaming.decode("{'a':1, b:'x'}".getBytes(TXJsonCodecs.UTF_8));
+        assertEquals(1, lenient.getInt("a"));
+        assertEquals("x", lenient.getString("b"));
+        assertEquals("012", mStreaming.decode("{\"a\":012}".getBytes(TXJsonCodecs.UTF_8)).get("a"));
+
+        String[] invalid = {"", "[1]", "{\"a\":", "{\"a\":1,\"a\":2}", "{\"a\":\"x}"};
+        for (String text : invalid) {
+            try {
+                mStreaming.decode(text.getBytes(TXJsonCodecs.UTF_8));
+                fail(text);
+            } catch (JSONException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * 对比流式编解码与原先 org.json 文本解析、输出的吞吐量：-Dbenchmark=true
+     */
+    @Test
+    public void benchmarkThroughput() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        JSONObject params = new JSONObject();
+        for (int i = 0; i < 30; i++) {
+            params.put("property_" + i, i % 3 == 0 ? (Object) (i * 1.5) : i % 3 == 1 ? (Object) i : "value-" + i);
+        }
+        params.put("list", new JSONArray("[1,2,3,\"温度\"]"));
+        JSONObject document = new JSONObject();
+        document.put("method", "report");
+        document.put("clientToken", "PRODUCTdevice-1");
+        document.put("timestamp", 1600000000123L);
+        document.put("params", params);
+        byte[] data = mOrgJson.encode(document);
+
+        int iterations = 50000;
+        for (int i = 0; i < iterations / 5; i++) {
+            mStreaming.decode(data);
+            mOrgJson.decode(data);
+            mStreaming.encode(document);
+            mOrgJson.encode(document);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            mStreaming.decode(data);
+        }
+        long streamingDecode = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            mOrgJson.decode(data);
+        }
+        long orgDecode = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            mStreaming.encode(document);
+        }
+        long streamingEncode = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            mOrgJson.encode(document);
+        }
+        long orgEncode = System.nanoTime() - start;
+
+        System.out.println(String.format("%d byte message, decode: streaming %.0f/s, org.json %.0f/s; "
+                        + "encode: streaming %.0f/s, org.json %.0f/s", data.length,
+                iterations * 1e9 / streamingDecode, iterations * 1e9 / orgDecode,
+                iterations * 1e9 / streamingEncode, iterations * 1e9 / orgEncode));
+    }
+}
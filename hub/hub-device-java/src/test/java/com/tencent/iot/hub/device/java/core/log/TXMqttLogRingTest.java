@@ -0,0 +1,198 @@
+package com.tencent.iot.hub.device.java.core.log;
+
+import com.tencent.iot.hub.device.java.core.common.Status;
+import com.tencent.iot.hub.device.java.core.mqtt.TXMqttActionCallBack;
+import com.tencent.iot.hub.device.java.core.mqtt.TXMqttConnection;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class TXMqttLogRingTest {
+
+    @Test
+    public void testDrainInOrderAndOverwriteOldest() {
+        TXMqttLogRing ring = new TXMqttLogRing(4);
+        Object arg = new Object();
+        for (int i = 0; i < 6; i++) {
+            ring.add(TXMqttLogConstants.LEVEL_INFO, "TAG", i, "log %s", new Object[]{arg});
+        }
+        assertEquals(4, ring.size());
+        assertEquals(2, ring.getOverwrittenCount());
+
+        TXMqttLogRecord[] out = new TXMqttLogRecord[ring.capacity()];
+        assertEquals(4, ring.drainTo(out));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 2, out[i].getTimestamp());
+            assertSame(arg, out[i].getArgs()[0]);
+        }
+        assertEquals(0, ring.size());
+
+        // 取出后队列不再持有参数的引用
+        ring.add(TXMqttLogConstants.LEVEL_INFO, "TAG", 10, "log", null);
+        assertEquals(1, ring.drainTo(out));
+        assertEquals(10, out[0].getTimestamp());
+        assertNull(out[0].getArgs());
+    }
+
+    @Test
+    public void testFormatAtUploadTime() {
+        TXMqttLogRecord record = new TXMqttLogRecord();
+        TXMqttLogRecord.Clock clock = new TXMqttLogRecord.Clock();
+        long now = System.currentTimeMillis();
+
+        record.set(TXMqttLogConstants.LEVEL_WARN, "TAG", now, "value %d of %s", new Object[]{3, "x"});
+        StringBuilder out = new StringBuilder();
+        record.appendTo(out, clock);
+        String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(now);
+        assertEquals("WRN|" + time + "|TAG|value 3 of x\n\f", out.toString());
+
+        // 没有参数时不按格式解析，格式错误时保留原文
+        assertEquals("100% done", message("100% done", null));
+        assertEquals("100% done", message("100% done", new Object[0]));
+        assertTrue(message("%d", new Object[]{"x"}).startsWith("%d"));
+
+        record.set(TXMqttLogRecord.LEVEL_RAW, null, 0, "ERR|offline|TAG|x\n\f", null);
+        out.setLength(0);
+        record.appendTo(out, clock);
+        assertEquals("ERR|offline|TAG|x\n\f", out.toString());
+    }
+
+    @Test
+    public void testFilteredRecordsNotFormatted() {
+        TXMqttLog log = newLog();
+        log.setMqttLogLevel(TXMqttLogConstants.LEVEL_WARN);
+        CountingArg arg = new CountingArg();
+
+        assertFalse(log.isLoggable(TXMqttLogConstants.LEVEL_DEBUG));
+        assertFalse(log.saveMqttLog(TXMqttLogConstants.LEVEL_DEBUG, "TAG", "%s", arg));
+        assertTrue(log.saveMqttLog(TXMqttLogConstants.LEVEL_ERROR, "TAG", "%s", arg));
+        // 保存时也不格式化，上传时才调用 toString
+        assertEquals(0, arg.calls);
+        log.close();
+    }
+
+    /**
+     * 对比过滤与不过滤级别下的吞吐量，以及原先保存前即格式化的实现：-Dbenchmark=true
+     */
+    @Test
+    public void benchmarkThroughput() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        final int iterations = 1000000;
+        TXMqttLog log = newLog();
+        Object[] args = {"temperature", 25, 0.5};
+        String format = "sensor %s value %d delta %.2f";
+
+        // 预热
+        runSave(log, TXMqttLogConstants.LEVEL_DEBUG, iterations / 10, format, args);
+        runEager(iterations / 10, format, args);
+
+        log.setMqttLogLevel(TXMqttLogConstants.LEVEL_ERROR);
+        long filtered = runSave(log, TXMqttLogConstants.LEVEL_DEBUG, iterations, format, args);
+        log.setMqttLogLevel(TXMqttLogConstants.LEVEL_DEBUG);
+        long unfiltered = runSave(log, TXMqttLogConstants.LEVEL_DEBUG, iterations, format, args);
+        long eager = runEager(iterations, format, args);
+
+        System.out.println(String.format("filtered: %.1f M records/s, unfiltered: %.1f M records/s, " +
+                        "format before save: %.2f M records/s",
+                iterations * 1e3 / filtered, iterations * 1e3 / unfiltered, iterations * 1e3 / eager));
+        assertTrue(filtered < eager);
+        assertTrue(unfiltered < eager);
+        log.close();
+    }
+
+    private static long runSave(TXMqttLog log, int level, int iterations, String format, Object[] args) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (log.isLoggable(level)) {
+                log.saveMqttLog(level, "TAG", format, args);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 原先的实现：保存前格式化时间与内容，再生成一条调试信息
+     */
+    private static long runEager(int iterations, String format, Object[] args) {
+        LinkedBlockingDeque<String> deque = new LinkedBlockingDeque<>(10000);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            SimpleDateFormat timeFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            String logTime = timeFormatter.format(System.currentTimeMillis());
+            String log = String.format("%s|%s|%s|%s\n\f", "DBG", logTime, "TAG", String.format(format, args));
+            if (!deque.offer(log)) {
+                deque.clear();
+            }
+            String.format("Add log to log Deque! %s", log).replace("\n\f", "");
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static String message(String format, Object[] args) {
+        TXMqttLogRecord record = new TXMqttLogRecord();
+        record.set(TXMqttLogConstants.LEVEL_INFO, "TAG", 0, format, args);
+        return record.getMessage();
+    }
+
+    private static class CountingArg {
+        int calls;
+
+        @Override
+        public String toString() {
+            calls++;
+            return "arg";
+        }
+    }
+
+    private static TXMqttLog newLog() {
+        TXMqttConnection connection = new TXMqttConnection("PRODUCT", "device", null, new TXMqttActionCallBack() {
+            @Override
+            public void onConnectCompleted(Status status, boolean reconnect, Object userContext, String msg) {
+            }
+
+            @Override
+            public void onConnectionLost(Throwable cause) {
+            }
+
+            @Override
+            public void onDisconnectCompleted(Status status, Object userContext, String msg) {
+            }
+        });
+        connection.setmMqttLogCallBack(new TXMqttLogCallBack() {
+            @Override
+            public void printDebug(String message) {
+            }
+
+            @Override
+            public String setSecretKey() {
+                return "c2VjcmV0a2V5";
+            }
+
+            @Override
+            public boolean saveLogOffline(String log) {
+                return true;
+            }
+
+            @Override
+            public String readOfflineLog() {
+                return null;
+            }
+
+            @Override
+            public boolean delOfflineLog() {
+                return true;
+            }
+        });
+        // 上传到不可用的地址，失败的日志交给 saveLogOffline
+        return new TXMqttLog(connection, "http://127.0.0.1:1/reportlog");
+    }
+}
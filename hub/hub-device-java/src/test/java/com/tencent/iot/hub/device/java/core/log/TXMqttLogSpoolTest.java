@@ -0,0 +1,268 @@
+package com.tencent.iot.hub.device.java.core.log;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.tencent.iot.hub.device.java.core.common.Status;
+import com.tencent.iot.hub.device.java.core.mqtt.TXMqttActionCallBack;
+import com.tencent.iot.hub.device.java.core.mqtt.TXMqttConnection;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TXMqttLogSpoolTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("log-spool").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void testRingDropsOldest() throws Exception {
+        TXMqttLogSpool spool = new TXMqttLogSpool(mDir, 1000, 3);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(spool.offer(("batch" + i).getBytes(UTF_8)));
+        }
+        assertEquals(3, spool.size());
+        assertEquals(2, spool.getDroppedCount());
+        assertEquals("batch2", new String(spool.peek(), UTF_8));
+
+        // 按字节数限制
+        assertTrue(spool.offer(new byte[990]));
+        assertEquals(2, spool.size());
+        assertEquals(996, spool.getBytes());
+        assertEquals("batch4", new String(spool.peek(), UTF_8));
+        assertFalse(spool.offer(new byte[1001]));
+        assertEquals(2, mDir.listFiles().length);
+    }
+
+    @Test
+    public void testReopenKeepsOrder() throws Exception {
+        TXMqttLogSpool spool = new TXMqttLogSpool(mDir);
+        for (int i = 0; i < 12; i++) {
+            spool.offer(("batch" + i).getBytes(UTF_8));
+        }
+        spool.remove();
+        assertTrue(new File(mDir, "0000000000000099.batch.tmp").createNewFile());
+
+        TXMqttLogSpool reopened = new TXMqttLogSpool(mDir);
+        assertEquals(11, reopened.size());
+        for (int i = 1; i < 12; i++) {
+            assertArrayEquals(("batch" + i).getBytes(UTF_8), reopened.peek());
+            reopened.remove();
+        }
+        assertNull(reopened.peek());
+        reopened.offer("next".getBytes(UTF_8));
+        assertTrue(new File(mDir, "0000000000000012.batch").exists());
+        assertEquals(1, mDir.listFiles().length);
+    }
+
+    @Test
+    public void testBatchedCompressedUpload() throws Exception {
+        LogServer server = new LogServer(0);
+        try {
+            TXMqttLog log = newLog(server, null);
+            List<String> expected = writeLogs(log, 5000);
+            log.uploadMqttLog();
+            server.await(expected.size(), 10000);
+
+            assertEquals(expected, server.lines);
+            assertTrue(server.requests.get() > 1);
+            for (int length : server.messageLengths) {
+                assertTrue(length <= TXMqttLogImpl.MAX_BATCH_CHARS);
+            }
+            assertTrue(log.getCompressionRatio() > 2);
+            if (Boolean.getBoolean("benchmark")) {
+                System.out.println(String.format("%d bytes in %d batches, %.0f bytes/s, compression ratio %.1f",
+                        log.getUploadedBytes(), server.requests.get(), log.getUploadBytesPerSecond(),
+                        log.getCompressionRatio()));
+            }
+            log.close();
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testFailedBatchesSpooledAndRetried() throws Exception {
+        LogServer server = new LogServer(1);
+        try {
+            TXMqttLogSpool spool = new TXMqttLogSpool(mDir);
+            TXMqttLog log = newLog(server, spool);
+            List<String> expected = writeLogs(log, 2000);
+            log.uploadMqttLog();
+
+            // 第一个请求失败后所有批次写入缓存，退避后按顺序重试
+            Thread.sleep(300);
+            assertTrue(spool.size() > 1);
+            assertTrue(server.lines.isEmpty());
+            server.await(expected.size(), 10000);
+
+            assertEquals(expected, server.lines);
+            Thread.sleep(100);
+            assertEquals(0, spool.size());
+            log.close();
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static List<String> writeLogs(TXMqttLog log, int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String line = String.format("sensor %d temperature %d humidity %d status ok", i % 16, 20 + i % 7, 40 + i % 13);
+            log.saveMqttLog(TXMqttLogConstants.LEVEL_INFO, "TEST", "%s", line);
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private static TXMqttLog newLog(LogServer server, TXMqttLogSpool spool) {
+        TXMqttConnection connection = new TXMqttConnection("PRODUCT", "device", null, new TXMqttActionCallBack() {
+            @Override
+            public void onConnectCompleted(Status status, boolean reconnect, Object userContext, String msg) {
+            }
+
+            @Override
+            public void onConnectionLost(Throwable cause) {
+            }
+
+            @Override
+            public void onDisconnectCompleted(Status status, Object userContext, String msg) {
+            }
+        });
+        connection.setmMqttLogCallBack(new TXMqttLogCallBack() {
+            @Override
+            public void printDebug(String message) {
+            }
+
+            @Override
+            public String setSecretKey() {
+                return "c2VjcmV0a2V5";
+            }
+
+            @Override
+            public boolean saveLogOffline(String log) {
+                return true;
+            }
+
+            @Override
+            public String readOfflineLog() {
+                return null;
+            }
+
+            @Override
+            public boolean delOfflineLog() {
+                return true;
+            }
+        });
+        connection.setLogSpool(spool);
+        TXMqttLog log = new TXMqttLog(connection, server.url());
+        log.setMqttLogLevel(TXMqttLogConstants.LEVEL_DEBUG);
+        return log;
+    }
+
+    /**
+     * 解压并记录收到的日志，前 failCount 个请求返回 503
+     */
+    private static class LogServer {
+        final HttpServer server;
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        final List<Integer> messageLengths = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger failures;
+
+        LogServer(int failCount) throws IOException {
+            failures = new AtomicInteger(failCount);
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/reportlog", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    byte[] body = readAll(exchange.getRequestBody());
+                    if (failures.getAndDecrement() > 0) {
+                        exchange.sendResponseHeaders(503, -1);
+                        exchange.close();
+                        return;
+                    }
+                    assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                    assertTrue(exchange.getRequestHeaders().getFirst("X-TC-Signature").length() > 0);
+                    JSONObject json = new JSONObject(new String(readAll(
+                            new GZIPInputStream(new ByteArrayInputStream(body))), UTF_8));
+                    String message = json.getJSONArray("Message").getString(0);
+                    messageLengths.add(message.length());
+                    for (String line : message.split("\n\f")) {
+                        lines.add(line.substring(line.lastIndexOf('|') + 1));
+                    }
+                    requests.incrementAndGet();
+                    byte[] resp = "{\"Response\":{\"RequestId\":\"test\"}}".getBytes(UTF_8);
+                    exchange.sendResponseHeaders(200, resp.length);
+                    exchange.getResponseBody().write(resp);
+                    exchange.close();
+                }
+            });
+            server.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/reportlog";
+        }
+
+        void await(int count, long timeout) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (lines.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
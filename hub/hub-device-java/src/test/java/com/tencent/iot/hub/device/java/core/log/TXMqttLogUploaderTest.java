@@ -0,0 +1,154 @@
+package com.tencent.iot.hub.device.java.core.log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TXMqttLogUploaderTest {
+
+    private static class CountingTarget implements TXMqttLogUploader.Target {
+        final AtomicInteger uploads = new AtomicInteger();
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final long sleepMillis;
+
+        CountingTarget(long sleepMillis) {
+            this.sleepMillis = sleepMillis;
+        }
+
+        @Override
+        public void upload() {
+            int now = active.incrementAndGet();
+            if (now > maxActive.get()) {
+                maxActive.set(now);
+            }
+            try {
+                if (sleepMillis > 0) {
+                    Thread.sleep(sleepMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            uploads.incrementAndGet();
+            active.decrementAndGet();
+        }
+    }
+
+    private TXMqttLogUploader mUploader;
+
+    @Before
+    public void setUp() {
+        mUploader = new TXMqttLogUploader(2);
+    }
+
+    @After
+    public void tearDown() {
+        mUploader.shutdown(1000);
+    }
+
+    @Test
+    public void testIdleRegistrationsDoNotWakeUp() throws Exception {
+        int threadsBefore = Thread.activeCount();
+        List<CountingTarget> targets = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            CountingTarget target = new CountingTarget(0);
+            targets.add(target);
+            mUploader.register(target, 20);
+        }
+        Thread.sleep(200);
+
+        assertEquals(1000, mUploader.getRegisteredCount());
+        for (CountingTarget target : targets) {
+            assertEquals(0, target.uploads.get());
+        }
+        // 旧实现每个连接一个线程
+        assertTrue(Thread.activeCount() - threadsBefore <= 2);
+    }
+
+    @Test
+    public void testTimeTrigger() throws Exception {
+        CountingTarget target = new CountingTarget(0);
+        TXMqttLogUploader.Registration registration = mUploader.register(target, 100);
+
+        // 间隔内多次添加日志只计时一次
+        for (int i = 0; i < 50; i++) {
+            registration.arm();
+        }
+        Thread.sleep(50);
+        assertEquals(0, target.uploads.get());
+        Thread.sleep(200);
+        assertEquals(1, target.uploads.get());
+
+        // 上传后没有新日志不再唤醒
+        Thread.sleep(200);
+        assertEquals(1, target.uploads.get());
+    }
+
+    @Test
+    public void testTriggerUploadsImmediately() throws Exception {
+        CountingTarget target = new CountingTarget(0);
+        TXMqttLogUploader.Registration registration = mUploader.register(target, 60000);
+
+        registration.arm();
+        registration.trigger();
+        Thread.sleep(100);
+        assertEquals(1, target.uploads.get());
+    }
+
+    @Test
+    public void testTriggersCoalesceWithoutConcurrentUpload() throws Exception {
+        CountingTarget target = new CountingTarget(50);
+        TXMqttLogUploader.Registration registration = mUploader.register(target, 60000);
+
+        registration.trigger();
+        Thread.sleep(10);
+        // 上传过程中的多次触发合并为结束后的一次上传
+        for (int i = 0; i < 100; i++) {
+            registration.trigger();
+        }
+        Thread.sleep(300);
+
+        assertEquals(2, target.uploads.get());
+        assertEquals(1, target.maxActive.get());
+    }
+
+    @Test
+    public void testCloseFlushesAndUnregisters() throws Exception {
+        CountingTarget target = new CountingTarget(0);
+        TXMqttLogUploader.Registration registration = mUploader.register(target, 60000);
+
+        registration.arm();
+        registration.close(true);
+        Thread.sleep(100);
+        assertEquals(1, target.uploads.get());
+        assertEquals(0, mUploader.getRegisteredCount());
+
+        // 关闭后添加的日志不再上传
+        registration.arm();
+        Thread.sleep(100);
+        assertEquals(1, target.uploads.get());
+    }
+
+    @Test
+    public void testShutdownFlushesAll() throws Exception {
+        List<CountingTarget> targets = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            CountingTarget target = new CountingTarget(10);
+            targets.add(target);
+            mUploader.register(target, 60000).arm();
+        }
+
+        assertTrue(mUploader.shutdown(2000));
+        for (CountingTarget target : targets) {
+            assertEquals(1, target.uploads.get());
+        }
+        assertEquals(0, mUploader.getRegisteredCount());
+    }
+}
@@ -0,0 +1,126 @@
+package com.tencent.iot.hub.device.java.core.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TXMqttMetricsTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long v = 0; v < 1000000; v += 7) {
+            long upper = TXLatencyHistogram.upperBoundOf(TXLatencyHistogram.indexOf(v));
+            assertTrue(upper >= v);
+            assertTrue(upper - v <= Math.max(v / 8, 0) + 1);
+        }
+    }
+
+    @Test
+    public void testHistogramPercentile() {
+        TXLatencyHistogram histogram = new TXLatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500, histogram.getMean());
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 * 9 / 8);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000);
+        histogram.reset();
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void testPublishLifecycle() throws Exception {
+        TXMqttMetrics metrics = new TXMqttMetrics();
+        long globalPublished = TXMqttMetrics.global().getPublished();
+
+        long start = metrics.onPublishStarted();
+        metrics.onRequestSent(1, start);
+        start = metrics.onPublishStarted();
+        metrics.onRequestSent(2, start);
+        assertEquals(2, metrics.getInflight());
+
+        Thread.sleep(5);
+        metrics.onPublishCompleted(1, true);
+        metrics.onPublishCompleted(2, false);
+
+        assertEquals(2, metrics.getPublished());
+        assertEquals(1, metrics.getPublishAcked());
+        assertEquals(1, metrics.getPublishFailed());
+        assertEquals(0, metrics.getInflight());
+        assertEquals(1, metrics.getPublishLatency().getCount());
+        assertTrue(metrics.getPublishLatencyMax() >= 5000);
+        assertTrue(TXMqttMetrics.global().getPublished() >= globalPublished + 2);
+
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertEquals(Long.valueOf(2), snapshot.get("published"));
+        assertEquals(Long.valueOf(1), snapshot.get("publishLatency.count"));
+    }
+
+    @Test
+    public void testAckBeforeSentAndSlotCollision() throws Exception {
+        TXMqttMetrics metrics = new TXMqttMetrics();
+
+        // 确认在 onRequestSent 之前到达，时延由 onRequestSent 补记
+        long start = metrics.onPublishStarted();
+        Thread.sleep(5);
+        metrics.onPublishCompleted(3, true);
+        assertEquals(0, metrics.getPublishLatency().getCount());
+        metrics.onRequestSent(3, start);
+        assertEquals(1, metrics.getPublishLatency().getCount());
+        assertTrue(metrics.getPublishLatencyMax() >= 5000);
+
+        // messageId 相差 1024 的两个在途请求共用槽位，不计入错误的时延
+        long first = metrics.onPublishStarted();
+        metrics.onRequestSent(5, first);
+        Thread.sleep(20);
+        long second = metrics.onPublishStarted();
+        metrics.onRequestSent(5 + 1024, second);
+        metrics.onPublishCompleted(5, true);
+        metrics.onPublishCompleted(5 + 1024, true);
+        assertEquals(2, metrics.getPublishLatency().getCount());
+        assertTrue(metrics.getPublishLatencyMax() < 20000);
+
+        // 槽位中的旧记录不影响之后同一槽位的请求
+        start = metrics.onPublishStarted();
+        metrics.onRequestSent(5, start);
+        metrics.onPublishCompleted(5, true);
+        assertEquals(3, metrics.getPublishLatency().getCount());
+        assertEquals(0, metrics.getInflight());
+    }
+
+    @Test
+    public void testConnectAndSubscribe() {
+        TXMqttMetrics metrics = new TXMqttMetrics();
+        metrics.onConnectCompleted(TXMqttMetrics.now(), true);
+        metrics.onConnectCompleted(TXMqttMetrics.now(), false);
+        metrics.onReconnected();
+        metrics.onConnectionLost();
+        long start = metrics.onSubscribeStarted();
+        metrics.onRequestSent(7, start);
+        metrics.onSubscribeCompleted(7, true);
+
+        assertEquals(1, metrics.getConnects());
+        assertEquals(1, metrics.getConnectFailures());
+        assertEquals(1, metrics.getConnectLatency().getCount());
+        assertEquals(1, metrics.getReconnects());
+        assertEquals(1, metrics.getConnectionLost());
+        assertEquals(1, metrics.getSubscribed());
+        assertEquals(1, metrics.getSubscribeLatency().getCount());
+
+        metrics.reset();
+        assertEquals(0, metrics.getConnects());
+    }
+
+    @Test
+    public void testRegisterMBean() {
+        assertTrue(TXMqttMetricsJmx.register("test", new TXMqttMetrics()));
+        TXMqttMetricsJmx.unregister("test");
+    }
+}
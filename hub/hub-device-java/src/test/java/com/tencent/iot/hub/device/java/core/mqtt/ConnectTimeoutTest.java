@@ -0,0 +1,70 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.core.common.Status;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 连接一个只接受 TCP 连接但从不返回 CONNACK 的服务器，验证连接超时
+ */
+public class ConnectTimeoutTest {
+
+    @Test
+    public void testConnectDeadline() throws Exception {
+        final ServerSocket blackHole = new ServerSocket(0);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = blackHole.accept();
+                    Thread.sleep(10000);
+                    socket.close();
+                } catch (Exception e) {
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Status> result = new AtomicReference<>();
+        TXMqttConnection connection = new TXMqttConnection("tcp://127.0.0.1:" + blackHole.getLocalPort(),
+                "PRODUCT", "device", null, null, null, new TXMqttActionCallBack() {
+            @Override
+            public void onConnectCompleted(Status status, boolean reconnect, Object userContext, String msg) {
+                result.set(status);
+                latch.countDown();
+            }
+
+            @Override
+            public void onConnectionLost(Throwable cause) {
+            }
+
+            @Override
+            public void onDisconnectCompleted(Status status, Object userContext, String msg) {
+            }
+        });
+        connection.setConnectTimeout(500);
+
+        long start = System.currentTimeMillis();
+        Status status = connection.connect(new MqttConnectOptions(), null);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(Status.ERROR, status);
+        assertTrue(elapsed < 5000);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Status.ERROR, result.get());
+        assertEquals(TXMqttConstants.ConnectStatus.kConnectFailed, connection.getConnectStatus());
+        blackHole.close();
+    }
+}
@@ -0,0 +1,93 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.core.common.Status;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 发布路径的单次分配字节数（不含 Paho 内部发送开销），日志级别为 WARN 时发布路径不应再格式化日志
+ */
+public class PublishAllocationBenchmarkTest {
+
+    /**
+     * 每次发布允许的分配字节数上限；当前实现为 0，留出少量余量避免偶发的统计误差
+     */
+    private static final double MAX_BYTES_PER_PUBLISH = 32;
+
+    private static class NoopClient extends MqttAsyncClient {
+        NoopClient() throws MqttException {
+            super("tcp://127.0.0.1:1883", "noop", new MemoryPersistence());
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public IMqttDeliveryToken publish(String topic, MqttMessage message, Object userContext, IMqttActionListener callback) {
+            return null;
+        }
+    }
+
+    @Test
+    public void benchmarkPublishAllocation() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+
+        TXMqttConnection connection = new TXMqttConnection("PRODUCT", "device", null, new TXMqttActionCallBack() {
+            @Override
+            public void onConnectCompleted(Status status, boolean reconnect, Object userContext, String msg) {
+            }
+
+            @Override
+            public void onConnectionLost(Throwable cause) {
+            }
+
+            @Override
+            public void onDisconnectCompleted(Status status, Object userContext, String msg) {
+            }
+        });
+        connection.mMqttClient = new NoopClient();
+
+        Level level = LogManager.getRootLogger().getLevel();
+        LogManager.getRootLogger().setLevel(Level.WARN);
+        try {
+            String topic = "PRODUCT/device/data";
+            MqttMessage message = new MqttMessage(new byte[256]);
+            int iterations = 100000;
+            for (int i = 0; i < iterations; i++) {
+                assertEquals(Status.OK, connection.publish(topic, message, null));
+            }
+
+            long threadId = Thread.currentThread().getId();
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < iterations; i++) {
+                connection.publish(topic, message, null);
+            }
+            long after = threadBean.getThreadAllocatedBytes(threadId);
+            double bytesPerOp = (double) (after - before) / iterations;
+            if (Boolean.getBoolean("benchmark")) {
+                System.out.println(String.format("publish allocation: %.1f bytes/op", bytesPerOp));
+            }
+            assertTrue(String.format("publish allocates %.1f bytes/op", bytesPerOp), bytesPerOp <= MAX_BYTES_PER_PUBLISH);
+        } finally {
+            LogManager.getRootLogger().setLevel(level);
+        }
+    }
+}
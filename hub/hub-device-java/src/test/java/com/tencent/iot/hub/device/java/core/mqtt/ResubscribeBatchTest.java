@@ -0,0 +1,72 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.core.common.Status;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 验证重连后已订阅主题按批次重新订阅
+ */
+public class ResubscribeBatchTest {
+
+    private static class RecordingClient extends MqttAsyncClient {
+        final List<String[]> batches = new ArrayList<>();
+
+        RecordingClient() throws MqttException {
+            super("tcp://127.0.0.1:1883", "recording", new MemoryPersistence());
+        }
+
+        @Override
+        public IMqttToken subscribe(String[] topicFilters, int[] qos, Object userContext, IMqttActionListener callback) {
+            batches.add(topicFilters);
+            return null;
+        }
+    }
+
+    @Test
+    public void testResubscribeInBatches() throws Exception {
+        TXMqttConnection connection = new TXMqttConnection("PRODUCT", "device", null, new TXMqttActionCallBack() {
+            @Override
+            public void onConnectCompleted(Status status, boolean reconnect, Object userContext, String msg) {
+            }
+
+            @Override
+            public void onConnectionLost(Throwable cause) {
+            }
+
+            @Override
+            public void onDisconnectCompleted(Status status, Object userContext, String msg) {
+            }
+        });
+        RecordingClient client = new RecordingClient();
+        connection.mMqttClient = client;
+
+        int count = TXMqttConstants.MAX_TOPICS_PER_SUBSCRIBE * 2 + 5;
+        for (int i = 0; i < count; i++) {
+            connection.mSubscribedTopicMap.put("PRODUCT/device/topic" + i, TXMqttConstants.QOS1);
+        }
+
+        connection.resubscribeAll();
+
+        assertEquals(3, client.batches.size());
+        Set<String> topics = new HashSet<>();
+        for (String[] batch : client.batches) {
+            for (String topic : batch) {
+                topics.add(topic);
+            }
+        }
+        assertEquals(count, topics.size());
+    }
+}
@@ -0,0 +1,381 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.tencent.iot.hub.device.java.core.common.Status;
+
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class TXDeltaPatcherTest {
+
+    /**
+     * 按控制块依次生成补丁
+     */
+    private static class PatchWriter {
+        private final OutputStream mBody;
+        private final byte[] mCtrl = new byte[24];
+
+        PatchWriter(OutputStream out, long newSize, boolean gzip) throws IOException {
+            byte[] header = new byte[24];
+            System.arraycopy(TXDeltaPatcher.MAGIC.getBytes(Charset.forName("US-ASCII")), 0, header, 0, 16);
+            TXDeltaPatcher.offtout(newSize, header, 16);
+            out.write(header);
+            mBody = gzip ? new GZIPOutputStream(out, 64 * 1024) : out;
+        }
+
+        void add(byte[] diff, int diffLength, byte[] extra, int extraLength, long seek) throws IOException {
+            TXDeltaPatcher.offtout(diffLength, mCtrl, 0);
+            TXDeltaPatcher.offtout(extraLength, mCtrl, 8);
+            TXDeltaPatcher.offtout(seek, mCtrl, 16);
+            mBody.write(mCtrl);
+            mBody.write(diff, 0, diffLength);
+            mBody.write(extra, 0, extraLength);
+        }
+
+        void close() throws IOException {
+            mBody.close();
+        }
+    }
+
+    private static byte oldAt(byte[] old, long pos) {
+        return pos >= 0 && pos < old.length ? old[(int) pos] : 0;
+    }
+
+    private static File writeTemp(byte[] data) throws IOException {
+        File file = File.createTempFile("firmware", ".bin");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        return file;
+    }
+
+    private static String md5(byte[] data) {
+        TXFirmwareDigest digest = TXFirmwareDigest.create(TXFirmwareDigest.MD5);
+        digest.update(data, 0, data.length);
+        return digest.digestHex();
+    }
+
+    /**
+     * 生成新固件：修改开头、插入 extra 数据、向后跳过、向前回退，并读取超出旧固件末尾的位置
+     */
+    private byte[] buildPatch(byte[] old, ByteArrayOutputStream expected, boolean gzip) throws IOException {
+        Random random = new Random(3);
+        long[][] tuples = {
+                // diff 长度, extra 长度, seek
+                {3000, 500, 2000},
+                {5000, 0, -9000},
+                {1000, 0, 7900},
+                {300, 64, 0},
+        };
+        long newSize = 0;
+        for (long[] tuple : tuples) {
+            newSize += tuple[0] + tuple[1];
+        }
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        PatchWriter writer = new PatchWriter(patch, newSize, gzip);
+        long oldPos = 0;
+        for (long[] tuple : tuples) {
+            byte[] diff = new byte[(int) tuple[0]];
+            // 少量字节不同
+            for (int i = 0; i < diff.length; i += 97) {
+                diff[i] = (byte) random.nextInt();
+            }
+            for (int i = 0; i < diff.length; i++) {
+                expected.write((byte) (oldAt(old, oldPos + i) + diff[i]));
+            }
+            byte[] extra = new byte[(int) tuple[1]];
+            random.nextBytes(extra);
+            expected.write(extra);
+            writer.add(diff, diff.length, extra, extra.length, tuple[2]);
+            oldPos += diff.length + tuple[2];
+        }
+        writer.close();
+        return patch.toByteArray();
+    }
+
+    @Test
+    public void testApplyPatch() throws Exception {
+        byte[] old = new byte[10000];
+        new Random(1).nextBytes(old);
+        File oldFile = writeTemp(old);
+        try {
+            for (boolean gzip : new boolean[]{false, true}) {
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                byte[] patch = buildPatch(old, expected, gzip);
+                final List<Long> progress = new ArrayList<>();
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                TXFirmwareDigest digest = TXFirmwareDigest.create(TXFirmwareDigest.MD5);
+                // 缓冲区小于控制块长度，验证分块处理
+                long size = new TXDeltaPatcher(7).apply(oldFile, new ByteArrayInputStream(patch), out, digest,
+                        new TXDeltaPatcher.ProgressListener() {
+                            @Override
+                            public void onProgress(long writtenBytes, long totalBytes) {
+                                progress.add(writtenBytes);
+                            }
+                        });
+
+                assertEquals(expected.size(), size);
+                assertArrayEquals(expected.toByteArray(), out.toByteArray());
+                assertTrue(digest.matches(md5(expected.toByteArray())));
+                assertEquals(Long.valueOf(size), progress.get(progress.size() - 1));
+            }
+        } finally {
+            oldFile.delete();
+        }
+    }
+
+    @Test
+    public void testRejectInvalidPatch() throws Exception {
+        byte[] old = new byte[10000];
+        File oldFile = writeTemp(old);
+        try {
+            byte[] patch = buildPatch(old, new ByteArrayOutputStream(), false);
+            assertInvalid(oldFile, Arrays.copyOf(patch, patch.length - 10));
+
+            byte[] badMagic = patch.clone();
+            badMagic[0] = 'X';
+            assertInvalid(oldFile, badMagic);
+
+            // 控制块长度超出新固件长度
+            byte[] badCtrl = patch.clone();
+            TXDeltaPatcher.offtout(1 << 20, badCtrl, 24);
+            assertInvalid(oldFile, badCtrl);
+
+            byte[] bzip2 = Arrays.copyOf(patch, 27);
+            bzip2[24] = 'B';
+            bzip2[25] = 'Z';
+            bzip2[26] = 'h';
+            assertInvalid(oldFile, bzip2);
+        } finally {
+            oldFile.delete();
+        }
+    }
+
+    private static void assertInvalid(File oldFile, byte[] patch) {
+        try {
+            new TXDeltaPatcher().apply(oldFile, new ByteArrayInputStream(patch), new ByteArrayOutputStream(), null, null);
+            fail("invalid patch accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOfftRoundTrip() {
+        byte[] buf = new byte[8];
+        for (long value : new long[]{0, 1, -1, 255, -4096, 1L << 40, -(1L << 40), Long.MAX_VALUE}) {
+            TXDeltaPatcher.offtout(value, buf, 0);
+            assertEquals(value, TXDeltaPatcher.offtin(buf, 0));
+        }
+    }
+
+    @Test
+    public void testDownloadDeltaFirmware() throws Exception {
+        byte[] old = new byte[10000];
+        new Random(1).nextBytes(old);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final byte[] patch = buildPatch(old, expected, true);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/firmware.patch", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, patch.length);
+                exchange.getResponseBody().write(patch);
+                exchange.close();
+            }
+        });
+        server.start();
+        File oldFile = writeTemp(old);
+        File otherFile = writeTemp(new byte[10000]);
+        File newFile = File.createTempFile("firmware-new", ".bin");
+        try {
+            TXMqttConnection connection = new TXMqttConnection("PRODUCT", "device", null, new TXMqttActionCallBack() {
+                @Override
+                public void onConnectCompleted(Status status, boolean reconnect, Object userContext, String msg) {
+                }
+
+                @Override
+                public void onConnectionLost(Throwable cause) {
+                }
+
+                @Override
+                public void onDisconnectCompleted(Status status, Object userContext, String msg) {
+                }
+            });
+            final Semaphore completed = new Semaphore(0);
+            final CountDownLatch failed = new CountDownLatch(1);
+            final AtomicInteger errCode = new AtomicInteger(0);
+            TXOTAImpl ota = new TXOTAImpl(connection, newFile.getParent(), new TXOTACallBack() {
+                @Override
+                public void onReportFirmwareVersion(int resultCode, String version, String resultMsg) {
+                }
+
+                @Override
+                public boolean onLastestFirmwareReady(String url, String md5, String version) {
+                    return true;
+                }
+
+                @Override
+                public void onDownloadProgress(int percent, String version) {
+                }
+
+                @Override
+                public void onDownloadCompleted(String outputFile, String version) {
+                    completed.release();
+                }
+
+                @Override
+                public void onDownloadFailure(int code, String version) {
+                    errCode.set(code);
+                    failed.countDown();
+                }
+            });
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/firmware.patch";
+            String md5 = md5(expected.toByteArray());
+
+            ota.downloadDeltaFirmware(url, oldFile.getPath(), newFile.getPath(), md5, "2.0");
+            assertTrue(completed.tryAcquire(10, TimeUnit.SECONDS));
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(newFile.toPath()));
+
+            // 当前固件与补丁不对应时校验失败，不重试，已有的输出文件不被破坏
+            ota.downloadDeltaFirmware(url, otherFile.getPath(), newFile.getPath(), md5, "2.0");
+            assertTrue(failed.await(10, TimeUnit.SECONDS));
+            assertEquals(-4, errCode.get());
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(newFile.toPath()));
+            assertFalse(new File(newFile.getPath() + ".patching").exists());
+
+            // 原地升级：输出文件就是旧固件
+            ota.downloadDeltaFirmware(url, oldFile.getPath(), oldFile.getPath(), md5, "2.0");
+            assertTrue(completed.tryAcquire(10, TimeUnit.SECONDS));
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(oldFile.toPath()));
+        } finally {
+            server.stop(0);
+            oldFile.delete();
+            otherFile.delete();
+            newFile.delete();
+        }
+    }
+
+    private static long peakRssKb() {
+        try {
+            for (String line : Files.readAllLines(new File("/proc/self/status").toPath(), Charset.forName("US-ASCII"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException e) {
+            // 非 Linux 系统
+        }
+        return -1;
+    }
+
+    /**
+     * 大固件边下载边打补丁的耗时与内存占用：-Dbenchmark=true -Dota.delta.bench.mb=100
+     */
+    @Test
+    public void benchmarkApply() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        int megabytes = Integer.getInteger("ota.delta.bench.mb", 100);
+        int blockSize = 1024 * 1024;
+        Random random = new Random(7);
+        byte[] block = new byte[blockSize];
+        byte[] diff = new byte[blockSize];
+        byte[] extra = new byte[64 * 1024];
+        random.nextBytes(extra);
+
+        File oldFile = File.createTempFile("firmware-old", ".bin");
+        File patchFile = File.createTempFile("firmware", ".patch");
+        File newFile = File.createTempFile("firmware-new", ".bin");
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(oldFile));
+            for (int i = 0; i < megabytes; i++) {
+                random.nextBytes(block);
+                out.write(block);
+            }
+            out.close();
+
+            // 每 10 MB 修改 4 KB，每 25 MB 插入 64 KB，共约几百 KB 变化
+            long newSize = (long) megabytes * blockSize + (megabytes / 25) * extra.length;
+            TXFirmwareDigest expected = TXFirmwareDigest.create(TXFirmwareDigest.MD5);
+            RandomAccessFile old = new RandomAccessFile(oldFile, "r");
+            OutputStream patchOut = new BufferedOutputStream(new FileOutputStream(patchFile));
+            PatchWriter writer = new PatchWriter(patchOut, newSize, true);
+            for (int i = 0; i < megabytes; i++) {
+                Arrays.fill(diff, (byte) 0);
+                if (i % 10 == 5) {
+                    for (int j = 0; j < 4096; j++) {
+                        diff[j] = (byte) random.nextInt();
+                    }
+                }
+                old.seek((long) i * blockSize);
+                old.readFully(block);
+                for (int j = 0; j < blockSize; j++) {
+                    block[j] += diff[j];
+                }
+                expected.update(block, 0, blockSize);
+                int extraLength = i % 25 == 24 ? extra.length : 0;
+                expected.update(extra, 0, extraLength);
+                writer.add(diff, blockSize, extra, extraLength, 0);
+            }
+            writer.close();
+            old.close();
+
+            System.gc();
+            long rssBefore = peakRssKb();
+            long heapBefore = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            long start = System.nanoTime();
+            TXFirmwareDigest digest = TXFirmwareDigest.create(TXFirmwareDigest.MD5);
+            InputStream patch = new FileInputStream(patchFile);
+            OutputStream newOut = new BufferedOutputStream(new FileOutputStream(newFile), 64 * 1024);
+            long size = new TXDeltaPatcher().apply(oldFile, patch, newOut, digest, null);
+            newOut.close();
+            patch.close();
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            long heapAfter = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+            assertEquals(newSize, size);
+            assertEquals(newSize, newFile.length());
+            assertEquals(expected.digestHex(), digest.digestHex());
+            System.out.println(String.format("%d MB image, %d KB patch: apply + MD5 %d ms, peak RSS %d KB -> %d KB, heap delta %d KB",
+                    megabytes, patchFile.length() / 1024, elapsed, rssBefore, peakRssKb(),
+                    (heapAfter - heapBefore) / 1024));
+        } finally {
+            oldFile.delete();
+            patchFile.delete();
+            newFile.delete();
+        }
+    }
+}
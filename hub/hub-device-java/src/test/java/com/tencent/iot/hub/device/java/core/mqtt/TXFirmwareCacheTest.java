@@ -0,0 +1,259 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.tencent.iot.hub.device.java.core.common.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TXFirmwareCacheTest {
+
+    private static final int FIRMWARE_SIZE = 256 * 1024;
+    private static final int SUB_DEVICE_COUNT = 100;
+
+    private final byte[] mFirmware = new byte[FIRMWARE_SIZE];
+    private final AtomicInteger mRequests = new AtomicInteger(0);
+    private final AtomicLong mServedBytes = new AtomicLong(0);
+    private String mChecksum;
+    private HttpServer mServer;
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(2).nextBytes(mFirmware);
+        mChecksum = digest(mFirmware);
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequests.incrementAndGet();
+                exchange.sendResponseHeaders(200, mFirmware.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(mFirmware);
+                out.close();
+                mServedBytes.addAndGet(mFirmware.length);
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+        mDir = Files.createTempDirectory("firmware-cache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        delete(mDir);
+    }
+
+    private static String digest(byte[] data) {
+        TXFirmwareDigest digest = TXFirmwareDigest.create(TXFirmwareDigest.MD5);
+        digest.update(data, 0, data.length);
+        return digest.digestHex();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private File writeFile(String name, byte[] data) throws IOException {
+        File file = new File(mDir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] data(int i) {
+        byte[] data = new byte[1000];
+        Arrays.fill(data, (byte) i);
+        return data;
+    }
+
+    private static String checksum(int i) {
+        return digest(data(i));
+    }
+
+    @Test
+    public void testServeFromCache() throws Exception {
+        TXFirmwareCache cache = new TXFirmwareCache(new File(mDir, "cache"), 1024 * 1024);
+        File firmware = writeFile("firmware.bin", mFirmware);
+
+        assertFalse(cache.copyTo(mChecksum, new File(mDir, "out").getPath()));
+        assertTrue(cache.put(mChecksum.toUpperCase(), firmware.getPath()));
+        assertTrue(cache.contains(mChecksum));
+        assertEquals(FIRMWARE_SIZE, cache.getTotalBytes());
+
+        // 已存在的输出文件被覆盖
+        File output = writeFile("out", new byte[10]);
+        assertTrue(cache.copyTo(mChecksum, output.getPath()));
+        assertArrayEquals(mFirmware, Files.readAllBytes(output.toPath()));
+
+        // 非十六进制校验值不能作为文件名
+        assertFalse(cache.put("../../etc/passwd", firmware.getPath()));
+        assertFalse(cache.copyTo("../" + mChecksum, output.getPath()));
+    }
+
+    @Test
+    public void testModifiedOutputDoesNotPoisonCache() throws Exception {
+        TXFirmwareCache cache = new TXFirmwareCache(new File(mDir, "cache"), 1024 * 1024);
+        File firmware = writeFile("firmware.bin", mFirmware);
+        assertTrue(cache.put(mChecksum, firmware.getPath()));
+        // 加入缓存不改变源文件
+        assertTrue(firmware.canWrite());
+
+        // 安装程序以 root 身份原地改写硬链接的输出文件，长度不变
+        File output = new File(mDir, "out");
+        assertTrue(cache.copyTo(mChecksum, output.getPath()));
+        output.setWritable(true);
+        byte[] modified = mFirmware.clone();
+        modified[100] ^= 1;
+        writeInPlace(output, modified);
+
+        File next = new File(mDir, "next");
+        if (Arrays.equals(modified, Files.readAllBytes(new File(new File(mDir, "cache"), mChecksum).toPath()))) {
+            // 输出文件与缓存共享数据，被修改的缓存不能再提供给其他子设备
+            assertFalse(cache.copyTo(mChecksum, next.getPath()));
+            assertFalse(cache.contains(mChecksum));
+        } else {
+            assertTrue(cache.copyTo(mChecksum, next.getPath()));
+            assertArrayEquals(mFirmware, Files.readAllBytes(next.toPath()));
+        }
+    }
+
+    private static void writeInPlace(File file, byte[] data) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testLruEvictionAndReload() throws Exception {
+        File dir = new File(mDir, "cache");
+        TXFirmwareCache cache = new TXFirmwareCache(dir, 3 * 1000);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(cache.put(checksum(i), writeFile("f" + i, data(i)).getPath()));
+            new File(dir, checksum(i)).setLastModified(System.currentTimeMillis() - 10000 + i * 1000);
+        }
+        // 访问 0 后 1 成为最久未使用
+        assertTrue(cache.copyTo(checksum(0), new File(mDir, "out").getPath()));
+        assertTrue(cache.put(checksum(3), writeFile("f3", data(3)).getPath()));
+        assertEquals(3, cache.size());
+        assertFalse(cache.contains(checksum(1)));
+        assertFalse(new File(dir, checksum(1)).exists());
+        assertTrue(cache.contains(checksum(0)));
+
+        // 大于配额的固件不缓存
+        assertFalse(cache.put(checksum(4), writeFile("f4", new byte[3001]).getPath()));
+
+        // 重新加载后按最后访问时间恢复淘汰顺序，配额变小时立即淘汰
+        TXFirmwareCache reloaded = new TXFirmwareCache(dir, 2 * 1000);
+        assertEquals(2, reloaded.size());
+        assertFalse(reloaded.contains(checksum(2)));
+        assertTrue(reloaded.contains(checksum(0)));
+        assertTrue(reloaded.contains(checksum(3)));
+    }
+
+    @Test
+    public void testGatewaySubDevicesDownloadOnce() throws Exception {
+        TXMqttConnection connection = new TXMqttConnection("PRODUCT", "gateway", null, new TXMqttActionCallBack() {
+            @Override
+            public void onConnectCompleted(Status status, boolean reconnect, Object userContext, String msg) {
+            }
+
+            @Override
+            public void onConnectionLost(Throwable cause) {
+            }
+
+            @Override
+            public void onDisconnectCompleted(Status status, Object userContext, String msg) {
+            }
+        });
+        final CountDownLatch done = new CountDownLatch(SUB_DEVICE_COUNT);
+        final AtomicInteger failures = new AtomicInteger(0);
+        TXOTACallBack callBack = new TXOTACallBack() {
+            @Override
+            public void onReportFirmwareVersion(int resultCode, String version, String resultMsg) {
+            }
+
+            @Override
+            public boolean onLastestFirmwareReady(String url, String md5, String version) {
+                return false;
+            }
+
+            @Override
+            public void onDownloadProgress(int percent, String version) {
+            }
+
+            @Override
+            public void onDownloadCompleted(String outputFile, String version) {
+                done.countDown();
+            }
+
+            @Override
+            public void onDownloadFailure(int errCode, String version) {
+                failures.incrementAndGet();
+                done.countDown();
+            }
+        };
+
+        TXOTAJobScheduler scheduler = new TXOTAJobScheduler(8);
+        TXFirmwareCache cache = new TXFirmwareCache(new File(mDir, "cache"), 16 * 1024 * 1024);
+        String baseUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/firmware.bin?sign=";
+        long start = System.nanoTime();
+        for (int i = 0; i < SUB_DEVICE_COUNT; i++) {
+            TXOTAImpl ota = new TXOTAImpl(connection, mDir.getPath(), callBack);
+            ota.setJobScheduler(scheduler);
+            ota.setFirmwareCache(cache);
+            // 每个子设备的下载地址签名不同，但固件相同
+            ota.gatewayDownSubdevApp(baseUrl + i, new File(mDir, "sub" + i).getPath(), mChecksum, "2.0");
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(0, failures.get());
+        assertEquals(1, mRequests.get());
+        for (int i = 0; i < SUB_DEVICE_COUNT; i++) {
+            assertArrayEquals(mFirmware, Files.readAllBytes(new File(mDir, "sub" + i).toPath()));
+        }
+        if (Boolean.getBoolean("benchmark")) {
+            System.out.println(String.format("%d sub-devices: %d HTTP request(s), %d bytes downloaded in %d ms",
+                    SUB_DEVICE_COUNT, mRequests.get(), mServedBytes.get(), elapsed));
+        }
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,129 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+public class TXFirmwareDigestTest {
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testKnownAnswers() {
+        // RFC 1321 与 FIPS 180-2 中的测试向量
+        String[][] vectors = {
+                {TXFirmwareDigest.MD5, "", "d41d8cd98f00b204e9800998ecf8427e"},
+                {TXFirmwareDigest.MD5, "abc", "900150983cd24fb0d6963f7d28e17f72"},
+                {TXFirmwareDigest.MD5, "12345678901234567890123456789012345678901234567890123456789012345678901234567890",
+                        "57edf4a22be3c955ac49da2e2107b67a"},
+                {TXFirmwareDigest.SHA256, "abc", "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad"},
+                {TXFirmwareDigest.SHA256, "abcdbcdecdefdefgefghfghighijhijkijkljklmklmnlmnomnopnopq",
+                        "248d6a61d20638b8e5c026930c3e6039a33ce45964ff2167f6ecedd419db06c1"},
+        };
+        for (String[] vector : vectors) {
+            byte[] data = vector[1].getBytes();
+            TXFirmwareDigest digest = TXFirmwareDigest.create(vector[0]);
+            digest.update(data, 0, data.length);
+            assertEquals(vector[0] + " " + vector[1], vector[2], digest.digestHex());
+        }
+    }
+
+    @Test
+    public void testMatchesJca() throws Exception {
+        Random random = new Random(7);
+        for (String algorithm : new String[] {TXFirmwareDigest.MD5, TXFirmwareDigest.SHA256}) {
+            for (int size : new int[] {0, 1, 55, 56, 63, 64, 65, 119, 120, 1000, 100003}) {
+                byte[] data = new byte[size];
+                random.nextBytes(data);
+                TXFirmwareDigest digest = TXFirmwareDigest.create(algorithm);
+                // 不规则的分块写入
+                int offset = 0;
+                while (offset < size) {
+                    int len = Math.min(size - offset, 1 + random.nextInt(200));
+                    digest.update(data, offset, len);
+                    offset += len;
+                }
+                assertEquals(algorithm + " " + size, hex(MessageDigest.getInstance(algorithm).digest(data)),
+                        digest.digestHex());
+            }
+        }
+    }
+
+    @Test
+    public void testSaveAndRestore() throws Exception {
+        byte[] data = new byte[10007];
+        new Random(3).nextBytes(data);
+        File state = File.createTempFile("firmware", ".digest");
+        try {
+            for (String algorithm : new String[] {TXFirmwareDigest.MD5, TXFirmwareDigest.SHA256}) {
+                TXFirmwareDigest digest = TXFirmwareDigest.create(algorithm);
+                digest.update(data, 0, 5001);
+                digest.saveTo(state);
+
+                TXFirmwareDigest restored = TXFirmwareDigest.loadFrom(state, algorithm);
+                assertEquals(5001, restored.getLength());
+                restored.update(data, 5001, data.length - 5001);
+                assertEquals(algorithm, hex(MessageDigest.getInstance(algorithm).digest(data)), restored.digestHex());
+            }
+            assertNull(TXFirmwareDigest.loadFrom(state, TXFirmwareDigest.MD5));
+        } finally {
+            state.delete();
+        }
+    }
+
+    /**
+     * 对比“写完后再整文件计算 MD5”与“边写边计算”的总耗时：-Dbenchmark=true -Dota.bench.mb=500
+     */
+    @Test
+    public void benchmarkStreamingDigest() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        int megabytes = Integer.getInteger("ota.bench.mb", 32);
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(5).nextBytes(chunk);
+        File file = File.createTempFile("firmware", ".bin");
+        try {
+            long start = System.nanoTime();
+            FileOutputStream out = new FileOutputStream(file);
+            for (int i = 0; i < megabytes; i++) {
+                out.write(chunk);
+            }
+            out.getFD().sync();
+            out.close();
+            String twoPass = TXFirmwareDigest.digestFile(file.getPath(), TXFirmwareDigest.MD5);
+            long twoPassNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            out = new FileOutputStream(file);
+            TXFirmwareDigest digest = TXFirmwareDigest.create(TXFirmwareDigest.MD5);
+            for (int i = 0; i < megabytes; i++) {
+                out.write(chunk);
+                digest.update(chunk, 0, chunk.length);
+            }
+            out.getFD().sync();
+            out.close();
+            String streaming = digest.digestHex();
+            long streamingNanos = System.nanoTime() - start;
+
+            assertEquals(twoPass, streaming);
+            System.out.println(String.format("%d MB image: write + re-read MD5 %d ms, streaming MD5 %d ms",
+                    megabytes, twoPassNanos / 1000000, streamingNanos / 1000000));
+        } finally {
+            new RandomAccessFile(file, "rw").setLength(0);
+            file.delete();
+        }
+    }
+}
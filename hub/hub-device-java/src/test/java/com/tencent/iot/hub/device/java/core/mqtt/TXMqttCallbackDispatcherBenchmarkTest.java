@@ -0,0 +1,85 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.core.common.Status;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 多连接规模测试，需要一个本地 MQTT broker：
+ * -Dmqtt.bench.broker=tcp://127.0.0.1:1883 -Dmqtt.bench.size=1000
+ *
+ * 输出的线程数包含每个 Paho 客户端各自的收、发、回调线程，回调分发器本身只增加固定数量的共享线程
+ */
+public class TXMqttCallbackDispatcherBenchmarkTest {
+
+    private static final String BROKER = System.getProperty("mqtt.bench.broker");
+    private static final int CONNECTIONS = Integer.getInteger("mqtt.bench.size", 1000);
+
+    @Test
+    public void benchmarkConnections() throws Exception {
+        assumeTrue(BROKER != null);
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        final CountDownLatch latch = new CountDownLatch(CONNECTIONS);
+        final AtomicInteger connected = new AtomicInteger(0);
+        TXMqttCallbackDispatcher dispatcher = new TXMqttCallbackDispatcher();
+        List<TXMqttConnection> connections = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            TXMqttConnection connection = new TXMqttConnection(BROKER, "BENCH", "dev" + i, null, null, null,
+                    dispatcher.wrap(new TXMqttActionCallBack() {
+                        @Override
+                        public void onConnectCompleted(Status status, boolean reconnect, Object userContext, String msg) {
+                            if (status == Status.OK) {
+                                connected.incrementAndGet();
+                            }
+                            latch.countDown();
+                        }
+
+                        @Override
+                        public void onConnectionLost(Throwable cause) {
+                        }
+
+                        @Override
+                        public void onDisconnectCompleted(Status status, Object userContext, String msg) {
+                        }
+                    }));
+            connections.add(connection);
+            MqttConnectOptions options = new MqttConnectOptions();
+            options.setCleanSession(true);
+            options.setKeepAliveInterval(60);
+            connection.connectAsync(options, null);
+        }
+        latch.await(120, TimeUnit.SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+
+        System.gc();
+        long heapUsed = runtime.totalMemory() - runtime.freeMemory() - heapBefore;
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+
+        System.out.println(String.format("connections: %d, connected: %d, connect time: %d ms", CONNECTIONS, connected.get(), elapsed));
+        System.out.println(String.format("connections per GB heap: %.0f", connected.get() / (Math.max(heapUsed, 1) / (1024.0 * 1024 * 1024))));
+        System.out.println(String.format("threads per 1000 devices: %.0f", threads * 1000.0 / Math.max(connected.get(), 1)));
+
+        for (TXMqttConnection connection : connections) {
+            connection.disConnect(null);
+        }
+        dispatcher.shutdown(5000);
+        assertTrue(connected.get() > 0);
+    }
+}
@@ -0,0 +1,157 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.core.common.Status;
+
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TXMqttCallbackDispatcherTest {
+
+    private TXMqttCallbackDispatcher mDispatcher;
+
+    private static class NoopCallBack extends TXMqttActionCallBack {
+        @Override
+        public void onConnectCompleted(Status status, boolean reconnect, Object userContext, String msg) {
+        }
+
+        @Override
+        public void onConnectionLost(Throwable cause) {
+        }
+
+        @Override
+        public void onDisconnectCompleted(Status status, Object userContext, String msg) {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mDispatcher = new TXMqttCallbackDispatcher(1, 2, 200);
+    }
+
+    @After
+    public void tearDown() {
+        mDispatcher.shutdown(1000);
+    }
+
+    @Test
+    public void testMessageDeliveredOnCallingThread() {
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        TXMqttActionCallBack callBack = mDispatcher.wrap(new NoopCallBack() {
+            @Override
+            public void onMessageReceived(String topic, MqttMessage message) {
+                thread.set(Thread.currentThread());
+                throw new IllegalStateException("not handled");
+            }
+        });
+
+        // 消息回调在 Paho 回调线程中同步执行，异常返回给 Paho 而不是被吞掉
+        try {
+            callBack.onMessageReceived("PRODUCT/dev/data", new MqttMessage(new byte[1]));
+            throw new AssertionError("exception not propagated");
+        } catch (IllegalStateException expected) {
+        }
+        assertSame(Thread.currentThread(), thread.get());
+    }
+
+    @Test
+    public void testResultCallbacksInOrderOffCallingThread() throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(100);
+        TXMqttActionCallBack callBack = mDispatcher.wrap(new NoopCallBack() {
+            @Override
+            public void onPublishCompleted(Status status, IMqttToken token, Object userContext, String msg) {
+                thread.set(Thread.currentThread());
+                order.add((Integer) userContext);
+                done.countDown();
+            }
+        });
+
+        for (int i = 0; i < 100; i++) {
+            callBack.onPublishCompleted(Status.OK, null, i, null);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), thread.get());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+    }
+
+    @Test
+    public void testPendingCallbacksBounded() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger completed = new AtomicInteger(0);
+        final TXMqttActionCallBack callBack = mDispatcher.wrap(new NoopCallBack() {
+            @Override
+            public void onPublishCompleted(Status status, IMqttToken token, Object userContext, String msg) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                completed.incrementAndGet();
+            }
+        });
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 3; i++) {
+                    callBack.onPublishCompleted(Status.OK, null, null, null);
+                }
+                submitted.countDown();
+            }
+        });
+        producer.start();
+
+        // 每个回调最多 2 个未执行的结果回调，第三个回调投递时等待
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(submitted.await(1, TimeUnit.SECONDS));
+        producer.join(1000);
+        long deadline = System.currentTimeMillis() + 1000;
+        while (completed.get() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, completed.get());
+    }
+
+    @Test
+    public void testIdleThreadsExit() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        TXMqttActionCallBack callBack = mDispatcher.wrap(new NoopCallBack() {
+            @Override
+            public void onConnectCompleted(Status status, boolean reconnect, Object userContext, String msg) {
+                done.countDown();
+            }
+        });
+        assertEquals(0, mDispatcher.getThreadCount());
+        callBack.onConnectCompleted(Status.OK, false, null, null);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(1, mDispatcher.getThreadCount());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mDispatcher.getThreadCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, mDispatcher.getThreadCount());
+    }
+}
@@ -0,0 +1,412 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TXOTAJobSchedulerTest {
+
+    private static final int FIRMWARE_SIZE = 64 * 1024;
+    private static final int SUB_DEVICE_COUNT = 50;
+    private static final int MAX_CONCURRENT = 4;
+
+    private final byte[] mFirmware = new byte[FIRMWARE_SIZE];
+    private final AtomicInteger mActive = new AtomicInteger(0);
+    private final AtomicInteger mPeakActive = new AtomicInteger(0);
+    private final AtomicInteger mRequests = new AtomicInteger(0);
+    private HttpServer mServer;
+    private File mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+        mDir = File.createTempFile("ota-jobs", "");
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        mRequests.incrementAndGet();
+        exchange.sendResponseHeaders(200, mFirmware.length);
+        OutputStream out = exchange.getResponseBody();
+        // 限速，使多个下载在时间上重叠
+        for (int offset = 0; offset < mFirmware.length; offset += 16 * 1024) {
+            sleep(5);
+            out.write(mFirmware, offset, 16 * 1024);
+            out.flush();
+        }
+        out.close();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/" + path;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 与 TXOTAImpl 一样以单连接下载，每读取一块数据检查一次取消状态
+     */
+    private static final TXOTAJobScheduler.JobRunner HTTP_RUNNER = new TXOTAJobScheduler.JobRunner() {
+        @Override
+        public boolean run(TXOTAJob job) {
+            HttpURLConnection conn = null;
+            try {
+                conn = (HttpURLConnection) new URL(job.getUrl()).openConnection();
+                InputStream stream = conn.getInputStream();
+                FileOutputStream fos = new FileOutputStream(job.getOutputFile());
+                try {
+                    byte[] buffer = new byte[4096];
+                    long total = conn.getContentLength();
+                    long downloaded = 0;
+                    int len;
+                    while ((len = stream.read(buffer)) > 0) {
+                        if (job.isCancelled()) {
+                            return false;
+                        }
+                        fos.write(buffer, 0, len);
+                        downloaded += len;
+                        job.notifyProgress((int) (downloaded * 100 / total));
+                    }
+                } finally {
+                    fos.close();
+                    stream.close();
+                }
+                return true;
+            } catch (IOException e) {
+                job.notifyFailure(-1);
+                return false;
+            } finally {
+                if (conn != null) {
+                    conn.disconnect();
+                }
+            }
+        }
+    };
+
+    private static class RecordingCallBack implements TXOTACallBack {
+        final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+        final List<Integer> failures = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger progress = new AtomicInteger(0);
+        final CountDownLatch done;
+
+        RecordingCallBack(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onReportFirmwareVersion(int resultCode, String version, String resultMsg) {
+        }
+
+        @Override
+        public boolean onLastestFirmwareReady(String url, String md5, String version) {
+            return false;
+        }
+
+        @Override
+        public void onDownloadProgress(int percent, String version) {
+            progress.incrementAndGet();
+        }
+
+        @Override
+        public void onDownloadCompleted(String outputFile, String version) {
+            completed.add(version);
+            done.countDown();
+        }
+
+        @Override
+        public void onDownloadFailure(int errCode, String version) {
+            failures.add(errCode);
+            if (errCode == TXOTAJob.ERR_CANCELLED) {
+                done.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void testBoundedConcurrencyAndFifo() throws Exception {
+        TXOTAJobScheduler scheduler = new TXOTAJobScheduler(MAX_CONCURRENT);
+        RecordingCallBack callBack = new RecordingCallBack(SUB_DEVICE_COUNT);
+        final List<String> startOrder = Collections.synchronizedList(new ArrayList<String>());
+        TXOTAJobScheduler.JobRunner runner = new TXOTAJobScheduler.JobRunner() {
+            @Override
+            public boolean run(TXOTAJob job) {
+                startOrder.add(job.getVersion());
+                int active = mActive.incrementAndGet();
+                int peak;
+                while (active > (peak = mPeakActive.get()) && !mPeakActive.compareAndSet(peak, active)) {
+                    // retry
+                }
+                try {
+                    return HTTP_RUNNER.run(job);
+                } finally {
+                    mActive.decrementAndGet();
+                }
+            }
+        };
+
+        long start = System.nanoTime();
+        List<TXOTAJob> jobs = new ArrayList<>();
+        for (int i = 0; i < SUB_DEVICE_COUNT; i++) {
+            jobs.add(scheduler.submit(url("dev" + i), "md5-" + i, new File(mDir, "dev" + i).getPath(),
+                    String.valueOf(i), callBack, runner));
+        }
+        assertTrue(callBack.done.await(60, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(SUB_DEVICE_COUNT, callBack.completed.size());
+        assertTrue(callBack.failures.isEmpty());
+        assertTrue("peak " + mPeakActive.get(), mPeakActive.get() <= MAX_CONCURRENT);
+        assertEquals(MAX_CONCURRENT, mPeakActive.get());
+        for (TXOTAJob job : jobs) {
+            assertEquals(TXOTAJob.State.COMPLETED, job.getState());
+            assertEquals(100, job.getPercent());
+            assertEquals(FIRMWARE_SIZE, new File(job.getOutputFile()).length());
+        }
+        // 先提交的任务先开始，同一批并发启动的任务之间顺序不定
+        for (int i = 0; i < SUB_DEVICE_COUNT; i++) {
+            int position = startOrder.indexOf(String.valueOf(i));
+            assertTrue("job " + i + " started at " + position, Math.abs(position - i) < MAX_CONCURRENT);
+        }
+        if (Boolean.getBoolean("benchmark")) {
+            System.out.println(String.format("%d sub-device jobs, %d workers: %d ms, %.1f jobs/s, peak %d",
+                    SUB_DEVICE_COUNT, MAX_CONCURRENT, elapsed, SUB_DEVICE_COUNT * 1000.0 / Math.max(elapsed, 1),
+                    mPeakActive.get()));
+        }
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testDeduplicateSameFirmware() throws Exception {
+        TXOTAJobScheduler scheduler = new TXOTAJobScheduler(MAX_CONCURRENT);
+        RecordingCallBack first = new RecordingCallBack(1);
+        RecordingCallBack second = new RecordingCallBack(1);
+        String output = new File(mDir, "shared").getPath();
+
+        TXOTAJob job = scheduler.submit(url("shared"), "md5", output, "1.0", first, HTTP_RUNNER);
+        TXOTAJob merged = scheduler.submit(url("shared"), "md5", output, "1.0", second, HTTP_RUNNER);
+        assertNotSame(job, merged);
+        // 同一回调重复提交不会重复通知
+        assertSame(job, scheduler.submit(url("shared"), "md5", output, "1.0", first, HTTP_RUNNER));
+
+        assertTrue(first.done.await(10, TimeUnit.SECONDS));
+        assertTrue(second.done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, mRequests.get());
+        assertEquals(1, first.completed.size());
+        assertEquals(1, second.completed.size());
+
+        // 已完成的任务不再合并，重新下载
+        RecordingCallBack third = new RecordingCallBack(1);
+        TXOTAJob again = scheduler.submit(url("shared"), "md5", output, "1.0", third, HTTP_RUNNER);
+        assertFalse(job == again);
+        assertTrue(third.done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, mRequests.get());
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testMergedRequestsKeepOwnOutputFile() throws Exception {
+        TXOTAJobScheduler scheduler = new TXOTAJobScheduler(MAX_CONCURRENT);
+        RecordingCallBack first = new RecordingCallBack(1);
+        RecordingCallBack second = new RecordingCallBack(1);
+        RecordingCallBack third = new RecordingCallBack(1);
+        File firstOutput = new File(mDir, "sub1.bin");
+        File secondOutput = new File(mDir, "sub2.bin");
+        File thirdOutput = new File(mDir, "sub3.bin");
+        for (int i = 0; i < mFirmware.length; i++) {
+            mFirmware[i] = (byte) i;
+        }
+
+        TXOTAJob firstJob = scheduler.submit(url("fw"), "md5", firstOutput.getPath(), "1.0", first, HTTP_RUNNER);
+        TXOTAJob secondJob = scheduler.submit(url("fw"), "md5", secondOutput.getPath(), "1.0", second, HTTP_RUNNER);
+        TXOTAJob thirdJob = scheduler.submit(url("fw"), "md5", thirdOutput.getPath(), "1.0", third, HTTP_RUNNER);
+        assertEquals(secondOutput.getPath(), secondJob.getOutputFile());
+
+        // 取消一个合并的请求不影响其他请求，包括下载写入路径所属的请求
+        assertTrue(firstJob.cancel());
+        assertTrue(thirdJob.cancel());
+        assertEquals(TXOTAJob.State.CANCELLED, firstJob.getState());
+        assertFalse(secondJob.isCancelled());
+
+        assertTrue(second.done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, mRequests.get());
+        assertEquals(Collections.singletonList("1.0"), second.completed);
+        assertEquals(TXOTAJob.State.COMPLETED, secondJob.getState());
+        assertTrue(Arrays.equals(mFirmware, Files.readAllBytes(secondOutput.toPath())));
+        assertFalse(firstOutput.exists());
+        assertFalse(thirdOutput.exists());
+        assertEquals(Collections.singletonList(TXOTAJob.ERR_CANCELLED), first.failures);
+        assertTrue(first.completed.isEmpty());
+        assertTrue(third.completed.isEmpty());
+
+        // 两个不同保存路径的请求都得到完整的固件
+        RecordingCallBack fourth = new RecordingCallBack(1);
+        RecordingCallBack fifth = new RecordingCallBack(1);
+        File fourthOutput = new File(mDir, "sub4.bin");
+        File fifthOutput = new File(mDir, "sub5.bin");
+        scheduler.submit(url("fw"), "md5", fourthOutput.getPath(), "2.0", fourth, HTTP_RUNNER);
+        scheduler.submit(url("fw"), "md5", fifthOutput.getPath(), "2.0", fifth, HTTP_RUNNER);
+        assertTrue(fourth.done.await(10, TimeUnit.SECONDS));
+        assertTrue(fifth.done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, mRequests.get());
+        assertTrue(Arrays.equals(mFirmware, Files.readAllBytes(fourthOutput.toPath())));
+        assertTrue(Arrays.equals(mFirmware, Files.readAllBytes(fifthOutput.toPath())));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testFailureReachesLateRequests() throws Exception {
+        final TXOTAJobScheduler scheduler = new TXOTAJobScheduler(1);
+        final CountDownLatch failed = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        TXOTAJobScheduler.JobRunner retried = new TXOTAJobScheduler.JobRunner() {
+            @Override
+            public boolean run(TXOTAJob job) {
+                job.notifyFailure(-4);
+                failed.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return false;
+            }
+        };
+        String output = new File(mDir, "fw").getPath();
+        RecordingCallBack first = new RecordingCallBack(1);
+        RecordingCallBack late = new RecordingCallBack(1);
+
+        TXOTAJob job = scheduler.submit(url("fw"), "md5", output, "1.0", first, retried);
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+        // 失败通知之后、任务结束之前合并的请求，在任务结束时收到同一个失败
+        TXOTAJob merged = scheduler.submit(url("fw"), "md5", output, "1.0", late, retried);
+        assertEquals(TXOTAJob.State.DOWNLOADING, merged.getState());
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (late.failures.isEmpty() && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+        assertEquals(Collections.singletonList(-4), first.failures);
+        assertEquals(Collections.singletonList(-4), late.failures);
+        assertEquals(TXOTAJob.State.FAILED, job.getState());
+        assertEquals(TXOTAJob.State.FAILED, merged.getState());
+
+        // 不再重试的失败先结束任务再通知，通知之后提交的请求重新下载
+        final AtomicInteger runs = new AtomicInteger(0);
+        final CountDownLatch resubmitted = new CountDownLatch(1);
+        final TXOTAJobScheduler.JobRunner terminal = new TXOTAJobScheduler.JobRunner() {
+            @Override
+            public boolean run(TXOTAJob job) {
+                if (runs.incrementAndGet() == 1) {
+                    job.fail(-4);
+                    return false;
+                }
+                return HTTP_RUNNER.run(job);
+            }
+        };
+        final List<TXOTAJob> retry = Collections.synchronizedList(new ArrayList<TXOTAJob>());
+        final String url = url("delta");
+        final String deltaOutput = new File(mDir, "delta").getPath();
+        final RecordingCallBack again = new RecordingCallBack(1);
+        RecordingCallBack rejected = new RecordingCallBack(1) {
+            @Override
+            public void onDownloadFailure(int errCode, String version) {
+                super.onDownloadFailure(errCode, version);
+                retry.add(scheduler.submit(url, "md5", deltaOutput, "2.0", again, terminal));
+                resubmitted.countDown();
+            }
+        };
+        TXOTAJob failedJob = scheduler.submit(url, "md5", deltaOutput, "2.0", rejected, terminal);
+        assertTrue(resubmitted.await(10, TimeUnit.SECONDS));
+        assertNotSame(failedJob, retry.get(0));
+        assertTrue(again.done.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("2.0"), again.completed);
+        assertEquals(2, runs.get());
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        TXOTAJobScheduler scheduler = new TXOTAJobScheduler(1);
+        RecordingCallBack running = new RecordingCallBack(1);
+        RecordingCallBack queued = new RecordingCallBack(1);
+
+        TXOTAJob first = scheduler.submit(url("a"), "md5-a", new File(mDir, "a").getPath(), "1", running, HTTP_RUNNER);
+        TXOTAJob second = scheduler.submit(url("b"), "md5-b", new File(mDir, "b").getPath(), "2", queued, HTTP_RUNNER);
+        while (first.getState() == TXOTAJob.State.PENDING) {
+            sleep(1);
+        }
+        assertTrue(second.cancel());
+        assertTrue(first.cancel());
+        assertFalse(first.cancel());
+
+        assertTrue(running.done.await(10, TimeUnit.SECONDS));
+        assertTrue(queued.done.await(10, TimeUnit.SECONDS));
+        assertEquals(TXOTAJob.State.CANCELLED, first.getState());
+        assertEquals(TXOTAJob.State.CANCELLED, second.getState());
+        assertEquals(Collections.singletonList(TXOTAJob.ERR_CANCELLED), queued.failures);
+        assertTrue(running.completed.isEmpty());
+        assertTrue(queued.completed.isEmpty());
+
+        scheduler.shutdown();
+        assertNull(scheduler.submit(url("c"), "md5-c", new File(mDir, "c").getPath(), "3", running, HTTP_RUNNER));
+        // 排队中被取消的任务不会发起请求
+        sleep(100);
+        assertEquals(1, mRequests.get());
+    }
+}
@@ -0,0 +1,195 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 磁盘离线消息存储测试：顺序重放、崩溃恢复、容量策略及吞吐量
+ */
+public class TXOfflineMessageStoreTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static MqttMessage message(int i) {
+        MqttMessage message = new MqttMessage(("payload-" + i).getBytes());
+        message.setQos(TXMqttConstants.QOS1);
+        return message;
+    }
+
+    @Test
+    public void testReplayInOrderAcrossSegments() throws Exception {
+        TXOfflineMessageStore store = new TXOfflineMessageStore(folder.getRoot(), 64 * SEGMENT_BYTES, SEGMENT_BYTES,
+                TXOfflineMessageStore.DropPolicy.DROP_NEWEST);
+        for (int i = 0; i < 500; i++) {
+            assertTrue(store.append("PRODUCT/device/data", message(i)));
+        }
+        assertEquals(500, store.size());
+
+        int expected = 0;
+        while (!store.isEmpty()) {
+            TXOfflineMessageStore.ReplayBatch batch = store.peek(64);
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals("payload-" + expected++, new String(batch.getMessage(i).getPayload()));
+                assertEquals(TXMqttConstants.QOS1, batch.getMessage(i).getQos());
+            }
+            store.commit(batch.getEndPosition());
+        }
+        assertEquals(500, expected);
+        assertEquals(0, store.getBytes());
+        store.close();
+    }
+
+    @Test
+    public void testRecoverAfterCrash() throws Exception {
+        File dir = folder.getRoot();
+        TXOfflineMessageStore store = new TXOfflineMessageStore(dir, 64 * SEGMENT_BYTES, SEGMENT_BYTES,
+                TXOfflineMessageStore.DropPolicy.DROP_NEWEST);
+        for (int i = 0; i < 100; i++) {
+            store.append("PRODUCT/device/data", message(i));
+        }
+        store.commit(store.peek(30).getEndPosition());
+        // 不调用 close，模拟进程崩溃；再在末尾写入一条不完整的记录
+        File[] segments = dir.listFiles();
+        File tail = null;
+        for (File file : segments) {
+            if (file.getName().endsWith(".seg") && (tail == null || file.getName().compareTo(tail.getName()) > 0)) {
+                tail = file;
+            }
+        }
+        RandomAccessFile raf = new RandomAccessFile(tail, "rw");
+        long end = 0;
+        while (end + 4 <= raf.length()) {
+            raf.seek(end);
+            int length = raf.readInt();
+            if (length == 0) {
+                break;
+            }
+            end += 4 + length;
+        }
+        raf.seek(end);
+        raf.writeInt(20);
+        raf.writeInt(12345);
+        raf.close();
+
+        TXOfflineMessageStore recovered = new TXOfflineMessageStore(dir, 64 * SEGMENT_BYTES, SEGMENT_BYTES,
+                TXOfflineMessageStore.DropPolicy.DROP_NEWEST);
+        assertEquals(70, recovered.size());
+        assertEquals("payload-30", new String(recovered.peek(1).getMessage(0).getPayload()));
+        assertTrue(recovered.append("PRODUCT/device/data", message(100)));
+        TXOfflineMessageStore.ReplayBatch batch = recovered.peek(100);
+        assertEquals(71, batch.size());
+        assertEquals("payload-100", new String(batch.getMessage(70).getPayload()));
+        recovered.close();
+    }
+
+    @Test
+    public void testDropPolicies() throws Exception {
+        TXOfflineMessageStore newest = new TXOfflineMessageStore(folder.newFolder(), 2 * SEGMENT_BYTES, SEGMENT_BYTES,
+                TXOfflineMessageStore.DropPolicy.DROP_NEWEST);
+        int accepted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (newest.append("PRODUCT/device/data", message(i))) {
+                accepted++;
+            }
+        }
+        assertTrue(newest.getBytes() <= 2 * SEGMENT_BYTES);
+        assertEquals(1000 - accepted, newest.getDroppedCount());
+        assertEquals("payload-0", new String(newest.peek(1).getMessage(0).getPayload()));
+        newest.close();
+
+        TXOfflineMessageStore oldest = new TXOfflineMessageStore(folder.newFolder(), 2 * SEGMENT_BYTES, SEGMENT_BYTES,
+                TXOfflineMessageStore.DropPolicy.DROP_OLDEST);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(oldest.append("PRODUCT/device/data", message(i)));
+        }
+        assertTrue(oldest.getBytes() <= 2 * SEGMENT_BYTES);
+        assertTrue(oldest.getDroppedCount() > 0);
+        assertEquals(1000, oldest.size() + oldest.getDroppedCount());
+        TXOfflineMessageStore.ReplayBatch batch = oldest.peek(oldest.size());
+        assertEquals("payload-999", new String(batch.getMessage(batch.size() - 1).getPayload()));
+        assertFalse(oldest.isEmpty());
+        oldest.close();
+    }
+
+    @Test
+    public void testDropOldestDuringReplay() throws Exception {
+        TXOfflineMessageStore store = new TXOfflineMessageStore(folder.newFolder(), 2 * SEGMENT_BYTES, SEGMENT_BYTES,
+                TXOfflineMessageStore.DropPolicy.DROP_OLDEST);
+        int next = 0;
+        while (store.getBytes() + 64 < SEGMENT_BYTES) {
+            store.append("PRODUCT/device/data", message(next++));
+        }
+        TXOfflineMessageStore.ReplayBatch sent = store.peek(10);
+        assertEquals("payload-0", new String(sent.getMessage(0).getPayload()));
+
+        // 发送过程中写入超过容量上限，已读出的首个分段被丢弃
+        long dropped = store.getDroppedCount();
+        while (store.getDroppedCount() == dropped) {
+            assertTrue(store.append("PRODUCT/device/data", message(next++)));
+        }
+        int remaining = store.size();
+        TXOfflineMessageStore.ReplayBatch pending = store.peek(1);
+        store.commit(sent.getEndPosition());
+
+        // 未发送过的消息不能被确认
+        assertEquals(remaining, store.size());
+        assertEquals(new String(pending.getMessage(0).getPayload()),
+                new String(store.peek(1).getMessage(0).getPayload()));
+        int expected = Integer.parseInt(new String(pending.getMessage(0).getPayload()).substring("payload-".length()));
+        while (!store.isEmpty()) {
+            TXOfflineMessageStore.ReplayBatch batch = store.peek(16);
+            for (int i = 0; i < batch.size(); i++) {
+                assertEquals("payload-" + expected++, new String(batch.getMessage(i).getPayload()));
+            }
+            store.commit(batch.getEndPosition());
+        }
+        assertEquals(next, expected);
+        assertEquals(0, store.getBytes());
+        store.close();
+    }
+
+    /**
+     * 持续离线写入及重连后读出的吞吐量：-Dbenchmark=true
+     */
+    @Test
+    public void benchmarkThroughput() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        TXOfflineMessageStore store = new TXOfflineMessageStore(folder.newFolder(), 512L * 1024 * 1024,
+                TXOfflineMessageStore.DropPolicy.DROP_OLDEST);
+        MqttMessage message = new MqttMessage(new byte[256]);
+        int count = 200000;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            store.append("PRODUCT/device/data", message);
+        }
+        long writeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int drained = 0;
+        while (!store.isEmpty()) {
+            TXOfflineMessageStore.ReplayBatch batch = store.peek(64);
+            drained += batch.size();
+            store.commit(batch.getEndPosition());
+        }
+        long drainNanos = System.nanoTime() - start;
+        store.close();
+
+        assertEquals(count, drained);
+        System.out.println(String.format("offline write: %.0f msgs/s, drain: %.0f msgs/s (256 byte payload)",
+                count * 1e9 / writeNanos, count * 1e9 / drainNanos));
+    }
+}
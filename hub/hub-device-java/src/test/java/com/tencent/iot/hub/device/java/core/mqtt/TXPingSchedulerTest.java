@@ -0,0 +1,48 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 时间轮心跳定时器测试
+ */
+public class TXPingSchedulerTest {
+
+    @Test
+    public void testScheduleAndCancel() throws Exception {
+        TXPingScheduler scheduler = new TXPingScheduler("test-ping-wheel");
+        int count = 10000;
+        final CountDownLatch latch = new CountDownLatch(count / 2);
+        final AtomicInteger fired = new AtomicInteger(0);
+        final AtomicInteger early = new AtomicInteger(0);
+
+        for (int i = 0; i < count; i++) {
+            final long delay = 100 + (i % 10) * 50;
+            final long scheduledAt = System.currentTimeMillis();
+            TXPingScheduler.Timeout timeout = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (System.currentTimeMillis() - scheduledAt < delay - TXPingScheduler.TICK_MILLIS) {
+                        early.incrementAndGet();
+                    }
+                    fired.incrementAndGet();
+                    latch.countDown();
+                }
+            }, delay);
+            if (i % 2 == 1) {
+                timeout.cancel();
+            }
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(700);
+        assertEquals(count / 2, fired.get());
+        assertEquals(0, early.get());
+    }
+}
@@ -0,0 +1,210 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class TXProgressReporterTest {
+
+    private static class RecordingSender implements TXProgressReporter.Sender {
+        final String name;
+        final List<String> log;
+
+        RecordingSender(String name, List<String> log) {
+            this.name = name;
+            this.log = log;
+        }
+
+        @Override
+        public void send(int percent, String version) {
+            log.add(name + ":" + percent);
+        }
+    }
+
+    /**
+     * 手动推进的时钟，到期的延后任务在推进时间的线程中执行
+     */
+    private static class ManualClock implements TXProgressReporter.Clock {
+        private final List<Long> mDue = new ArrayList<>();
+        private final List<Runnable> mTasks = new ArrayList<>();
+        private long mNow = 0;
+
+        @Override
+        public synchronized long nanoTime() {
+            return mNow;
+        }
+
+        @Override
+        public synchronized void schedule(Runnable task, long delayNanos) {
+            mDue.add(mNow + delayNanos);
+            mTasks.add(task);
+        }
+
+        void advance(long millis) {
+            long target;
+            synchronized (this) {
+                target = mNow + TimeUnit.MILLISECONDS.toNanos(millis);
+            }
+            while (true) {
+                Runnable task = null;
+                synchronized (this) {
+                    int next = -1;
+                    for (int i = 0; i < mDue.size(); i++) {
+                        if (mDue.get(i) <= target && (next < 0 || mDue.get(i) < mDue.get(next))) {
+                            next = i;
+                        }
+                    }
+                    if (next < 0) {
+                        mNow = target;
+                        return;
+                    }
+                    mNow = Math.max(mNow, mDue.remove(next));
+                    task = mTasks.remove(next);
+                }
+                task.run();
+            }
+        }
+    }
+
+    @Test
+    public void testCoalesceToLatest() {
+        List<String> log = new ArrayList<>();
+        ManualClock clock = new ManualClock();
+        TXProgressReporter reporter = new TXProgressReporter(10, clock);
+        RecordingSender sender = new RecordingSender("a", log);
+
+        for (int percent = 1; percent <= 100; percent++) {
+            reporter.report("a", percent, "1.0", sender);
+        }
+        // 第一条立即发送，其余合并为最新的一条在 100ms 后发送
+        assertEquals(Collections.singletonList("a:1"), log);
+        clock.advance(99);
+        assertEquals(1, log.size());
+        clock.advance(1);
+        assertEquals(Arrays.asList("a:1", "a:100"), log);
+        assertEquals(98, reporter.getCoalescedCount());
+        assertEquals(2, reporter.getSentCount());
+    }
+
+    @Test
+    public void testRoundRobinAndCancel() {
+        List<String> log = new ArrayList<>();
+        ManualClock clock = new ManualClock();
+        TXProgressReporter reporter = new TXProgressReporter(20, clock);
+
+        reporter.report("a", 1, "1.0", new RecordingSender("a", log));
+        reporter.report("b", 1, "1.0", new RecordingSender("b", log));
+        reporter.report("c", 1, "1.0", new RecordingSender("c", log));
+        reporter.report("b", 5, "1.0", new RecordingSender("b", log));
+        reporter.report("d", 1, "1.0", new RecordingSender("d", log));
+        reporter.cancel("c");
+        clock.advance(50);
+        assertEquals(Arrays.asList("a:1", "b:5"), log);
+        clock.advance(1000);
+
+        // b 合并后保持最早的排队位置，取消的 c 不再发送
+        assertEquals(Arrays.asList("a:1", "b:5", "d:1"), log);
+    }
+
+    @Test
+    public void testCancelWaitsForSendInProgress() throws Exception {
+        final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch sending = new CountDownLatch(1);
+        TXProgressReporter reporter = new TXProgressReporter(20);
+        TXProgressReporter.Sender slow = new TXProgressReporter.Sender() {
+            @Override
+            public void send(int percent, String version) {
+                if (percent == 50) {
+                    sending.countDown();
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                log.add("a:" + percent);
+            }
+        };
+
+        reporter.report("a", 1, "1.0", slow);
+        reporter.report("a", 50, "1.0", slow);
+        // 上报线程已取出进度正在发送时取消，最终状态必须排在这条进度之后
+        assertTrue(sending.await(1, TimeUnit.SECONDS));
+        reporter.cancel("a");
+        log.add("a:done");
+        Thread.sleep(200);
+
+        assertEquals(3, log.size());
+        assertEquals("a:50", log.get(1));
+        assertEquals("a:done", log.get(2));
+    }
+
+    @Test
+    public void testRateAcrossManyDownloads() {
+        final int jobs = 50;
+        final int maxPerSecond = 20;
+        List<String> log = new ArrayList<>();
+        ManualClock clock = new ManualClock();
+        TXProgressReporter reporter = new TXProgressReporter(maxPerSecond, clock);
+        List<RecordingSender> senders = new ArrayList<>();
+        for (int i = 0; i < jobs; i++) {
+            senders.add(new RecordingSender("job" + i, log));
+        }
+
+        // 50 个任务并发下载 1 秒，每个任务每 10ms 进度加 1
+        for (int percent = 1; percent <= 100; percent++) {
+            for (int i = 0; i < jobs; i++) {
+                reporter.report("job" + i, percent, "1.0", senders.get(i));
+            }
+            clock.advance(10);
+        }
+
+        // 第一条立即发送，之后每 50ms 一条，按最早未发送的顺序轮流发送各任务的最新进度
+        assertEquals(1 + 1000 / (1000 / maxPerSecond), log.size());
+        for (int i = 0; i < log.size(); i++) {
+            int sentAt = i * (1000 / maxPerSecond);
+            assertEquals("job" + i + ":" + (i == 0 ? 1 : sentAt / 10), log.get(i));
+        }
+    }
+
+    /**
+     * 实际时钟下多个任务同时下载的上报消息数：-Dbenchmark=true
+     */
+    @Test
+    public void benchmarkRateAcrossManyDownloads() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        final int jobs = 50;
+        final int maxPerSecond = 20;
+        List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        TXProgressReporter reporter = new TXProgressReporter(maxPerSecond);
+        List<RecordingSender> senders = new ArrayList<>();
+        for (int i = 0; i < jobs; i++) {
+            senders.add(new RecordingSender("job" + i, log));
+        }
+
+        long start = System.currentTimeMillis();
+        int reports = 0;
+        for (int percent = 1; percent <= 100; percent++) {
+            for (int i = 0; i < jobs; i++) {
+                reporter.report("job" + i, percent, "1.0", senders.get(i));
+                reports++;
+            }
+            Thread.sleep(10);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println(String.format("%d jobs, %d progress updates in %d ms -> %d MQTT publishes (%d coalesced)",
+                jobs, reports, elapsed, log.size(), reporter.getCoalescedCount()));
+        for (int i = 0; i < jobs; i++) {
+            reporter.cancel("job" + i);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.core.common.Status;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 批量发布窗口测试：在途上限、按序返回结果、背压
+ */
+public class TXPublishWindowTest {
+
+    /**
+     * 只记录发送，由测试手动确认完成
+     */
+    private static class ManualSender implements TXPublishWindow.Sender {
+        final Deque<TXPublishWindow.Ticket> inflight = new ArrayDeque<>();
+        int maxInflight = 0;
+
+        @Override
+        public void send(String topic, MqttMessage message, TXPublishWindow.Ticket ticket) throws Exception {
+            if (topic.endsWith("fail")) {
+                throw new Exception("send failed");
+            }
+            inflight.add(ticket);
+            maxInflight = Math.max(maxInflight, inflight.size());
+        }
+    }
+
+    private static class ResultHolder implements TXPublishBatchCallBack {
+        final AtomicReference<Status> status = new AtomicReference<>();
+        final AtomicReference<Status[]> results = new AtomicReference<>();
+
+        @Override
+        public void onBatchCompleted(Status status, Status[] results, Object userContext) {
+            this.status.set(status);
+            this.results.set(results);
+        }
+    }
+
+    @Test
+    public void testPipelineWithinWindow() {
+        TXPublishWindow window = new TXPublishWindow(3, 100);
+        ManualSender sender = new ManualSender();
+        ResultHolder holder = new ResultHolder();
+
+        TXPublishBatch batch = new TXPublishBatch();
+        for (int i = 0; i < 10; i++) {
+            batch.add("PRODUCT/device/data" + i, new MqttMessage(new byte[] {(byte) i}));
+        }
+        assertEquals(Status.OK, window.submit(batch, sender, holder, null));
+        assertEquals(3, window.getInflightCount());
+        assertEquals(7, window.getPendingCount());
+
+        boolean success = true;
+        while (!sender.inflight.isEmpty()) {
+            sender.inflight.poll().complete(success);
+            success = !success;
+        }
+
+        assertEquals(3, sender.maxInflight);
+        assertEquals(0, window.getInflightCount());
+        assertEquals(Status.ERROR, holder.status.get());
+        Status[] results = holder.results.get();
+        assertNotNull(results);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(i % 2 == 0 ? Status.OK : Status.ERROR, results[i]);
+        }
+    }
+
+    @Test
+    public void testSendFailure() {
+        TXPublishWindow window = new TXPublishWindow(2, 100);
+        ManualSender sender = new ManualSender();
+        ResultHolder holder = new ResultHolder();
+
+        TXPublishBatch batch = new TXPublishBatch()
+                .add("PRODUCT/device/fail", new MqttMessage())
+                .add("PRODUCT/device/ok", new MqttMessage());
+        window.submit(batch, sender, holder, null);
+        assertNull(holder.status.get());
+        sender.inflight.poll().complete(true);
+        assertArrayEquals(new Status[] {Status.ERROR, Status.OK}, holder.results.get());
+    }
+
+    @Test
+    public void testBackPressure() {
+        TXPublishWindow window = new TXPublishWindow(1, 5);
+        ManualSender sender = new ManualSender();
+
+        assertEquals(Status.OK, window.submit(batchOf(5), sender, null, null));
+        assertEquals(4, window.getPendingCount());
+        assertEquals(Status.ERR_MAX_APPENDING_REQUEST, window.submit(batchOf(2), sender, null, null));
+
+        sender.inflight.poll().complete(true);
+        assertEquals(3, window.getPendingCount());
+        assertEquals(Status.OK, window.submit(batchOf(2), sender, null, null));
+    }
+
+    private static TXPublishBatch batchOf(int size) {
+        TXPublishBatch batch = new TXPublishBatch(size);
+        for (int i = 0; i < size; i++) {
+            batch.add("PRODUCT/device/data", new MqttMessage());
+        }
+        return batch;
+    }
+}
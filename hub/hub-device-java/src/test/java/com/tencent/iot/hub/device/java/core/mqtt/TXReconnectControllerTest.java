@@ -0,0 +1,289 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.tencent.iot.hub.device.java.core.common.Status;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TXReconnectControllerTest {
+
+    @Test
+    public void testBackoffRange() {
+        TXExponentialBackoff backoff = new TXExponentialBackoff(100, 5000);
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = backoff.nextDelay();
+            assertTrue(delay >= 100 && delay <= 5000);
+            max = Math.max(max, delay);
+        }
+        assertTrue(max > 2500);
+        backoff.reset();
+        assertTrue(backoff.nextDelay() <= 300);
+    }
+
+    @Test
+    public void testRateLimiter() {
+        TXConnectRateLimiter limiter = new TXConnectRateLimiter(10, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.reserve(0));
+        }
+        long last = 0;
+        for (int i = 0; i < 10; i++) {
+            long wait = limiter.reserve(0);
+            assertTrue(wait > last);
+            last = wait;
+        }
+        assertTrue(last >= 900 && last <= 1100);
+    }
+
+    @Test
+    public void testConcurrentConnectPermits() {
+        TXConnectRateLimiter limiter = new TXConnectRateLimiter(1000, 1000, 2);
+        final List<String> granted = new ArrayList<>();
+        assertTrue(limiter.tryAcquireConnect(null));
+        assertTrue(limiter.tryAcquireConnect(null));
+        assertFalse(limiter.tryAcquireConnect(null));
+        for (final String name : new String[] {"a", "b"}) {
+            assertFalse(limiter.tryAcquireConnect(new Runnable() {
+                @Override
+                public void run() {
+                    granted.add(name);
+                }
+            }));
+        }
+        assertEquals(2, limiter.getConnecting());
+
+        // 归还的许可按排队顺序直接转交
+        limiter.releaseConnect();
+        assertEquals(Collections.singletonList("a"), granted);
+        assertEquals(2, limiter.getConnecting());
+        limiter.setMaxConcurrent(3);
+        assertEquals(2, granted.size());
+        assertEquals(3, limiter.getConnecting());
+        limiter.releaseConnect();
+        limiter.releaseConnect();
+        limiter.releaseConnect();
+        assertEquals(0, limiter.getConnecting());
+    }
+
+    @Test
+    public void testCircuitBreaker() {
+        TXReconnectController controller = new TXReconnectController(new TXExponentialBackoff(10, 100), null, 3, 60000);
+        assertTrue(controller.onDisconnected(false) <= 100);
+        assertTrue(controller.onConnectFailed() <= 100);
+        assertTrue(controller.onConnectFailed() <= 100);
+        assertEquals(60000, controller.onConnectFailed());
+        assertEquals(TXReconnectController.State.OPEN, controller.getState());
+
+        controller.onConnectStarted();
+        assertEquals(TXReconnectController.State.HALF_OPEN, controller.getState());
+        assertEquals(60000, controller.onConnectFailed());
+        assertEquals(TXReconnectController.State.OPEN, controller.getState());
+
+        controller.onConnectStarted();
+        controller.onConnected();
+        assertEquals(TXReconnectController.State.CLOSED, controller.getState());
+        assertEquals(0, controller.getFailureCount());
+    }
+
+    /**
+     * 模拟服务器故障：所有连接断开且服务器拒绝连接一段时间，恢复后统计全部设备重连成功的耗时，
+     * 并检查重连期间的连接速率不超过限速；-Dbenchmark=true 时输出恢复耗时
+     */
+    @Test
+    public void testFleetRecoveryAfterOutage() throws Exception {
+        final int fleetSize = 40;
+        final int connectsPerSecond = 20;
+        final int burst = 5;
+        FakeBroker broker = new FakeBroker();
+        broker.start();
+
+        TXConnectRateLimiter limiter = new TXConnectRateLimiter(connectsPerSecond, burst, 8);
+        final CountDownLatch connected = new CountDownLatch(fleetSize);
+        final CountDownLatch recovered = new CountDownLatch(fleetSize);
+        List<TXMqttConnection> fleet = new ArrayList<>();
+        for (int i = 0; i < fleetSize; i++) {
+            TXMqttConnection connection = new TXMqttConnection("tcp://127.0.0.1:" + broker.getPort(),
+                    "PRODUCT", "dev" + i, null, null, null, new TXMqttActionCallBack() {
+                @Override
+                public void onConnectCompleted(Status status, boolean reconnect, Object userContext, String msg) {
+                    if (status == Status.OK) {
+                        (reconnect ? recovered : connected).countDown();
+                    }
+                }
+
+                @Override
+                public void onConnectionLost(Throwable cause) {
+                }
+
+                @Override
+                public void onDisconnectCompleted(Status status, Object userContext, String msg) {
+                }
+            });
+            connection.setConnectTimeout(2000);
+            connection.setReconnectController(new TXReconnectController(new TXExponentialBackoff(100, 1000),
+                    limiter, 10, 1000));
+            MqttConnectOptions options = new MqttConnectOptions();
+            options.setKeepAliveInterval(60);
+            connection.connectAsync(options, null);
+            fleet.add(connection);
+        }
+        assertTrue(connected.await(10, TimeUnit.SECONDS));
+
+        broker.setDown(true);
+        Thread.sleep(1500);
+        long start = System.currentTimeMillis();
+        broker.setDown(false);
+        boolean allRecovered = recovered.await(30, TimeUnit.SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+        if (Boolean.getBoolean("benchmark")) {
+            System.out.println(String.format("fleet of %d recovered in %d ms after outage, peak connects/s: %d",
+                    fleetSize, elapsed, broker.peakAcceptsPerSecond()));
+        }
+
+        for (TXMqttConnection connection : fleet) {
+            connection.setReconnectController(null);
+            connection.disConnect(null);
+        }
+        broker.stop();
+
+        assertTrue(allRecovered);
+        assertTrue(broker.peakAcceptsPerSecond() <= connectsPerSecond + burst + 2);
+        // 每次连接结束都归还了并发许可
+        assertEquals(0, limiter.getConnecting());
+    }
+
+    /**
+     * 只实现 CONNECT/SUBSCRIBE/PINGREQ 应答的最小 MQTT 服务器
+     */
+    private static class FakeBroker implements Runnable {
+        private final ServerSocket mServer;
+        private final List<Socket> mClients = new CopyOnWriteArrayList<>();
+        private final List<Long> mAccepts = new CopyOnWriteArrayList<>();
+        private volatile boolean mDown = false;
+        private volatile boolean mRecording = false;
+
+        FakeBroker() throws IOException {
+            mServer = new ServerSocket(0, 1024);
+        }
+
+        int getPort() {
+            return mServer.getLocalPort();
+        }
+
+        void start() {
+            Thread thread = new Thread(this, "fake-broker");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() throws IOException {
+            mServer.close();
+            for (Socket socket : mClients) {
+                socket.close();
+            }
+        }
+
+        void setDown(boolean down) throws IOException {
+            mDown = down;
+            if (down) {
+                mRecording = true;
+                for (Socket socket : mClients) {
+                    socket.close();
+                }
+                mClients.clear();
+            }
+        }
+
+        int peakAcceptsPerSecond() {
+            int peak = 0;
+            for (int i = 0; i < mAccepts.size(); i++) {
+                int count = 0;
+                for (int j = i; j < mAccepts.size() && mAccepts.get(j) - mAccepts.get(i) < 1000; j++) {
+                    count++;
+                }
+                peak = Math.max(peak, count);
+            }
+            return peak;
+        }
+
+        @Override
+        public void run() {
+            while (!mServer.isClosed()) {
+                try {
+                    final Socket socket = mServer.accept();
+                    if (mRecording) {
+                        mAccepts.add(System.currentTimeMillis());
+                    }
+                    if (mDown) {
+                        socket.close();
+                        continue;
+                    }
+                    mClients.add(socket);
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                while (true) {
+                    int type = in.readUnsignedByte() >> 4;
+                    int length = 0;
+                    int shift = 0;
+                    int b;
+                    do {
+                        b = in.readUnsignedByte();
+                        length |= (b & 0x7f) << shift;
+                        shift += 7;
+                    } while ((b & 0x80) != 0);
+                    byte[] body = new byte[length];
+                    in.readFully(body);
+                    if (type == 1) {
+                        out.write(new byte[] {0x20, 0x02, 0x00, 0x00});
+                    } else if (type == 8) {
+                        out.write(new byte[] {(byte) 0x90, 0x03, body[0], body[1], 0x00});
+                    } else if (type == 12) {
+                        out.write(new byte[] {(byte) 0xd0, 0x00});
+                    } else if (type == 14) {
+                        socket.close();
+                        return;
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TXSegmentedDownloaderTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    private final byte[] mFirmware = new byte[SEGMENT_SIZE * 10 + 1234];
+    private final AtomicInteger mRangeRequests = new AtomicInteger(0);
+    private volatile long mFailOffset = -1;
+    private volatile boolean mSupportRange = true;
+    private HttpServer mServer;
+    private File mOutput;
+
+    private final TXSegmentedDownloader.ConnectionFactory mFactory = new TXSegmentedDownloader.ConnectionFactory() {
+        @Override
+        public HttpURLConnection open(String url) throws Exception {
+            return (HttpURLConnection) new URL(url).openConnection();
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(1).nextBytes(mFirmware);
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/firmware.bin", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+        mOutput = File.createTempFile("firmware", ".bin");
+        mOutput.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        mOutput.delete();
+        TXSegmentedDownloader.discardState(mOutput.getPath());
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/firmware.bin";
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        OutputStream out = exchange.getResponseBody();
+        if (range == null || !mSupportRange) {
+            exchange.sendResponseHeaders(200, mFirmware.length);
+            out.write(mFirmware);
+            out.close();
+            return;
+        }
+        String[] bounds = range.substring("bytes=".length()).split("-");
+        int start = Integer.parseInt(bounds[0]);
+        int end = bounds.length > 1 ? Integer.parseInt(bounds[1]) : mFirmware.length - 1;
+        if (end > 0) {
+            mRangeRequests.incrementAndGet();
+        }
+        exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + mFirmware.length);
+        exchange.sendResponseHeaders(206, end - start + 1);
+        if (start == mFailOffset) {
+            // 只发送一半数据后断开
+            mFailOffset = -1;
+            out.write(mFirmware, start, (end - start + 1) / 2);
+            exchange.close();
+            return;
+        }
+        out.write(mFirmware, start, end - start + 1);
+        out.close();
+    }
+
+    @Test
+    public void testParallelDownload() throws Exception {
+        final AtomicLong lastProgress = new AtomicLong(0);
+        TXSegmentedDownloader downloader = new TXSegmentedDownloader(mFactory, 4, SEGMENT_SIZE);
+        assertTrue(downloader.download(url(), mOutput.getPath(), new TXSegmentedDownloader.ProgressListener() {
+            @Override
+            public void onProgress(long downloadBytes, long totalBytes) {
+                assertEquals(mFirmware.length, totalBytes);
+                lastProgress.set(downloadBytes);
+            }
+        }));
+
+        assertArrayEquals(mFirmware, Files.readAllBytes(mOutput.toPath()));
+        assertEquals(mFirmware.length, lastProgress.get());
+        assertEquals(11, mRangeRequests.get());
+        assertFalse(new File(mOutput.getPath() + TXSegmentedDownloader.STATE_FILE_SUFFIX).exists());
+    }
+
+    @Test
+    public void testResumeMissingSegments() throws Exception {
+        mFailOffset = SEGMENT_SIZE * 3;
+        TXSegmentedDownloader downloader = new TXSegmentedDownloader(mFactory, 2, SEGMENT_SIZE);
+        try {
+            downloader.download(url(), mOutput.getPath(), null);
+            fail("segment 3 should fail");
+        } catch (Exception e) {
+            // expected
+        }
+        assertTrue(new File(mOutput.getPath() + TXSegmentedDownloader.STATE_FILE_SUFFIX).exists());
+
+        mRangeRequests.set(0);
+        assertTrue(downloader.download(url(), mOutput.getPath(), null));
+        assertArrayEquals(mFirmware, Files.readAllBytes(mOutput.toPath()));
+        // 第二次只下载第一次未完成的分段
+        assertTrue(mRangeRequests.get() >= 1 && mRangeRequests.get() < 11);
+    }
+
+    @Test
+    public void testFallbackWithoutRange() throws Exception {
+        mSupportRange = false;
+        TXSegmentedDownloader downloader = new TXSegmentedDownloader(mFactory, 4, SEGMENT_SIZE);
+        assertFalse(downloader.download(url(), mOutput.getPath(), null));
+        assertFalse(mOutput.exists());
+    }
+}
@@ -0,0 +1,112 @@
+package com.tencent.iot.hub.device.java.core.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 主题路由匹配规则及分发开销测试
+ */
+public class TXTopicRouterTest {
+
+    private static class RecordingHandler implements TXTopicHandler {
+        final List<String> topics = new ArrayList<>();
+        final boolean consume;
+
+        RecordingHandler(boolean consume) {
+            this.consume = consume;
+        }
+
+        @Override
+        public boolean onMessageArrived(String topic, MqttMessage message) {
+            topics.add(topic);
+            return consume;
+        }
+    }
+
+    @Test
+    public void testWildcardMatch() throws Exception {
+        TXTopicRouter router = new TXTopicRouter();
+        RecordingHandler exact = new RecordingHandler(false);
+        RecordingHandler single = new RecordingHandler(false);
+        RecordingHandler multi = new RecordingHandler(true);
+        router.addHandler("$thing/down/property/PID/dev", exact);
+        router.addHandler("$rrpc/rxd/+/+/+", single);
+        router.addHandler("$ota/#", multi);
+
+        assertFalse(router.dispatch("$thing/down/property/PID/dev", new MqttMessage()));
+        assertFalse(router.dispatch("$rrpc/rxd/PID/dev/123", new MqttMessage()));
+        assertFalse(router.dispatch("$rrpc/rxd/PID/dev", new MqttMessage()));
+        assertTrue(router.dispatch("$ota/update/PID/dev", new MqttMessage()));
+        assertTrue(router.dispatch("$ota", new MqttMessage()));
+        assertFalse(router.dispatch("PID/dev/data", new MqttMessage()));
+
+        assertEquals(1, exact.topics.size());
+        assertEquals(1, single.topics.size());
+        assertEquals(2, multi.topics.size());
+    }
+
+    @Test
+    public void testDollarTopicNotMatchedByRootWildcard() {
+        TXTopicRouter router = new TXTopicRouter();
+        RecordingHandler all = new RecordingHandler(false);
+        router.addHandler("#", all);
+        router.addHandler("+/dev/#", all);
+
+        assertEquals(0, router.match("$ota/update/PID/dev").size());
+        assertEquals(1, router.match("PID/dev/data").size());
+    }
+
+    @Test
+    public void testRemoveHandler() {
+        TXTopicRouter router = new TXTopicRouter();
+        RecordingHandler handler = new RecordingHandler(false);
+        router.addHandler("a/+/c", handler);
+        assertEquals(1, router.match("a/b/c").size());
+        assertTrue(router.removeHandler("a/+/c", handler));
+        assertEquals(0, router.match("a/b/c").size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFilter() {
+        new TXTopicRouter().addHandler("a/#/c", new RecordingHandler(false));
+    }
+
+    /**
+     * 分发开销随处理器数量的变化，每次分发只沿主题层级查找一遍，耗时应基本不变：-Dbenchmark=true
+     */
+    @Test
+    public void benchmarkDispatch() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        MqttMessage message = new MqttMessage("{}".getBytes());
+        String topic = "$thing/down/property/PID/dev0";
+        for (int handlers : new int[] {10, 100, 1000, 10000}) {
+            TXTopicRouter router = new TXTopicRouter();
+            RecordingHandler target = new RecordingHandler(false);
+            router.addHandler(topic, target);
+            for (int i = 1; i < handlers; i++) {
+                router.addHandler("$thing/down/property/PID/dev" + i, new RecordingHandler(false));
+            }
+
+            int iterations = 200000;
+            for (int i = 0; i < iterations; i++) {
+                router.dispatch(topic, message);
+            }
+            target.topics.clear();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                router.dispatch(topic, message);
+            }
+            long elapsed = System.nanoTime() - start;
+            target.topics.clear();
+            System.out.println(String.format("handlers: %d, dispatch: %.1f ns/op", handlers, (double) elapsed / iterations));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.tencent.iot.hub.device.java.core.shadow;
+
+import com.tencent.iot.hub.device.java.core.common.Status;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TXShadowCoalescerTest {
+
+	private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1);
+
+	@After
+	public void tearDown() {
+		mExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testBurstMergedLastWriterWins() throws Exception {
+		RecordingFlusher flusher = new RecordingFlusher();
+		TXShadowCoalescer coalescer = new TXShadowCoalescer(flusher, 200, 1000, mExecutor);
+
+		for (int i = 0; i < 10; i++) {
+			Map<String, Object> values = new LinkedHashMap<>();
+			values.put("brightness", i);
+			values.put("p" + i, true);
+			coalescer.submit(values, "ctx-" + i);
+		}
+		Thread.sleep(500);
+
+		assertEquals(1, flusher.flushes.size());
+		Map<String, Object> document = flusher.flushes.get(0);
+		assertEquals(11, document.size());
+		assertEquals(9, document.get("brightness"));
+		assertEquals("ctx-9", flusher.contexts.get(0));
+		assertEquals(10, coalescer.getRequestCount());
+		assertEquals(1, coalescer.getFlushCount());
+		assertEquals(9, coalescer.getMergedCount());
+		assertEquals(10.0, coalescer.getMergeRatio(), 0.001);
+	}
+
+	@Test
+	public void testMaxLatencyBound() throws Exception {
+		RecordingFlusher flusher = new RecordingFlusher();
+		TXShadowCoalescer coalescer = new TXShadowCoalescer(flusher, 100, 300, mExecutor);
+
+		// 持续上报时窗口不断顺延，由最长延迟保证按时发送
+		long start = System.currentTimeMillis();
+		while (System.currentTimeMillis() - start < 1000) {
+			coalescer.submit(Collections.<String, Object>singletonMap("temperature", 25), null);
+			Thread.sleep(20);
+		}
+		coalescer.close();
+
+		assertTrue(flusher.flushes.size() >= 3);
+		assertTrue(coalescer.getMergeRatio() > 5);
+	}
+
+	@Test
+	public void testFailedFlushRequeued() throws Exception {
+		RecordingFlusher flusher = new RecordingFlusher();
+		flusher.failures = 1;
+		TXShadowCoalescer coalescer = new TXShadowCoalescer(flusher, 50, 100, mExecutor);
+
+		Map<String, Object> values = new LinkedHashMap<>();
+		values.put("a", 1);
+		values.put("b", 1);
+		coalescer.submit(values, null);
+		Thread.sleep(80);
+		coalescer.submit(Collections.<String, Object>singletonMap("a", 2), null);
+		Thread.sleep(300);
+
+		assertEquals(2, flusher.flushes.size());
+		Map<String, Object> resent = flusher.flushes.get(1);
+		assertEquals(2, resent.get("a"));
+		assertEquals(1, resent.get("b"));
+	}
+
+	@Test
+	public void testCloseFlushesImmediately() {
+		RecordingFlusher flusher = new RecordingFlusher();
+		TXShadowCoalescer coalescer = new TXShadowCoalescer(flusher, 10000, 10000, mExecutor);
+		coalescer.submit(Collections.<String, Object>singletonMap("a", 1), null);
+		assertEquals(Status.OK, coalescer.close());
+		assertEquals(1, flusher.flushes.size());
+		assertEquals(Status.OK, coalescer.flush());
+		assertEquals(1, flusher.flushes.size());
+	}
+
+	private static class RecordingFlusher implements TXShadowCoalescer.Flusher {
+		final List<Map<String, Object>> flushes = Collections.synchronizedList(new ArrayList<Map<String, Object>>());
+		final List<Object> contexts = Collections.synchronizedList(new ArrayList<Object>());
+		volatile int failures = 0;
+
+		@Override
+		public Status flush(Map<String, Object> values, Object userContext) {
+			flushes.add(new LinkedHashMap<>(values));
+			contexts.add(userContext);
+			if (failures > 0) {
+				failures--;
+				return Status.MQTT_NO_CONN;
+			}
+			return Status.OK;
+		}
+	}
+}
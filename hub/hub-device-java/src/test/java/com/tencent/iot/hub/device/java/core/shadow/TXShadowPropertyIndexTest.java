@@ -0,0 +1,193 @@
+package com.tencent.iot.hub.device.java.core.shadow;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+public class TXShadowPropertyIndexTest {
+
+	@Test
+	public void testApplyOnlyRegisteredKeysInDelta() throws Exception {
+		TXShadowPropertyIndex index = new TXShadowPropertyIndex();
+		DeviceProperty brightness = new DeviceProperty("brightness", "0", TXShadowConstants.JSONDataType.INT);
+		DeviceProperty power = new DeviceProperty("power", "false", TXShadowConstants.JSONDataType.BOOLEAN);
+		DeviceProperty ratio = new DeviceProperty("ratio", "0", TXShadowConstants.JSONDataType.DOUBLE);
+		DeviceProperty name = new DeviceProperty("name", "", TXShadowConstants.JSONDataType.STRING);
+		index.register(brightness);
+		index.register(power);
+		index.register(ratio);
+		index.register(name);
+		index.unregister(name);
+
+		List<DeviceProperty> updated = index.apply(new JSONObject(
+				"{\"brightness\":80,\"power\":true,\"name\":\"lamp\",\"unknown\":1}"));
+		assertEquals(2, updated.size());
+		assertEquals(80, brightness.mData);
+		assertEquals(true, power.mData);
+		assertEquals("", name.mData);
+
+		// 注册后修改值类型
+		ratio.dataType(TXShadowConstants.JSONDataType.STRING);
+		updated = index.apply(new JSONObject("{\"ratio\":\"0.5\",\"brightness\":\"bad\"}"));
+		assertEquals(1, updated.size());
+		assertSame(ratio, updated.get(0));
+		assertEquals("0.5", ratio.mData);
+		assertEquals(80, brightness.mData);
+	}
+
+	/**
+	 * 记录解析完成后被读取的键
+	 */
+	private static class TrackingJSONObject extends JSONObject {
+		/** 父类构造函数解析时也会调用 opt，此时字段尚未初始化 */
+		final Set<String> accessed = new HashSet<>();
+
+		TrackingJSONObject(String source) {
+			super(source);
+		}
+
+		private void track(String key) {
+			if (accessed != null) {
+				accessed.add(key);
+			}
+		}
+
+		@Override
+		public Object get(String key) {
+			track(key);
+			return super.get(key);
+		}
+
+		@Override
+		public Object opt(String key) {
+			track(key);
+			return super.opt(key);
+		}
+
+		@Override
+		public boolean has(String key) {
+			track(key);
+			return super.has(key);
+		}
+	}
+
+	private static TXShadowPropertyIndex registerProperties(HashMap<String, DeviceProperty> registered) {
+		TXShadowPropertyIndex index = new TXShadowPropertyIndex();
+		for (int i = 0; i < 500; i++) {
+			DeviceProperty property = new DeviceProperty("property" + i, "0", TXShadowConstants.JSONDataType.values()[i % 6]);
+			index.register(property);
+			registered.put(property.mKey, property);
+		}
+		return index;
+	}
+
+	@Test
+	public void testDecodeOnlyKeysInDelta() throws Exception {
+		HashMap<String, DeviceProperty> registered = new HashMap<>();
+		TXShadowPropertyIndex index = registerProperties(registered);
+		String delta = "{\"property12\":10,\"property255\":2.5,\"property497\":\"x\"}";
+
+		// 500 个已注册属性中只读取 delta 里的 3 个，原先的实现对每个已注册属性都查询一次
+		TrackingJSONObject state = new TrackingJSONObject(delta);
+		assertEquals(3, index.apply(state).size());
+		assertEquals(new HashSet<>(Arrays.asList("property12", "property255", "property497")), state.accessed);
+
+		state = new TrackingJSONObject(delta);
+		assertEquals(3, scanAll(registered, state).size());
+		assertEquals(registered.keySet(), state.accessed);
+	}
+
+	/**
+	 * 500 个已注册属性、delta 中 3 个属性时，对比原先遍历全部已注册属性的实现：-Dbenchmark=true
+	 */
+	@Test
+	public void benchmarkDeltaDispatch() throws Exception {
+		assumeTrue(Boolean.getBoolean("benchmark"));
+		HashMap<String, DeviceProperty> registered = new HashMap<>();
+		TXShadowPropertyIndex index = registerProperties(registered);
+		JSONObject state = new JSONObject("{\"property12\":10,\"property255\":2.5,\"property497\":\"x\"}");
+
+		// 关闭 debug 日志，与设备上的默认配置一致
+		Level level = LogManager.getRootLogger().getLevel();
+		LogManager.getRootLogger().setLevel(Level.INFO);
+		int iterations = 200000;
+		long indexed;
+		long scanned;
+		try {
+			for (int i = 0; i < iterations / 10; i++) {
+				index.apply(state);
+				scanAll(registered, state);
+			}
+
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				index.apply(state);
+			}
+			indexed = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				scanAll(registered, state);
+			}
+			scanned = System.nanoTime() - start;
+		} finally {
+			LogManager.getRootLogger().setLevel(level);
+		}
+
+		System.out.println(String.format("delta dispatch: indexed %.0f ns/message, scan all %.0f ns/message",
+				(double) indexed / iterations, (double) scanned / iterations));
+	}
+
+	/**
+	 * 原先的实现：遍历全部已注册属性，每个属性取值两次并生成调试信息
+	 */
+	private static List<DeviceProperty> scanAll(HashMap<String, DeviceProperty> registered, JSONObject stateObj) {
+		List<DeviceProperty> propertyList = new ArrayList<>();
+		try {
+			Iterator<String> it = registered.keySet().iterator();
+			while (it.hasNext()) {
+				DeviceProperty property = registered.get(it.next());
+
+				if (stateObj.has(property.mKey)) {
+					String value = "";
+					if (TXShadowConstants.JSONDataType.INT == property.mDataType) {
+						property.data(stateObj.getInt(property.mKey));
+						value = String.valueOf(stateObj.getInt(property.mKey));
+					} else if (TXShadowConstants.JSONDataType.LONG == property.mDataType) {
+						property.data(stateObj.getLong(property.mKey));
+						value = String.valueOf(stateObj.getLong(property.mKey));
+					} else if (TXShadowConstants.JSONDataType.FLOAT == property.mDataType) {
+						property.data(stateObj.getFloat(property.mKey));
+						value = String.valueOf(stateObj.getFloat(property.mKey));
+					} else if (TXShadowConstants.JSONDataType.DOUBLE == property.mDataType) {
+						property.data(stateObj.getDouble(property.mKey));
+						value = String.valueOf(stateObj.getDouble(property.mKey));
+					} else if (TXShadowConstants.JSONDataType.BOOLEAN == property.mDataType) {
+						property.data(stateObj.getBoolean(property.mKey));
+						value = String.valueOf(stateObj.getBoolean(property.mKey));
+					} else {
+						property.data(stateObj.getString(property.mKey));
+						value = String.valueOf(stateObj.getString(property.mKey));
+					}
+					propertyList.add(property);
+					String.format("******%s, %s", property.mKey, value);
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return propertyList;
+	}
+}
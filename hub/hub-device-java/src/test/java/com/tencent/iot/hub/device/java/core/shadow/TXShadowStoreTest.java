@@ -0,0 +1,123 @@
+package com.tencent.iot.hub.device.java.core.shadow;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TXShadowStoreTest {
+
+	@Test
+	public void testOnlyChangedPropertiesSentAfterAck() {
+		TXShadowStore store = new TXShadowStore();
+		Map<String, Object> values = properties(40, 25);
+
+		assertEquals(40, store.prepareUpdate("t-0", values, 0).size());
+		// 尚未应答时不重复发送
+		assertTrue(store.prepareUpdate("t-1", values, 1).isEmpty());
+		store.onUpdateAck("t-0", 0, 3);
+		assertEquals(3, store.getVersion());
+		assertEquals(40, store.getReportedCount());
+		assertEquals("25", store.getReported("p0"));
+
+		values.put("p7", 26);
+		Map<String, Object> changed = store.prepareUpdate("t-2", values, 2);
+		assertEquals(1, changed.size());
+		assertEquals(26, changed.get("p7"));
+		store.onUpdateAck("t-2", 0, 4);
+		assertTrue(store.prepareUpdate("t-3", values, 3).isEmpty());
+		assertEquals(0, store.getPendingCount());
+		assertEquals(41, store.getSentCount());
+		assertEquals(40 + 39 + 40, store.getSkippedCount());
+	}
+
+	@Test
+	public void testRejectedCancelledAndExpiredUpdatesResent() {
+		TXShadowStore store = new TXShadowStore();
+		store.setPendingTimeout(1000);
+		Map<String, Object> values = properties(2, true);
+
+		assertEquals(2, store.prepareUpdate("t-0", values, 0).size());
+		store.onUpdateAck("t-0", 5005, -1);
+		assertEquals(0, store.getReportedCount());
+		assertEquals(0, store.getVersion());
+
+		assertEquals(2, store.prepareUpdate("t-1", values, 0).size());
+		store.cancelUpdate("t-1");
+		assertEquals(2, store.prepareUpdate("t-2", values, 0).size());
+
+		// 应答丢失，超时后重新发送
+		assertTrue(store.prepareUpdate("t-3", values, 999).isEmpty());
+		assertEquals(2, store.prepareUpdate("t-4", values, 1000).size());
+		// 超时的应答迟到时不再提交
+		store.onUpdateAck("t-2", 0, 1);
+		assertEquals(0, store.getReportedCount());
+		store.onUpdateAck("t-4", 0, 2);
+		assertEquals(2, store.getReportedCount());
+	}
+
+	@Test
+	public void testNewerValueWhileInFlight() {
+		TXShadowStore store = new TXShadowStore();
+		Map<String, Object> values = new LinkedHashMap<>();
+		values.put("temperature", 1.5f);
+		store.prepareUpdate("t-0", values, 0);
+		values.put("temperature", 2.5f);
+		assertEquals(1, store.prepareUpdate("t-1", values, 0).size());
+
+		store.onUpdateAck("t-0", 0, 1);
+		assertEquals("1.5", store.getReported("temperature"));
+		// 后发送的值仍在等待应答，不重复发送
+		assertTrue(store.prepareUpdate("t-2", values, 0).isEmpty());
+		store.onUpdateAck("t-1", 0, 2);
+		assertEquals("2.5", store.getReported("temperature"));
+	}
+
+	@Test
+	public void testReconcileWithGetAndDelta() throws Exception {
+		TXShadowStore store = new TXShadowStore();
+		store.onGetResponse(new JSONObject("{\"state\":{\"reported\":{\"a\":1,\"b\":\"x\",\"c\":2.5},"
+				+ "\"desired\":{\"a\":2},\"delta\":{\"a\":2}},\"version\":10}"));
+		assertEquals(10, store.getVersion());
+		assertEquals("\"x\"", store.getReported("b"));
+		assertEquals("2", store.getDesired("a"));
+		// delta 中的属性需要重新上报
+		assertNull(store.getReported("a"));
+
+		Map<String, Object> values = new LinkedHashMap<>();
+		values.put("a", 1);
+		values.put("b", "x");
+		values.put("c", 2.5);
+		Map<String, Object> changed = store.prepareUpdate("t-0", values, 0);
+		assertEquals(1, changed.size());
+		assertTrue(changed.containsKey("a"));
+		store.onUpdateAck("t-0", 0, 11);
+
+		assertFalse(store.onDelta(new JSONObject("{\"state\":{\"b\":\"y\"},\"version\":11}")));
+		assertEquals("\"x\"", store.getReported("b"));
+		assertTrue(store.onDelta(new JSONObject("{\"state\":{\"b\":\"y\"},\"version\":12}")));
+		assertEquals(12, store.getVersion());
+		assertEquals("\"y\"", store.getDesired("b"));
+		assertNull(store.getReported("b"));
+		assertEquals(1, store.prepareUpdate("t-1", values, 0).size());
+
+		store.clear();
+		assertEquals(0, store.getVersion());
+		assertEquals(0, store.getPendingCount());
+		assertNull(store.getDesired("b"));
+	}
+
+	private static Map<String, Object> properties(int count, Object value) {
+		Map<String, Object> values = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			values.put("p" + i, value);
+		}
+		return values;
+	}
+}